@@ -43,8 +43,14 @@ class TableDataWriteChannel extends BaseWriteChannel<BigQueryOptions, WriteChann
   protected void flushBuffer(final int length, final boolean last) {
     try {
       runWithRetries(callable(new Runnable() {
+        private boolean attempted;
+
         @Override
         public void run() {
+          if (attempted) {
+            chunkRetried();
+          }
+          attempted = true;
           options().rpc().write(uploadId(), buffer(), 0, position(), length, last);
         }
       }), options().retryParams(), BigQueryImpl.EXCEPTION_HANDLER, options().clock());
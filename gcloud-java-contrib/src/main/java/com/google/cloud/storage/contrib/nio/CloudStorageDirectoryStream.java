@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import com.google.cloud.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.StorageException;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A stream over the entries of a directory, listed with a delimited {@code Storage.list}. While
+ * the entries of a page are iterated, the next page is fetched in the background. Closing the
+ * stream cancels that fetch, and listing failures are thrown as {@link DirectoryIteratorException}.
+ */
+final class CloudStorageDirectoryStream implements DirectoryStream<Path> {
+
+  private final CloudStoragePath directory;
+  private final Page<Blob> firstPage;
+  private final DirectoryStream.Filter<? super Path> filter;
+  private final ExecutorService executor;
+  private boolean iteratorReturned;
+  private Future<Page<Blob>> nextPage;
+  private volatile boolean closed;
+
+  CloudStorageDirectoryStream(CloudStoragePath directory, Page<Blob> firstPage,
+      DirectoryStream.Filter<? super Path> filter, ExecutorService executor) {
+    this.directory = directory;
+    this.firstPage = firstPage;
+    this.filter = filter;
+    this.executor = executor;
+  }
+
+  @Override
+  public synchronized Iterator<Path> iterator() {
+    if (closed) {
+      throw new IllegalStateException("Directory stream is closed");
+    }
+    if (iteratorReturned) {
+      throw new IllegalStateException("Iterator already returned");
+    }
+    iteratorReturned = true;
+    prefetch(firstPage);
+    return new AbstractIterator<Path>() {
+
+      private Iterator<Blob> blobs = firstPage.values().iterator();
+
+      @Override
+      protected Path computeNext() {
+        while (!closed) {
+          while (blobs.hasNext()) {
+            Path entry = toEntry(blobs.next());
+            if (entry != null && accept(entry)) {
+              return entry;
+            }
+          }
+          Page<Blob> page = awaitNextPage();
+          if (page == null) {
+            break;
+          }
+          blobs = page.values().iterator();
+          prefetch(page);
+        }
+        return endOfData();
+      }
+    };
+  }
+
+  private synchronized void prefetch(final Page<Blob> page) {
+    if (closed || page.nextPageCursor() == null || page.nextPageCursor().isEmpty()) {
+      nextPage = null;
+      return;
+    }
+    nextPage = executor.submit(new Callable<Page<Blob>>() {
+      @Override
+      public Page<Blob> call() {
+        return page.nextPage();
+      }
+    });
+  }
+
+  /**
+   * Returns the page being fetched, {@code null} if there are no more pages or the stream was
+   * closed.
+   */
+  private Page<Blob> awaitNextPage() {
+    Future<Page<Blob>> page;
+    synchronized (this) {
+      page = nextPage;
+    }
+    if (page == null) {
+      return null;
+    }
+    try {
+      return page.get();
+    } catch (CancellationException ex) {
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DirectoryIteratorException(new IOException(ex));
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof StorageException) {
+        throw new DirectoryIteratorException(CloudStorageFileSystemProvider.translate(
+            (StorageException) ex.getCause(), directory));
+      }
+      throw Throwables.propagate(ex.getCause());
+    }
+  }
+
+  private Path toEntry(Blob blob) {
+    String prefix = directory.directoryPrefix();
+    String name = blob.name();
+    // placeholder blobs named after the directory itself are not entries
+    if (name.length() <= prefix.length()) {
+      return null;
+    }
+    return directory.toAbsolutePath().resolve(name.substring(prefix.length()));
+  }
+
+  private boolean accept(Path entry) {
+    try {
+      return filter == null || filter.accept(entry);
+    } catch (IOException ex) {
+      throw new DirectoryIteratorException(ex);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (nextPage != null) {
+      nextPage.cancel(true);
+      nextPage = null;
+    }
+  }
+}
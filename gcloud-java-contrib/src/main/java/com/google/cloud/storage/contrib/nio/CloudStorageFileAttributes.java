@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Basic attributes of a blob or of a directory in a {@link CloudStorageFileSystem}. The last
+ * modified, last access and creation times of a blob are all its update time.
+ */
+final class CloudStorageFileAttributes implements BasicFileAttributes {
+
+  private static final FileTime EPOCH = FileTime.fromMillis(0);
+
+  private final BlobInfo blob;
+  private final Object fileKey;
+
+  private CloudStorageFileAttributes(BlobInfo blob, Object fileKey) {
+    this.blob = blob;
+    this.fileKey = fileKey;
+  }
+
+  static CloudStorageFileAttributes forBlob(BlobInfo blob) {
+    return new CloudStorageFileAttributes(blob, blob.blobId());
+  }
+
+  static CloudStorageFileAttributes forDirectory(CloudStoragePath path) {
+    return new CloudStorageFileAttributes(null, path.toAbsolutePath());
+  }
+
+  @Override
+  public FileTime lastModifiedTime() {
+    return blob == null || blob.updateTime() == null
+        ? EPOCH : FileTime.from(blob.updateTime(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public FileTime lastAccessTime() {
+    return lastModifiedTime();
+  }
+
+  @Override
+  public FileTime creationTime() {
+    return lastModifiedTime();
+  }
+
+  @Override
+  public boolean isRegularFile() {
+    return blob != null;
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return blob == null;
+  }
+
+  @Override
+  public boolean isSymbolicLink() {
+    return false;
+  }
+
+  @Override
+  public boolean isOther() {
+    return false;
+  }
+
+  @Override
+  public long size() {
+    return blob == null || blob.size() == null ? 0 : blob.size();
+  }
+
+  @Override
+  public Object fileKey() {
+    return fileKey;
+  }
+
+  /**
+   * Returns the attributes by name, as used by {@link java.nio.file.Files#readAttributes(
+   * java.nio.file.Path, String, java.nio.file.LinkOption...)}.
+   */
+  Map<String, Object> toMap() {
+    return ImmutableMap.<String, Object>builder()
+        .put("lastModifiedTime", lastModifiedTime())
+        .put("lastAccessTime", lastAccessTime())
+        .put("creationTime", creationTime())
+        .put("size", size())
+        .put("isRegularFile", isRegularFile())
+        .put("isDirectory", isDirectory())
+        .put("isSymbolicLink", isSymbolicLink())
+        .put("isOther", isOther())
+        .put("fileKey", fileKey())
+        .build();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("fileKey", fileKey)
+        .add("size", size())
+        .add("isDirectory", isDirectory())
+        .toString();
+  }
+}
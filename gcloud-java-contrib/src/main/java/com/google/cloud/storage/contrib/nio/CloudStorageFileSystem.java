@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.storage.Storage;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A file system for the blobs of a Google Cloud Storage bucket. Directories are not stored: a
+ * path is a directory if blobs exist whose names begin with the path followed by {@code /}.
+ * Closing a file system has no effect, all operations go through the {@link Storage} object of
+ * its provider.
+ *
+ * <p>Example of reading a blob through the file system:
+ * <pre> {@code
+ * CloudStorageFileSystem fileSystem = CloudStorageFileSystem.forBucket("bucket");
+ * byte[] content = Files.readAllBytes(fileSystem.getPath("/dir/file.txt"));
+ * }</pre>
+ *
+ * <p>The same file system is obtained through {@code Paths.get(URI.create("gs://bucket/"))}.
+ */
+public final class CloudStorageFileSystem extends FileSystem {
+
+  static final String SEPARATOR = "/";
+  private static final Set<String> SUPPORTED_VIEWS = ImmutableSet.of("basic");
+
+  private final CloudStorageFileSystemProvider provider;
+  private final String bucket;
+
+  CloudStorageFileSystem(CloudStorageFileSystemProvider provider, String bucket) {
+    checkArgument(bucket != null && !bucket.isEmpty() && !bucket.contains(SEPARATOR),
+        "Invalid bucket name: %s", bucket);
+    this.provider = checkNotNull(provider);
+    this.bucket = bucket;
+  }
+
+  /**
+   * Returns a file system for {@code bucket} that uses the default {@link Storage} service.
+   */
+  public static CloudStorageFileSystem forBucket(String bucket) {
+    return new CloudStorageFileSystem(CloudStorageFileSystemProvider.defaultProvider(), bucket);
+  }
+
+  /**
+   * Returns a file system for {@code bucket} that uses the provided {@link Storage} service.
+   */
+  public static CloudStorageFileSystem forBucket(String bucket, Storage storage) {
+    return new CloudStorageFileSystem(new CloudStorageFileSystemProvider(storage), bucket);
+  }
+
+  /**
+   * Returns the name of the bucket this file system refers to.
+   */
+  public String bucket() {
+    return bucket;
+  }
+
+  @Override
+  public CloudStorageFileSystemProvider provider() {
+    return provider;
+  }
+
+  @Override
+  public void close() {
+    // nothing to release, see class documentation
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return false;
+  }
+
+  @Override
+  public String getSeparator() {
+    return SEPARATOR;
+  }
+
+  @Override
+  public Iterable<Path> getRootDirectories() {
+    return ImmutableList.<Path>of(getPath(SEPARATOR));
+  }
+
+  @Override
+  public Iterable<FileStore> getFileStores() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public Set<String> supportedFileAttributeViews() {
+    return SUPPORTED_VIEWS;
+  }
+
+  @Override
+  public CloudStoragePath getPath(String first, String... more) {
+    return CloudStoragePath.of(this, first, more);
+  }
+
+  /**
+   * Returns a path matcher using the syntax and patterns of the default file system, applied to
+   * the string representation of paths.
+   */
+  @Override
+  public PathMatcher getPathMatcher(String syntaxAndPattern) {
+    final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path path) {
+        return matcher.matches(Paths.get(path.toString()));
+      }
+    };
+  }
+
+  @Override
+  public UserPrincipalLookupService getUserPrincipalLookupService() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public WatchService newWatchService() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(provider, bucket);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof CloudStorageFileSystem)) {
+      return false;
+    }
+    CloudStorageFileSystem other = (CloudStorageFileSystem) obj;
+    return provider.equals(other.provider) && bucket.equals(other.bucket);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("bucket", bucket).toString();
+  }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_PRECON_FAILED;
+
+import com.google.cloud.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobBlockCache;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link FileSystemProvider} for Google Cloud Storage, registered for the {@code gs} URI
+ * scheme. A URI such as {@code gs://bucket/dir/file.txt} identifies the blob {@code dir/file.txt}
+ * of the bucket {@code bucket}, so existing NIO code can read and write blobs without staging
+ * them to local disk:
+ * <pre> {@code
+ * Path path = Paths.get(URI.create("gs://bucket/dir/file.txt"));
+ * try (InputStream input = Files.newInputStream(path)) {
+ *   // read the blob
+ * }
+ * }</pre>
+ *
+ * <p>Channels opened for reading fetch the blob in blocks through a {@link BlobBlockCache}
+ * shared by all channels of the provider, with read-ahead for sequential reads. Channels opened
+ * for writing upload the blob through a {@link com.google.cloud.WriteChannel} and can only be
+ * written sequentially. Directory streams list blobs with a delimiter, fetching the next page of
+ * the listing in the background. {@link java.nio.file.Files#copy(Path, Path, CopyOption...)}
+ * and {@link java.nio.file.Files#move(Path, Path, CopyOption...)} between Cloud Storage paths
+ * are done server-side.
+ *
+ * <p>Providers created with the no-argument constructor, as done by the service loader, use the
+ * {@link Storage} service of {@link StorageOptions#defaultInstance()}.
+ */
+public final class CloudStorageFileSystemProvider extends FileSystemProvider {
+
+  /**
+   * The URI scheme of Cloud Storage paths.
+   */
+  public static final String SCHEME = "gs";
+
+  private static final int DIRECTORY_PAGE_SIZE = 1000;
+  private static CloudStorageFileSystemProvider defaultProvider;
+
+  private final Storage suppliedStorage;
+  private final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("gcs-nio-prefetch-%d")
+          .build());
+  private Storage storage;
+  private BlobBlockCache blockCache;
+
+  /**
+   * Creates a provider that uses the {@link Storage} service of
+   * {@link StorageOptions#defaultInstance()}, created on first use.
+   */
+  public CloudStorageFileSystemProvider() {
+    this.suppliedStorage = null;
+  }
+
+  /**
+   * Creates a provider that uses the provided {@link Storage} service.
+   */
+  public CloudStorageFileSystemProvider(Storage storage) {
+    this.suppliedStorage = checkNotNull(storage);
+  }
+
+  /**
+   * Returns the provider installed for the {@code gs} scheme, or a shared provider if none is
+   * installed.
+   */
+  static synchronized CloudStorageFileSystemProvider defaultProvider() {
+    if (defaultProvider == null) {
+      for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+        if (provider instanceof CloudStorageFileSystemProvider) {
+          defaultProvider = (CloudStorageFileSystemProvider) provider;
+        }
+      }
+      if (defaultProvider == null) {
+        defaultProvider = new CloudStorageFileSystemProvider();
+      }
+    }
+    return defaultProvider;
+  }
+
+  @VisibleForTesting
+  synchronized Storage storage() {
+    if (storage == null) {
+      storage = suppliedStorage != null
+          ? suppliedStorage : StorageOptions.defaultInstance().service();
+      blockCache = BlobBlockCache.builder(storage).build();
+    }
+    return storage;
+  }
+
+  private synchronized BlobBlockCache blockCache() {
+    storage();
+    return blockCache;
+  }
+
+  @Override
+  public String getScheme() {
+    return SCHEME;
+  }
+
+  private String bucket(URI uri) {
+    checkArgument(SCHEME.equalsIgnoreCase(uri.getScheme()),
+        "URI scheme must be %s: %s", SCHEME, uri);
+    checkArgument(uri.getHost() != null, "URI must have a bucket: %s", uri);
+    return uri.getHost();
+  }
+
+  /**
+   * Returns a file system for the bucket of {@code uri}. File systems hold no resources, so this
+   * method never throws {@link java.nio.file.FileSystemAlreadyExistsException}.
+   */
+  @Override
+  public CloudStorageFileSystem newFileSystem(URI uri, Map<String, ?> env) {
+    return getFileSystem(uri);
+  }
+
+  @Override
+  public CloudStorageFileSystem getFileSystem(URI uri) {
+    return new CloudStorageFileSystem(this, bucket(uri));
+  }
+
+  @Override
+  public CloudStoragePath getPath(URI uri) {
+    String path = uri.getPath();
+    return getFileSystem(uri).getPath(path == null || path.isEmpty() ? "/" : path);
+  }
+
+  private static CloudStoragePath check(Path path) {
+    if (!(path instanceof CloudStoragePath)) {
+      throw new ProviderMismatchException(
+          "Not a cloud storage path: " + checkNotNull(path).getClass().getName());
+    }
+    return (CloudStoragePath) path;
+  }
+
+  @Override
+  public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+      FileAttribute<?>... attrs) throws IOException {
+    CloudStoragePath cloudPath = check(path);
+    if (attrs.length > 0) {
+      throw new UnsupportedOperationException("File attributes are not supported");
+    }
+    if (options.contains(StandardOpenOption.APPEND)) {
+      throw new UnsupportedOperationException("Blobs can not be appended to");
+    }
+    if (!options.contains(StandardOpenOption.WRITE)) {
+      Blob blob = storage().get(cloudPath.blobId());
+      if (blob == null) {
+        throw new NoSuchFileException(cloudPath.toString());
+      }
+      return blockCache().open(blob);
+    }
+    if (options.contains(StandardOpenOption.READ)) {
+      throw new UnsupportedOperationException("Blobs can not be read and written at once");
+    }
+    List<BlobWriteOption> writeOptions = ImmutableList.of();
+    if (options.contains(StandardOpenOption.CREATE_NEW)) {
+      writeOptions = ImmutableList.of(BlobWriteOption.doesNotExist());
+    } else if (!options.contains(StandardOpenOption.CREATE)
+        && storage().get(cloudPath.blobId()) == null) {
+      throw new NoSuchFileException(cloudPath.toString());
+    }
+    try {
+      return new CloudStorageWriteChannel(storage().writer(BlobInfo.builder(cloudPath.blobId())
+          .build(), writeOptions.toArray(new BlobWriteOption[writeOptions.size()])));
+    } catch (StorageException ex) {
+      throw translate(ex, cloudPath);
+    }
+  }
+
+  @Override
+  public DirectoryStream<Path> newDirectoryStream(Path dir,
+      DirectoryStream.Filter<? super Path> filter) throws IOException {
+    CloudStoragePath cloudPath = check(dir);
+    Page<Blob> firstPage;
+    try {
+      firstPage = storage().list(cloudPath.getFileSystem().bucket(),
+          BlobListOption.prefix(cloudPath.directoryPrefix()),
+          BlobListOption.currentDirectory(),
+          BlobListOption.pageSize(DIRECTORY_PAGE_SIZE));
+    } catch (StorageException ex) {
+      throw translate(ex, cloudPath);
+    }
+    return new CloudStorageDirectoryStream(cloudPath, firstPage, filter, prefetchExecutor);
+  }
+
+  /**
+   * Does nothing: directories are implied by the names of the blobs they contain.
+   */
+  @Override
+  public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+    check(dir);
+  }
+
+  @Override
+  public void delete(Path path) throws IOException {
+    CloudStoragePath cloudPath = check(path);
+    if (!storage().delete(cloudPath.blobId())) {
+      throw new NoSuchFileException(cloudPath.toString());
+    }
+  }
+
+  /**
+   * Copies a blob. If both paths are Cloud Storage paths the copy is done server-side, without
+   * transferring the content through this process.
+   */
+  @Override
+  public void copy(Path source, Path target, CopyOption... options) throws IOException {
+    CloudStoragePath sourcePath = check(source);
+    CloudStoragePath targetPath = check(target);
+    List<CopyOption> copyOptions = Arrays.asList(options);
+    if (copyOptions.contains(StandardCopyOption.ATOMIC_MOVE)) {
+      throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+          "Blobs can not be moved atomically");
+    }
+    if (!copyOptions.contains(StandardCopyOption.REPLACE_EXISTING)
+        && storage().get(targetPath.blobId()) != null) {
+      throw new FileAlreadyExistsException(targetPath.toString());
+    }
+    try {
+      storage().copy(CopyRequest.of(sourcePath.blobId(), targetPath.blobId())).result();
+    } catch (StorageException ex) {
+      throw translate(ex, sourcePath);
+    }
+  }
+
+  /**
+   * Moves a blob by copying it server-side and deleting the source. Atomic moves are not
+   * supported.
+   */
+  @Override
+  public void move(Path source, Path target, CopyOption... options) throws IOException {
+    copy(source, target, options);
+    delete(source);
+  }
+
+  @Override
+  public boolean isSameFile(Path path, Path path2) {
+    return check(path).toRealPath().equals(check(path2).toRealPath());
+  }
+
+  @Override
+  public boolean isHidden(Path path) {
+    check(path);
+    return false;
+  }
+
+  /**
+   * Throws {@link UnsupportedOperationException}: buckets have no capacity or usage that could be
+   * reported through a {@link FileStore}.
+   */
+  @Override
+  public FileStore getFileStore(Path path) {
+    check(path);
+    throw new UnsupportedOperationException("Cloud Storage paths have no file store");
+  }
+
+  @Override
+  public void checkAccess(Path path, AccessMode... modes) throws IOException {
+    attributes(check(path));
+  }
+
+  private CloudStorageFileAttributes attributes(CloudStoragePath path) throws IOException {
+    if (path.getNameCount() == 0) {
+      return CloudStorageFileAttributes.forDirectory(path);
+    }
+    Blob blob = storage().get(path.blobId());
+    if (blob != null) {
+      return CloudStorageFileAttributes.forBlob(blob);
+    }
+    Page<Blob> children = storage().list(path.getFileSystem().bucket(),
+        BlobListOption.prefix(path.directoryPrefix()), BlobListOption.pageSize(1));
+    if (children.values().iterator().hasNext()) {
+      return CloudStorageFileAttributes.forDirectory(path);
+    }
+    throw new NoSuchFileException(path.toString());
+  }
+
+  /**
+   * Returns {@code null}: attributes can only be read, through
+   * {@link #readAttributes(Path, Class, LinkOption...)}.
+   */
+  @Override
+  public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type,
+      LinkOption... options) {
+    check(path);
+    return null;
+  }
+
+  @Override
+  public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type,
+      LinkOption... options) throws IOException {
+    if (!type.isAssignableFrom(CloudStorageFileAttributes.class)) {
+      throw new UnsupportedOperationException("Unsupported attributes: " + type.getName());
+    }
+    return type.cast(attributes(check(path)));
+  }
+
+  @Override
+  public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+      throws IOException {
+    String names = attributes;
+    int colon = attributes.indexOf(':');
+    if (colon >= 0) {
+      if (!"basic".equals(attributes.substring(0, colon))) {
+        throw new UnsupportedOperationException("Unsupported attribute view: " + attributes);
+      }
+      names = attributes.substring(colon + 1);
+    }
+    Map<String, Object> all = attributes(check(path)).toMap();
+    if ("*".equals(names)) {
+      return all;
+    }
+    Map<String, Object> selected = new HashMap<>();
+    for (String name : names.split(",")) {
+      if (!all.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown attribute: " + name);
+      }
+      selected.put(name, all.get(name));
+    }
+    return selected;
+  }
+
+  @Override
+  public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+    throw new UnsupportedOperationException("Attributes can not be set");
+  }
+
+  static IOException translate(StorageException ex, CloudStoragePath path) {
+    switch (ex.code()) {
+      case HTTP_NOT_FOUND:
+        return (IOException) new NoSuchFileException(path.toString()).initCause(ex);
+      case HTTP_PRECON_FAILED:
+        return (IOException) new FileAlreadyExistsException(path.toString()).initCause(ex);
+      default:
+        return new IOException(ex);
+    }
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.storage.BlobId;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A path in a {@link CloudStorageFileSystem}. Paths use {@code /} as separator; the absolute path
+ * {@code /dir/file} refers to the blob named {@code dir/file} in the file system's bucket.
+ * Relative paths are resolved against the root of the bucket.
+ */
+public final class CloudStoragePath implements Path {
+
+  private static final Splitter SPLITTER = Splitter.on('/').omitEmptyStrings();
+  private static final Joiner JOINER = Joiner.on('/');
+
+  private final CloudStorageFileSystem fileSystem;
+  private final boolean absolute;
+  private final List<String> names;
+
+  private CloudStoragePath(CloudStorageFileSystem fileSystem, boolean absolute,
+      List<String> names) {
+    this.fileSystem = fileSystem;
+    this.absolute = absolute;
+    this.names = ImmutableList.copyOf(names);
+  }
+
+  static CloudStoragePath of(CloudStorageFileSystem fileSystem, String first, String... more) {
+    StringBuilder path = new StringBuilder(first);
+    for (String name : more) {
+      path.append('/').append(name);
+    }
+    return new CloudStoragePath(fileSystem, first.startsWith("/"),
+        SPLITTER.splitToList(path.toString()));
+  }
+
+  private static CloudStoragePath check(Path path) {
+    if (!(path instanceof CloudStoragePath)) {
+      throw new ProviderMismatchException(
+          "Not a cloud storage path: " + checkNotNull(path).getClass().getName());
+    }
+    return (CloudStoragePath) path;
+  }
+
+  private CloudStoragePath relative(List<String> subNames) {
+    return new CloudStoragePath(fileSystem, false, subNames);
+  }
+
+  /**
+   * Returns the name of the blob this path refers to, relative paths being resolved against the
+   * root of the bucket.
+   */
+  public String blobName() {
+    return JOINER.join(names);
+  }
+
+  /**
+   * Returns the identity of the blob this path refers to.
+   */
+  public BlobId blobId() {
+    return BlobId.of(fileSystem.bucket(), blobName());
+  }
+
+  /**
+   * Returns the prefix of the blobs contained in the directory this path refers to.
+   */
+  String directoryPrefix() {
+    return names.isEmpty() ? "" : blobName() + "/";
+  }
+
+  @Override
+  public CloudStorageFileSystem getFileSystem() {
+    return fileSystem;
+  }
+
+  @Override
+  public boolean isAbsolute() {
+    return absolute;
+  }
+
+  @Override
+  public CloudStoragePath getRoot() {
+    return absolute ? new CloudStoragePath(fileSystem, true, ImmutableList.<String>of()) : null;
+  }
+
+  @Override
+  public CloudStoragePath getFileName() {
+    return names.isEmpty() ? null : relative(names.subList(names.size() - 1, names.size()));
+  }
+
+  @Override
+  public CloudStoragePath getParent() {
+    if (names.isEmpty() || (names.size() == 1 && !absolute)) {
+      return null;
+    }
+    return new CloudStoragePath(fileSystem, absolute, names.subList(0, names.size() - 1));
+  }
+
+  @Override
+  public int getNameCount() {
+    return names.size();
+  }
+
+  @Override
+  public CloudStoragePath getName(int index) {
+    return subpath(index, index + 1);
+  }
+
+  @Override
+  public CloudStoragePath subpath(int beginIndex, int endIndex) {
+    if (beginIndex < 0 || endIndex > names.size() || beginIndex >= endIndex) {
+      throw new IllegalArgumentException("Invalid subpath [" + beginIndex + ", " + endIndex + ")");
+    }
+    return relative(names.subList(beginIndex, endIndex));
+  }
+
+  @Override
+  public boolean startsWith(Path other) {
+    if (!(other instanceof CloudStoragePath)) {
+      return false;
+    }
+    CloudStoragePath that = (CloudStoragePath) other;
+    return fileSystem.equals(that.fileSystem) && absolute == that.absolute
+        && names.size() >= that.names.size()
+        && names.subList(0, that.names.size()).equals(that.names);
+  }
+
+  @Override
+  public boolean startsWith(String other) {
+    return startsWith(of(fileSystem, other));
+  }
+
+  @Override
+  public boolean endsWith(Path other) {
+    if (!(other instanceof CloudStoragePath)) {
+      return false;
+    }
+    CloudStoragePath that = (CloudStoragePath) other;
+    if (that.absolute) {
+      return equals(that);
+    }
+    return fileSystem.equals(that.fileSystem) && names.size() >= that.names.size()
+        && names.subList(names.size() - that.names.size(), names.size()).equals(that.names);
+  }
+
+  @Override
+  public boolean endsWith(String other) {
+    return endsWith(of(fileSystem, other));
+  }
+
+  @Override
+  public CloudStoragePath normalize() {
+    List<String> normalized = new ArrayList<>(names.size());
+    for (String name : names) {
+      if (".".equals(name)) {
+        continue;
+      }
+      if ("..".equals(name) && !normalized.isEmpty()
+          && !"..".equals(normalized.get(normalized.size() - 1))) {
+        normalized.remove(normalized.size() - 1);
+      } else if (!"..".equals(name) || !absolute) {
+        normalized.add(name);
+      }
+    }
+    return new CloudStoragePath(fileSystem, absolute, normalized);
+  }
+
+  @Override
+  public CloudStoragePath resolve(Path other) {
+    CloudStoragePath that = check(other);
+    if (that.absolute) {
+      return that;
+    }
+    if (that.names.isEmpty()) {
+      return this;
+    }
+    return new CloudStoragePath(fileSystem, absolute,
+        ImmutableList.<String>builder().addAll(names).addAll(that.names).build());
+  }
+
+  @Override
+  public CloudStoragePath resolve(String other) {
+    return resolve(of(fileSystem, other));
+  }
+
+  @Override
+  public CloudStoragePath resolveSibling(Path other) {
+    CloudStoragePath parent = getParent();
+    return parent == null ? check(other) : parent.resolve(other);
+  }
+
+  @Override
+  public CloudStoragePath resolveSibling(String other) {
+    return resolveSibling(of(fileSystem, other));
+  }
+
+  @Override
+  public CloudStoragePath relativize(Path other) {
+    CloudStoragePath that = check(other);
+    if (absolute != that.absolute) {
+      throw new IllegalArgumentException("Cannot relativize " + that + " against " + this);
+    }
+    int common = 0;
+    while (common < names.size() && common < that.names.size()
+        && names.get(common).equals(that.names.get(common))) {
+      common++;
+    }
+    List<String> relative = new ArrayList<>();
+    for (int i = common; i < names.size(); i++) {
+      relative.add("..");
+    }
+    relative.addAll(that.names.subList(common, that.names.size()));
+    return relative(relative);
+  }
+
+  @Override
+  public URI toUri() {
+    try {
+      return new URI(CloudStorageFileSystemProvider.SCHEME, fileSystem.bucket(),
+          "/" + blobName(), null);
+    } catch (URISyntaxException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @Override
+  public CloudStoragePath toAbsolutePath() {
+    return absolute ? this : new CloudStoragePath(fileSystem, true, names);
+  }
+
+  @Override
+  public CloudStoragePath toRealPath(LinkOption... options) {
+    return toAbsolutePath().normalize();
+  }
+
+  @Override
+  public File toFile() {
+    throw new UnsupportedOperationException("Cloud storage paths are not files");
+  }
+
+  @Override
+  public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events,
+      WatchEvent.Modifier... modifiers) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Iterator<Path> iterator() {
+    List<Path> paths = new ArrayList<>(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      paths.add(getName(i));
+    }
+    return paths.iterator();
+  }
+
+  @Override
+  public int compareTo(Path other) {
+    return toString().compareTo(check(other).toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(fileSystem, absolute, names);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof CloudStoragePath)) {
+      return false;
+    }
+    CloudStoragePath other = (CloudStoragePath) obj;
+    return fileSystem.equals(other.fileSystem)
+        && absolute == other.absolute
+        && names.equals(other.names);
+  }
+
+  @Override
+  public String toString() {
+    return (absolute ? "/" : "") + blobName();
+  }
+}
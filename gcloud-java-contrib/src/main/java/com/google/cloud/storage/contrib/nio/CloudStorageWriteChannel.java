@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import com.google.cloud.WriteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A write-only {@link SeekableByteChannel} that uploads a blob through a {@link WriteChannel}.
+ * Blobs are written sequentially: the position can be queried but not changed.
+ */
+final class CloudStorageWriteChannel implements SeekableByteChannel {
+
+  private final WriteChannel channel;
+  private long position;
+
+  CloudStorageWriteChannel(WriteChannel channel) {
+    this.channel = channel;
+  }
+
+  private void validateOpen() throws ClosedChannelException {
+    if (!channel.isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  @Override
+  public int read(ByteBuffer dst) {
+    throw new NonReadableChannelException();
+  }
+
+  @Override
+  public synchronized int write(ByteBuffer src) throws IOException {
+    validateOpen();
+    int written = channel.write(src);
+    position += written;
+    return written;
+  }
+
+  @Override
+  public synchronized long position() throws IOException {
+    validateOpen();
+    return position;
+  }
+
+  @Override
+  public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+    validateOpen();
+    if (newPosition != position) {
+      throw new UnsupportedOperationException("Blobs can only be written sequentially");
+    }
+    return this;
+  }
+
+  @Override
+  public synchronized long size() throws IOException {
+    validateOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) {
+    throw new UnsupportedOperationException("Blobs can only be written sequentially");
+  }
+
+  @Override
+  public boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.Page;
+import com.google.cloud.PageImpl;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import com.google.common.collect.ImmutableList;
+
+import org.easymock.Capture;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CloudStorageFileSystemProviderTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("bucket", "dir/file.txt");
+  private static final BlobId BLOB_ID_WITH_GENERATION = BlobId.of("bucket", "dir/file.txt", 42L);
+  private static final BlobId TARGET_ID = BlobId.of("bucket", "dir/copy.txt");
+  private static final byte[] CONTENT = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+  private Storage storage;
+  private CloudStorageFileSystem fileSystem;
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+    fileSystem = CloudStorageFileSystem.forBucket("bucket", storage);
+  }
+
+  @After
+  public void tearDown() {
+    verify(storage);
+  }
+
+  private static Blob blob(String name, BlobId blobId, Long size) {
+    Blob blob = createMock(Blob.class);
+    expect(blob.name()).andStubReturn(name);
+    expect(blob.blobId()).andStubReturn(blobId);
+    expect(blob.generation()).andStubReturn(blobId.generation());
+    expect(blob.size()).andStubReturn(size);
+    expect(blob.updateTime()).andStubReturn(1000L);
+    replay(blob);
+    return blob;
+  }
+
+  @Test
+  public void testReadAllBytes() throws IOException {
+    expect(storage.get(BLOB_ID))
+        .andReturn(blob("dir/file.txt", BLOB_ID_WITH_GENERATION, (long) CONTENT.length));
+    expect(storage.read(eq(BLOB_ID_WITH_GENERATION), eq(0L), anyObject(ByteBuffer.class)))
+        .andAnswer(new IAnswer<Integer>() {
+          @Override
+          public Integer answer() {
+            ByteBuffer dst = (ByteBuffer) getCurrentArguments()[2];
+            int length = Math.min(dst.remaining(), CONTENT.length);
+            dst.put(CONTENT, 0, length);
+            return length;
+          }
+        });
+    replay(storage);
+    assertArrayEquals(CONTENT, Files.readAllBytes(fileSystem.getPath("/dir/file.txt")));
+  }
+
+  @Test
+  public void testReadMissingBlob() throws IOException {
+    expect(storage.get(BLOB_ID)).andReturn(null);
+    replay(storage);
+    try {
+      Files.newByteChannel(fileSystem.getPath("/dir/file.txt"));
+      fail("NoSuchFileException expected");
+    } catch (NoSuchFileException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDirectoryStream() throws IOException {
+    Page<Blob> page = new PageImpl<>(null, null, ImmutableList.of(
+        blob("dir/", BlobId.of("bucket", "dir/", 1L), 0L),
+        blob("dir/file.txt", BLOB_ID_WITH_GENERATION, 10L),
+        blob("dir/sub/", BlobId.of("bucket", "dir/sub/"), 0L)));
+    expect(storage.list("bucket", BlobListOption.prefix("dir/"),
+        BlobListOption.currentDirectory(), BlobListOption.pageSize(1000))).andReturn(page);
+    replay(storage);
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath("/dir"))) {
+      for (Path entry : stream) {
+        entries.add(entry);
+      }
+    }
+    assertEquals(ImmutableList.of(fileSystem.getPath("/dir/file.txt"),
+        fileSystem.getPath("/dir/sub")), entries);
+  }
+
+  @Test
+  public void testDirectoryStreamListingFailure() throws IOException {
+    final StorageException exception = new StorageException(503, "Unavailable");
+    Page<Blob> page = new PageImpl<>(new PageImpl.NextPageFetcher<Blob>() {
+      @Override
+      public Page<Blob> nextPage() {
+        throw exception;
+      }
+    }, "cursor", ImmutableList.of(blob("dir/file.txt", BLOB_ID_WITH_GENERATION, 10L)));
+    expect(storage.list("bucket", BlobListOption.prefix("dir/"),
+        BlobListOption.currentDirectory(), BlobListOption.pageSize(1000))).andReturn(page);
+    replay(storage);
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath("/dir"))) {
+      Iterator<Path> iterator = stream.iterator();
+      assertEquals(fileSystem.getPath("/dir/file.txt"), iterator.next());
+      try {
+        iterator.hasNext();
+        fail("DirectoryIteratorException expected");
+      } catch (DirectoryIteratorException ex) {
+        assertEquals(exception, ex.getCause().getCause());
+      }
+    }
+  }
+
+  @Test
+  public void testDirectoryStreamCloseCancelsPrefetch() throws Exception {
+    final CountDownLatch fetching = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    Page<Blob> page = new PageImpl<>(new PageImpl.NextPageFetcher<Blob>() {
+      @Override
+      public Page<Blob> nextPage() {
+        fetching.countDown();
+        try {
+          Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException ex) {
+          interrupted.countDown();
+        }
+        return null;
+      }
+    }, "cursor", ImmutableList.of(blob("dir/file.txt", BLOB_ID_WITH_GENERATION, 10L)));
+    expect(storage.list("bucket", BlobListOption.prefix("dir/"),
+        BlobListOption.currentDirectory(), BlobListOption.pageSize(1000))).andReturn(page);
+    replay(storage);
+    DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath("/dir"));
+    Iterator<Path> iterator = stream.iterator();
+    assertTrue(fetching.await(10, TimeUnit.SECONDS));
+    stream.close();
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testGetFileStoreNotSupported() throws IOException {
+    replay(storage);
+    try {
+      Files.getFileStore(fileSystem.getPath("/dir/file.txt"));
+      fail("UnsupportedOperationException expected");
+    } catch (UnsupportedOperationException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCopyIsServerSide() throws IOException {
+    CopyWriter copyWriter = createMock(CopyWriter.class);
+    expect(copyWriter.result()).andReturn(null);
+    replay(copyWriter);
+    expect(storage.get(TARGET_ID)).andReturn(null);
+    Capture<CopyRequest> request = Capture.newInstance();
+    expect(storage.copy(capture(request))).andReturn(copyWriter);
+    replay(storage);
+    Files.copy(fileSystem.getPath("/dir/file.txt"), fileSystem.getPath("/dir/copy.txt"));
+    verify(copyWriter);
+    assertEquals(BLOB_ID, request.getValue().source());
+    assertEquals(TARGET_ID, request.getValue().target().blobId());
+  }
+
+  @Test
+  public void testCopyToExistingTarget() throws IOException {
+    expect(storage.get(TARGET_ID)).andReturn(blob("dir/copy.txt", TARGET_ID, 0L));
+    replay(storage);
+    try {
+      Files.copy(fileSystem.getPath("/dir/file.txt"), fileSystem.getPath("/dir/copy.txt"));
+      fail("FileAlreadyExistsException expected");
+    } catch (FileAlreadyExistsException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMove() throws IOException {
+    CopyWriter copyWriter = createMock(CopyWriter.class);
+    expect(copyWriter.result()).andReturn(null);
+    replay(copyWriter);
+    Capture<CopyRequest> request = Capture.newInstance();
+    expect(storage.copy(capture(request))).andReturn(copyWriter);
+    expect(storage.delete(BLOB_ID)).andReturn(true);
+    replay(storage);
+    Files.move(fileSystem.getPath("/dir/file.txt"), fileSystem.getPath("/dir/copy.txt"),
+        StandardCopyOption.REPLACE_EXISTING);
+    verify(copyWriter);
+    assertEquals(BLOB_ID, request.getValue().source());
+    assertEquals(TARGET_ID, request.getValue().target().blobId());
+  }
+
+  @Test
+  public void testDeleteMissingBlob() throws IOException {
+    expect(storage.delete(BLOB_ID)).andReturn(false);
+    replay(storage);
+    try {
+      Files.delete(fileSystem.getPath("/dir/file.txt"));
+      fail("NoSuchFileException expected");
+    } catch (NoSuchFileException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadAttributes() throws IOException {
+    expect(storage.get(BLOB_ID))
+        .andReturn(blob("dir/file.txt", BLOB_ID_WITH_GENERATION, (long) CONTENT.length));
+    expect(storage.get(BlobId.of("bucket", "dir"))).andReturn(null);
+    Page<Blob> children = new PageImpl<>(null, null,
+        ImmutableList.of(blob("dir/file.txt", BLOB_ID_WITH_GENERATION, 10L)));
+    expect(storage.list("bucket", BlobListOption.prefix("dir/"), BlobListOption.pageSize(1)))
+        .andReturn(children);
+    replay(storage);
+    BasicFileAttributes attributes = Files.readAttributes(fileSystem.getPath("/dir/file.txt"),
+        BasicFileAttributes.class);
+    assertTrue(attributes.isRegularFile());
+    assertEquals(CONTENT.length, attributes.size());
+    assertTrue(Files.isDirectory(fileSystem.getPath("/dir")));
+  }
+
+  @Test
+  public void testNotExists() {
+    expect(storage.get(BLOB_ID)).andReturn(null);
+    Page<Blob> children = new PageImpl<>(null, null, ImmutableList.<Blob>of());
+    expect(storage.list("bucket", BlobListOption.prefix("dir/file.txt/"),
+        BlobListOption.pageSize(1))).andReturn(children);
+    replay(storage);
+    assertFalse(Files.exists(fileSystem.getPath("/dir/file.txt")));
+  }
+
+  @Test
+  public void testAppendNotSupported() throws IOException {
+    replay(storage);
+    try {
+      Files.newByteChannel(fileSystem.getPath("/dir/file.txt"), StandardOpenOption.APPEND);
+      fail("UnsupportedOperationException expected");
+    } catch (UnsupportedOperationException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.contrib.nio;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class CloudStoragePathTest {
+
+  private CloudStorageFileSystem fileSystem;
+
+  @Before
+  public void setUp() {
+    fileSystem = CloudStorageFileSystem.forBucket("bucket", createMock(Storage.class));
+  }
+
+  @Test
+  public void testBlobName() {
+    CloudStoragePath path = fileSystem.getPath("/dir", "sub/", "file.txt");
+    assertTrue(path.isAbsolute());
+    assertEquals(3, path.getNameCount());
+    assertEquals("dir/sub/file.txt", path.blobName());
+    assertEquals(BlobId.of("bucket", "dir/sub/file.txt"), path.blobId());
+    assertEquals("/dir/sub/file.txt", path.toString());
+    assertEquals("dir/sub/file.txt/", path.directoryPrefix());
+    assertEquals("", fileSystem.getPath("/").directoryPrefix());
+  }
+
+  @Test
+  public void testParentAndFileName() {
+    CloudStoragePath path = fileSystem.getPath("/dir/file.txt");
+    assertEquals(fileSystem.getPath("/dir"), path.getParent());
+    assertEquals(fileSystem.getPath("file.txt"), path.getFileName());
+    assertEquals(fileSystem.getPath("/"), path.getRoot());
+    assertNull(fileSystem.getPath("file.txt").getParent());
+    assertNull(fileSystem.getPath("file.txt").getRoot());
+    assertNull(fileSystem.getPath("/").getFileName());
+  }
+
+  @Test
+  public void testResolveAndRelativize() {
+    CloudStoragePath dir = fileSystem.getPath("/dir");
+    assertEquals(fileSystem.getPath("/dir/a/b"), dir.resolve("a/b"));
+    assertEquals(fileSystem.getPath("/other"), dir.resolve("/other"));
+    assertEquals(fileSystem.getPath("/sibling"), dir.resolveSibling("sibling"));
+    assertEquals(fileSystem.getPath("a/b"), dir.relativize(fileSystem.getPath("/dir/a/b")));
+    assertEquals(fileSystem.getPath("../x"), dir.relativize(fileSystem.getPath("/x")));
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals(fileSystem.getPath("/a/c"), fileSystem.getPath("/a/./b/../c").normalize());
+    assertEquals(fileSystem.getPath("/c"), fileSystem.getPath("/../c").normalize());
+    assertEquals(fileSystem.getPath("../c"), fileSystem.getPath("../c").normalize());
+  }
+
+  @Test
+  public void testStartsWithAndEndsWith() {
+    CloudStoragePath path = fileSystem.getPath("/dir/sub/file.txt");
+    assertTrue(path.startsWith("/dir"));
+    assertTrue(path.startsWith("/dir/sub"));
+    assertFalse(path.startsWith("/di"));
+    assertFalse(path.startsWith("dir"));
+    assertTrue(path.endsWith("sub/file.txt"));
+    assertTrue(path.endsWith("/dir/sub/file.txt"));
+    assertFalse(path.endsWith("/sub/file.txt"));
+  }
+
+  @Test
+  public void testToUri() {
+    URI uri = fileSystem.getPath("/dir/file.txt").toUri();
+    assertEquals(URI.create("gs://bucket/dir/file.txt"), uri);
+    assertEquals(fileSystem.getPath("/dir/file.txt"), fileSystem.provider().getPath(uri));
+  }
+}
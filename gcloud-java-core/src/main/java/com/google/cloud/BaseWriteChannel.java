@@ -38,6 +38,8 @@ public abstract class BaseWriteChannel<
 
   private static final int MIN_CHUNK_SIZE = 256 * 1024;
   private static final int DEFAULT_CHUNK_SIZE = 8 * MIN_CHUNK_SIZE;
+  // a throughput drop within this fraction of the previous chunk's is treated as noise
+  private static final double THROUGHPUT_TOLERANCE = 0.1;
 
   private final ServiceOptionsT options;
   private final EntityT entity;
@@ -47,6 +49,10 @@ public abstract class BaseWriteChannel<
   private int limit;
   private boolean isOpen = true;
   private int chunkSize = defaultChunkSize();
+  private int maxChunkSize;
+  private boolean growing = true;
+  private double lastThroughput;
+  private int chunkRetries;
 
   protected int minChunkSize() {
     return MIN_CHUNK_SIZE;
@@ -92,10 +98,46 @@ public abstract class BaseWriteChannel<
     return chunkSize;
   }
 
+  /**
+   * Returns the largest chunk size adaptive chunk sizing may choose, or {@code 0} if the chunk size
+   * is fixed.
+   */
+  protected int maxChunkSize() {
+    return maxChunkSize;
+  }
+
   @Override
   public final void chunkSize(int chunkSize) {
-    chunkSize = (chunkSize / minChunkSize()) * minChunkSize();
-    this.chunkSize = Math.max(minChunkSize(), chunkSize);
+    this.chunkSize = roundChunkSize(chunkSize);
+    this.maxChunkSize = 0;
+  }
+
+  /**
+   * Lets the channel choose the size written by a single RPC, up to {@code maxChunkSize}. Starting
+   * from the current chunk size, the size is grown or shrunk after every RPC by
+   * {@link #minChunkSize()}, following the measured throughput, and shrunk whenever an RPC had to
+   * be retried. In this mode no RPC writes more than the current chunk size and the channel never
+   * buffers more than {@code maxChunkSize} bytes, however large the buffers passed to
+   * {@link #write(ByteBuffer)}. Calling {@link #chunkSize(int)} sets a fixed chunk size again.
+   */
+  public final void adaptiveChunkSize(int maxChunkSize) {
+    this.maxChunkSize = roundChunkSize(maxChunkSize);
+    this.chunkSize = Math.min(chunkSize, this.maxChunkSize);
+    this.growing = true;
+    this.lastThroughput = 0;
+  }
+
+  private int roundChunkSize(int chunkSize) {
+    return Math.max(minChunkSize(), (chunkSize / minChunkSize()) * minChunkSize());
+  }
+
+  /**
+   * Records that the chunk being written by {@link #flushBuffer(int, boolean)} had to be sent
+   * again. Implementations should call this method for every retried write so that adaptive chunk
+   * sizing can shrink chunks on unreliable connections.
+   */
+  protected final void chunkRetried() {
+    chunkRetries++;
   }
 
   protected BaseWriteChannel(ServiceOptionsT options, EntityT entity, String uploadId) {
@@ -106,16 +148,44 @@ public abstract class BaseWriteChannel<
 
   private void flush() {
     if (limit >= chunkSize) {
-      final int length = limit - limit % minChunkSize();
-      flushBuffer(length, false);
-      position += length;
-      limit -= length;
+      // with adaptive chunk sizing each RPC writes exactly one chunk, and the next chunk size
+      // depends on how the previous one went
+      while (limit >= chunkSize) {
+        int length = maxChunkSize > 0 ? chunkSize : limit - limit % minChunkSize();
+        chunkRetries = 0;
+        long start = maxChunkSize > 0 ? options.clock().millis() : 0;
+        flushBuffer(length, false);
+        if (maxChunkSize > 0) {
+          adaptChunkSize(length, options.clock().millis() - start);
+        }
+        position += length;
+        limit -= length;
+        System.arraycopy(buffer, length, buffer, 0, limit);
+      }
       byte[] temp = new byte[chunkSize];
-      System.arraycopy(buffer, length, temp, 0, limit);
+      System.arraycopy(buffer, 0, temp, 0, limit);
       buffer = temp;
     }
   }
 
+  /**
+   * Moves the chunk size one {@link #minChunkSize()} step towards higher throughput, within
+   * {@link #maxChunkSize()}. The size keeps moving in the same direction as long as throughput
+   * does not drop, and shrinks after a chunk that needed retries, as smaller chunks limit the data
+   * sent again on failures.
+   */
+  private void adaptChunkSize(int length, long elapsedMillis) {
+    double throughput = (double) length / Math.max(1, elapsedMillis);
+    if (chunkRetries > 0) {
+      growing = false;
+    } else if (throughput < lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+      growing = !growing;
+    }
+    lastThroughput = throughput;
+    int step = growing ? minChunkSize() : -minChunkSize();
+    chunkSize = Math.max(minChunkSize(), Math.min(maxChunkSize, chunkSize + step));
+  }
+
   private void validateOpen() throws ClosedChannelException {
     if (!isOpen) {
       throw new ClosedChannelException();
@@ -126,6 +196,20 @@ public abstract class BaseWriteChannel<
   public final int write(ByteBuffer byteBuffer) throws IOException {
     validateOpen();
     int toWrite = byteBuffer.remaining();
+    if (maxChunkSize > 0) {
+      // buffers at most maxChunkSize bytes at a time, flushing as chunks fill up
+      while (byteBuffer.hasRemaining()) {
+        flush();
+        int length = Math.min(byteBuffer.remaining(), maxChunkSize - limit);
+        if (buffer.length < limit + length) {
+          buffer = Arrays.copyOf(buffer, Math.max(chunkSize, limit + length));
+        }
+        byteBuffer.get(buffer, limit, length);
+        limit += length;
+      }
+      flush();
+      return toWrite;
+    }
     int spaceInBuffer = buffer.length - limit;
     if (spaceInBuffer >= toWrite) {
       byteBuffer.get(buffer, limit, toWrite);
@@ -170,6 +254,9 @@ public abstract class BaseWriteChannel<
         .buffer(bufferToSave)
         .isOpen(isOpen)
         .chunkSize(chunkSize)
+        .maxChunkSize(maxChunkSize)
+        .growing(growing)
+        .lastThroughput(lastThroughput)
         .build();
   }
 
@@ -184,6 +271,9 @@ public abstract class BaseWriteChannel<
     this.position = state.position;
     this.isOpen = state.isOpen;
     this.chunkSize = state.chunkSize;
+    this.maxChunkSize = state.maxChunkSize;
+    this.growing = state.growing;
+    this.lastThroughput = state.lastThroughput;
   }
 
   protected abstract static class BaseState<
@@ -199,6 +289,9 @@ public abstract class BaseWriteChannel<
     protected final byte[] buffer;
     protected final boolean isOpen;
     protected final int chunkSize;
+    protected final int maxChunkSize;
+    protected final boolean growing;
+    protected final double lastThroughput;
 
     protected BaseState(Builder<ServiceOptionsT, EntityT> builder) {
       this.serviceOptions = builder.serviceOptions;
@@ -208,6 +301,9 @@ public abstract class BaseWriteChannel<
       this.buffer = builder.buffer;
       this.isOpen = builder.isOpen;
       this.chunkSize = builder.chunkSize;
+      this.maxChunkSize = builder.maxChunkSize;
+      this.growing = builder.growing;
+      this.lastThroughput = builder.lastThroughput;
     }
 
     /**
@@ -228,6 +324,9 @@ public abstract class BaseWriteChannel<
       private byte[] buffer;
       private boolean isOpen;
       private int chunkSize;
+      private int maxChunkSize;
+      private boolean growing = true;
+      private double lastThroughput;
 
       protected Builder(ServiceOptionsT options, EntityT entity, String uploadId) {
         this.serviceOptions = options;
@@ -255,13 +354,28 @@ public abstract class BaseWriteChannel<
         return this;
       }
 
+      public Builder<ServiceOptionsT, EntityT> maxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+        return this;
+      }
+
+      public Builder<ServiceOptionsT, EntityT> growing(boolean growing) {
+        this.growing = growing;
+        return this;
+      }
+
+      public Builder<ServiceOptionsT, EntityT> lastThroughput(double lastThroughput) {
+        this.lastThroughput = lastThroughput;
+        return this;
+      }
+
       public abstract RestorableState<WriteChannel> build();
     }
 
     @Override
     public int hashCode() {
       return Objects.hash(serviceOptions, entity, uploadId, position, isOpen, chunkSize,
-          Arrays.hashCode(buffer));
+          maxChunkSize, growing, lastThroughput, Arrays.hashCode(buffer));
     }
 
     @Override
@@ -279,7 +393,10 @@ public abstract class BaseWriteChannel<
           && Objects.deepEquals(this.buffer, other.buffer)
           && this.position == other.position
           && this.isOpen == other.isOpen
-          && this.chunkSize == other.chunkSize;
+          && this.chunkSize == other.chunkSize
+          && this.maxChunkSize == other.maxChunkSize
+          && this.growing == other.growing
+          && Double.compare(this.lastThroughput, other.lastThroughput) == 0;
     }
 
     @Override
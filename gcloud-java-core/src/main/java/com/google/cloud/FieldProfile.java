@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records which fields of the resources returned at each call site of a service are read, so that
+ * later calls from the same site can select only those fields. A call site is the line of code,
+ * outside of the service's own classes, that called the service.
+ *
+ * <p>The first call from a site returns complete resources. Every field read from a resource
+ * returned to a site is added to the site's profile, and later calls from the site select only
+ * the fields in the profile. When a field that was not selected is read from a resource, the field
+ * is added to the profile and the complete resource is fetched to provide its value.
+ *
+ * <p>This class is used by services that support automatic field selection and is not supposed to
+ * be used directly by users.
+ *
+ * @param <F> the fields of the resource
+ */
+public final class FieldProfile<F extends Enum<F> & FieldSelector> {
+
+  private final Class<F> fieldClass;
+  private final Set<String> serviceClasses;
+  private final ConcurrentMap<Object, Set<F>> profiles = new ConcurrentHashMap<>();
+
+  /**
+   * Tracks the fields read from a resource returned to a call site.
+   *
+   * @param <F> the fields of the resource
+   * @param <T> the resource type
+   */
+  public static final class Tracker<F extends Enum<F> & FieldSelector, T> {
+
+    private final Class<F> fieldClass;
+    private final Set<F> profile;
+    private final Set<F> selected;
+    private final Supplier<T> complete;
+
+    private Tracker(Class<F> fieldClass, Set<F> profile, Set<F> selected, Supplier<T> complete) {
+      this.fieldClass = fieldClass;
+      this.profile = profile;
+      this.selected = selected;
+      this.complete = Suppliers.memoize(complete);
+    }
+
+    /**
+     * Records that {@code field} is read from {@code resource} and returns the resource to read it
+     * from: {@code resource} itself if the field was selected, otherwise the complete resource,
+     * which is fetched the first time a field that was not selected is read. Failures to fetch the
+     * complete resource are propagated, and the fetch is attempted again on the next such read.
+     */
+    public T read(F field, T resource) {
+      profile.add(field);
+      if (selected == null || selected.contains(field)) {
+        return resource;
+      }
+      return completeResource();
+    }
+
+    /**
+     * Records that all fields are read from {@code resource} and returns the resource to read them
+     * from: {@code resource} itself if all fields were selected, otherwise the complete resource.
+     * This is used when a resource is copied or compared as a whole.
+     */
+    public T complete(T resource) {
+      Set<F> fields = EnumSet.allOf(fieldClass);
+      profile.addAll(fields);
+      if (selected == null || selected.containsAll(fields)) {
+        return resource;
+      }
+      return completeResource();
+    }
+
+    private T completeResource() {
+      return checkNotNull(complete.get(), "The complete resource could not be fetched");
+    }
+  }
+
+  /**
+   * Creates a profile for the fields in {@code fieldClass}. Calls from {@code serviceClasses}, and
+   * from the classes nested in them, are not considered call sites.
+   */
+  public FieldProfile(Class<F> fieldClass, Class<?>... serviceClasses) {
+    this.fieldClass = checkNotNull(fieldClass);
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    builder.add(FieldProfile.class.getName());
+    for (Class<?> serviceClass : serviceClasses) {
+      builder.add(serviceClass.getName());
+    }
+    this.serviceClasses = builder.build();
+  }
+
+  /**
+   * Returns the call site of the current service call, {@code null} if it can not be determined.
+   */
+  public Object callSite() {
+    for (StackTraceElement element : new Throwable().getStackTrace()) {
+      String className = element.getClassName();
+      int nested = className.indexOf('$');
+      if (!serviceClasses.contains(nested < 0 ? className : className.substring(0, nested))) {
+        return element;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the fields to select for a call from {@code site}, or {@code null} if complete
+   * resources should be returned because this is the first call from the site.
+   */
+  public Set<F> fields(Object site) {
+    Set<F> profile = profiles.putIfAbsent(site, Sets.<F>newConcurrentHashSet());
+    if (profile == null) {
+      return null;
+    }
+    Set<F> fields = EnumSet.noneOf(fieldClass);
+    fields.addAll(profile);
+    return fields;
+  }
+
+  /**
+   * Returns a tracker for a resource returned to {@code site}, for which {@code selected} fields
+   * were requested, or all fields if {@code selected} is {@code null}. {@code complete} is used to
+   * fetch the complete resource when a field that was not selected is read. It must not return
+   * {@code null}: if the resource can not be fetched, for instance because it was deleted, it
+   * should throw the service's exception.
+   */
+  public <T> Tracker<F, T> tracker(Object site, Set<F> selected, Supplier<T> complete) {
+    return new Tracker<>(fieldClass, profile(site), selected, complete);
+  }
+
+  private Set<F> profile(Object site) {
+    Set<F> profile = profiles.get(site);
+    if (profile == null) {
+      profiles.putIfAbsent(site, Sets.<F>newConcurrentHashSet());
+      profile = profiles.get(site);
+    }
+    return profile;
+  }
+}
@@ -91,6 +91,7 @@ public class BaseWriteChannelTest {
     assertTrue(channel.isOpen());
     assertArrayEquals(new byte[0], channel.buffer());
     assertEquals(DEFAULT_CHUNK_SIZE, channel.chunkSize());
+    assertEquals(0, channel.maxChunkSize());
   }
 
   @Test
@@ -117,6 +118,19 @@ public class BaseWriteChannelTest {
     assertEquals(2 * MIN_CHUNK_SIZE, channel.chunkSize());
   }
 
+  @Test
+  public void testAdaptiveChunkSize() {
+    channel.adaptiveChunkSize(3 * MIN_CHUNK_SIZE + 42);
+    assertEquals(3 * MIN_CHUNK_SIZE, channel.maxChunkSize());
+    assertEquals(3 * MIN_CHUNK_SIZE, channel.chunkSize());
+    channel.adaptiveChunkSize(42);
+    assertEquals(MIN_CHUNK_SIZE, channel.maxChunkSize());
+    assertEquals(MIN_CHUNK_SIZE, channel.chunkSize());
+    channel.chunkSize(2 * MIN_CHUNK_SIZE);
+    assertEquals(0, channel.maxChunkSize());
+    assertEquals(2 * MIN_CHUNK_SIZE, channel.chunkSize());
+  }
+
   @Test
   public void testWrite() throws IOException {
     channel.write(ByteBuffer.wrap(CONTENT));
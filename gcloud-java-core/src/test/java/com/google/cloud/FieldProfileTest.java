@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FieldProfileTest {
+
+  private enum Field implements FieldSelector {
+    NAME, SIZE, TYPE;
+
+    @Override
+    public String selector() {
+      return name().toLowerCase();
+    }
+  }
+
+  private static final FieldProfile<Field> PROFILE = new FieldProfile<>(Field.class);
+
+  private static class CompleteResource implements Supplier<String> {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public String get() {
+      calls.incrementAndGet();
+      return "complete";
+    }
+  }
+
+  @Test
+  public void testCallSite() {
+    List<Object> sites = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      sites.add(PROFILE.callSite());
+    }
+    Object otherSite = PROFILE.callSite();
+    assertNotNull(sites.get(0));
+    assertEquals(sites.get(0), sites.get(1));
+    assertNotEquals(sites.get(0), otherSite);
+  }
+
+  @Test
+  public void testFields() {
+    FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    Object site = "site";
+    assertNull(profile.fields(site));
+    assertEquals(EnumSet.noneOf(Field.class), profile.fields(site));
+    FieldProfile.Tracker<Field, String> tracker =
+        profile.tracker(site, null, new CompleteResource());
+    tracker.read(Field.NAME, "resource");
+    assertEquals(EnumSet.of(Field.NAME), profile.fields(site));
+    tracker.read(Field.TYPE, "resource");
+    assertEquals(EnumSet.of(Field.NAME, Field.TYPE), profile.fields(site));
+    assertNull(profile.fields("otherSite"));
+  }
+
+  @Test
+  public void testFieldsFirstCallIsAtomic() throws Exception {
+    final FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Set<Field>>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        results.add(executor.submit(new Callable<Set<Field>>() {
+          @Override
+          public Set<Field> call() {
+            return profile.fields("site");
+          }
+        }));
+      }
+      int firstCalls = 0;
+      for (Future<Set<Field>> result : results) {
+        if (result.get() == null) {
+          firstCalls++;
+        }
+      }
+      assertEquals(1, firstCalls);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testTrackerComplete() {
+    FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    CompleteResource complete = new CompleteResource();
+    FieldProfile.Tracker<Field, String> tracker =
+        profile.tracker("site", ImmutableSet.of(Field.NAME), complete);
+    assertEquals("complete", tracker.complete("resource"));
+    assertEquals(1, complete.calls.get());
+    assertEquals(EnumSet.allOf(Field.class), profile.fields("site"));
+    tracker = profile.tracker("site", EnumSet.allOf(Field.class), complete);
+    assertSame("resource", tracker.complete("resource"));
+    assertEquals(1, complete.calls.get());
+  }
+
+  @Test
+  public void testTracker() {
+    FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    CompleteResource complete = new CompleteResource();
+    FieldProfile.Tracker<Field, String> tracker =
+        profile.tracker("site", ImmutableSet.of(Field.NAME), complete);
+    assertSame("resource", tracker.read(Field.NAME, "resource"));
+    assertEquals(0, complete.calls.get());
+    assertEquals("complete", tracker.read(Field.SIZE, "resource"));
+    assertEquals("complete", tracker.read(Field.TYPE, "resource"));
+    assertEquals(1, complete.calls.get());
+    assertEquals(EnumSet.allOf(Field.class), profile.fields("site"));
+  }
+
+  @Test
+  public void testTrackerCompleteResourceFailure() {
+    FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    final AtomicInteger calls = new AtomicInteger();
+    FieldProfile.Tracker<Field, String> tracker = profile.tracker("site",
+        ImmutableSet.of(Field.NAME), new Supplier<String>() {
+          @Override
+          public String get() {
+            calls.incrementAndGet();
+            throw new IllegalStateException("deleted");
+          }
+        });
+    for (int i = 1; i <= 2; i++) {
+      try {
+        tracker.read(Field.SIZE, "resource");
+        fail("IllegalStateException expected");
+      } catch (IllegalStateException ex) {
+        assertEquals("deleted", ex.getMessage());
+      }
+      assertEquals(i, calls.get());
+    }
+  }
+
+  @Test
+  public void testTrackerNullCompleteResource() {
+    FieldProfile<Field> profile = new FieldProfile<>(Field.class);
+    FieldProfile.Tracker<Field, String> tracker = profile.tracker("site",
+        ImmutableSet.of(Field.NAME), new Supplier<String>() {
+          @Override
+          public String get() {
+            return null;
+          }
+        });
+    try {
+      tracker.complete("resource");
+      fail("NullPointerException expected");
+    } catch (NullPointerException ex) {
+      // expected
+    }
+  }
+}
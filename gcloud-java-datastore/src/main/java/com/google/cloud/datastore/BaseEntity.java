@@ -29,7 +29,7 @@ import static com.google.cloud.datastore.NullValue.of;
 import static com.google.cloud.datastore.StringValue.of;
 
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import java.util.HashMap;
@@ -46,6 +46,14 @@ import java.util.Set;
  * and a value (as {@link com.google.cloud.datastore.Value}), and may be associated with a
  * key. For a list of possible values see {@link ValueType}.
  *
+ * <p>Entities returned by the service can be decoded lazily, see
+ * {@link DatastoreOptions.Builder#lazyEntityDecoding(boolean)}: such entities keep the protobuf
+ * they were read from and decode a property only when it is accessed. {@link #getString},
+ * {@link #getLong}, {@link #getDouble}, {@link #getBoolean} and {@link #isNull} read the protobuf
+ * without creating {@link Value} objects. All the properties are decoded at once when they are
+ * enumerated, for instance by {@link #equals}, {@link #hashCode} or when copying the entity to a
+ * builder.
+ *
  * @see <a href="https://cloud.google.com/datastore/docs/concepts/entities">Google Cloud Datastore
  *     Entities, Properties, and Keys</a>
  */
@@ -54,7 +62,10 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
   private static final long serialVersionUID = 8175618724683792766L;
 
-  private final transient ImmutableSortedMap<String, Value<?>> properties;
+  // decoded from entityPb on first use for lazily decoded entities
+  private transient volatile ImmutableSortedMap<String, Value<?>> properties;
+  // the protobuf of lazily decoded entities, null otherwise
+  private final transient com.google.datastore.v1beta3.Entity entityPb;
   private final K key;
 
   public abstract static class Builder<K extends IncompleteKey, B extends Builder<K, B>> {
@@ -75,7 +86,7 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
     Builder(K key, BaseEntity<?> entity) {
       key(key);
-      properties(entity.properties);
+      properties(entity.properties());
     }
 
     protected K key() {
@@ -93,12 +104,10 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
     @SuppressWarnings("unchecked")
     B fill(com.google.datastore.v1beta3.Entity entityPb) {
-      Map<String, Value<?>> copiedProperties = Maps.newHashMap();
       for (Map.Entry<String, com.google.datastore.v1beta3.Value> entry :
         entityPb.getProperties().entrySet()) {
-        copiedProperties.put(entry.getKey(), Value.fromPb(entry.getValue()));
+        properties.put(entry.getKey(), Value.fromPb(entry.getValue()));
       }
-      properties(copiedProperties);
       if (entityPb.hasKey()) {
         key((K) IncompleteKey.fromPb(entityPb.getKey()));
       }
@@ -452,16 +461,27 @@ public abstract class BaseEntity<K extends IncompleteKey>
   BaseEntity(Builder<K, ?> builder) {
     this.key = builder.key;
     this.properties = ImmutableSortedMap.copyOf(builder.properties);
+    this.entityPb = null;
   }
 
   BaseEntity(BaseEntity<K> from) {
     this.key = from.key();
     this.properties = from.properties;
+    this.entityPb = from.entityPb;
+  }
+
+  /**
+   * Creates an entity whose properties are decoded from {@code entityPb} when accessed.
+   */
+  @SuppressWarnings("unchecked")
+  BaseEntity(com.google.datastore.v1beta3.Entity entityPb) {
+    this.key = entityPb.hasKey() ? (K) IncompleteKey.fromPb(entityPb.getKey()) : null;
+    this.entityPb = entityPb;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(key, properties);
+    return Objects.hash(key, properties());
   }
 
   @Override
@@ -474,7 +494,7 @@ public abstract class BaseEntity<K extends IncompleteKey>
     }
     BaseEntity<?> other = (BaseEntity<?>) obj;
     return Objects.equals(key, other.key)
-        && Objects.equals(properties, other.properties);
+        && Objects.equals(properties(), other.properties());
   }
 
   /**
@@ -495,6 +515,9 @@ public abstract class BaseEntity<K extends IncompleteKey>
    * Returns {@code true} if the entity contains a property with the given {@code name}.
    */
   public boolean contains(String name) {
+    if (properties == null) {
+      return entityPb.getProperties().containsKey(name);
+    }
     return properties.containsKey(name);
   }
 
@@ -504,6 +527,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
    * @throws DatastoreException if not such property
    */
   public <V extends Value<?>> V getValue(String name) {
+    if (properties == null) {
+      @SuppressWarnings("unchecked")
+      V property = (V) Value.fromPb(valuePb(name));
+      return property;
+    }
     @SuppressWarnings("unchecked")
     V property = (V) properties.get(name);
     if (property == null) {
@@ -512,12 +540,45 @@ public abstract class BaseEntity<K extends IncompleteKey>
     return property;
   }
 
+  /**
+   * Returns the protobuf of the given property of a lazily decoded entity.
+   *
+   * @throws DatastoreException if not such property
+   */
+  private com.google.datastore.v1beta3.Value valuePb(String name) {
+    Map<String, com.google.datastore.v1beta3.Value> propertiesPb = entityPb.getProperties();
+    com.google.datastore.v1beta3.Value valuePb = propertiesPb.get(name);
+    if (valuePb == null) {
+      throw DatastoreException.throwInvalidRequest("No such property %s", name);
+    }
+    return valuePb;
+  }
+
+  /**
+   * Returns the protobuf of the given property if the entity is lazily decoded and the property
+   * has the given type, {@code null} otherwise.
+   *
+   * @throws DatastoreException if not such property
+   */
+  private com.google.datastore.v1beta3.Value valuePb(String name,
+      com.google.datastore.v1beta3.Value.ValueTypeCase type) {
+    if (properties != null) {
+      return null;
+    }
+    com.google.datastore.v1beta3.Value valuePb = valuePb(name);
+    return valuePb.getValueTypeCase() == type ? valuePb : null;
+  }
+
   /**
    * Returns true if property is an instance of NullValue.
    *
    * @throws DatastoreException if not such property
    */
   public boolean isNull(String name) {
+    if (properties == null) {
+      return valuePb(name).getValueTypeCase()
+          == com.google.datastore.v1beta3.Value.ValueTypeCase.NULL_VALUE;
+    }
     return getValue(name) instanceof NullValue;
   }
 
@@ -530,6 +591,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
    */
   @SuppressWarnings("unchecked")
   public String getString(String name) {
+    com.google.datastore.v1beta3.Value valuePb =
+        valuePb(name, com.google.datastore.v1beta3.Value.ValueTypeCase.STRING_VALUE);
+    if (valuePb != null) {
+      return valuePb.getStringValue();
+    }
     return ((Value<String>) getValue(name)).get();
   }
 
@@ -541,6 +607,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
    */
   @SuppressWarnings("unchecked")
   public long getLong(String name) {
+    com.google.datastore.v1beta3.Value valuePb =
+        valuePb(name, com.google.datastore.v1beta3.Value.ValueTypeCase.INTEGER_VALUE);
+    if (valuePb != null) {
+      return valuePb.getIntegerValue();
+    }
     return ((Value<Long>) getValue(name)).get();
   }
 
@@ -552,6 +623,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
    */
   @SuppressWarnings("unchecked")
   public double getDouble(String name) {
+    com.google.datastore.v1beta3.Value valuePb =
+        valuePb(name, com.google.datastore.v1beta3.Value.ValueTypeCase.DOUBLE_VALUE);
+    if (valuePb != null) {
+      return valuePb.getDoubleValue();
+    }
     return ((Value<Double>) getValue(name)).get();
   }
 
@@ -563,6 +639,11 @@ public abstract class BaseEntity<K extends IncompleteKey>
    */
   @SuppressWarnings("unchecked")
   public boolean getBoolean(String name) {
+    com.google.datastore.v1beta3.Value valuePb =
+        valuePb(name, com.google.datastore.v1beta3.Value.ValueTypeCase.BOOLEAN_VALUE);
+    if (valuePb != null) {
+      return valuePb.getBooleanValue();
+    }
     return ((Value<Boolean>) getValue(name)).get();
   }
 
@@ -636,11 +717,24 @@ public abstract class BaseEntity<K extends IncompleteKey>
    * Returns the properties name.
    */
   public Set<String> names() {
+    if (properties == null) {
+      return ImmutableSortedSet.copyOf(entityPb.getProperties().keySet());
+    }
     return properties.keySet();
   }
 
   ImmutableSortedMap<String, Value<?>> properties() {
-    return properties;
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    if (decoded == null) {
+      ImmutableSortedMap.Builder<String, Value<?>> builder = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<String, com.google.datastore.v1beta3.Value> entry :
+          entityPb.getProperties().entrySet()) {
+        builder.put(entry.getKey(), Value.fromPb(entry.getValue()));
+      }
+      decoded = builder.build();
+      properties = decoded;
+    }
+    return decoded;
   }
 
   @Override
@@ -654,6 +748,9 @@ public abstract class BaseEntity<K extends IncompleteKey>
 
   @Override
   final com.google.datastore.v1beta3.Entity toPb() {
+    if (this.entityPb != null) {
+      return this.entityPb;
+    }
     com.google.datastore.v1beta3.Entity.Builder entityPb =
         com.google.datastore.v1beta3.Entity.newBuilder();
     Map<String, com.google.datastore.v1beta3.Value> propertiesPb = entityPb.getMutableProperties();
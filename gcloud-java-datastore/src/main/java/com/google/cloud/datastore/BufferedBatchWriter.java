@@ -0,0 +1,560 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers a continuous stream of writes and commits them in the background as non-transactional
+ * batches. Writes can be added concurrently from any number of threads. The buffered writes are
+ * committed as soon as {@link Builder#batchSize(int)} of them are buffered, or once the oldest
+ * of them has waited for {@link Builder#lingerTime(long, TimeUnit)}. Up to
+ * {@link Builder#concurrency(int)} commits are in flight at any time. Each write returns a
+ * {@link ListenableFuture} that is completed when the write has been committed, or fails with a
+ * {@link DatastoreException} if the write failed.
+ *
+ * <p>Buffered writes to the same key are coalesced following the rules of
+ * {@link DatastoreBatchWriter}: a put or a delete replaces any buffered write to the same key, an
+ * update following an add or a put becomes a put, and an add following a delete becomes a put.
+ * A replaced write completes with the outcome of the write that replaced it. An add following a
+ * buffered add, put or update, and an update following a buffered delete, fail immediately with a
+ * {@link DatastoreException}, as they would fail when committed. Writes to a key that is part of
+ * an in-flight commit stay buffered until that commit completes, so that writes to the same key
+ * are applied in the order they were added.
+ *
+ * <p>If a commit fails with a non-retryable error, for instance because one of its entities is
+ * invalid, its writes are committed again in two halves, recursively, so that only the writes
+ * causing the error fail. Retryable errors are retried according to the
+ * {@link DatastoreOptions#retryParams() retry parameters} of the {@code Datastore} service.
+ *
+ * <p>At most {@link Builder#maxPendingWrites(int)} writes can be buffered or in flight at any
+ * time. Adding a write beyond that limit blocks until earlier writes complete, so that producers
+ * are slowed down to the rate at which writes are committed.
+ *
+ * <p>Example of storing a stream of entities:
+ * <pre> {@code
+ * BufferedBatchWriter writer = BufferedBatchWriter.builder(datastore).build();
+ * List<ListenableFuture<Void>> results = new ArrayList<>();
+ * for (Entity entity : entities) {
+ *   results.add(writer.put(entity));
+ * }
+ * writer.shutdown();
+ * Futures.allAsList(results).get();
+ * }</pre>
+ */
+public final class BufferedBatchWriter {
+
+  private static final int MAX_BATCH_SIZE = 500;
+  private static final int DEFAULT_CONCURRENCY = 4;
+  private static final long DEFAULT_LINGER_MILLIS = 100;
+
+  private final Datastore datastore;
+  private final int batchSize;
+  private final long lingerNanos;
+  private final Semaphore pendingWrites;
+  private final ScheduledThreadPoolExecutor executor;
+  // buffered writes, by key; writes of entities with an incomplete key are keyed by themselves
+  private final Map<Object, Write<?>> buffered = new LinkedHashMap<>();
+  private final Set<Key> inFlightKeys = new HashSet<>();
+  private ScheduledFuture<?> lingerFuture;
+  private boolean shutdown;
+
+  /**
+   * Builder for {@code BufferedBatchWriter} objects.
+   */
+  public static final class Builder {
+
+    private final Datastore datastore;
+    private int batchSize = MAX_BATCH_SIZE;
+    private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LINGER_MILLIS);
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int maxPendingWrites;
+
+    private Builder(Datastore datastore) {
+      this.datastore = checkNotNull(datastore);
+    }
+
+    /**
+     * Sets the number of buffered writes that causes a commit. Must be between 1 and 500, the
+     * maximum number of mutations in a commit. Default is 500.
+     */
+    public Builder batchSize(int batchSize) {
+      checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+          "batchSize must be between 1 and %s", MAX_BATCH_SIZE);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets how long a write can stay buffered before the buffered writes are committed, even if
+     * they are fewer than {@link #batchSize(int)}. Default is 100 milliseconds.
+     */
+    public Builder lingerTime(long lingerTime, TimeUnit unit) {
+      checkArgument(lingerTime >= 0, "lingerTime must not be negative");
+      this.lingerNanos = unit.toNanos(lingerTime);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of commits in flight. Default is 4.
+     */
+    public Builder concurrency(int concurrency) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of writes that can be buffered or in flight. Adding writes beyond
+     * this limit blocks the caller. Default is twice the number of writes in
+     * {@link #concurrency(int)} full batches.
+     */
+    public Builder maxPendingWrites(int maxPendingWrites) {
+      checkArgument(maxPendingWrites > 0, "maxPendingWrites must be positive");
+      this.maxPendingWrites = maxPendingWrites;
+      return this;
+    }
+
+    /**
+     * Creates a {@code BufferedBatchWriter} object.
+     */
+    public BufferedBatchWriter build() {
+      return new BufferedBatchWriter(this);
+    }
+  }
+
+  /**
+   * A write waiting to be committed.
+   */
+  private abstract static class Write<T> {
+
+    final SettableFuture<T> future = SettableFuture.create();
+
+    /**
+     * Returns the key of the written entity, {@code null} if the key is incomplete.
+     */
+    abstract Key key();
+
+    abstract void addTo(Batch batch);
+
+    /**
+     * Prepares this write to replace {@code previous}, a buffered write to the same key. Returns
+     * {@code false} if this write can not follow {@code previous}.
+     */
+    boolean replace(Write<?> previous) {
+      return true;
+    }
+
+    /**
+     * Returns whether the write stores its entity whether or not it exists.
+     */
+    boolean upserts() {
+      return false;
+    }
+
+    /**
+     * Returns whether the write allocates an id, returned by {@link Batch.Response#generatedKeys}.
+     */
+    boolean allocatesId() {
+      return false;
+    }
+
+    /**
+     * Completes the write. {@code generatedKey} is the allocated key if the write allocates an
+     * id.
+     */
+    abstract void succeed(Key generatedKey);
+
+    void fail(Throwable error) {
+      future.setException(error);
+    }
+  }
+
+  private static final class AddWrite extends Write<Entity> {
+
+    private final FullEntity<?> entity;
+    // whether the add follows a delete, and is committed as a put
+    private boolean upsert;
+
+    private AddWrite(FullEntity<?> entity) {
+      this.entity = entity;
+    }
+
+    @Override
+    Key key() {
+      return entity.key() instanceof Key ? (Key) entity.key() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    void addTo(Batch batch) {
+      if (upsert) {
+        batch.put(Entity.convert((FullEntity<Key>) entity));
+      } else {
+        batch.addWithDeferredIdAllocation(entity);
+      }
+    }
+
+    @Override
+    boolean replace(Write<?> previous) {
+      upsert = previous instanceof DeleteWrite;
+      return upsert;
+    }
+
+    @Override
+    boolean upserts() {
+      return upsert;
+    }
+
+    @Override
+    boolean allocatesId() {
+      return key() == null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    void succeed(Key generatedKey) {
+      future.set(generatedKey != null ? Entity.builder(generatedKey, entity).build()
+          : Entity.convert((FullEntity<Key>) entity));
+    }
+  }
+
+  private static final class PutWrite extends Write<Void> {
+
+    private final Entity entity;
+    private boolean update;
+
+    private PutWrite(Entity entity, boolean update) {
+      this.entity = entity;
+      this.update = update;
+    }
+
+    @Override
+    Key key() {
+      return entity.key();
+    }
+
+    @Override
+    void addTo(Batch batch) {
+      if (update) {
+        batch.update(entity);
+      } else {
+        batch.put(entity);
+      }
+    }
+
+    @Override
+    boolean replace(Write<?> previous) {
+      if (update) {
+        if (previous instanceof DeleteWrite) {
+          return false;
+        }
+        // the entity exists or is stored by the previous write, the update stores it in any case
+        update = !(previous instanceof AddWrite || previous.upserts());
+      }
+      return true;
+    }
+
+    @Override
+    boolean upserts() {
+      return !update;
+    }
+
+    @Override
+    void succeed(Key generatedKey) {
+      future.set(null);
+    }
+  }
+
+  private static final class DeleteWrite extends Write<Void> {
+
+    private final Key key;
+
+    private DeleteWrite(Key key) {
+      this.key = key;
+    }
+
+    @Override
+    Key key() {
+      return key;
+    }
+
+    @Override
+    void addTo(Batch batch) {
+      batch.delete(key);
+    }
+
+    @Override
+    void succeed(Key generatedKey) {
+      future.set(null);
+    }
+  }
+
+  private BufferedBatchWriter(Builder builder) {
+    this.datastore = builder.datastore;
+    this.batchSize = builder.batchSize;
+    this.lingerNanos = builder.lingerNanos;
+    this.pendingWrites = new Semaphore(builder.maxPendingWrites > 0
+        ? builder.maxPendingWrites : 2 * builder.concurrency * builder.batchSize);
+    this.executor = new ScheduledThreadPoolExecutor(builder.concurrency);
+    this.executor.setRemoveOnCancelPolicy(true);
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Returns a builder for {@code BufferedBatchWriter} objects.
+   */
+  public static Builder builder(Datastore datastore) {
+    return new Builder(datastore);
+  }
+
+  /**
+   * Buffers the insertion of an entity. If the entity has an incomplete key, an id is allocated
+   * when the entity is committed. The returned future yields the inserted entity, with its
+   * allocated key, or fails with a {@link DatastoreException} if the insertion failed, for
+   * instance because an entity with the same key already exists.
+   *
+   * @throws IllegalArgumentException if the entity has no key
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Entity> add(FullEntity<?> entity) {
+    checkArgument(entity.key() != null, "Entity must have a key");
+    return write(new AddWrite(entity));
+  }
+
+  /**
+   * Buffers the update of an entity. The returned future yields {@code null} when the entity is
+   * updated, or fails with a {@link DatastoreException} if the update failed, for instance
+   * because the entity does not exist.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Void> update(Entity entity) {
+    return write(new PutWrite(entity, true));
+  }
+
+  /**
+   * Buffers the insertion or update of an entity. The returned future yields {@code null} when
+   * the entity is stored, or fails with a {@link DatastoreException} if the write failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Void> put(Entity entity) {
+    return write(new PutWrite(entity, false));
+  }
+
+  /**
+   * Buffers the deletion of an entity. The returned future yields {@code null} when the entity
+   * is deleted or if it did not exist, or fails with a {@link DatastoreException} if the deletion
+   * failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Void> delete(Key key) {
+    return write(new DeleteWrite(checkNotNull(key)));
+  }
+
+  private <T> ListenableFuture<T> write(Write<T> write) {
+    synchronized (this) {
+      checkNotShutdown();
+    }
+    pendingWrites.acquireUninterruptibly();
+    synchronized (this) {
+      if (shutdown) {
+        pendingWrites.release();
+        checkNotShutdown();
+      }
+      Key key = write.key();
+      Write<?> previous = key != null ? buffered.get(key) : null;
+      if (previous != null && !write.replace(previous)) {
+        pendingWrites.release();
+        write.fail(new DatastoreException(DatastoreException.UNKNOWN_CODE, String.format(
+            "Entity with the key %s was already %s in this writer", key,
+            previous instanceof DeleteWrite ? "deleted" : "added or updated"),
+            "FAILED_PRECONDITION"));
+        return write.future;
+      }
+      final Write<?> replaced = buffered.put(key != null ? key : write, write);
+      if (replaced != null) {
+        // the replaced write no longer holds a slot, it completes along with the new one
+        pendingWrites.release();
+        Futures.addCallback(write.future, new FutureCallback<Object>() {
+          @Override
+          public void onSuccess(Object result) {
+            replaced.succeed(null);
+          }
+
+          @Override
+          public void onFailure(Throwable error) {
+            replaced.fail(error);
+          }
+        }, MoreExecutors.directExecutor());
+      }
+      if (buffered.size() >= batchSize) {
+        commitBuffered();
+      } else if (lingerFuture == null) {
+        lingerFuture = executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (BufferedBatchWriter.this) {
+              lingerFuture = null;
+              commitBuffered();
+            }
+          }
+        }, lingerNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    return write.future;
+  }
+
+  /**
+   * Throws if this object was shut down. Must be called holding this object's lock.
+   */
+  private void checkNotShutdown() {
+    if (shutdown) {
+      throw new RejectedExecutionException("BufferedBatchWriter was shut down");
+    }
+  }
+
+  /**
+   * Commits up to {@code batchSize} buffered writes, skipping the writes to keys of in-flight
+   * commits. Must be called holding this object's lock.
+   */
+  private void commitBuffered() {
+    if (lingerFuture != null) {
+      lingerFuture.cancel(false);
+      lingerFuture = null;
+    }
+    final List<Write<?>> writes = new ArrayList<>(Math.min(batchSize, buffered.size()));
+    Iterator<Write<?>> iterator = buffered.values().iterator();
+    while (iterator.hasNext() && writes.size() < batchSize) {
+      Write<?> write = iterator.next();
+      Key key = write.key();
+      if (key == null || inFlightKeys.add(key)) {
+        writes.add(write);
+        iterator.remove();
+      }
+    }
+    if (writes.isEmpty()) {
+      // all buffered writes wait for in-flight commits, they are committed when those complete
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          commit(writes);
+        } finally {
+          pendingWrites.release(writes.size());
+          synchronized (BufferedBatchWriter.this) {
+            for (Write<?> write : writes) {
+              inFlightKeys.remove(write.key());
+            }
+            if (!buffered.isEmpty() && (buffered.size() >= batchSize || lingerFuture == null)) {
+              commitBuffered();
+            }
+            if (shutdown && buffered.isEmpty()) {
+              executor.shutdown();
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Commits the provided writes as a single batch. If the batch fails with a non-retryable error,
+   * commits each half of the writes separately.
+   */
+  private void commit(List<Write<?>> writes) {
+    try {
+      Batch batch = datastore.newBatch();
+      for (Write<?> write : writes) {
+        write.addTo(batch);
+      }
+      Iterator<Key> generatedKeys = batch.submit().generatedKeys().iterator();
+      for (Write<?> write : writes) {
+        write.succeed(write.allocatesId() ? generatedKeys.next() : null);
+      }
+    } catch (RuntimeException ex) {
+      boolean retryable = ex instanceof DatastoreException && ((DatastoreException) ex).retryable();
+      if (writes.size() > 1 && !retryable) {
+        int half = writes.size() / 2;
+        commit(writes.subList(0, half));
+        commit(writes.subList(half, writes.size()));
+      } else {
+        for (Write<?> write : writes) {
+          write.fail(ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Commits the buffered writes without waiting for a full batch or for the linger time to pass.
+   * Writes to keys of in-flight commits are committed when those complete.
+   */
+  public synchronized void flush() {
+    if (!shutdown) {
+      commitBuffered();
+    }
+  }
+
+  /**
+   * Commits the buffered writes and stops accepting new ones. Commits complete in the background,
+   * then the threads committing writes are released. Writes to keys of in-flight commits are
+   * committed when those complete.
+   */
+  public synchronized void shutdown() {
+    if (!shutdown) {
+      shutdown = true;
+      commitBuffered();
+      if (buffered.isEmpty()) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Blocks until all writes have completed after a shutdown request, or the timeout occurs.
+   *
+   * @return {@code true} if all writes completed, {@code false} if the timeout elapsed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
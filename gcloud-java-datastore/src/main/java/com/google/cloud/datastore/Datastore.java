@@ -139,4 +139,11 @@ public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWri
    * @throws DatastoreException upon failure
    */
   <T> QueryResults<T> run(Query<T> query, ReadOption... options);
+
+  /**
+   * Returns the hit, miss and eviction counts of the entity cache, see
+   * {@link DatastoreOptions.Builder#entityCacheSize(long)}. All counts are zero if the cache is
+   * disabled.
+   */
+  EntityCacheStats entityCacheStats();
 }
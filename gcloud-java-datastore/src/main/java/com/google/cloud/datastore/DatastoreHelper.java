@@ -72,17 +72,28 @@ class DatastoreHelper {
   }
 
   private static List<Entity> compileEntities(Key[] keys, Iterator<Entity> entities) {
-    Map<Key, Entity> map = Maps.newHashMapWithExpectedSize(keys.length);
+    // maps each key to the position of its first occurrence, where its entity is stored
+    Map<Key, Integer> positions = Maps.newHashMapWithExpectedSize(keys.length);
+    for (int i = keys.length - 1; i >= 0; i--) {
+      positions.put(keys[i], i);
+    }
+    Entity[] results = new Entity[keys.length];
     while (entities.hasNext()) {
       Entity entity = entities.next();
-      map.put(entity.key(), entity);
+      Integer position = positions.get(entity.key());
+      if (position != null) {
+        results[position] = entity;
+      }
     }
-    List<Entity> list = new ArrayList<>(keys.length);
-    for (Key key : keys) {
-      // this will include nulls for nonexistent keys
-      list.add(map.get(key));
+    if (positions.size() < keys.length) {
+      for (int i = 0; i < keys.length; i++) {
+        if (results[i] == null) {
+          // this will include nulls for nonexistent keys
+          results[i] = results[positions.get(keys[i])];
+        }
+      }
     }
-    return list;
+    return new ArrayList<>(Arrays.asList(results));
   }
 
   static <T> T runInTransaction(Datastore datastore, Datastore.TransactionCallable<T> callable) {
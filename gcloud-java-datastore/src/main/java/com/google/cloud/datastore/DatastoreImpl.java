@@ -21,36 +21,67 @@ import com.google.cloud.RetryHelper;
 import com.google.cloud.RetryHelper.RetryHelperException;
 import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.ReadOption.EventualConsistency;
+import com.google.cloud.datastore.ReadOption.Prefetch;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.datastore.v1beta3.ReadOptions.ReadConsistency;
 import com.google.protobuf.ByteString;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 
 final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datastore {
 
+  // runs the requests of prefetched query batches, threads are released when idle
+  static final ListeningExecutorService PREFETCH_EXECUTOR = MoreExecutors.listeningDecorator(
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("datastore-query-prefetch-%d")
+          .build()));
+
+  // runs the concurrent requests of chunked lookups, threads are released when idle
+  private static final ListeningExecutorService LOOKUP_EXECUTOR = MoreExecutors.listeningDecorator(
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("datastore-lookup-%d")
+          .build()));
+
   private final DatastoreRpc datastoreRpc;
   private final RetryParams retryParams;
+  private final EntityCache entityCache;
 
   DatastoreImpl(DatastoreOptions options) {
     super(options);
     this.datastoreRpc = options.rpc();
     retryParams = MoreObjects.firstNonNull(options.retryParams(), RetryParams.noRetries());
+    entityCache = options.entityCacheSize() > 0
+        ? new EntityCache(options.entityCacheSize(), options.entityCacheTtlMillis()) : null;
   }
 
   @Override
@@ -75,11 +106,18 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
 
   @Override
   public <T> QueryResults<T> run(Query<T> query, ReadOption... options) {
-    return run(toReadOptionsPb(options), query);
+    Prefetch prefetch = (Prefetch) ReadOption.asImmutableMap(options).get(Prefetch.class);
+    return run(toReadOptionsPb(options), query,
+        prefetch != null ? prefetch.batches() : options().queryPrefetchBatches());
   }
 
   <T> QueryResults<T> run(com.google.datastore.v1beta3.ReadOptions readOptionsPb, Query<T> query) {
-    return new QueryResultsImpl<>(this, readOptionsPb, query);
+    return run(readOptionsPb, query, options().queryPrefetchBatches());
+  }
+
+  private <T> QueryResults<T> run(com.google.datastore.v1beta3.ReadOptions readOptionsPb,
+      Query<T> query, int prefetchBatches) {
+    return new QueryResultsImpl<>(this, readOptionsPb, query, prefetchBatches);
   }
 
   com.google.datastore.v1beta3.RunQueryResponse runQuery(
@@ -200,18 +238,38 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
 
   @Override
   public Iterator<Entity> get(Key... keys) {
-    return get(null, keys);
+    return get(Arrays.asList(keys));
   }
 
   @Override
   public Iterator<Entity> get(Iterable<Key> keys, ReadOption... options) {
-    return get(toReadOptionsPb(options), Iterables.toArray(keys, Key.class));
+    Key[] keysArray = Iterables.toArray(keys, Key.class);
+    com.google.datastore.v1beta3.ReadOptions readOptionsPb = toReadOptionsPb(options);
+    if (entityCache == null || keysArray.length == 0) {
+      return get(readOptionsPb, keysArray);
+    }
+    EventualConsistency consistency =
+        (EventualConsistency) ReadOption.asImmutableMap(options).get(EventualConsistency.class);
+    if (consistency == null || !consistency.isEventual()) {
+      return entityCache.refresh(Arrays.asList(keysArray), get(readOptionsPb, keysArray));
+    }
+    EntityCache.Lookup lookup = entityCache.lookup(Arrays.asList(keysArray));
+    Set<Key> uncached = lookup.uncached();
+    return lookup.results(uncached.isEmpty() ? Collections.<Entity>emptyIterator()
+        : get(readOptionsPb, uncached.toArray(new Key[uncached.size()])));
+  }
+
+  @Override
+  public EntityCacheStats entityCacheStats() {
+    return entityCache != null ? entityCache.stats() : EntityCacheStats.EMPTY;
   }
 
   private static com.google.datastore.v1beta3.ReadOptions toReadOptionsPb(ReadOption... options) {
     com.google.datastore.v1beta3.ReadOptions readOptionsPb = null;
-    if (options != null
-        && ReadOption.asImmutableMap(options).containsKey(EventualConsistency.class)) {
+    EventualConsistency consistency = options != null
+        ? (EventualConsistency) ReadOption.asImmutableMap(options).get(EventualConsistency.class)
+        : null;
+    if (consistency != null && consistency.isEventual()) {
       readOptionsPb = com.google.datastore.v1beta3.ReadOptions.newBuilder()
           .setReadConsistency(ReadConsistency.EVENTUAL)
           .build();
@@ -233,46 +291,97 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     if (keys.length == 0) {
       return Collections.emptyIterator();
     }
-    com.google.datastore.v1beta3.LookupRequest.Builder requestPb =
-        com.google.datastore.v1beta3.LookupRequest.newBuilder();
-    if (readOptionsPb != null) {
-      requestPb.setReadOptions(readOptionsPb);
-    }
+    List<com.google.datastore.v1beta3.Key> keysPb = new ArrayList<>(keys.length);
     for (Key k : Sets.newLinkedHashSet(Arrays.asList(keys))) {
-      requestPb.addKeys(k.toPb());
+      keysPb.add(k.toPb());
     }
-    return new ResultsIterator(requestPb);
+    return new ResultsIterator(readOptionsPb, keysPb);
   }
 
+  /**
+   * Iterates over the results of a lookup. Keys are looked up in chunks of at most
+   * {@link DatastoreOptions#lookupChunkSize()} keys; up to
+   * {@link DatastoreOptions#lookupConcurrency()} chunks are looked up concurrently and their
+   * results are returned as they arrive. Keys deferred by the service are looked up again in a
+   * new chunk, concurrently with the remaining ones.
+   */
   final class ResultsIterator extends AbstractIterator<Entity> {
 
-    private final com.google.datastore.v1beta3.LookupRequest.Builder requestPb;
-    Iterator<com.google.datastore.v1beta3.EntityResult> iter;
-
-    ResultsIterator(com.google.datastore.v1beta3.LookupRequest.Builder requestPb) {
-      this.requestPb = requestPb;
+    private final com.google.datastore.v1beta3.ReadOptions readOptionsPb;
+    private final int chunkSize = options().lookupChunkSize();
+    private final int concurrency = options().lookupConcurrency();
+    private final boolean lazy = options().lazyEntityDecoding();
+    private final Deque<com.google.datastore.v1beta3.LookupRequest> pending = new ArrayDeque<>();
+    private final BlockingQueue<ListenableFuture<com.google.datastore.v1beta3.LookupResponse>>
+        completed = new LinkedBlockingQueue<>();
+    private int running;
+    private Iterator<com.google.datastore.v1beta3.EntityResult> iter;
+
+    ResultsIterator(com.google.datastore.v1beta3.ReadOptions readOptionsPb,
+        List<com.google.datastore.v1beta3.Key> keysPb) {
+      this.readOptionsPb = readOptionsPb;
+      addChunks(keysPb);
       loadResults();
     }
 
+    private void addChunks(List<com.google.datastore.v1beta3.Key> keysPb) {
+      for (List<com.google.datastore.v1beta3.Key> chunk : Lists.partition(keysPb, chunkSize)) {
+        com.google.datastore.v1beta3.LookupRequest.Builder requestPb =
+            com.google.datastore.v1beta3.LookupRequest.newBuilder();
+        if (readOptionsPb != null) {
+          requestPb.setReadOptions(readOptionsPb);
+        }
+        pending.add(requestPb.addAllKeys(chunk).build());
+      }
+    }
+
     private void loadResults() {
-      com.google.datastore.v1beta3.LookupResponse responsePb = lookup(requestPb.build());
+      // a single outstanding chunk, or serial lookups, are looked up in the calling thread
+      while (concurrency > 1 && running < concurrency && !pending.isEmpty()
+          && (running > 0 || pending.size() > 1)) {
+        final com.google.datastore.v1beta3.LookupRequest requestPb = pending.poll();
+        final ListenableFuture<com.google.datastore.v1beta3.LookupResponse> future =
+            LOOKUP_EXECUTOR.submit(new Callable<com.google.datastore.v1beta3.LookupResponse>() {
+              @Override
+              public com.google.datastore.v1beta3.LookupResponse call() {
+                return lookup(requestPb);
+              }
+            });
+        future.addListener(new Runnable() {
+          @Override
+          public void run() {
+            completed.add(future);
+          }
+        }, MoreExecutors.directExecutor());
+        running++;
+      }
+      com.google.datastore.v1beta3.LookupResponse responsePb;
+      if (running == 0) {
+        responsePb = lookup(pending.poll());
+      } else {
+        running--;
+        try {
+          responsePb = Uninterruptibles.getUninterruptibly(
+              Uninterruptibles.takeUninterruptibly(completed));
+        } catch (ExecutionException ex) {
+          throw Throwables.propagate(ex.getCause());
+        }
+      }
       iter = responsePb.getFoundList().iterator();
-      requestPb.clearKeys();
       if (responsePb.getDeferredCount() > 0) {
-        requestPb.addAllKeys(responsePb.getDeferredList());
+        addChunks(responsePb.getDeferredList());
       }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected Entity computeNext() {
       while (!iter.hasNext()) {
-        if (requestPb.getKeysCount() == 0) {
+        if (running == 0 && pending.isEmpty()) {
           return endOfData();
         }
         loadResults();
       }
-      return Entity.fromPb(iter.next().getEntity());
+      return Entity.fromPb(iter.next().getEntity(), lazy);
     }
   }
 
@@ -368,7 +477,41 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
           EXCEPTION_HANDLER, options().clock());
     } catch (RetryHelperException e) {
       throw DatastoreException.translateAndThrow(e);
+    } finally {
+      // a failed non-transactional commit may have applied some of its mutations
+      invalidateCachedEntities(requestPb);
+    }
+  }
+
+  private void invalidateCachedEntities(com.google.datastore.v1beta3.CommitRequest requestPb) {
+    if (entityCache == null) {
+      return;
+    }
+    List<Key> keys = new ArrayList<>(requestPb.getMutationsCount());
+    for (com.google.datastore.v1beta3.Mutation mutationPb : requestPb.getMutationsList()) {
+      com.google.datastore.v1beta3.Key keyPb;
+      switch (mutationPb.getOperationCase()) {
+        case INSERT:
+          keyPb = mutationPb.getInsert().getKey();
+          break;
+        case UPDATE:
+          keyPb = mutationPb.getUpdate().getKey();
+          break;
+        case UPSERT:
+          keyPb = mutationPb.getUpsert().getKey();
+          break;
+        case DELETE:
+          keyPb = mutationPb.getDelete();
+          break;
+        default:
+          continue;
+      }
+      IncompleteKey key = IncompleteKey.fromPb(keyPb);
+      if (key instanceof Key) {
+        keys.add((Key) key);
+      }
     }
+    entityCache.invalidate(keys);
   }
 
   ByteString requestTransactionId(
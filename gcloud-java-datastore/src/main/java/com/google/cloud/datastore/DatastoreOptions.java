@@ -17,6 +17,7 @@
 package com.google.cloud.datastore;
 
 import static com.google.cloud.datastore.Validator.validateNamespace;
+import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.datastore.spi.DatastoreRpc;
@@ -28,14 +29,24 @@ import com.google.common.collect.ImmutableSet;
 import java.lang.reflect.Method;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, DatastoreOptions> {
 
   private static final long serialVersionUID = 5056049000758143852L;
   private static final String DATASTORE_SCOPE = "https://www.googleapis.com/auth/datastore";
   private static final Set<String> SCOPES = ImmutableSet.of(DATASTORE_SCOPE);
+  private static final int MAX_LOOKUP_CHUNK_SIZE = 1000;
+  private static final int DEFAULT_LOOKUP_CONCURRENCY = 4;
+  private static final long DEFAULT_ENTITY_CACHE_TTL_MILLIS = 60_000;
 
   private final String namespace;
+  private final int queryPrefetchBatches;
+  private final int lookupChunkSize;
+  private final int lookupConcurrency;
+  private final long entityCacheSize;
+  private final long entityCacheTtlMillis;
+  private final boolean lazyEntityDecoding;
 
   public static class DefaultDatastoreFactory implements DatastoreFactory {
 
@@ -61,6 +72,12 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
       ServiceOptions.Builder<Datastore, DatastoreRpc, DatastoreOptions, Builder> {
 
     private String namespace;
+    private int queryPrefetchBatches;
+    private int lookupChunkSize = MAX_LOOKUP_CHUNK_SIZE;
+    private int lookupConcurrency = DEFAULT_LOOKUP_CONCURRENCY;
+    private long entityCacheSize;
+    private long entityCacheTtlMillis = DEFAULT_ENTITY_CACHE_TTL_MILLIS;
+    private boolean lazyEntityDecoding;
 
     private Builder() {
     }
@@ -68,6 +85,12 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
     private Builder(DatastoreOptions options) {
       super(options);
       namespace = options.namespace;
+      queryPrefetchBatches = options.queryPrefetchBatches;
+      lookupChunkSize = options.lookupChunkSize;
+      lookupConcurrency = options.lookupConcurrency;
+      entityCacheSize = options.entityCacheSize;
+      entityCacheTtlMillis = options.entityCacheTtlMillis;
+      lazyEntityDecoding = options.lazyEntityDecoding;
     }
 
     @Override
@@ -82,11 +105,100 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
       this.namespace = validateNamespace(namespace);
       return this;
     }
+
+    /**
+     * Sets how many batches of query results are fetched ahead of the batch being iterated. When
+     * positive, the request for the next batch is sent in the background as soon as a batch is
+     * received, so that the network round trip overlaps with the processing of the current batch;
+     * at most {@code queryPrefetchBatches} batches are buffered per query. Can be overridden for
+     * a single query with {@link ReadOption#prefetch(int)}. Default is {@code 0}, batches are
+     * fetched when the previous one has been iterated.
+     */
+    public Builder queryPrefetchBatches(int queryPrefetchBatches) {
+      checkArgument(queryPrefetchBatches >= 0, "queryPrefetchBatches must not be negative");
+      this.queryPrefetchBatches = queryPrefetchBatches;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of keys sent in a single lookup request. Lookups of more keys, for
+     * instance with {@link Datastore#get(Iterable, ReadOption...)} or
+     * {@link Datastore#fetch(Iterable, ReadOption...)}, are split into several requests. Must be
+     * between 1 and 1000 (the maximum number of keys accepted by the service). Default is
+     * {@code 1000}.
+     */
+    public Builder lookupChunkSize(int lookupChunkSize) {
+      checkArgument(lookupChunkSize > 0 && lookupChunkSize <= MAX_LOOKUP_CHUNK_SIZE,
+          "lookupChunkSize must be between 1 and %s", MAX_LOOKUP_CHUNK_SIZE);
+      this.lookupChunkSize = lookupChunkSize;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of lookup requests sent concurrently for a single lookup. The
+     * requests for the chunks of a large lookup, and for the keys deferred by the service, are
+     * sent in the background and their results are returned as they arrive. If {@code 1}, the
+     * requests are sent one after the other when the previous results have been iterated.
+     * Default is {@code 4}.
+     */
+    public Builder lookupConcurrency(int lookupConcurrency) {
+      checkArgument(lookupConcurrency > 0, "lookupConcurrency must be positive");
+      this.lookupConcurrency = lookupConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of entities kept in the entity cache of the service. When positive,
+     * the entities returned by non-transactional gets and fetches, and the keys of the entities
+     * found not to exist, are cached for {@link #entityCacheTtl(long, TimeUnit)}. Only gets and
+     * fetches with {@link ReadOption#eventualConsistency()} are served from the cache; other
+     * lookups are strongly consistent, always read from Datastore and refresh the cache. Cached
+     * entities are invalidated when the service commits a mutation of their key, including
+     * mutations in batches and transactions. Mutations made by other clients are not seen by
+     * eventually consistent gets until the cached entities expire. Lookups in transactions
+     * bypass the cache. Default is {@code 0}, the cache is disabled.
+     *
+     * @see Datastore#entityCacheStats()
+     */
+    public Builder entityCacheSize(long entityCacheSize) {
+      checkArgument(entityCacheSize >= 0, "entityCacheSize must not be negative");
+      this.entityCacheSize = entityCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets how long an entity is kept in the entity cache after it was looked up. Default is 1
+     * minute.
+     */
+    public Builder entityCacheTtl(long ttl, TimeUnit unit) {
+      checkArgument(ttl > 0, "ttl must be positive");
+      this.entityCacheTtlMillis = unit.toMillis(ttl);
+      return this;
+    }
+
+    /**
+     * Sets whether the entities returned by gets, fetches and queries decode their properties
+     * when accessed rather than when received. Lazily decoded entities keep the protobuf they were
+     * read from; reading a few properties of each entity, in particular with
+     * {@link BaseEntity#getLong(String)}, {@link BaseEntity#getDouble(String)},
+     * {@link BaseEntity#getBoolean(String)} or {@link BaseEntity#getString(String)}, then
+     * allocates far fewer objects. Default is {@code false}.
+     */
+    public Builder lazyEntityDecoding(boolean lazyEntityDecoding) {
+      this.lazyEntityDecoding = lazyEntityDecoding;
+      return this;
+    }
   }
 
   private DatastoreOptions(Builder builder) {
     super(DatastoreFactory.class, DatastoreRpcFactory.class, builder);
     namespace = builder.namespace != null ? builder.namespace : defaultNamespace();
+    queryPrefetchBatches = builder.queryPrefetchBatches;
+    lookupChunkSize = builder.lookupChunkSize;
+    lookupConcurrency = builder.lookupConcurrency;
+    entityCacheSize = builder.entityCacheSize;
+    entityCacheTtlMillis = builder.entityCacheTtlMillis;
+    lazyEntityDecoding = builder.lazyEntityDecoding;
   }
 
   @Override
@@ -122,6 +234,50 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
     return namespace;
   }
 
+  /**
+   * Returns how many batches of query results are fetched ahead of the batch being iterated.
+   */
+  public int queryPrefetchBatches() {
+    return queryPrefetchBatches;
+  }
+
+  /**
+   * Returns the maximum number of keys sent in a single lookup request.
+   */
+  public int lookupChunkSize() {
+    return lookupChunkSize;
+  }
+
+  /**
+   * Returns the maximum number of lookup requests sent concurrently for a single lookup.
+   */
+  public int lookupConcurrency() {
+    return lookupConcurrency;
+  }
+
+  /**
+   * Returns the maximum number of entities kept in the entity cache, {@code 0} if the cache is
+   * disabled.
+   */
+  public long entityCacheSize() {
+    return entityCacheSize;
+  }
+
+  /**
+   * Returns how long, in milliseconds, an entity is kept in the entity cache after it was looked
+   * up.
+   */
+  public long entityCacheTtlMillis() {
+    return entityCacheTtlMillis;
+  }
+
+  /**
+   * Returns whether the entities returned by the service decode their properties when accessed.
+   */
+  public boolean lazyEntityDecoding() {
+    return lazyEntityDecoding;
+  }
+
   /**
    * Returns a default {@code DatastoreOptions} instance.
    */
@@ -154,7 +310,8 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
 
   @Override
   public int hashCode() {
-    return Objects.hash(baseHashCode(), namespace);
+    return Objects.hash(baseHashCode(), namespace, queryPrefetchBatches, lookupChunkSize,
+        lookupConcurrency, entityCacheSize, entityCacheTtlMillis, lazyEntityDecoding);
   }
 
   @Override
@@ -163,7 +320,13 @@ public class DatastoreOptions extends ServiceOptions<Datastore, DatastoreRpc, Da
       return false;
     }
     DatastoreOptions other = (DatastoreOptions) obj;
-    return baseEquals(other) && Objects.equals(namespace, other.namespace);
+    return baseEquals(other) && Objects.equals(namespace, other.namespace)
+        && queryPrefetchBatches == other.queryPrefetchBatches
+        && lookupChunkSize == other.lookupChunkSize
+        && lookupConcurrency == other.lookupConcurrency
+        && entityCacheSize == other.entityCacheSize
+        && entityCacheTtlMillis == other.entityCacheTtlMillis
+        && lazyEntityDecoding == other.lazyEntityDecoding;
   }
 
   public static Builder builder() {
@@ -68,6 +68,11 @@ public final class Entity extends FullEntity<Key> {
     Preconditions.checkArgument(from.key() != null);
   }
 
+  private Entity(com.google.datastore.v1beta3.Entity entityPb) {
+    super(entityPb);
+    Preconditions.checkArgument(key() != null);
+  }
+
   @Override
   protected BaseEntity.Builder<Key, Builder> emptyBuilder() {
     return new Builder();
@@ -95,4 +100,15 @@ public final class Entity extends FullEntity<Key> {
   static Entity fromPb(com.google.datastore.v1beta3.Entity entityPb) {
     return new Builder().fill(entityPb).build();
   }
+
+  /**
+   * Returns an entity whose properties are decoded from {@code entityPb} when accessed.
+   */
+  static Entity lazyFromPb(com.google.datastore.v1beta3.Entity entityPb) {
+    return new Entity(entityPb);
+  }
+
+  static Entity fromPb(com.google.datastore.v1beta3.Entity entityPb, boolean lazy) {
+    return lazy ? lazyFromPb(entityPb) : fromPb(entityPb);
+  }
 }
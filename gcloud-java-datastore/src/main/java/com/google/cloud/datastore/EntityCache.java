@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of the entities looked up by a {@link DatastoreImpl}, keyed by
+ * {@link Key}. Nonexistent entities are cached too. Entries expire after a fixed time, and are
+ * invalidated when the service commits mutations of their keys.
+ *
+ * <p>A lookup that started before an invalidation does not populate the cache, as it may have
+ * read the entity before the mutation was committed.
+ */
+final class EntityCache {
+
+  private final Cache<Key, Optional<Entity>> cache;
+  // incremented on every invalidation
+  private final AtomicLong version = new AtomicLong();
+
+  EntityCache(long maximumSize, long ttlMillis) {
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * A lookup split between cached and uncached keys.
+   */
+  final class Lookup {
+
+    private final long startVersion = version.get();
+    private final List<Entity> cached = new ArrayList<>();
+    private final Set<Key> uncached = new HashSet<>();
+
+    private Lookup(Iterable<Key> keys) {
+      for (Key key : keys) {
+        Optional<Entity> entity = cache.getIfPresent(key);
+        if (entity == null) {
+          uncached.add(key);
+        } else if (entity.isPresent()) {
+          cached.add(entity.get());
+        }
+      }
+    }
+
+    /**
+     * Returns the keys that were not found in the cache.
+     */
+    Set<Key> uncached() {
+      return uncached;
+    }
+
+    /**
+     * Returns an iterator over the cached entities, followed by the loaded ones. Loaded entities
+     * are added to the cache as they are iterated; once {@code loaded} is exhausted, the keys of
+     * {@link #uncached()} that were not loaded are cached as nonexistent.
+     */
+    Iterator<Entity> results(final Iterator<Entity> loaded) {
+      final Iterator<Entity> cachedIterator = cached.iterator();
+      return new AbstractIterator<Entity>() {
+        private final Set<Key> missing = new HashSet<>(uncached);
+
+        @Override
+        protected Entity computeNext() {
+          if (cachedIterator.hasNext()) {
+            return cachedIterator.next();
+          }
+          if (loaded.hasNext()) {
+            Entity entity = loaded.next();
+            missing.remove(entity.key());
+            put(entity.key(), Optional.of(entity));
+            return entity;
+          }
+          for (Key key : missing) {
+            put(key, Optional.<Entity>absent());
+          }
+          missing.clear();
+          return endOfData();
+        }
+
+        private void put(Key key, Optional<Entity> entity) {
+          if (version.get() == startVersion) {
+            cache.put(key, entity);
+            if (version.get() != startVersion) {
+              // invalidated concurrently, the entry may be stale
+              cache.invalidate(key);
+            }
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Starts a lookup of {@code keys}, reading the cached entities.
+   */
+  Lookup lookup(Iterable<Key> keys) {
+    return new Lookup(keys);
+  }
+
+  /**
+   * Caches the results of a lookup that did not read the cache. {@code loaded} is added to the
+   * cache as it is iterated, and the keys that were not loaded are cached as nonexistent.
+   */
+  Iterator<Entity> refresh(Iterable<Key> keys, Iterator<Entity> loaded) {
+    Lookup lookup = new Lookup(new ArrayList<Key>());
+    for (Key key : keys) {
+      lookup.uncached.add(key);
+    }
+    return lookup.results(loaded);
+  }
+
+  /**
+   * Invalidates the cached entities of {@code keys}.
+   */
+  void invalidate(Iterable<Key> keys) {
+    version.incrementAndGet();
+    cache.invalidateAll(keys);
+  }
+
+  EntityCacheStats stats() {
+    CacheStats stats = cache.stats();
+    return new EntityCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+        cache.size());
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Statistics of the entity cache of a {@link Datastore} object.
+ *
+ * @see DatastoreOptions.Builder#entityCacheSize(long)
+ * @see Datastore#entityCacheStats()
+ */
+public final class EntityCacheStats implements Serializable {
+
+  private static final long serialVersionUID = -3317458203694471350L;
+
+  static final EntityCacheStats EMPTY = new EntityCacheStats(0, 0, 0, 0);
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long size;
+
+  EntityCacheStats(long hitCount, long missCount, long evictionCount, long size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of keys whose entity, or whose absence, was read from the cache.
+   */
+  public long hitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of keys read through the cache that had to be looked up.
+   */
+  public long missCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of keys read through the cache, {@code hitCount() + missCount()}.
+   */
+  public long requestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * Returns the ratio of hits to requests, {@code 1.0} if there were no requests.
+   */
+  public double hitRate() {
+    long requestCount = requestCount();
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Returns the number of entries evicted because the cache was full or the entry expired.
+   * Entries invalidated by a write through the same {@link Datastore} object are not counted.
+   */
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the approximate number of keys currently cached.
+   */
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hitCount, missCount, evictionCount, size);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof EntityCacheStats)) {
+      return false;
+    }
+    EntityCacheStats other = (EntityCacheStats) obj;
+    return hitCount == other.hitCount
+        && missCount == other.missCount
+        && evictionCount == other.evictionCount
+        && size == other.size;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hitCount", hitCount)
+        .add("missCount", missCount)
+        .add("evictionCount", evictionCount)
+        .add("size", size)
+        .toString();
+  }
+}
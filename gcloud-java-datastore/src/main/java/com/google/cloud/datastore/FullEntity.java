@@ -51,6 +51,10 @@ public class FullEntity<K extends IncompleteKey> extends BaseEntity<K> {
     super(from);
   }
 
+  FullEntity(com.google.datastore.v1beta3.Entity entityPb) {
+    super(entityPb);
+  }
+
   @Override
   protected BaseEntity.Builder<K, ?> emptyBuilder() {
     return new Builder<K>();
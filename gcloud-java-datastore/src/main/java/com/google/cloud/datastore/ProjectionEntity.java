@@ -51,6 +51,10 @@ public final class ProjectionEntity extends BaseEntity<Key> {
     super(builder);
   }
 
+  private ProjectionEntity(com.google.datastore.v1beta3.Entity entityPb) {
+    super(entityPb);
+  }
+
   @SuppressWarnings({"unchecked", "deprecation"})
   @Override
   public DateTime getDateTime(String name) {
@@ -75,6 +79,14 @@ public final class ProjectionEntity extends BaseEntity<Key> {
     return new Builder().fill(entityPb).build();
   }
 
+  /**
+   * Returns a projection entity whose properties are decoded from {@code entityPb} when
+   * accessed.
+   */
+  static ProjectionEntity lazyFromPb(com.google.datastore.v1beta3.Entity entityPb) {
+    return new ProjectionEntity(entityPb);
+  }
+
   @Override
   protected Builder emptyBuilder() {
     return new Builder();
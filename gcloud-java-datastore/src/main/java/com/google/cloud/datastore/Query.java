@@ -65,13 +65,18 @@ public abstract class Query<V> extends Serializable<GeneratedMessage> {
 
           @Override
           Object convert(com.google.datastore.v1beta3.Entity entityPb) {
+            return convert(entityPb, false);
+          }
+
+          @Override
+          Object convert(com.google.datastore.v1beta3.Entity entityPb, boolean lazy) {
             if (entityPb.getProperties().isEmpty()) {
               if (!entityPb.hasKey()) {
                 return null;
               }
               return Key.fromPb(entityPb.getKey());
             }
-            return ProjectionEntity.fromPb(entityPb);
+            return lazy ? ProjectionEntity.lazyFromPb(entityPb) : ProjectionEntity.fromPb(entityPb);
           }
         };
 
@@ -85,6 +90,11 @@ public abstract class Query<V> extends Serializable<GeneratedMessage> {
           Entity convert(com.google.datastore.v1beta3.Entity entityPb) {
             return Entity.fromPb(entityPb);
           }
+
+          @Override
+          Entity convert(com.google.datastore.v1beta3.Entity entityPb, boolean lazy) {
+            return Entity.fromPb(entityPb, lazy);
+          }
         };
 
     public static final ResultType<Key> KEY =
@@ -110,6 +120,11 @@ public abstract class Query<V> extends Serializable<GeneratedMessage> {
           ProjectionEntity convert(com.google.datastore.v1beta3.Entity entityPb) {
             return ProjectionEntity.fromPb(entityPb);
           }
+
+          @Override
+          ProjectionEntity convert(com.google.datastore.v1beta3.Entity entityPb, boolean lazy) {
+            return lazy ? ProjectionEntity.lazyFromPb(entityPb) : convert(entityPb);
+          }
         };
 
     private final Class<V> resultClass;
@@ -159,6 +174,14 @@ public abstract class Query<V> extends Serializable<GeneratedMessage> {
 
     abstract V convert(com.google.datastore.v1beta3.Entity entityPb);
 
+    /**
+     * Converts {@code entityPb}, decoding the properties of entities when accessed if
+     * {@code lazy} is {@code true}.
+     */
+    V convert(com.google.datastore.v1beta3.Entity entityPb, boolean lazy) {
+      return convert(entityPb);
+    }
+
     static ResultType<?> fromPb(com.google.datastore.v1beta3.EntityResult.ResultType typePb) {
       return MoreObjects.firstNonNull(PB_TO_INSTANCE.get(typePb), UNKNOWN);
     }
@@ -18,12 +18,22 @@ package com.google.cloud.datastore;
 
 import com.google.cloud.datastore.Query.ResultType;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.datastore.v1beta3.QueryResultBatch.MoreResultsType;
 import com.google.protobuf.ByteString;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T> {
 
@@ -31,6 +41,10 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
   private final com.google.datastore.v1beta3.ReadOptions readOptionsPb;
   private final com.google.datastore.v1beta3.PartitionId partitionIdPb;
   private final ResultType<T> queryResultType;
+  private final int prefetchBatches;
+  // the batches following the current one, fetched or being fetched in the background
+  private final Deque<ListenableFuture<Batch<T>>> prefetched = new ArrayDeque<>();
+  private Batch<T> batch;
   private Query<T> query;
   private ResultType<?> actualResultType;
   private com.google.datastore.v1beta3.RunQueryResponse runQueryResponsePb;
@@ -39,11 +53,33 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
   private Iterator<com.google.datastore.v1beta3.EntityResult> entityResultPbIter;
   private ByteString cursor;
 
+  /**
+   * A batch of results, along with the query and the request that returned it.
+   */
+  private static final class Batch<T> {
+
+    private final Query<T> query;
+    private final com.google.datastore.v1beta3.RunQueryRequest requestPb;
+    private final com.google.datastore.v1beta3.RunQueryResponse responsePb;
+
+    private Batch(Query<T> query, com.google.datastore.v1beta3.RunQueryRequest requestPb,
+        com.google.datastore.v1beta3.RunQueryResponse responsePb) {
+      this.query = query;
+      this.requestPb = requestPb;
+      this.responsePb = responsePb;
+    }
+
+    private boolean isLast() {
+      return responsePb.getBatch().getMoreResults() != MoreResultsType.NOT_FINISHED;
+    }
+  }
+
   QueryResultsImpl(DatastoreImpl datastore, com.google.datastore.v1beta3.ReadOptions readOptionsPb,
-                   Query<T> query) {
+                   Query<T> query, int prefetchBatches) {
     this.datastore = datastore;
     this.readOptionsPb = readOptionsPb;
     this.query = query;
+    this.prefetchBatches = prefetchBatches;
     queryResultType = query.type();
     com.google.datastore.v1beta3.PartitionId.Builder pbBuilder =
         com.google.datastore.v1beta3.PartitionId.newBuilder();
@@ -54,7 +90,7 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
       pbBuilder.setNamespaceId(datastore.options().namespace());
     }
     partitionIdPb = pbBuilder.build();
-    sendRequest();
+    setBatch(fetch(query));
     if (runQueryResponsePb.getBatch().getSkippedResults() > 0) {
       cursor = runQueryResponsePb.getBatch().getSkippedCursor();
     } else {
@@ -62,7 +98,7 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
   }
 
-  private void sendRequest() {
+  private Batch<T> fetch(Query<T> query) {
     com.google.datastore.v1beta3.RunQueryRequest.Builder requestPb =
         com.google.datastore.v1beta3.RunQueryRequest.newBuilder();
     if (readOptionsPb != null) {
@@ -70,12 +106,19 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
     requestPb.setPartitionId(partitionIdPb);
     query.populatePb(requestPb);
-    runQueryResponsePb = datastore.runQuery(requestPb.build());
+    com.google.datastore.v1beta3.RunQueryRequest request = requestPb.build();
+    return new Batch<>(query, request, datastore.runQuery(request));
+  }
+
+  private void setBatch(Batch<T> batch) {
+    this.batch = batch;
+    query = batch.query;
+    runQueryResponsePb = batch.responsePb;
     mostRecentQueryPb = runQueryResponsePb.getQuery();
     if (mostRecentQueryPb == null) {
-      mostRecentQueryPb = requestPb.getQuery();
+      mostRecentQueryPb = batch.requestPb.getQuery();
     }
-    lastBatch = runQueryResponsePb.getBatch().getMoreResults() != MoreResultsType.NOT_FINISHED;
+    lastBatch = batch.isLast();
     entityResultPbIter = runQueryResponsePb.getBatch().getEntityResultsList().iterator();
     actualResultType = ResultType.fromPb(runQueryResponsePb.getBatch().getEntityResultType());
     if (Objects.equals(queryResultType, ResultType.PROJECTION_ENTITY)) {
@@ -84,13 +127,53 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
     Preconditions.checkState(queryResultType.isAssignableFrom(actualResultType),
         "Unexpected result type " + actualResultType + " vs " + queryResultType);
+    prefetch();
+  }
+
+  /**
+   * Sends the requests for the batches following the current one, until {@code prefetchBatches}
+   * batches are buffered. The request for a batch is sent once the previous batch is received, as
+   * it continues from the end cursor of the previous batch.
+   */
+  private void prefetch() {
+    if (lastBatch) {
+      return;
+    }
+    while (prefetched.size() < prefetchBatches) {
+      ListenableFuture<Batch<T>> previous =
+          prefetched.isEmpty() ? Futures.immediateFuture(batch) : prefetched.getLast();
+      prefetched.add(Futures.transformAsync(previous, new AsyncFunction<Batch<T>, Batch<T>>() {
+        @Override
+        public ListenableFuture<Batch<T>> apply(final Batch<T> last) {
+          if (last == null || last.isLast()) {
+            return Futures.immediateFuture(null);
+          }
+          return DatastoreImpl.PREFETCH_EXECUTOR.submit(new Callable<Batch<T>>() {
+            @Override
+            public Batch<T> call() {
+              return fetch(last.query.nextQuery(last.responsePb));
+            }
+          });
+        }
+      }, MoreExecutors.directExecutor()));
+    }
+  }
+
+  private Batch<T> nextBatch() {
+    if (prefetched.isEmpty()) {
+      return fetch(query.nextQuery(runQueryResponsePb));
+    }
+    try {
+      return Uninterruptibles.getUninterruptibly(prefetched.poll());
+    } catch (ExecutionException ex) {
+      throw Throwables.propagate(ex.getCause());
+    }
   }
 
   @Override
   protected T computeNext() {
     while (!entityResultPbIter.hasNext() && !lastBatch) {
-      query = query.nextQuery(runQueryResponsePb);
-      sendRequest();
+      setBatch(nextBatch());
     }
     if (!entityResultPbIter.hasNext()) {
       cursor = runQueryResponsePb.getBatch().getEndCursor();
@@ -99,7 +182,8 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     com.google.datastore.v1beta3.EntityResult entityResultPb = entityResultPbIter.next();
     cursor = entityResultPb.getCursor();
     @SuppressWarnings("unchecked")
-    T result = (T) actualResultType.convert(entityResultPb.getEntity());
+    T result = (T) actualResultType.convert(entityResultPb.getEntity(),
+        datastore.options().lazyEntityDecoding());
     return result;
   }
 
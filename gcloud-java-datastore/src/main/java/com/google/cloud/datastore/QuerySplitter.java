@@ -0,0 +1,590 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.RetryHelper.RetryInterruptedException;
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.Filter;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a {@link StructuredQuery} as several queries over disjoint key ranges (shards), so that
+ * large scans are not bound by the latency of a single chain of query batches.
+ *
+ * <p>Shard boundaries are computed by sampling the keys of the query's kind: a keys-only query
+ * ordered by the {@code __scatter__} property returns keys spread uniformly over the key space.
+ * If the sample is empty, for instance because the backend does not support {@code __scatter__},
+ * the keys of the kind are scanned instead with a keys-only query, keeping evenly spaced keys.
+ * The sorted sample is split into {@link Builder#shardCount(int)} ranges; each shard query is the
+ * original query restricted to its key range by {@code __key__} filters.
+ *
+ * <p>{@link #run()} runs all shards concurrently and merges their results, in no particular
+ * order. {@link Results#cursors()} returns a {@link ShardCursor} per shard, reflecting the results
+ * returned so far, that can be passed to {@link #resume(List)} to continue an interrupted scan.
+ * Shards can also be processed independently, for instance on different machines, by running the
+ * queries returned by {@link #split()}.
+ *
+ * <p>Example of scanning a kind with 16 concurrent shards:
+ * <pre> {@code
+ * EntityQuery query = Query.entityQueryBuilder().kind("Task").build();
+ * QuerySplitter<Entity> splitter = QuerySplitter.builder(datastore, query)
+ *     .shardCount(16)
+ *     .build();
+ * try (QuerySplitter<Entity>.Results results = splitter.run()) {
+ *   while (results.hasNext()) {
+ *     Entity entity = results.next();
+ *     // do something with the entity
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>Only queries with a kind, and without sort orders other than ascending {@code __key__},
+ * inequality filters on other properties, offset, limit or cursors, can be split.
+ *
+ * @param <V> the type of the results of the query
+ */
+public final class QuerySplitter<V> {
+
+  private static final String SCATTER_PROPERTY_NAME = "__scatter__";
+  private static final int DEFAULT_SHARD_COUNT = 16;
+  private static final int DEFAULT_THREAD_COUNT = 8;
+  private static final int DEFAULT_SAMPLES_PER_SHARD = 32;
+  private static final int DEFAULT_BUFFER_SIZE = 1000;
+
+  /**
+   * Orders keys as Datastore does: path element by path element, by kind, then with numeric ids
+   * before names; a key comes before its descendants. Kinds and names are compared by their UTF-8
+   * bytes.
+   */
+  static final Comparator<Key> KEY_ORDER = new Comparator<Key>() {
+    @Override
+    public int compare(Key first, Key second) {
+      List<PathElement> firstPath = path(first);
+      List<PathElement> secondPath = path(second);
+      for (int i = 0; i < Math.min(firstPath.size(), secondPath.size()); i++) {
+        int result = compare(firstPath.get(i), secondPath.get(i));
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Integer.compare(firstPath.size(), secondPath.size());
+    }
+
+    private int compare(PathElement first, PathElement second) {
+      int result = compare(first.kind(), second.kind());
+      if (result != 0) {
+        return result;
+      }
+      if (first.hasId() != second.hasId()) {
+        return first.hasId() ? -1 : 1;
+      }
+      return first.hasId()
+          ? Long.compare(first.id(), second.id()) : compare(first.name(), second.name());
+    }
+
+    private int compare(String first, String second) {
+      return UnsignedBytes.lexicographicalComparator().compare(
+          first.getBytes(StandardCharsets.UTF_8), second.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<PathElement> path(Key key) {
+      List<PathElement> path = new ArrayList<>(key.ancestors());
+      path.add(key.hasId()
+          ? PathElement.of(key.kind(), key.id()) : PathElement.of(key.kind(), key.name()));
+      return path;
+    }
+  };
+
+  private final Datastore datastore;
+  private final StructuredQuery<V> query;
+  private final int shardCount;
+  private final int threadCount;
+  private final int samplesPerShard;
+  private final int bufferSize;
+
+  /**
+   * Builder for {@code QuerySplitter} objects.
+   *
+   * @param <V> the type of the results of the query
+   */
+  public static final class Builder<V> {
+
+    private final Datastore datastore;
+    private final StructuredQuery<V> query;
+    private int shardCount = DEFAULT_SHARD_COUNT;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private int samplesPerShard = DEFAULT_SAMPLES_PER_SHARD;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private Builder(Datastore datastore, StructuredQuery<V> query) {
+      this.datastore = checkNotNull(datastore);
+      this.query = checkNotNull(query);
+    }
+
+    /**
+     * Sets the number of shards the query is split into. Fewer shards are used if the sample does
+     * not contain enough distinct keys. Default is 16.
+     */
+    public Builder<V> shardCount(int shardCount) {
+      checkArgument(shardCount > 0, "shardCount must be positive");
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of shards run concurrently by {@link QuerySplitter#run()}.
+     * Default is 8.
+     */
+    public Builder<V> threadCount(int threadCount) {
+      checkArgument(threadCount > 0, "threadCount must be positive");
+      this.threadCount = threadCount;
+      return this;
+    }
+
+    /**
+     * Sets the number of keys sampled for each shard. More samples give shards of more even
+     * sizes, at the cost of a larger sampling query. Default is 32.
+     */
+    public Builder<V> samplesPerShard(int samplesPerShard) {
+      checkArgument(samplesPerShard > 0, "samplesPerShard must be positive");
+      this.samplesPerShard = samplesPerShard;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of results fetched by the shards and not yet returned by
+     * {@link Results#next()}. Shards pause when the buffer is full. Default is 1000.
+     */
+    public Builder<V> bufferSize(int bufferSize) {
+      checkArgument(bufferSize > 0, "bufferSize must be positive");
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    /**
+     * Creates a {@code QuerySplitter} object.
+     *
+     * @throws IllegalArgumentException if the query can not be split
+     */
+    public QuerySplitter<V> build() {
+      return new QuerySplitter<>(this);
+    }
+  }
+
+  /**
+   * The position of a shard: its key range and the cursor after the last result returned from
+   * it. A shard covers the keys greater than or equal to {@link #startKey()} and less than
+   * {@link #endKey()}.
+   */
+  public static final class ShardCursor implements Serializable {
+
+    private static final long serialVersionUID = -8170364917240187265L;
+
+    private final Key startKey;
+    private final Key endKey;
+    private final Cursor cursor;
+    private final boolean done;
+
+    ShardCursor(Key startKey, Key endKey, Cursor cursor, boolean done) {
+      this.startKey = startKey;
+      this.endKey = endKey;
+      this.cursor = cursor;
+      this.done = done;
+    }
+
+    /**
+     * Returns the first key of the shard, {@code null} if the shard starts with the first key.
+     */
+    public Key startKey() {
+      return startKey;
+    }
+
+    /**
+     * Returns the key following the shard, {@code null} if the shard ends with the last key.
+     */
+    public Key endKey() {
+      return endKey;
+    }
+
+    /**
+     * Returns the cursor after the last result returned from the shard, {@code null} if no
+     * result was returned yet.
+     */
+    public Cursor cursor() {
+      return cursor;
+    }
+
+    /**
+     * Returns {@code true} if all the results of the shard were returned.
+     */
+    public boolean isDone() {
+      return done;
+    }
+
+    private ShardCursor advance(Cursor cursor, boolean done) {
+      return new ShardCursor(startKey, endKey, cursor, done);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startKey, endKey, cursor, done);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof ShardCursor)) {
+        return false;
+      }
+      ShardCursor other = (ShardCursor) obj;
+      return Objects.equals(startKey, other.startKey)
+          && Objects.equals(endKey, other.endKey)
+          && Objects.equals(cursor, other.cursor)
+          && done == other.done;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("startKey", startKey)
+          .add("endKey", endKey)
+          .add("done", done)
+          .toString();
+    }
+  }
+
+  /**
+   * A result fetched by a shard, or the end of a shard or its failure.
+   */
+  private static final class ShardResult<V> {
+
+    private final int shard;
+    private final V result;
+    private final Cursor cursor;
+    private final boolean done;
+    private final RuntimeException error;
+
+    private ShardResult(int shard, V result, Cursor cursor, boolean done,
+        RuntimeException error) {
+      this.shard = shard;
+      this.result = result;
+      this.cursor = cursor;
+      this.done = done;
+      this.error = error;
+    }
+  }
+
+  /**
+   * An iterator over the merged results of all shards. Shards are run in the background until
+   * all of them are done or the iterator is closed. The iterator is closed automatically when the
+   * last result was returned or a shard failed; callers that stop iterating early should close it
+   * to release the shard threads.
+   */
+  public final class Results extends AbstractIterator<V> implements AutoCloseable {
+
+    private final List<ShardCursor> cursors;
+    private final BlockingQueue<ShardResult<V>> queue = new ArrayBlockingQueue<>(bufferSize);
+    private final ExecutorService executor;
+    private int finishedShards;
+
+    private Results(List<ShardCursor> shards) {
+      this.cursors = new ArrayList<>(shards);
+      this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount,
+          shards.size())));
+      for (int i = 0; i < shards.size(); i++) {
+        if (shards.get(i).isDone()) {
+          finishedShards++;
+        } else {
+          runShard(i, shards.get(i));
+        }
+      }
+    }
+
+    private void runShard(final int shard, final ShardCursor cursor) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            QueryResults<V> results = datastore.run(shardQuery(cursor));
+            while (results.hasNext()) {
+              V result = results.next();
+              queue.put(new ShardResult<>(shard, result, results.cursorAfter(), false, null));
+            }
+            queue.put(new ShardResult<V>(shard, null, results.cursorAfter(), true, null));
+          } catch (InterruptedException ex) {
+            // results were closed
+          } catch (RuntimeException ex) {
+            try {
+              queue.put(new ShardResult<V>(shard, null, null, false, ex));
+            } catch (InterruptedException interrupted) {
+              // results were closed
+            }
+          }
+        }
+      });
+    }
+
+    @Override
+    protected V computeNext() {
+      while (finishedShards < cursors.size()) {
+        ShardResult<V> shardResult = take();
+        if (shardResult.error != null) {
+          close();
+          throw shardResult.error;
+        }
+        synchronized (this) {
+          cursors.set(shardResult.shard,
+              cursors.get(shardResult.shard).advance(shardResult.cursor, shardResult.done));
+        }
+        if (!shardResult.done) {
+          return shardResult.result;
+        }
+        finishedShards++;
+      }
+      close();
+      return endOfData();
+    }
+
+    private ShardResult<V> take() {
+      try {
+        return queue.take();
+      } catch (InterruptedException ex) {
+        close();
+        RetryInterruptedException.propagate();
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    /**
+     * Returns the cursors of all shards, reflecting the results returned so far.
+     */
+    public synchronized List<ShardCursor> cursors() {
+      return ImmutableList.copyOf(cursors);
+    }
+
+    /**
+     * Stops running the shards.
+     */
+    @Override
+    public void close() {
+      executor.shutdownNow();
+    }
+  }
+
+  private QuerySplitter(Builder<V> builder) {
+    this.datastore = builder.datastore;
+    this.query = builder.query;
+    this.shardCount = builder.shardCount;
+    this.threadCount = builder.threadCount;
+    this.samplesPerShard = builder.samplesPerShard;
+    this.bufferSize = builder.bufferSize;
+    checkArgument(query.kind() != null, "query must have a kind");
+    checkArgument(query.orderBy().isEmpty()
+        || query.orderBy().equals(ImmutableList.of(OrderBy.asc(StructuredQuery.KEY_PROPERTY_NAME))),
+        "query must not be sorted by properties other than ascending __key__");
+    checkArgument(query.limit() == null && query.offset() == 0,
+        "query must not have a limit or an offset");
+    checkArgument(query.startCursor() == null && query.endCursor() == null,
+        "query must not have cursors");
+    checkArgument(query.filter() == null || !hasInequality(query.filter().toPb()),
+        "query must not have inequality filters on properties other than __key__");
+  }
+
+  /**
+   * Returns a builder for a {@code QuerySplitter} object that splits {@code query}.
+   */
+  public static <V> Builder<V> builder(Datastore datastore, StructuredQuery<V> query) {
+    return new Builder<>(datastore, query);
+  }
+
+  /**
+   * Samples the keys of the query's kind and returns the queries of the shards, in key order.
+   * The shards cover disjoint key ranges; together, they return the results of the query.
+   */
+  public List<StructuredQuery<V>> split() {
+    ImmutableList.Builder<StructuredQuery<V>> queries = ImmutableList.builder();
+    for (ShardCursor shard : shards()) {
+      queries.add(shardQuery(shard));
+    }
+    return queries.build();
+  }
+
+  /**
+   * Samples the keys of the query's kind and returns the initial cursors of the shards, in key
+   * order.
+   */
+  public List<ShardCursor> shards() {
+    List<Key> splitKeys = splitKeys(sample());
+    ImmutableList.Builder<ShardCursor> shards = ImmutableList.builder();
+    Key startKey = null;
+    for (Key splitKey : splitKeys) {
+      shards.add(new ShardCursor(startKey, splitKey, null, false));
+      startKey = splitKey;
+    }
+    shards.add(new ShardCursor(startKey, null, null, false));
+    return shards.build();
+  }
+
+  /**
+   * Splits the query and runs all shards concurrently.
+   */
+  public Results run() {
+    return new Results(shards());
+  }
+
+  /**
+   * Continues running the shards from the provided cursors, as returned by
+   * {@link Results#cursors()}.
+   */
+  public Results resume(List<ShardCursor> cursors) {
+    checkArgument(!cursors.isEmpty(), "cursors must not be empty");
+    return new Results(cursors);
+  }
+
+  StructuredQuery<V> shardQuery(ShardCursor shard) {
+    List<Filter> filters = new ArrayList<>();
+    if (query.filter() != null) {
+      filters.add(query.filter());
+    }
+    if (shard.startKey() != null) {
+      filters.add(PropertyFilter.ge(StructuredQuery.KEY_PROPERTY_NAME, shard.startKey()));
+    }
+    if (shard.endKey() != null) {
+      filters.add(PropertyFilter.lt(StructuredQuery.KEY_PROPERTY_NAME, shard.endKey()));
+    }
+    StructuredQuery.Builder<V> builder = query.toBuilder();
+    if (filters.size() == 1) {
+      builder.filter(filters.get(0));
+    } else if (filters.size() > 1) {
+      builder.filter(CompositeFilter.and(filters.get(0),
+          filters.subList(1, filters.size()).toArray(new Filter[filters.size() - 1])));
+    }
+    if (shard.cursor() != null) {
+      builder.startCursor(shard.cursor());
+    }
+    return builder.build();
+  }
+
+  private List<Key> sample() {
+    int sampleSize = shardCount * samplesPerShard;
+    List<Key> sample = new ArrayList<>();
+    if (shardCount == 1) {
+      return sample;
+    }
+    try {
+      QueryResults<Key> scatterKeys = datastore.run(Query.keyQueryBuilder()
+          .namespace(query.namespace())
+          .kind(query.kind())
+          .orderBy(OrderBy.asc(SCATTER_PROPERTY_NAME))
+          .limit(sampleSize)
+          .build());
+      while (scatterKeys.hasNext()) {
+        sample.add(scatterKeys.next());
+      }
+    } catch (DatastoreException ex) {
+      // __scatter__ is not supported, scan the keys instead
+    }
+    if (sample.isEmpty()) {
+      // keys are returned in order: keep every stride-th key, doubling the stride when the sample
+      // grows too large, so that the sample stays evenly spaced
+      QueryResults<Key> keys = datastore.run(Query.keyQueryBuilder()
+          .namespace(query.namespace())
+          .kind(query.kind())
+          .build());
+      long stride = 1;
+      long index = 0;
+      while (keys.hasNext()) {
+        Key key = keys.next();
+        if (index++ % stride == 0) {
+          sample.add(key);
+          if (sample.size() == 2 * sampleSize) {
+            for (int i = 0; i < sampleSize; i++) {
+              sample.set(i, sample.get(2 * i));
+            }
+            sample.subList(sampleSize, sample.size()).clear();
+            stride *= 2;
+          }
+        }
+      }
+    }
+    return sample;
+  }
+
+  private List<Key> splitKeys(List<Key> sample) {
+    Collections.sort(sample, KEY_ORDER);
+    List<Key> splitKeys = new ArrayList<>();
+    for (int i = 1; i < shardCount; i++) {
+      int index = (int) ((long) i * sample.size() / shardCount);
+      if (index == 0 || index >= sample.size()) {
+        continue;
+      }
+      Key key = sample.get(index);
+      if (splitKeys.isEmpty() || !splitKeys.get(splitKeys.size() - 1).equals(key)) {
+        splitKeys.add(key);
+      }
+    }
+    return splitKeys;
+  }
+
+  private static boolean hasInequality(com.google.datastore.v1beta3.Filter filterPb) {
+    switch (filterPb.getFilterTypeCase()) {
+      case COMPOSITE_FILTER:
+        for (com.google.datastore.v1beta3.Filter subFilterPb
+            : filterPb.getCompositeFilter().getFiltersList()) {
+          if (hasInequality(subFilterPb)) {
+            return true;
+          }
+        }
+        return false;
+      case PROPERTY_FILTER:
+        com.google.datastore.v1beta3.PropertyFilter propertyFilterPb =
+            filterPb.getPropertyFilter();
+        switch (propertyFilterPb.getOp()) {
+          case EQUAL:
+          case HAS_ANCESTOR:
+            return false;
+          default:
+            return !StructuredQuery.KEY_PROPERTY_NAME.equals(
+                propertyFilterPb.getProperty().getName());
+        }
+      default:
+        return false;
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.cloud.datastore;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.ImmutableMap;
 
 import java.io.Serializable;
@@ -48,16 +50,60 @@ public abstract class ReadOption implements Serializable {
     }
   }
 
+  /**
+   * Specifies how many batches of query results are fetched ahead of the batch being iterated.
+   * Only applies to queries.
+   *
+   * @see DatastoreOptions.Builder#queryPrefetchBatches(int)
+   */
+  public static final class Prefetch extends ReadOption {
+
+    private static final long serialVersionUID = 3520837462538016387L;
+
+    private final int batches;
+
+    private Prefetch(int batches) {
+      this.batches = batches;
+    }
+
+    public int batches() {
+      return batches;
+    }
+  }
+
   private ReadOption() {}
 
   /**
    * Returns a {@code ReadOption} that specifies eventual consistency, allowing Datastore to return
-   * stale results from gets, fetches, and ancestor queries.
+   * stale results from gets, fetches, and ancestor queries. Gets and fetches using this option
+   * are served from the entity cache if enabled (see
+   * {@link DatastoreOptions.Builder#entityCacheSize(long)}).
    */
   public static EventualConsistency eventualConsistency() {
     return new EventualConsistency(true);
   }
 
+  /**
+   * Returns a {@code ReadOption} that specifies strong consistency, the default for gets and
+   * fetches. Gets and fetches using this option, or no consistency option, always read from
+   * Datastore, bypassing the entity cache if enabled (see
+   * {@link DatastoreOptions.Builder#entityCacheSize(long)}), and store their results in the
+   * cache.
+   */
+  public static EventualConsistency strongConsistency() {
+    return new EventualConsistency(false);
+  }
+
+  /**
+   * Returns a {@code ReadOption} that makes query results fetch up to {@code batches} batches of
+   * results in the background, while the current batch is being iterated. {@code 0} disables
+   * prefetching for the query, overriding {@link DatastoreOptions#queryPrefetchBatches()}.
+   */
+  public static Prefetch prefetch(int batches) {
+    checkArgument(batches >= 0, "batches must not be negative");
+    return new Prefetch(batches);
+  }
+
   static Map<Class<? extends ReadOption>, ReadOption> asImmutableMap(ReadOption... options) {
     ImmutableMap.Builder<Class<? extends ReadOption>, ReadOption> builder = ImmutableMap.builder();
     for (ReadOption option : options) {
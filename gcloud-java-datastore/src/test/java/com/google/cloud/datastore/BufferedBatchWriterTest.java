@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.datastore.testing.LocalDatastoreHelper;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class BufferedBatchWriterTest {
+
+  private static final LocalDatastoreHelper helper = LocalDatastoreHelper.create(1.0);
+  private static final String KIND = "kind";
+
+  private static Datastore datastore;
+  private static KeyFactory keyFactory;
+
+  private BufferedBatchWriter writer;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException, InterruptedException {
+    helper.start();
+    datastore = helper.options().service();
+    keyFactory = datastore.newKeyFactory().kind(KIND);
+  }
+
+  @Before
+  public void setUp() {
+    datastore.delete(Iterators.toArray(datastore.run(Query.keyQueryBuilder().build()), Key.class));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (writer != null) {
+      writer.shutdown();
+      assertTrue(writer.awaitTermination(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @AfterClass
+  public static void afterClass() throws IOException, InterruptedException {
+    helper.stop();
+  }
+
+  private static Entity entity(long id, String value) {
+    return Entity.builder(keyFactory.newKey(id)).set("value", value).build();
+  }
+
+  @Test
+  public void testPut() throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore).batchSize(10).concurrency(2).build();
+    List<ListenableFuture<Void>> results = new ArrayList<>();
+    for (int i = 1; i <= 25; i++) {
+      results.add(writer.put(entity(i, "value" + i)));
+    }
+    writer.flush();
+    Futures.allAsList(results).get();
+    for (int i = 1; i <= 25; i++) {
+      assertEquals(entity(i, "value" + i), datastore.get(keyFactory.newKey(i)));
+    }
+  }
+
+  @Test
+  public void testLingerTime() throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore)
+        .lingerTime(10, TimeUnit.MILLISECONDS)
+        .build();
+    writer.put(entity(1, "value")).get();
+    assertEquals(entity(1, "value"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testAddWithIncompleteKey() throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore).build();
+    FullEntity<IncompleteKey> partial =
+        FullEntity.builder(datastore.newKeyFactory().kind(KIND).newKey()).set("value", "a").build();
+    ListenableFuture<Entity> first = writer.add(partial);
+    ListenableFuture<Entity> second = writer.add(partial);
+    ListenableFuture<Entity> complete = writer.add(entity(1, "b"));
+    writer.flush();
+    Entity firstEntity = first.get();
+    Entity secondEntity = second.get();
+    assertNotNull(firstEntity.key().id());
+    assertNotEquals(firstEntity.key(), secondEntity.key());
+    assertEquals(firstEntity, datastore.get(firstEntity.key()));
+    assertEquals(secondEntity, datastore.get(secondEntity.key()));
+    assertEquals(entity(1, "b"), complete.get());
+  }
+
+  @Test
+  public void testCoalescedWrites() throws ExecutionException, InterruptedException {
+    datastore.put(entity(2, "old"));
+    writer = BufferedBatchWriter.builder(datastore).lingerTime(1, TimeUnit.HOURS).build();
+    ListenableFuture<Void> put = writer.put(entity(1, "first"));
+    ListenableFuture<Void> delete = writer.delete(keyFactory.newKey(1));
+    ListenableFuture<Void> lastPut = writer.put(entity(1, "last"));
+    ListenableFuture<Void> update = writer.update(entity(2, "updated"));
+    ListenableFuture<Void> deleteUpdated = writer.delete(keyFactory.newKey(2));
+    writer.flush();
+    Futures.allAsList(put, delete, lastPut, update, deleteUpdated).get();
+    assertEquals(entity(1, "last"), datastore.get(keyFactory.newKey(1)));
+    assertNull(datastore.get(keyFactory.newKey(2)));
+  }
+
+  private BufferedBatchWriter bufferingWriter() {
+    return BufferedBatchWriter.builder(datastore).lingerTime(1, TimeUnit.HOURS).build();
+  }
+
+  private static void assertFails(ListenableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof DatastoreException);
+    }
+  }
+
+  @Test
+  public void testAddThenUpdateIsPut() throws ExecutionException, InterruptedException {
+    writer = bufferingWriter();
+    ListenableFuture<Entity> add = writer.add(entity(1, "added"));
+    ListenableFuture<Void> update = writer.update(entity(1, "updated"));
+    writer.flush();
+    assertEquals(entity(1, "added"), add.get());
+    assertNull(update.get());
+    assertEquals(entity(1, "updated"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testPutThenUpdateIsPut() throws ExecutionException, InterruptedException {
+    writer = bufferingWriter();
+    ListenableFuture<Void> put = writer.put(entity(1, "put"));
+    ListenableFuture<Void> update = writer.update(entity(1, "updated"));
+    writer.flush();
+    Futures.allAsList(put, update).get();
+    assertEquals(entity(1, "updated"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testUpdateThenUpdate() throws ExecutionException, InterruptedException {
+    datastore.put(entity(1, "old"));
+    writer = bufferingWriter();
+    ListenableFuture<Void> first = writer.update(entity(1, "first"));
+    ListenableFuture<Void> second = writer.update(entity(1, "second"));
+    writer.flush();
+    Futures.allAsList(first, second).get();
+    assertEquals(entity(1, "second"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testAddThenDeleteIsDelete() throws ExecutionException, InterruptedException {
+    writer = bufferingWriter();
+    ListenableFuture<Entity> add = writer.add(entity(1, "added"));
+    ListenableFuture<Void> delete = writer.delete(keyFactory.newKey(1));
+    writer.flush();
+    assertEquals(entity(1, "added"), add.get());
+    assertNull(delete.get());
+    assertNull(datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testUpdateThenPutIsPut() throws ExecutionException, InterruptedException {
+    writer = bufferingWriter();
+    ListenableFuture<Void> update = writer.update(entity(1, "updated"));
+    ListenableFuture<Void> put = writer.put(entity(1, "put"));
+    writer.flush();
+    Futures.allAsList(update, put).get();
+    assertEquals(entity(1, "put"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testDeleteThenAddIsPut() throws ExecutionException, InterruptedException {
+    datastore.put(entity(1, "old"));
+    writer = bufferingWriter();
+    ListenableFuture<Void> delete = writer.delete(keyFactory.newKey(1));
+    ListenableFuture<Entity> add = writer.add(entity(1, "added"));
+    writer.flush();
+    assertNull(delete.get());
+    assertEquals(entity(1, "added"), add.get());
+    assertEquals(entity(1, "added"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testDeleteThenUpdateFails() throws ExecutionException, InterruptedException {
+    datastore.put(entity(1, "old"));
+    writer = bufferingWriter();
+    ListenableFuture<Void> delete = writer.delete(keyFactory.newKey(1));
+    ListenableFuture<Void> update = writer.update(entity(1, "updated"));
+    assertFails(update);
+    writer.flush();
+    assertNull(delete.get());
+    assertNull(datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testAddAfterWriteFails() throws ExecutionException, InterruptedException {
+    datastore.put(entity(3, "old"));
+    writer = bufferingWriter();
+    ListenableFuture<Entity> add = writer.add(entity(1, "added"));
+    ListenableFuture<Void> put = writer.put(entity(2, "put"));
+    ListenableFuture<Void> update = writer.update(entity(3, "updated"));
+    assertFails(writer.add(entity(1, "again")));
+    assertFails(writer.add(entity(2, "again")));
+    assertFails(writer.add(entity(3, "again")));
+    writer.flush();
+    assertEquals(entity(1, "added"), add.get());
+    Futures.allAsList(put, update).get();
+    assertEquals(entity(1, "added"), datastore.get(keyFactory.newKey(1)));
+    assertEquals(entity(2, "put"), datastore.get(keyFactory.newKey(2)));
+    assertEquals(entity(3, "updated"), datastore.get(keyFactory.newKey(3)));
+  }
+
+  @Test
+  public void testWritesToInFlightKeysAreOrdered()
+      throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore).batchSize(1).concurrency(4).build();
+    List<ListenableFuture<Void>> results = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      results.add(writer.put(entity(1, "value" + i)));
+    }
+    writer.flush();
+    Futures.allAsList(results).get();
+    assertEquals(entity(1, "value19"), datastore.get(keyFactory.newKey(1)));
+  }
+
+  @Test
+  public void testFailedWritesAreIsolated() throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore).lingerTime(1, TimeUnit.HOURS).build();
+    List<ListenableFuture<Void>> results = new ArrayList<>();
+    for (int i = 1; i <= 7; i++) {
+      results.add(writer.put(entity(i, "value")));
+    }
+    // updating a missing entity fails
+    ListenableFuture<Void> update = writer.update(entity(8, "value"));
+    writer.flush();
+    Futures.allAsList(results).get();
+    try {
+      update.get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof DatastoreException);
+    }
+    for (int i = 1; i <= 7; i++) {
+      assertEquals(entity(i, "value"), datastore.get(keyFactory.newKey(i)));
+    }
+    assertNull(datastore.get(keyFactory.newKey(8)));
+  }
+
+  @Test
+  public void testShutdown() throws ExecutionException, InterruptedException {
+    writer = BufferedBatchWriter.builder(datastore).lingerTime(1, TimeUnit.HOURS).build();
+    ListenableFuture<Void> put = writer.put(entity(1, "value"));
+    writer.shutdown();
+    assertTrue(writer.awaitTermination(10, TimeUnit.SECONDS));
+    assertNull(put.get());
+    assertEquals(entity(1, "value"), datastore.get(keyFactory.newKey(1)));
+    try {
+      writer.put(entity(2, "value"));
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package com.google.cloud.datastore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -27,6 +29,8 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+
 public class DatastoreOptionsTest {
 
   private static final String PROJECT_ID = "project-id";
@@ -65,6 +69,48 @@ public class DatastoreOptionsTest {
     assertEquals("ns1", options.namespace("ns1").build().namespace());
   }
 
+  @Test
+  public void testQueryPrefetchBatches() throws Exception {
+    assertEquals(0, options.build().queryPrefetchBatches());
+    assertEquals(2, options.queryPrefetchBatches(2).build().queryPrefetchBatches());
+  }
+
+  @Test
+  public void testLookupChunkSize() throws Exception {
+    assertEquals(1000, options.build().lookupChunkSize());
+    assertEquals(10, options.lookupChunkSize(10).build().lookupChunkSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLookupChunkSizeTooLarge() throws Exception {
+    options.lookupChunkSize(1001);
+  }
+
+  @Test
+  public void testLookupConcurrency() throws Exception {
+    assertEquals(4, options.build().lookupConcurrency());
+    assertEquals(1, options.lookupConcurrency(1).build().lookupConcurrency());
+  }
+
+  @Test
+  public void testEntityCache() throws Exception {
+    assertEquals(0, options.build().entityCacheSize());
+    assertEquals(60_000, options.build().entityCacheTtlMillis());
+    DatastoreOptions cacheOptions =
+        options.entityCacheSize(100).entityCacheTtl(5, TimeUnit.SECONDS).build();
+    assertEquals(100, cacheOptions.entityCacheSize());
+    assertEquals(5_000, cacheOptions.entityCacheTtlMillis());
+  }
+
+  @Test
+  public void testLazyEntityDecoding() throws Exception {
+    assertFalse(options.build().lazyEntityDecoding());
+    DatastoreOptions lazyOptions = options.lazyEntityDecoding(true).build();
+    assertTrue(lazyOptions.lazyEntityDecoding());
+    assertTrue(lazyOptions.toBuilder().build().lazyEntityDecoding());
+    assertNotEquals(lazyOptions, options.lazyEntityDecoding(false).build());
+  }
+
   @Test
   public void testDatastore() throws Exception {
     assertSame(datastoreRpc, options.build().rpc());
@@ -72,10 +118,21 @@ public class DatastoreOptionsTest {
 
   @Test
   public void testToBuilder() throws Exception {
-    DatastoreOptions original = options.namespace("ns1").build();
+    DatastoreOptions original = options.namespace("ns1")
+        .queryPrefetchBatches(2)
+        .lookupChunkSize(10)
+        .lookupConcurrency(2)
+        .entityCacheSize(100)
+        .entityCacheTtl(5, TimeUnit.SECONDS)
+        .build();
     DatastoreOptions copy = original.toBuilder().build();
     assertEquals(original.projectId(), copy.projectId());
     assertEquals(original.namespace(), copy.namespace());
+    assertEquals(original.queryPrefetchBatches(), copy.queryPrefetchBatches());
+    assertEquals(original.lookupChunkSize(), copy.lookupChunkSize());
+    assertEquals(original.lookupConcurrency(), copy.lookupConcurrency());
+    assertEquals(original.entityCacheSize(), copy.entityCacheSize());
+    assertEquals(original.entityCacheTtlMillis(), copy.entityCacheTtlMillis());
     assertEquals(original.host(), copy.host());
     assertEquals(original.retryParams(), copy.retryParams());
     assertEquals(original.authCredentials(), copy.authCredentials());
@@ -33,6 +33,7 @@ import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.cloud.datastore.spi.DatastoreRpcFactory;
 import com.google.cloud.datastore.testing.LocalDatastoreHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.datastore.v1beta3.EntityResult;
@@ -47,6 +48,7 @@ import com.google.datastore.v1beta3.RunQueryResponse;
 import com.google.protobuf.ByteString;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -63,6 +65,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
 public class DatastoreTest {
@@ -512,6 +516,65 @@ public class DatastoreTest {
     EasyMock.verify(rpcFactoryMock, rpcMock);
   }
 
+  @Test
+  public void testStructuredQueryPaginationWithPrefetch() throws Exception {
+    List<RunQueryResponse> responses = buildResponsesForQueryPagination();
+    final CountDownLatch lastBatchRequested = new CountDownLatch(1);
+    EasyMock.expect(rpcMock.runQuery(EasyMock.anyObject(RunQueryRequest.class)))
+        .andReturn(responses.get(0));
+    EasyMock.expect(rpcMock.runQuery(EasyMock.anyObject(RunQueryRequest.class)))
+        .andReturn(responses.get(1));
+    final RunQueryResponse lastResponse = responses.get(2);
+    EasyMock.expect(rpcMock.runQuery(EasyMock.anyObject(RunQueryRequest.class)))
+        .andAnswer(new IAnswer<RunQueryResponse>() {
+          @Override
+          public RunQueryResponse answer() {
+            lastBatchRequested.countDown();
+            return lastResponse;
+          }
+        });
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    QueryResults<Key> results =
+        datastore.run(Query.keyQueryBuilder().build(), ReadOption.prefetch(2));
+    // both following batches are requested before the first one is consumed
+    assertTrue(lastBatchRequested.await(10, TimeUnit.SECONDS));
+    List<ByteString> cursors = new ArrayList<>();
+    int count = 0;
+    while (results.hasNext()) {
+      count += 1;
+      results.next();
+      cursors.add(results.cursorAfter().byteString());
+    }
+    assertEquals(5, count);
+    List<EntityResult> entityResults = new ArrayList<>();
+    for (RunQueryResponse response : responses) {
+      entityResults.addAll(response.getBatch().getEntityResultsList());
+    }
+    for (int i = 0; i < count; i++) {
+      assertEquals(entityResults.get(i).getCursor(), cursors.get(i));
+    }
+    assertEquals(lastResponse.getBatch().getEndCursor(), results.cursorAfter().byteString());
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testQueryPrefetchFromOptions() throws Exception {
+    List<RunQueryResponse> responses = buildResponsesForQueryPagination();
+    for (RunQueryResponse response : responses) {
+      EasyMock.expect(rpcMock.runQuery(EasyMock.anyObject(RunQueryRequest.class)))
+          .andReturn(response);
+    }
+    rpcMockOptions = rpcMockOptions.toBuilder().queryPrefetchBatches(1).build();
+    EasyMock.reset(rpcFactoryMock);
+    EasyMock.expect(rpcFactoryMock.create(rpcMockOptions)).andReturn(rpcMock);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    QueryResults<Key> results = datastore.run(Query.keyQueryBuilder().build());
+    assertEquals(5, Iterators.size(results));
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
   private List<RunQueryResponse> buildResponsesForQueryPagination() {
     Entity entity4 = Entity.builder(KEY4).set("value", StringValue.of("value")).build();
     Entity entity5 = Entity.builder(KEY5).set("value", "value").build();
@@ -811,6 +874,177 @@ public class DatastoreTest {
     assertEquals(foundEntities.size(), 5);
   }
 
+  @Test
+  public void testFetchInChunks() {
+    Datastore datastore = options.toBuilder()
+        .lookupChunkSize(2)
+        .lookupConcurrency(3)
+        .build()
+        .service();
+    datastore.put(ENTITY3);
+    Key missingKey = Key.builder(KEY1).name("missing").build();
+    List<Entity> entities =
+        datastore.fetch(ImmutableList.of(KEY3, missingKey, KEY1, KEY2, KEY1, KEY3, KEY2));
+    assertEquals(Lists.newArrayList(ENTITY3, null, ENTITY1, ENTITY2, ENTITY1, ENTITY3, ENTITY2),
+        entities);
+    Iterator<Entity> results = datastore.get(KEY1, missingKey, KEY2, KEY3);
+    assertEquals(ImmutableSet.of(ENTITY1, ENTITY2, ENTITY3), ImmutableSet.copyOf(results));
+  }
+
+  @Test
+  public void testGetInChunksWithDeferredResults() {
+    Entity entity4 = Entity.builder(KEY4).set("value", "value").build();
+    Entity entity5 = Entity.builder(KEY5).set("value", "value").build();
+    DatastoreRpc rpcMock = EasyMock.createMock(DatastoreRpc.class);
+    EasyMock.expect(rpcMock.lookup(
+        LookupRequest.newBuilder().addKeys(KEY1.toPb()).addKeys(KEY2.toPb()).build()))
+        .andReturn(LookupResponse.newBuilder()
+            .addFound(EntityResult.newBuilder().setEntity(ENTITY1.toPb()))
+            .addDeferred(KEY2.toPb())
+            .build());
+    EasyMock.expect(rpcMock.lookup(
+        LookupRequest.newBuilder().addKeys(KEY3.toPb()).addKeys(KEY4.toPb()).build()))
+        .andReturn(LookupResponse.newBuilder()
+            .addFound(EntityResult.newBuilder().setEntity(ENTITY3.toPb()))
+            .addFound(EntityResult.newBuilder().setEntity(entity4.toPb()))
+            .build());
+    EasyMock.expect(rpcMock.lookup(LookupRequest.newBuilder().addKeys(KEY5.toPb()).build()))
+        .andReturn(LookupResponse.newBuilder()
+            .addFound(EntityResult.newBuilder().setEntity(entity5.toPb()))
+            .build());
+    EasyMock.expect(rpcMock.lookup(LookupRequest.newBuilder().addKeys(KEY2.toPb()).build()))
+        .andReturn(LookupResponse.newBuilder()
+            .addFound(EntityResult.newBuilder().setEntity(ENTITY2.toPb()))
+            .build());
+    rpcMockOptions = rpcMockOptions.toBuilder().lookupChunkSize(2).lookupConcurrency(2).build();
+    EasyMock.reset(rpcFactoryMock);
+    EasyMock.expect(rpcFactoryMock.create(rpcMockOptions)).andReturn(rpcMock);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    List<Entity> entities = datastore.fetch(KEY1, KEY2, KEY3, KEY4, KEY5);
+    assertEquals(ImmutableList.of(ENTITY1, ENTITY2, ENTITY3, entity4, entity5), entities);
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testGetInChunksFailure() {
+    DatastoreRpc rpcMock = EasyMock.createMock(DatastoreRpc.class);
+    EasyMock.expect(rpcMock.lookup(LookupRequest.newBuilder().addKeys(KEY1.toPb()).build()))
+        .andReturn(LookupResponse.newBuilder()
+            .addFound(EntityResult.newBuilder().setEntity(ENTITY1.toPb()))
+            .build());
+    EasyMock.expect(rpcMock.lookup(LookupRequest.newBuilder().addKeys(KEY2.toPb()).build()))
+        .andThrow(
+            new DatastoreException(DatastoreException.UNKNOWN_CODE, "denied", "PERMISSION_DENIED"));
+    rpcMockOptions = rpcMockOptions.toBuilder().lookupChunkSize(1).build();
+    EasyMock.reset(rpcFactoryMock);
+    EasyMock.expect(rpcFactoryMock.create(rpcMockOptions)).andReturn(rpcMock);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    thrown.expect(DatastoreException.class);
+    thrown.expectMessage("denied");
+    datastore.fetch(KEY1, KEY2);
+  }
+
+  @Test
+  public void testEntityCache() {
+    Datastore datastore = options.toBuilder().entityCacheSize(100).build().service();
+    ReadOption eventual = ReadOption.eventualConsistency();
+    Key missingKey = Key.builder(KEY1).name("missing").build();
+    assertEquals(ENTITY1, datastore.get(KEY1, eventual));
+    assertNull(datastore.get(missingKey, eventual));
+    assertEquals(ENTITY1, datastore.get(KEY1, eventual));
+    assertNull(datastore.get(missingKey, eventual));
+    assertEquals(Lists.newArrayList(ENTITY1, null),
+        datastore.fetch(ImmutableList.of(KEY1, missingKey), eventual));
+    EntityCacheStats stats = datastore.entityCacheStats();
+    assertEquals(2, stats.missCount());
+    assertEquals(4, stats.hitCount());
+    assertEquals(2, stats.size());
+    // other clients' writes are not seen by eventually consistent gets until the entities expire
+    DatastoreTest.datastore.delete(KEY1);
+    assertEquals(ENTITY1, datastore.get(KEY1, eventual));
+    // gets are strongly consistent by default, they bypass the cache and refresh it
+    assertNull(datastore.get(KEY1));
+    assertNull(datastore.get(KEY1, ReadOption.strongConsistency()));
+    assertEquals(5, datastore.entityCacheStats().hitCount());
+    assertNull(datastore.get(KEY1, eventual));
+    assertEquals(6, datastore.entityCacheStats().hitCount());
+  }
+
+  @Test
+  public void testEntityCacheNotReadByDefault() {
+    Datastore datastore = options.toBuilder().entityCacheSize(100).build().service();
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    DatastoreTest.datastore.delete(KEY1);
+    assertNull(datastore.get(KEY1));
+    assertEquals(Lists.newArrayList((Entity) null), datastore.fetch(KEY1));
+    assertEquals(0, datastore.entityCacheStats().requestCount());
+  }
+
+  @Test
+  public void testEntityCacheInvalidation() {
+    Datastore datastore = options.toBuilder().entityCacheSize(100).build().service();
+    ReadOption eventual = ReadOption.eventualConsistency();
+    Key missingKey = Key.builder(KEY1).name("missing").build();
+    Entity entity = Entity.builder(missingKey).set("value", "value").build();
+    assertEquals(ENTITY1, datastore.get(KEY1, eventual));
+    assertNull(datastore.get(missingKey, eventual));
+    datastore.put(entity);
+    assertEquals(entity, datastore.get(missingKey, eventual));
+    datastore.delete(KEY1);
+    assertNull(datastore.get(KEY1, eventual));
+    Batch batch = datastore.newBatch();
+    batch.put(ENTITY1);
+    batch.submit();
+    assertEquals(ENTITY1, datastore.get(KEY1, eventual));
+    Transaction transaction = datastore.newTransaction();
+    Entity updated = Entity.builder(ENTITY1).set("str", "updated").build();
+    transaction.update(updated);
+    transaction.commit();
+    assertEquals(updated, datastore.get(KEY1, eventual));
+    assertEquals(0, datastore.entityCacheStats().hitCount());
+  }
+
+  @Test
+  public void testEntityCacheInTransaction() {
+    Datastore datastore = options.toBuilder().entityCacheSize(100).build().service();
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    DatastoreTest.datastore.delete(KEY1);
+    Transaction transaction = datastore.newTransaction();
+    assertNull(transaction.get(KEY1));
+    transaction.rollback();
+    assertEquals(0, datastore.entityCacheStats().hitCount());
+  }
+
+  @Test
+  public void testLazyEntityDecoding() {
+    Datastore datastore = options.toBuilder().lazyEntityDecoding(true).build().service();
+    Entity entity = datastore.get(KEY1);
+    assertEquals(ENTITY1, entity);
+    assertEquals(STR_VALUE.get(), entity.getString("str"));
+    assertEquals(Lists.newArrayList(ENTITY1, null),
+        datastore.fetch(KEY1, Key.builder(KEY1).name("missing").build()));
+    Query<Entity> query =
+        Query.entityQueryBuilder().kind(KIND1).orderBy(OrderBy.asc("__key__")).build();
+    QueryResults<Entity> results = datastore.run(query);
+    assertEquals(ENTITY1, results.next());
+    assertFalse(results.hasNext());
+    Query<ProjectionEntity> projectionQuery = Query.projectionEntityQueryBuilder()
+        .kind(KIND1)
+        .projection("str")
+        .build();
+    QueryResults<ProjectionEntity> projectionResults = datastore.run(projectionQuery);
+    assertEquals(STR_VALUE.get(), projectionResults.next().getString("str"));
+    assertFalse(projectionResults.hasNext());
+  }
+
+  @Test
+  public void testEntityCacheDisabled() {
+    datastore.get(KEY1);
+    assertEquals(EntityCacheStats.EMPTY, datastore.entityCacheStats());
+  }
+
   private Datastore createDatastoreForDeferredLookup() throws DatastoreException {
     List<com.google.datastore.v1beta3.Key> keysPb = new ArrayList<>();
     keysPb.add(KEY1.toPb());
@@ -17,8 +17,13 @@
 package com.google.cloud.datastore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
 
@@ -55,4 +60,47 @@ public class EntityTest {
     assertNotEquals(INCOMPLETE_ENTITY, entity);
     assertEquals(INCOMPLETE_ENTITY.properties(), entity.properties());
   }
+
+  @Test
+  public void testLazyFromPb() throws Exception {
+    Entity entity = Entity.builder(KEY1)
+        .set("str", "bar")
+        .set("long", 1L)
+        .set("double", 1.5)
+        .set("bool", true)
+        .setNull("null")
+        .set("list", 1L, 2L)
+        .build();
+    com.google.datastore.v1beta3.Entity entityPb = entity.toPb();
+    Entity lazyEntity = Entity.lazyFromPb(entityPb);
+    assertSame(entityPb, lazyEntity.toPb());
+    assertEquals(KEY1, lazyEntity.key());
+    assertEquals("bar", lazyEntity.getString("str"));
+    assertEquals(1L, lazyEntity.getLong("long"));
+    assertEquals(1.5, lazyEntity.getDouble("double"), 0);
+    assertTrue(lazyEntity.getBoolean("bool"));
+    assertTrue(lazyEntity.isNull("null"));
+    assertFalse(lazyEntity.isNull("str"));
+    assertEquals(entity.getList("list"), lazyEntity.getList("list"));
+    assertTrue(lazyEntity.contains("long"));
+    assertFalse(lazyEntity.contains("missing"));
+    assertEquals(ImmutableSet.of("bool", "double", "list", "long", "null", "str"),
+        lazyEntity.names());
+    assertEquals(entity, lazyEntity);
+    assertEquals(entity.hashCode(), lazyEntity.hashCode());
+    assertEquals(entity.properties(), lazyEntity.properties());
+    assertEquals(entity, Entity.builder(lazyEntity).build());
+    try {
+      lazyEntity.getLong("missing");
+      fail("DatastoreException expected");
+    } catch (DatastoreException ex) {
+      // expected
+    }
+    try {
+      lazyEntity.getLong("str");
+      fail("ClassCastException expected");
+    } catch (ClassCastException ex) {
+      // expected
+    }
+  }
 }
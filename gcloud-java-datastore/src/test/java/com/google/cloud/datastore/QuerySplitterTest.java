@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.testing.LocalDatastoreHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class QuerySplitterTest {
+
+  private static final LocalDatastoreHelper helper = LocalDatastoreHelper.create(1.0);
+  private static final String KIND = "kind";
+  private static final int ENTITY_COUNT = 100;
+
+  private static Datastore datastore;
+  private static KeyFactory keyFactory;
+
+  @BeforeClass
+  public static void beforeClass() throws IOException, InterruptedException {
+    helper.start();
+    datastore = helper.options().service();
+    keyFactory = datastore.newKeyFactory().kind(KIND);
+  }
+
+  @Before
+  public void setUp() {
+    datastore.delete(Iterators.toArray(datastore.run(Query.keyQueryBuilder().build()), Key.class));
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 1; i <= ENTITY_COUNT; i++) {
+      entities.add(Entity.builder(keyFactory.newKey(i)).set("even", i % 2 == 0).build());
+    }
+    datastore.add(entities.toArray(new Entity[ENTITY_COUNT]));
+  }
+
+  @AfterClass
+  public static void afterClass() throws IOException, InterruptedException {
+    helper.stop();
+  }
+
+  private static Set<Key> keys(QueryResults<Entity> results) {
+    Set<Key> keys = new HashSet<>();
+    while (results.hasNext()) {
+      keys.add(results.next().key());
+    }
+    return keys;
+  }
+
+  @Test
+  public void testKeyOrder() {
+    Key parent = keyFactory.newKey(5);
+    Key child = Key.builder(parent, "child", 1).build();
+    List<Key> keys = new ArrayList<>(ImmutableList.of(keyFactory.newKey("a"), child,
+        Key.builder(keyFactory.newKey(1), "child", "b").build(), keyFactory.newKey(20),
+        Key.builder(keyFactory.newKey(1), "child", 2).build(), keyFactory.newKey(1),
+        parent, keyFactory.newKey("B")));
+    Collections.sort(keys, QuerySplitter.KEY_ORDER);
+    assertEquals(ImmutableList.of(keyFactory.newKey(1),
+        Key.builder(keyFactory.newKey(1), "child", 2).build(),
+        Key.builder(keyFactory.newKey(1), "child", "b").build(), parent, child,
+        keyFactory.newKey(20), keyFactory.newKey("B"), keyFactory.newKey("a")), keys);
+  }
+
+  @Test
+  public void testSplit() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).build();
+    List<StructuredQuery<Entity>> queries = QuerySplitter.builder(datastore, query)
+        .shardCount(4)
+        .build()
+        .split();
+    assertTrue(queries.size() > 1);
+    assertTrue(queries.size() <= 4);
+    Set<Key> keys = new HashSet<>();
+    int count = 0;
+    for (StructuredQuery<Entity> shardQuery : queries) {
+      Set<Key> shardKeys = keys(datastore.run(shardQuery));
+      count += shardKeys.size();
+      keys.addAll(shardKeys);
+    }
+    assertEquals(ENTITY_COUNT, count);
+    assertEquals(ENTITY_COUNT, keys.size());
+  }
+
+  @Test
+  public void testSplitWithFilter() {
+    EntityQuery query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.eq("even", true))
+        .build();
+    QuerySplitter<Entity> splitter = QuerySplitter.builder(datastore, query).shardCount(3).build();
+    int count = 0;
+    for (StructuredQuery<Entity> shardQuery : splitter.split()) {
+      count += keys(datastore.run(shardQuery)).size();
+    }
+    assertEquals(ENTITY_COUNT / 2, count);
+  }
+
+  @Test
+  public void testRun() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).build();
+    QuerySplitter<Entity> splitter = QuerySplitter.builder(datastore, query)
+        .shardCount(4)
+        .threadCount(2)
+        .bufferSize(5)
+        .build();
+    Set<Key> keys = new HashSet<>();
+    try (QuerySplitter<Entity>.Results results = splitter.run()) {
+      while (results.hasNext()) {
+        assertTrue(keys.add(results.next().key()));
+      }
+      for (QuerySplitter.ShardCursor cursor : results.cursors()) {
+        assertTrue(cursor.isDone());
+      }
+    }
+    assertEquals(ENTITY_COUNT, keys.size());
+  }
+
+  @Test
+  public void testResume() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).build();
+    QuerySplitter<Entity> splitter = QuerySplitter.builder(datastore, query)
+        .shardCount(4)
+        .bufferSize(1)
+        .build();
+    Set<Key> keys = new HashSet<>();
+    List<QuerySplitter.ShardCursor> cursors;
+    try (QuerySplitter<Entity>.Results results = splitter.run()) {
+      for (int i = 0; i < 30; i++) {
+        keys.add(results.next().key());
+      }
+      cursors = results.cursors();
+    }
+    try (QuerySplitter<Entity>.Results results = splitter.resume(cursors)) {
+      while (results.hasNext()) {
+        assertTrue(keys.add(results.next().key()));
+      }
+    }
+    assertEquals(ENTITY_COUNT, keys.size());
+  }
+
+  @Test
+  public void testShards() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).build();
+    List<QuerySplitter.ShardCursor> shards =
+        QuerySplitter.builder(datastore, query).shardCount(4).build().shards();
+    assertNull(shards.get(0).startKey());
+    assertNull(shards.get(shards.size() - 1).endKey());
+    for (int i = 1; i < shards.size(); i++) {
+      assertEquals(shards.get(i - 1).endKey(), shards.get(i).startKey());
+      assertFalse(shards.get(i).isDone());
+      assertNull(shards.get(i).cursor());
+    }
+  }
+
+  @Test
+  public void testSingleShard() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).build();
+    List<StructuredQuery<Entity>> queries =
+        QuerySplitter.builder(datastore, query).shardCount(1).build().split();
+    assertEquals(ImmutableList.<StructuredQuery<Entity>>of(query), queries);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryWithoutKind() {
+    QuerySplitter.builder(datastore, Query.entityQueryBuilder().build()).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryWithOrder() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).orderBy(OrderBy.asc("even")).build();
+    QuerySplitter.builder(datastore, query).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryWithLimit() {
+    EntityQuery query = Query.entityQueryBuilder().kind(KIND).limit(10).build();
+    QuerySplitter.builder(datastore, query).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryWithInequality() {
+    EntityQuery query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.gt("even", false))
+        .build();
+    QuerySplitter.builder(datastore, query).build();
+  }
+
+  @Test
+  public void testQueryWithKeyInequality() {
+    EntityQuery query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.gt(StructuredQuery.KEY_PROPERTY_NAME, keyFactory.newKey(50)))
+        .build();
+    QuerySplitter<Entity> splitter = QuerySplitter.builder(datastore, query).shardCount(2).build();
+    int count = 0;
+    for (StructuredQuery<Entity> shardQuery : splitter.split()) {
+      count += keys(datastore.run(shardQuery)).size();
+    }
+    assertEquals(ENTITY_COUNT - 50, count);
+  }
+}
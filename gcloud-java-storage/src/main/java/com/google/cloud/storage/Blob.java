@@ -24,10 +24,12 @@ import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.AuthCredentials;
 import com.google.cloud.AuthCredentials.AppEngineAuthCredentials;
 import com.google.cloud.AuthCredentials.ServiceAccountAuthCredentials;
+import com.google.cloud.FieldProfile;
 import com.google.cloud.ReadChannel;
 import com.google.cloud.ServiceAccountSigner;
 import com.google.cloud.ServiceAccountSigner.SigningException;
 import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Storage.BlobField;
 import com.google.cloud.storage.Storage.BlobTargetOption;
 import com.google.cloud.storage.Storage.BlobWriteOption;
 import com.google.cloud.storage.Storage.CopyRequest;
@@ -172,7 +174,7 @@ public class Blob extends BlobInfo {
 
     Builder(Blob blob) {
       this.storage = blob.storage();
-      this.infoBuilder = new BlobInfo.BuilderImpl(blob);
+      this.infoBuilder = new BlobInfo.BuilderImpl(blob.complete());
     }
 
     @Override
@@ -308,7 +310,12 @@ public class Blob extends BlobInfo {
   }
 
   Blob(Storage storage, BlobInfo.BuilderImpl infoBuilder) {
-    super(infoBuilder);
+    this(storage, infoBuilder, null);
+  }
+
+  Blob(Storage storage, BlobInfo.BuilderImpl infoBuilder,
+      FieldProfile.Tracker<BlobField, BlobInfo> fieldTracker) {
+    super(infoBuilder, fieldTracker);
     this.storage = checkNotNull(storage);
     this.options = storage.options();
   }
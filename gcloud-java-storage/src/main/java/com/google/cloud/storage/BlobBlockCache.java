@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of fixed-size blocks of blob content, shared by the read-only
+ * {@link SeekableByteChannel} objects it opens. Channels support {@code long} positions and
+ * seeking backwards is free: blocks already read are served from memory until they are evicted,
+ * least recently used first, once the cached bytes exceed {@link Builder#maxBytes(long)}. Blocks
+ * can be stored outside of the Java heap with {@link Builder#offHeap(boolean)}.
+ *
+ * <p>Channels are pinned to the generation of the blob when opened, so cached blocks are never
+ * stale. When a channel reads blocks sequentially, missing blocks are fetched ahead of the read
+ * position with a single range request, doubling the read-ahead after each sequential miss up to
+ * {@link Builder#maxReadAheadBlocks(int)}; a read outside of the current and next blocks resets
+ * it.
+ *
+ * <p>Example of reading the footer and then the data of a blob through the cache:
+ * <pre> {@code
+ * BlobBlockCache cache = BlobBlockCache.builder(storage).maxBytes(256L * 1024 * 1024).build();
+ * try (SeekableByteChannel channel = cache.open(BlobId.of("bucket", "file.parquet"))) {
+ *   ByteBuffer footer = ByteBuffer.allocate(8);
+ *   channel.position(channel.size() - 8).read(footer);
+ *   channel.position(4);
+ *   // read the data
+ * }
+ * BlobBlockCache.Stats stats = cache.stats();
+ * }</pre>
+ */
+public final class BlobBlockCache {
+
+  private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  private static final int DEFAULT_MAX_READ_AHEAD_BLOCKS = 8;
+
+  private final Storage storage;
+  private final int blockSize;
+  private final boolean offHeap;
+  private final int maxReadAheadBlocks;
+  private final Cache<BlockKey, ByteBuffer> cache;
+  private final AtomicLong cachedBytes = new AtomicLong();
+  private final AtomicLong fetchedBytes = new AtomicLong();
+
+  /**
+   * Builder for {@code BlobBlockCache} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private boolean offHeap;
+    private int maxReadAheadBlocks = DEFAULT_MAX_READ_AHEAD_BLOCKS;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the size of the cached blocks. Default is 1MB.
+     */
+    public Builder blockSize(int blockSize) {
+      checkArgument(blockSize > 0, "blockSize must be positive");
+      this.blockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes cached. Default is 64MB.
+     */
+    public Builder maxBytes(long maxBytes) {
+      checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Sets whether blocks are stored in direct buffers, outside of the Java heap. Default is
+     * {@code false}.
+     */
+    public Builder offHeap(boolean offHeap) {
+      this.offHeap = offHeap;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of blocks fetched ahead of sequential reads. Use 1 to disable
+     * read-ahead. Default is 8.
+     */
+    public Builder maxReadAheadBlocks(int maxReadAheadBlocks) {
+      checkArgument(maxReadAheadBlocks > 0, "maxReadAheadBlocks must be positive");
+      this.maxReadAheadBlocks = maxReadAheadBlocks;
+      return this;
+    }
+
+    /**
+     * Creates a {@code BlobBlockCache} object.
+     */
+    public BlobBlockCache build() {
+      return new BlobBlockCache(this);
+    }
+  }
+
+  /**
+   * Statistics of a {@link BlobBlockCache}.
+   */
+  public static final class Stats implements Serializable {
+
+    private static final long serialVersionUID = -2718843409585623183L;
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long cachedBytes;
+    private final long fetchedBytes;
+
+    Stats(long hitCount, long missCount, long evictionCount, long cachedBytes,
+        long fetchedBytes) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.cachedBytes = cachedBytes;
+      this.fetchedBytes = fetchedBytes;
+    }
+
+    /**
+     * Returns the number of block reads served from the cache.
+     */
+    public long hitCount() {
+      return hitCount;
+    }
+
+    /**
+     * Returns the number of block reads that required a request.
+     */
+    public long missCount() {
+      return missCount;
+    }
+
+    /**
+     * Returns the ratio of hits to block reads, {@code 1.0} if no block was read.
+     */
+    public double hitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Returns the number of blocks evicted from the cache.
+     */
+    public long evictionCount() {
+      return evictionCount;
+    }
+
+    /**
+     * Returns the number of bytes currently cached.
+     */
+    public long cachedBytes() {
+      return cachedBytes;
+    }
+
+    /**
+     * Returns the number of bytes fetched from the service, including read-ahead.
+     */
+    public long fetchedBytes() {
+      return fetchedBytes;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(hitCount, missCount, evictionCount, cachedBytes, fetchedBytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof Stats)) {
+        return false;
+      }
+      Stats other = (Stats) obj;
+      return hitCount == other.hitCount
+          && missCount == other.missCount
+          && evictionCount == other.evictionCount
+          && cachedBytes == other.cachedBytes
+          && fetchedBytes == other.fetchedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("hitCount", hitCount)
+          .add("missCount", missCount)
+          .add("evictionCount", evictionCount)
+          .add("cachedBytes", cachedBytes)
+          .add("fetchedBytes", fetchedBytes)
+          .toString();
+    }
+  }
+
+  private static final class BlockKey {
+
+    private final BlobId blobId;
+    private final long index;
+
+    BlockKey(BlobId blobId, long index) {
+      this.blobId = blobId;
+      this.index = index;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(blobId, index);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) obj;
+      return index == other.index && blobId.equals(other.blobId);
+    }
+  }
+
+  private BlobBlockCache(Builder builder) {
+    this.storage = builder.storage;
+    this.blockSize = builder.blockSize;
+    this.offHeap = builder.offHeap;
+    this.maxReadAheadBlocks = builder.maxReadAheadBlocks;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(builder.maxBytes)
+        .weigher(new Weigher<BlockKey, ByteBuffer>() {
+          @Override
+          public int weigh(BlockKey key, ByteBuffer block) {
+            return block.capacity();
+          }
+        })
+        .removalListener(new RemovalListener<BlockKey, ByteBuffer>() {
+          @Override
+          public void onRemoval(RemovalNotification<BlockKey, ByteBuffer> notification) {
+            cachedBytes.addAndGet(-notification.getValue().capacity());
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns a builder for {@code BlobBlockCache} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Opens a read-only channel for the blob identified by {@code blobId}. If {@code blobId} has no
+   * generation, the channel is pinned to the latest generation at the time of the call.
+   *
+   * @throws StorageException if the blob does not exist or upon failure
+   */
+  public SeekableByteChannel open(BlobId blobId) {
+    Blob blob = storage.get(blobId);
+    if (blob == null) {
+      throw new StorageException(HTTP_NOT_FOUND, "Blob " + blobId + " not found");
+    }
+    return open(blob);
+  }
+
+  /**
+   * Opens a read-only channel for the generation and size of {@code blob}, without any request.
+   */
+  public SeekableByteChannel open(BlobInfo blob) {
+    checkArgument(blob.generation() != null, "blob must have a generation");
+    checkArgument(blob.size() != null, "blob must have a size");
+    return new BlockChannel(blob.blobId(), blob.size());
+  }
+
+  /**
+   * Returns the statistics of this cache.
+   */
+  public Stats stats() {
+    CacheStats stats = cache.stats();
+    return new Stats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+        cachedBytes.get(), fetchedBytes.get());
+  }
+
+  /**
+   * Removes all blocks from the cache.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Returns a read-only view of block {@code index} of the blob, or {@code null} if it is not
+   * cached.
+   */
+  private ByteBuffer cachedBlock(BlobId blobId, long index) {
+    ByteBuffer block = cache.getIfPresent(new BlockKey(blobId, index));
+    return block == null ? null : block.asReadOnlyBuffer();
+  }
+
+  /**
+   * Fetches block {@code index} of the blob and up to {@code readAhead - 1} following blocks that
+   * are not cached, and returns a read-only view of block {@code index}.
+   */
+  private ByteBuffer fetchBlock(BlobId blobId, long size, long index, int readAhead) {
+    ByteBuffer block = null;
+    long blockCount = (size + blockSize - 1) / blockSize;
+    long end = index + 1;
+    while (end < blockCount && end < index + readAhead
+        && !cache.asMap().containsKey(new BlockKey(blobId, end))) {
+      end++;
+    }
+    long offset = index * blockSize;
+    int length = (int) (Math.min(end * blockSize, size) - offset);
+    ByteBuffer fetched = allocate(length);
+    while (fetched.hasRemaining()
+        && storage.read(blobId, offset + fetched.position(), fetched) > 0) {
+      // keep reading until the range is complete
+    }
+    fetched.flip();
+    fetchedBytes.addAndGet(fetched.limit());
+    for (long i = index; i < end && fetched.hasRemaining(); i++) {
+      ByteBuffer slice = fetched.slice();
+      slice.limit(Math.min(blockSize, slice.remaining()));
+      fetched.position(fetched.position() + slice.limit());
+      ByteBuffer current = allocate(slice.remaining());
+      current.put(slice).flip();
+      if (i == index) {
+        block = current;
+      }
+      cachedBytes.addAndGet(current.capacity());
+      cache.put(new BlockKey(blobId, i), current);
+    }
+    return block == null ? allocate(0) : block.asReadOnlyBuffer();
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private final class BlockChannel implements SeekableByteChannel {
+
+    private final BlobId blobId;
+    private final long size;
+    private long position;
+    // the block of the last read, reading block 0 first counts as a sequential read
+    private long lastBlock = -1;
+    private int readAhead = 1;
+    private boolean isOpen = true;
+
+    BlockChannel(BlobId blobId, long size) {
+      this.blobId = blobId;
+      this.size = size;
+    }
+
+    private void validateOpen() throws ClosedChannelException {
+      if (!isOpen) {
+        throw new ClosedChannelException();
+      }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws ClosedChannelException {
+      validateOpen();
+      if (position >= size) {
+        return -1;
+      }
+      int read = 0;
+      while (dst.hasRemaining() && position < size) {
+        long index = position / blockSize;
+        boolean sequential = index == lastBlock + 1;
+        if (!sequential && index != lastBlock) {
+          // a seek, the read-ahead window starts over
+          readAhead = 1;
+        }
+        ByteBuffer block = cachedBlock(blobId, index);
+        if (block == null) {
+          if (sequential) {
+            readAhead = Math.min(readAhead * 2, maxReadAheadBlocks);
+          }
+          block = fetchBlock(blobId, size, index, readAhead);
+        }
+        lastBlock = index;
+        long offset = position - index * blockSize;
+        if (offset >= block.limit()) {
+          // the blob is shorter than its recorded size
+          break;
+        }
+        block.position((int) offset);
+        if (block.remaining() > dst.remaining()) {
+          block.limit(block.position() + dst.remaining());
+        }
+        int length = block.remaining();
+        dst.put(block);
+        position += length;
+        read += length;
+      }
+      return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws ClosedChannelException {
+      validateOpen();
+      return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition)
+        throws ClosedChannelException {
+      checkArgument(newPosition >= 0, "position must not be negative");
+      validateOpen();
+      position = newPosition;
+      return this;
+    }
+
+    @Override
+    public long size() throws ClosedChannelException {
+      validateOpen();
+      return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+      return isOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+      isOpen = false;
+    }
+  }
+}
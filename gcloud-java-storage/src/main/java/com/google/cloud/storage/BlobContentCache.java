@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A size-bounded cache of blob content on local disk, used by {@link StorageImpl} to serve reads of
+ * blobs pinned to a generation. As the content of a generation never changes, cached content is
+ * never invalidated, only evicted in least recently used order.
+ *
+ * <p>Each blob is stored in its own file, named after a hash of its bucket, name and generation,
+ * and is read with positional reads from a {@link FileChannel}, so blobs of any size can be
+ * cached. Files are downloaded to a temporary file and atomically renamed once complete.
+ * Downloads hold an exclusive lock on a per-blob lock file, so that processes sharing the cache
+ * directory download a blob only once. The lock file is deleted before its lock is released, so
+ * lock files only exist while a download is in progress. File locks are held on behalf of the
+ * whole JVM, so caches of the same process sharing a directory are serialized with a lock of the
+ * JVM first. The last modified time of a file records its last access, so that recency survives
+ * restarts.
+ */
+final class BlobContentCache {
+
+  private static final String LOCK_SUFFIX = ".lock";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int DOWNLOAD_BUFFER_SIZE = 2 * 1024 * 1024;
+  private static final Map<StorageRpc.Option, ?> NO_OPTIONS = ImmutableMap.of();
+  // striped by lock file path, shared by all the caches of the JVM
+  private static final Striped<Lock> LOCKS = Striped.lock(64);
+
+  private final Path directory;
+  private final long maximumBytes;
+  // guarded by this, in access order
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+
+  BlobContentCache(Path directory, long maximumBytes) throws IOException {
+    Files.createDirectories(directory);
+    this.directory = directory.toRealPath();
+    this.maximumBytes = maximumBytes;
+    load();
+  }
+
+  /**
+   * Creates a cache as configured by {@code options}, {@code null} if caching is disabled.
+   */
+  static BlobContentCache create(StorageOptions options) {
+    if (options.contentCacheDirectory() == null) {
+      return null;
+    }
+    try {
+      return new BlobContentCache(Paths.get(options.contentCacheDirectory()),
+          options.contentCacheMaximumBytes());
+    } catch (IOException ex) {
+      throw new StorageException(ex);
+    }
+  }
+
+  /**
+   * Returns whether a request for {@code blobId} with {@code options} can be served from the
+   * cache: the request must be for a specific generation and must have no preconditions or other
+   * options that the cached content could not honor.
+   */
+  static boolean isCacheable(BlobId blobId, Map<StorageRpc.Option, ?> options) {
+    return blobId.generation() != null && options.isEmpty();
+  }
+
+  private static String key(BlobId blobId) {
+    return Hashing.sha256().newHasher()
+        .putString(blobId.bucket(), UTF_8).putByte((byte) 0)
+        .putString(blobId.name(), UTF_8).putByte((byte) 0)
+        .putLong(blobId.generation())
+        .hash().toString();
+  }
+
+  private static boolean isContentFile(Path file) {
+    String name = file.getFileName().toString();
+    return !name.endsWith(LOCK_SUFFIX) && !name.endsWith(TEMP_SUFFIX);
+  }
+
+  /**
+   * Indexes the files already in the cache directory, least recently used first.
+   */
+  private void load() throws IOException {
+    final Map<Path, FileTime> accessTimes = new LinkedHashMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        if (isContentFile(file)) {
+          accessTimes.put(file, Files.getLastModifiedTime(file));
+        }
+      }
+    }
+    List<Path> files = new ArrayList<>(accessTimes.keySet());
+    Collections.sort(files, new Comparator<Path>() {
+      @Override
+      public int compare(Path first, Path second) {
+        return accessTimes.get(first).compareTo(accessTimes.get(second));
+      }
+    });
+    for (Path file : files) {
+      record(file.getFileName().toString(), Files.size(file));
+    }
+  }
+
+  /**
+   * Returns a read-only channel over the content of {@code blobId}, which must have a generation.
+   * If the blob is not cached it is downloaded first, unless another thread or process is
+   * already downloading it, in which case this method waits for that download to complete. The
+   * caller is responsible for closing the returned channel.
+   *
+   * @throws StorageException upon failure
+   */
+  FileChannel open(StorageOptions options, BlobId blobId) {
+    String key = key(blobId);
+    Path file = directory.resolve(key);
+    try {
+      FileChannel content = open(key, file);
+      if (content != null) {
+        return content;
+      }
+      Path lockFile = directory.resolve(key + LOCK_SUFFIX);
+      Lock lock = LOCKS.get(lockFile);
+      lock.lock();
+      try (FileChannel lockChannel = FileChannel.open(lockFile,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+          FileLock fileLock = lockChannel.lock()) {
+        try {
+          content = open(key, file);
+          if (content == null) {
+            download(options, blobId, key, file);
+            content = open(key, file);
+          }
+        } finally {
+          deleteLockFile(lockFile);
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (content == null) {
+        throw new StorageException(0, "Blob " + blobId + " was evicted while being cached");
+      }
+      return content;
+    } catch (IOException ex) {
+      throw new StorageException(ex);
+    }
+  }
+
+  /**
+   * Deletes {@code lockFile} while its lock is held. A process already waiting on the deleted file
+   * finds the content cached once it gets the lock, later ones lock a new file.
+   */
+  private static void deleteLockFile(Path lockFile) {
+    try {
+      Files.deleteIfExists(lockFile);
+    } catch (IOException ex) {
+      // open files can't be deleted on some platforms, the next download reuses the file
+    }
+  }
+
+  /**
+   * Opens the content of {@code file}, returning {@code null} if it does not exist.
+   */
+  private FileChannel open(String key, Path file) throws IOException {
+    FileChannel content;
+    try {
+      content = FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (NoSuchFileException ex) {
+      // evicted by another process, the open channel is still readable
+    }
+    record(key, content.size());
+    return content;
+  }
+
+  private void download(StorageOptions options, BlobId blobId, String key, Path file)
+      throws IOException {
+    Path temp = Files.createTempFile(directory, key + ".", TEMP_SUFFIX);
+    try {
+      ReadChannel reader = new BlobReadChannel(options, blobId, NO_OPTIONS);
+      try (FileChannel output = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(DOWNLOAD_BUFFER_SIZE);
+        while (reader.read(buffer) >= 0) {
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            output.write(buffer);
+          }
+          buffer.clear();
+        }
+        output.force(true);
+      } finally {
+        reader.close();
+      }
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Records an access to the content file {@code key} of {@code length} bytes and evicts least
+   * recently used files, other than {@code key}, until the cache fits in its maximum size.
+   */
+  private void record(String key, long length) {
+    List<String> evicted = new ArrayList<>();
+    synchronized (this) {
+      Long previous = entries.put(key, length);
+      size += length - (previous != null ? previous : 0);
+      Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+      while (size > maximumBytes && iterator.hasNext()) {
+        Map.Entry<String, Long> entry = iterator.next();
+        if (!entry.getKey().equals(key)) {
+          size -= entry.getValue();
+          evicted.add(entry.getKey());
+          iterator.remove();
+        }
+      }
+    }
+    for (String name : evicted) {
+      try {
+        // open channels of the file, here or in other processes, remain readable
+        Files.deleteIfExists(directory.resolve(name));
+      } catch (IOException ex) {
+        // the file is indexed again when next read or when a cache is next created
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes of content currently cached, as known to this process.
+   */
+  synchronized long size() {
+    return size;
+  }
+}
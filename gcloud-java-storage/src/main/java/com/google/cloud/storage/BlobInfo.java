@@ -24,6 +24,8 @@ import com.google.api.client.util.DateTime;
 import com.google.api.services.storage.model.ObjectAccessControl;
 import com.google.api.services.storage.model.StorageObject;
 import com.google.api.services.storage.model.StorageObject.Owner;
+import com.google.cloud.FieldProfile;
+import com.google.cloud.storage.Storage.BlobField;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
@@ -44,6 +46,12 @@ import java.util.Set;
 /**
  * Google Storage object metadata.
  *
+ * <p>When {@link StorageOptions.Builder#autoFieldProjection(boolean)} is enabled, blobs returned
+ * by {@link Storage} may hold only the fields that were requested. Reading any other field,
+ * copying the blob with {@link #toBuilder()}, comparing it or serializing it fetches the complete
+ * blob information first, which blocks on a get request and throws {@link StorageException} if
+ * the request fails or the blob no longer exists.
+ *
  * @see <a href="https://cloud.google.com/storage/docs/concepts-techniques#concepts">Concepts and
  *      Terminology</a>
  */
@@ -79,6 +87,7 @@ public class BlobInfo implements Serializable {
   private final String contentLanguage;
   private final Integer componentCount;
   private final boolean isDirectory;
+  private final transient FieldProfile.Tracker<BlobField, BlobInfo> fieldTracker;
 
   /**
    * This class is meant for internal use only. Users are discouraged from using this class.
@@ -383,6 +392,15 @@ public class BlobInfo implements Serializable {
   }
 
   BlobInfo(BuilderImpl builder) {
+    this(builder, null);
+  }
+
+  /**
+   * Creates an object fetched with automatic field selection, whose fields are read through
+   * {@code fieldTracker}.
+   */
+  BlobInfo(BuilderImpl builder, FieldProfile.Tracker<BlobField, BlobInfo> fieldTracker) {
+    this.fieldTracker = fieldTracker;
     blobId = builder.blobId;
     generatedId = builder.generatedId;
     cacheControl = builder.cacheControl;
@@ -410,28 +428,28 @@ public class BlobInfo implements Serializable {
    * Returns the blob's identity.
    */
   public BlobId blobId() {
-    return blobId;
+    return source(BlobField.GENERATION).blobId;
   }
 
   /**
    * Returns the name of the containing bucket.
    */
   public String bucket() {
-    return blobId().bucket();
+    return blobId.bucket();
   }
 
   /**
    * Returns the service-generated for the blob.
    */
   public String generatedId() {
-    return generatedId;
+    return source(BlobField.ID).generatedId;
   }
 
   /**
    * Returns the blob's name.
    */
   public String name() {
-    return blobId().name();
+    return blobId.name();
   }
 
   /**
@@ -440,6 +458,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="https://tools.ietf.org/html/rfc7234#section-5.2">Cache-Control</a>
    */
   public String cacheControl() {
+    String cacheControl = source(BlobField.CACHE_CONTROL).cacheControl;
     return Data.isNull(cacheControl) ? null : cacheControl;
   }
 
@@ -450,14 +469,14 @@ public class BlobInfo implements Serializable {
    *     About Access Control Lists</a>
    */
   public List<Acl> acl() {
-    return acl;
+    return source(BlobField.ACL).acl;
   }
 
   /**
    * Returns the blob's owner. This will always be the uploader of the blob.
    */
   public Acl.Entity owner() {
-    return owner;
+    return source(BlobField.OWNER).owner;
   }
 
   /**
@@ -466,7 +485,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="https://tools.ietf.org/html/rfc2616#section-14.13">Content-Length</a>
    */
   public Long size() {
-    return size;
+    return source(BlobField.SIZE).size;
   }
 
   /**
@@ -475,6 +494,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="https://tools.ietf.org/html/rfc2616#section-14.17">Content-Type</a>
    */
   public String contentType() {
+    String contentType = source(BlobField.CONTENT_TYPE).contentType;
     return Data.isNull(contentType) ? null : contentType;
   }
 
@@ -484,6 +504,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="https://tools.ietf.org/html/rfc7231#section-3.1.2.2">Content-Encoding</a>
    */
   public String contentEncoding() {
+    String contentEncoding = source(BlobField.CONTENT_ENCODING).contentEncoding;
     return Data.isNull(contentEncoding) ? null : contentEncoding;
   }
 
@@ -493,6 +514,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="https://tools.ietf.org/html/rfc6266">Content-Disposition</a>
    */
   public String contentDisposition() {
+    String contentDisposition = source(BlobField.CONTENT_DISPOSITION).contentDisposition;
     return Data.isNull(contentDisposition) ? null : contentDisposition;
   }
 
@@ -502,6 +524,7 @@ public class BlobInfo implements Serializable {
    * @see <a href="http://tools.ietf.org/html/bcp47">Content-Language</a>
    */
   public String contentLanguage() {
+    String contentLanguage = source(BlobField.CONTENT_LANGUAGE).contentLanguage;
     return Data.isNull(contentLanguage) ? null : contentLanguage;
   }
 
@@ -515,7 +538,7 @@ public class BlobInfo implements Serializable {
    *     Property</a>
    */
   public Integer componentCount() {
-    return componentCount;
+    return source(BlobField.COMPONENT_COUNT).componentCount;
   }
 
   /**
@@ -524,14 +547,14 @@ public class BlobInfo implements Serializable {
    * @see <a href="http://tools.ietf.org/html/rfc2616#section-3.11">Entity Tags</a>
    */
   public String etag() {
-    return etag;
+    return source(BlobField.ETAG).etag;
   }
 
   /**
    * Returns the URI of this blob as a string.
    */
   public String selfLink() {
-    return selfLink;
+    return source(BlobField.SELF_LINK).selfLink;
   }
 
   /**
@@ -541,6 +564,7 @@ public class BlobInfo implements Serializable {
    *     Hashes and ETags: Best Practices</a>
    */
   public String md5() {
+    String md5 = source(BlobField.MD5HASH).md5;
     return Data.isNull(md5) ? null : md5;
   }
 
@@ -553,6 +577,7 @@ public class BlobInfo implements Serializable {
    *     Hashes and ETags: Best Practices</a>
    */
   public String crc32c() {
+    String crc32c = source(BlobField.CRC32C).crc32c;
     return Data.isNull(crc32c) ? null : crc32c;
   }
 
@@ -560,13 +585,14 @@ public class BlobInfo implements Serializable {
    * Returns the blob's media download link.
    */
   public String mediaLink() {
-    return mediaLink;
+    return source(BlobField.MEDIA_LINK).mediaLink;
   }
 
   /**
    * Returns blob's user provided metadata.
    */
   public Map<String, String> metadata() {
+    Map<String, String> metadata = source(BlobField.METADATA).metadata;
     return metadata == null || Data.isNull(metadata) ? null : Collections.unmodifiableMap(metadata);
   }
 
@@ -583,21 +609,21 @@ public class BlobInfo implements Serializable {
    * particular blob.
    */
   public Long metageneration() {
-    return metageneration;
+    return source(BlobField.METAGENERATION).metageneration;
   }
 
   /**
    * Returns the deletion time of the blob.
    */
   public Long deleteTime() {
-    return deleteTime;
+    return source(BlobField.TIME_DELETED).deleteTime;
   }
 
   /**
    * Returns the last modification time of the blob's metadata.
    */
   public Long updateTime() {
-    return updateTime;
+    return source(BlobField.UPDATED).updateTime;
   }
 
   /**
@@ -612,11 +638,37 @@ public class BlobInfo implements Serializable {
     return isDirectory;
   }
 
+  /**
+   * Returns the object to read {@code field} from: this object, or the complete blob information
+   * if {@code field} was not selected when this object was fetched with automatic field selection.
+   *
+   * @see StorageOptions.Builder#autoFieldProjection(boolean)
+   */
+  private BlobInfo source(BlobField field) {
+    return fieldTracker == null ? this : fieldTracker.read(field, this);
+  }
+
+  /**
+   * Returns this object, or the complete blob information if not all fields were selected when
+   * this object was fetched with automatic field selection.
+   */
+  BlobInfo complete() {
+    return fieldTracker == null ? this : fieldTracker.complete(this);
+  }
+
+  /**
+   * Serializes the complete blob information in place of an object fetched with automatic field
+   * selection, so that fields that were not selected are not lost.
+   */
+  Object writeReplace() {
+    return complete();
+  }
+
   /**
    * Returns a builder for the current blob.
    */
   public Builder toBuilder() {
-    return new BuilderImpl(this);
+    return new BuilderImpl(complete());
   }
 
   @Override
@@ -624,16 +676,17 @@ public class BlobInfo implements Serializable {
     return MoreObjects.toStringHelper(this)
         .add("bucket", bucket())
         .add("name", name())
-        .add("generation", generation())
-        .add("size", size())
-        .add("content-type", contentType())
-        .add("metadata", metadata())
+        .add("generation", blobId.generation())
+        .add("size", size)
+        .add("content-type", Data.isNull(contentType) ? null : contentType)
+        .add("metadata", metadata == null || Data.isNull(metadata) ? null : metadata)
         .toString();
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(blobId);
+    // bucket and name are always selected, so this does not need the complete blob information
+    return Objects.hash(blobId.bucket(), blobId.name());
   }
 
   @Override
@@ -645,6 +698,10 @@ public class BlobInfo implements Serializable {
   }
 
   StorageObject toPb() {
+    BlobInfo completeInfo = complete();
+    if (completeInfo != this) {
+      return completeInfo.toPb();
+    }
     StorageObject storageObject = blobId.toPb();
     if (acl != null) {
       storageObject.setAcl(Lists.transform(acl, new Function<Acl, ObjectAccessControl>() {
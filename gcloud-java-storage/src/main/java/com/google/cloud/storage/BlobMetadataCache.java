@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.cloud.storage.spi.StorageRpc.Option.FIELDS;
+import static com.google.cloud.storage.spi.StorageRpc.Option.IF_GENERATION_MATCH;
+import static com.google.cloud.storage.spi.StorageRpc.Option.IF_GENERATION_NOT_MATCH;
+import static com.google.cloud.storage.spi.StorageRpc.Option.IF_METAGENERATION_MATCH;
+import static com.google.cloud.storage.spi.StorageRpc.Option.IF_METAGENERATION_NOT_MATCH;
+
+import com.google.cloud.Clock;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the latest known metadata of blobs, used by {@link StorageImpl} to serve
+ * {@link Storage#get(BlobId, Storage.BlobGetOption...)} calls. Entries are keyed by bucket and
+ * blob name; a request for a specific generation is served only if the cached blob has that
+ * generation. Only responses to requests for the latest generation with all fields are cached.
+ */
+final class BlobMetadataCache {
+
+  private final Cache<BlobId, Blob> cache;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  BlobMetadataCache(long maximumSize, long ttlMillis, final Clock clock) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(new Ticker() {
+          @Override
+          public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(clock.millis());
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Creates a cache as configured by {@code options}, {@code null} if caching is disabled.
+   */
+  static BlobMetadataCache create(StorageOptions options) {
+    return options.metadataCacheSize() > 0 ? new BlobMetadataCache(options.metadataCacheSize(),
+        options.metadataCacheTtlMillis(), options.clock()) : null;
+  }
+
+  private static BlobId key(BlobId blobId) {
+    return blobId.generation() == null ? blobId : BlobId.of(blobId.bucket(), blobId.name());
+  }
+
+  /**
+   * Returns the cached blob if it satisfies the requested generation and preconditions,
+   * {@code null} otherwise.
+   */
+  Blob get(BlobId blobId, Map<StorageRpc.Option, ?> options) {
+    Blob blob = cache.getIfPresent(key(blobId));
+    if (blob != null && matches(blob, blobId, options)) {
+      hitCount.incrementAndGet();
+      return blob;
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  private static boolean matches(Blob blob, BlobId blobId, Map<StorageRpc.Option, ?> options) {
+    Long generation = blob.generation();
+    Long metageneration = blob.metageneration();
+    Long generationMatch = (Long) options.get(IF_GENERATION_MATCH);
+    Long generationNotMatch = (Long) options.get(IF_GENERATION_NOT_MATCH);
+    Long metagenerationMatch = (Long) options.get(IF_METAGENERATION_MATCH);
+    Long metagenerationNotMatch = (Long) options.get(IF_METAGENERATION_NOT_MATCH);
+    return (blobId.generation() == null || blobId.generation().equals(generation))
+        && (generationMatch == null || generationMatch.equals(generation))
+        && (generationNotMatch == null || !generationNotMatch.equals(generation))
+        && (metagenerationMatch == null || metagenerationMatch.equals(metageneration))
+        && (metagenerationNotMatch == null || !metagenerationNotMatch.equals(metageneration));
+  }
+
+  /**
+   * Returns a token to be passed to {@link #put(BlobId, Map, Blob, long)} for a response to a
+   * request issued after this call.
+   */
+  long token() {
+    return invalidations.get();
+  }
+
+  /**
+   * Caches {@code blob} as returned for a request of {@code blobId} with {@code options}. The
+   * blob is not cached if the request was for a specific generation or a subset of the fields,
+   * or if any blob was invalidated since {@code token} was obtained, as the response might
+   * predate the invalidating write.
+   */
+  void put(BlobId blobId, Map<StorageRpc.Option, ?> options, Blob blob, long token) {
+    if (blob == null || blobId.generation() != null || options.containsKey(FIELDS)) {
+      return;
+    }
+    BlobId key = key(blobId);
+    cache.put(key, blob);
+    if (invalidations.get() != token) {
+      cache.asMap().remove(key, blob);
+    }
+  }
+
+  /**
+   * Removes the cached metadata of {@code blobId}, regardless of its generation.
+   */
+  void invalidate(BlobId blobId) {
+    invalidations.incrementAndGet();
+    cache.invalidate(key(blobId));
+  }
+
+  MetadataCacheStats stats() {
+    return new MetadataCacheStats(hitCount.get(), missCount.get(),
+        cache.stats().evictionCount(), cache.size());
+  }
+}
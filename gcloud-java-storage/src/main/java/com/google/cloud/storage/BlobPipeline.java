@@ -0,0 +1,788 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads all the blobs under a prefix, transforms their content and writes the result. Each blob
+ * goes through four stages, each running concurrently with the others:
+ * <ol>
+ *   <li>{@link Stage#LIST}: blobs are listed with a {@link ShardedBlobLister}, which prefetches
+ *       pages in the background;
+ *   <li>{@link Stage#DOWNLOAD}: the content of the blob is read with
+ *       {@link Storage#reader(BlobId, Storage.BlobSourceOption...)}, on up to
+ *       {@link Builder#downloadConcurrency(int)} threads;
+ *   <li>{@link Stage#TRANSFORM}: a user provided {@link Transform} computes the blob to write, on
+ *       up to {@link Builder#transformConcurrency(int)} threads;
+ *   <li>{@link Stage#UPLOAD}: the result is written with
+ *       {@link Storage#writer(BlobInfo, Storage.BlobWriteOption...)}, on up to
+ *       {@link Builder#uploadConcurrency(int)} threads.
+ * </ol>
+ *
+ * <p>A stage hands a blob to the next one only when the next stage has a free thread, so a slow
+ * stage slows down the stages before it rather than accumulating work. In addition, the content
+ * held in memory by blobs that are being downloaded, transformed or uploaded is limited to
+ * {@link Builder#maxInFlightBytes(long)}: listing pauses when the limit is reached. Blob content
+ * is held in memory, so blobs must be smaller than 2 GiB.
+ *
+ * <p>Each run returns a {@link PipelineFuture} that reports the {@link Progress} of the run,
+ * including per-stage statistics, and completes with the final progress once all blobs are
+ * processed. Failures of individual blobs do not stop the run, see {@link Progress#failures()}.
+ *
+ * <p>Example of compressing all the blobs under a prefix into another bucket:
+ * <pre> {@code
+ * BlobPipeline pipeline = BlobPipeline.builder(storage).maxInFlightBytes(512L << 20).build();
+ * BlobPipeline.PipelineFuture future = pipeline.transformPrefix("bucket", "logs/2016/",
+ *     new BlobPipeline.Transform() {
+ *       public BlobPipeline.Output apply(Blob source, byte[] content) throws IOException {
+ *         BlobInfo target = BlobInfo.builder("archive", source.name() + ".gz").build();
+ *         return BlobPipeline.Output.of(target, gzip(content));
+ *       }
+ *     });
+ * while (!future.isDone()) {
+ *   System.out.println(future.progress());
+ *   Thread.sleep(1000);
+ * }
+ * BlobPipeline.Progress result = future.get();
+ * pipeline.shutdown();
+ * }</pre>
+ */
+public final class BlobPipeline {
+
+  private static final int DEFAULT_DOWNLOAD_CONCURRENCY = 8;
+  private static final int DEFAULT_UPLOAD_CONCURRENCY = 8;
+  private static final int DEFAULT_SHARD_COUNT = 16;
+  private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+
+  private final Storage storage;
+  private final int downloadConcurrency;
+  private final int transformConcurrency;
+  private final int uploadConcurrency;
+  private final int shardCount;
+  private final ByteBudget inFlightBytes;
+  private final ExecutorService listExecutor = Executors.newCachedThreadPool();
+  private final ExecutorService downloadExecutor;
+  private final ExecutorService transformExecutor;
+  private final ExecutorService uploadExecutor;
+  private int activeRuns;
+  private boolean shutdown;
+
+  /**
+   * Builder for {@code BlobPipeline} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int downloadConcurrency = DEFAULT_DOWNLOAD_CONCURRENCY;
+    private int transformConcurrency = Runtime.getRuntime().availableProcessors();
+    private int uploadConcurrency = DEFAULT_UPLOAD_CONCURRENCY;
+    private int shardCount = DEFAULT_SHARD_COUNT;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the maximum number of blobs downloaded concurrently. Default is 8.
+     */
+    public Builder downloadConcurrency(int downloadConcurrency) {
+      checkArgument(downloadConcurrency > 0, "downloadConcurrency must be positive");
+      this.downloadConcurrency = downloadConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of blobs transformed concurrently. Default is the number of
+     * available processors.
+     */
+    public Builder transformConcurrency(int transformConcurrency) {
+      checkArgument(transformConcurrency > 0, "transformConcurrency must be positive");
+      this.transformConcurrency = transformConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of blobs uploaded concurrently. Default is 8.
+     */
+    public Builder uploadConcurrency(int uploadConcurrency) {
+      checkArgument(uploadConcurrency > 0, "uploadConcurrency must be positive");
+      this.uploadConcurrency = uploadConcurrency;
+      return this;
+    }
+
+    /**
+     * Sets the number of shards the listing is split into.
+     *
+     * @see ShardedBlobLister.Builder#shardCount(int)
+     */
+    public Builder shardCount(int shardCount) {
+      checkArgument(shardCount > 0, "shardCount must be positive");
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of blob content held in memory by all the runs of the
+     * pipeline. A blob larger than this limit is processed once no other blob is in flight.
+     * Transform outputs larger than their source are not held back, so they can take the content
+     * in memory over this limit; listing then pauses until the content drops below the limit.
+     * Default is 256 MiB.
+     */
+    public Builder maxInFlightBytes(long maxInFlightBytes) {
+      checkArgument(maxInFlightBytes > 0, "maxInFlightBytes must be positive");
+      this.maxInFlightBytes = maxInFlightBytes;
+      return this;
+    }
+
+    /**
+     * Creates a {@code BlobPipeline} object.
+     */
+    public BlobPipeline build() {
+      return new BlobPipeline(this);
+    }
+  }
+
+  /**
+   * The stages of a pipeline.
+   */
+  public enum Stage {
+    LIST, DOWNLOAD, TRANSFORM, UPLOAD
+  }
+
+  /**
+   * Transforms the content of a blob. A transform is called concurrently for different blobs.
+   */
+  public interface Transform {
+
+    /**
+     * Returns the blob to write for {@code source}, whose content is {@code content}, or
+     * {@code null} to skip the blob.
+     */
+    Output apply(Blob source, byte[] content) throws IOException;
+  }
+
+  /**
+   * A blob to write: its information and its content.
+   */
+  public static final class Output {
+
+    private final BlobInfo blobInfo;
+    private final byte[] content;
+
+    private Output(BlobInfo blobInfo, byte[] content) {
+      this.blobInfo = checkNotNull(blobInfo);
+      this.content = checkNotNull(content);
+    }
+
+    /**
+     * Returns the information of the blob to write.
+     */
+    public BlobInfo blobInfo() {
+      return blobInfo;
+    }
+
+    /**
+     * Returns the content of the blob to write.
+     */
+    public byte[] content() {
+      return content;
+    }
+
+    /**
+     * Returns an {@code Output} object for a blob with the provided information and content.
+     */
+    public static Output of(BlobInfo blobInfo, byte[] content) {
+      return new Output(blobInfo, content);
+    }
+  }
+
+  /**
+   * A snapshot of the statistics of a pipeline stage.
+   */
+  public static final class StageStats {
+
+    private final long completed;
+    private final long failed;
+    private final long bytes;
+    private final long busyNanos;
+
+    private StageStats(StageCounters counters) {
+      this.completed = counters.completed.get();
+      this.failed = counters.failed.get();
+      this.bytes = counters.bytes.get();
+      this.busyNanos = counters.busyNanos.get();
+    }
+
+    /**
+     * Returns the number of blobs the stage processed successfully.
+     */
+    public long completed() {
+      return completed;
+    }
+
+    /**
+     * Returns the number of blobs the stage failed to process.
+     */
+    public long failed() {
+      return failed;
+    }
+
+    /**
+     * Returns the number of bytes produced by the stage: the size of listed blobs, the bytes
+     * downloaded, the size of transformed content or the bytes uploaded.
+     */
+    public long bytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns the total time the threads of the stage spent processing blobs, in the requested
+     * unit. Dividing {@link #bytes()} by this value gives the throughput of a thread of the stage.
+     */
+    public long busyTime(TimeUnit unit) {
+      return unit.convert(busyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("completed", completed)
+          .add("failed", failed)
+          .add("bytes", bytes)
+          .add("busyMillis", busyTime(TimeUnit.MILLISECONDS))
+          .toString();
+    }
+  }
+
+  /**
+   * A snapshot of the progress of a pipeline run.
+   */
+  public static final class Progress {
+
+    private final Map<Stage, StageStats> stages;
+    private final long skipped;
+    private final long inFlightBytes;
+    private final Map<BlobId, Exception> failures;
+
+    private Progress(Counters counters, long inFlightBytes) {
+      Map<Stage, StageStats> stageStats = new EnumMap<>(Stage.class);
+      for (Stage stage : Stage.values()) {
+        stageStats.put(stage, new StageStats(counters.stages.get(stage)));
+      }
+      this.stages = ImmutableMap.copyOf(stageStats);
+      this.skipped = counters.skipped.get();
+      this.inFlightBytes = inFlightBytes;
+      this.failures = ImmutableMap.copyOf(counters.failures);
+    }
+
+    /**
+     * Returns the statistics of {@code stage}.
+     */
+    public StageStats stage(Stage stage) {
+      return stages.get(stage);
+    }
+
+    /**
+     * Returns the number of blobs listed so far.
+     */
+    public long listed() {
+      return stages.get(Stage.LIST).completed();
+    }
+
+    /**
+     * Returns the number of blobs whose transformed content was written.
+     */
+    public long succeeded() {
+      return stages.get(Stage.UPLOAD).completed();
+    }
+
+    /**
+     * Returns the number of blobs for which the transform returned {@code null}.
+     */
+    public long skipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the number of blobs that could not be processed.
+     */
+    public long failed() {
+      return failures.size();
+    }
+
+    /**
+     * Returns the number of bytes of blob content held in memory by the pipeline when the
+     * snapshot was taken, for all runs.
+     */
+    public long inFlightBytes() {
+      return inFlightBytes;
+    }
+
+    /**
+     * Returns the blobs that could not be processed, along with the error that caused the
+     * failure: a {@link StorageException} if the blob could not be read or written, or the
+     * exception thrown by the transform.
+     */
+    public Map<BlobId, Exception> failures() {
+      return failures;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("stages", stages)
+          .add("skipped", skipped)
+          .add("failed", failed())
+          .add("inFlightBytes", inFlightBytes)
+          .toString();
+    }
+  }
+
+  private static final class StageCounters {
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private void completed(long bytes, long startNanos) {
+      this.bytes.addAndGet(bytes);
+      completed.incrementAndGet();
+      busyNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+
+    private void failed(long startNanos) {
+      failed.incrementAndGet();
+      busyNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+  }
+
+  private static final class Counters {
+
+    private final Map<Stage, StageCounters> stages = new EnumMap<>(Stage.class);
+    private final AtomicLong skipped = new AtomicLong();
+    private final Map<BlobId, Exception> failures = new ConcurrentHashMap<>();
+
+    private Counters() {
+      for (Stage stage : Stage.values()) {
+        stages.put(stage, new StageCounters());
+      }
+    }
+  }
+
+  /**
+   * Limits the number of bytes held in memory. Bytes are reserved when a blob is listed and
+   * released when the blob leaves the pipeline.
+   */
+  private static final class ByteBudget {
+
+    private final long capacity;
+    private long used;
+
+    private ByteBudget(long capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Reserves {@code bytes}, capped to the capacity, and returns the number of bytes reserved.
+     * Blocks while the reservation would exceed the capacity and other bytes are reserved.
+     */
+    private synchronized long acquire(long bytes) throws InterruptedException {
+      long reserved = Math.min(bytes, capacity);
+      while (used > 0 && used + reserved > capacity) {
+        wait();
+      }
+      used += reserved;
+      return reserved;
+    }
+
+    /**
+     * Reserves {@code bytes} without blocking, even if the reservation exceeds the capacity.
+     */
+    private synchronized void grow(long bytes) {
+      used += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+      used -= bytes;
+      notifyAll();
+    }
+
+    private synchronized long used() {
+      return used;
+    }
+  }
+
+  /**
+   * A future for a pipeline run. The future completes with the final {@link Progress} once all
+   * listed blobs were processed, or with a {@link StorageException} if listing failed. Failures
+   * of individual blobs do not fail the future, see {@link Progress#failures()}. Cancelling the
+   * future stops listing and drops the blobs that have not reached the upload stage yet; uploads
+   * already started complete in the background.
+   */
+  public final class PipelineFuture extends AbstractFuture<Progress> {
+
+    private final Counters counters = new Counters();
+    // the blobs in the pipeline, plus one while listing
+    private final AtomicLong pending = new AtomicLong(1);
+
+    private PipelineFuture() {}
+
+    /**
+     * Returns the current progress of the run.
+     */
+    public Progress progress() {
+      return new Progress(counters, inFlightBytes.used());
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+
+    private StageCounters stage(Stage stage) {
+      return counters.stages.get(stage);
+    }
+
+    private void done() {
+      if (pending.decrementAndGet() == 0) {
+        set(progress());
+      }
+    }
+  }
+
+  /**
+   * A blob going through the pipeline, along with the bytes it reserved.
+   */
+  private final class Item {
+
+    private final Blob blob;
+    private final PipelineFuture future;
+    private long reservedBytes;
+
+    private Item(Blob blob, PipelineFuture future, long reservedBytes) {
+      this.blob = blob;
+      this.future = future;
+      this.reservedBytes = reservedBytes;
+    }
+
+    /**
+     * Changes the reservation of this item to {@code bytes}. A larger reservation never blocks:
+     * the item holds a stage slot that items waiting for bytes might need, so only listing waits
+     * for bytes.
+     */
+    private void reserve(long bytes) {
+      if (bytes <= reservedBytes) {
+        inFlightBytes.release(reservedBytes - bytes);
+      } else {
+        inFlightBytes.grow(bytes - reservedBytes);
+      }
+      reservedBytes = bytes;
+    }
+
+    private void skipped() {
+      future.counters.skipped.incrementAndGet();
+      done();
+    }
+
+    private void failed(Stage stage, long startNanos, Exception exception) {
+      future.stage(stage).failed(startNanos);
+      future.counters.failures.put(blob.blobId(), exception);
+      done();
+    }
+
+    private void done() {
+      inFlightBytes.release(reservedBytes);
+      reservedBytes = 0;
+      future.done();
+    }
+  }
+
+  private BlobPipeline(Builder builder) {
+    this.storage = builder.storage;
+    this.downloadConcurrency = builder.downloadConcurrency;
+    this.transformConcurrency = builder.transformConcurrency;
+    this.uploadConcurrency = builder.uploadConcurrency;
+    this.shardCount = builder.shardCount;
+    this.inFlightBytes = new ByteBudget(builder.maxInFlightBytes);
+    this.downloadExecutor = Executors.newFixedThreadPool(downloadConcurrency);
+    this.transformExecutor = Executors.newFixedThreadPool(transformConcurrency);
+    this.uploadExecutor = Executors.newFixedThreadPool(uploadConcurrency);
+  }
+
+  /**
+   * Returns a builder for {@code BlobPipeline} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Starts transforming all the blobs in {@code bucket} whose names begin with {@code prefix}.
+   * {@code transform} is called with each listed blob and its content, and returns the blob to
+   * write or {@code null} to skip the blob.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public PipelineFuture transformPrefix(String bucket, String prefix, Transform transform) {
+    checkNotNull(transform);
+    ShardedBlobLister lister = ShardedBlobLister.builder(storage, bucket)
+        .prefix(prefix)
+        .shardCount(shardCount)
+        .build();
+    return start(lister, transform);
+  }
+
+  private PipelineFuture start(final ShardedBlobLister lister, final Transform transform) {
+    final PipelineFuture future = new PipelineFuture();
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("BlobPipeline was shut down");
+      }
+      activeRuns++;
+    }
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        runCompleted();
+      }
+    }, MoreExecutors.directExecutor());
+    listExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Semaphore downloadSlots = new Semaphore(downloadConcurrency);
+        final Semaphore transformSlots = new Semaphore(transformConcurrency);
+        final Semaphore uploadSlots = new Semaphore(uploadConcurrency);
+        StageCounters listStage = future.stage(Stage.LIST);
+        try (ShardedBlobLister.Listing listing = lister.list()) {
+          long startNanos = System.nanoTime();
+          while (listing.hasNext() && !future.isCancelled()) {
+            Blob blob = listing.next();
+            long size = blob.size() == null ? 0 : blob.size();
+            listStage.completed(size, startNanos);
+            final Item item = new Item(blob, future, inFlightBytes.acquire(size));
+            future.pending.incrementAndGet();
+            submit(downloadExecutor, downloadSlots, new Runnable() {
+              @Override
+              public void run() {
+                download(item, transformSlots, uploadSlots, transform);
+              }
+            });
+            startNanos = System.nanoTime();
+          }
+          future.done();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          future.setException(ex);
+        } catch (RuntimeException ex) {
+          future.setException(ex);
+        }
+      }
+    });
+    return future;
+  }
+
+  private void download(final Item item, Semaphore transformSlots, final Semaphore uploadSlots,
+      final Transform transform) {
+    if (item.future.isCancelled()) {
+      item.done();
+      return;
+    }
+    long startNanos = System.nanoTime();
+    final byte[] content;
+    try {
+      content = read(item.blob);
+    } catch (IOException | RuntimeException ex) {
+      item.failed(Stage.DOWNLOAD, startNanos, ex instanceof IOException
+          ? new StorageException((IOException) ex) : ex);
+      return;
+    }
+    item.future.stage(Stage.DOWNLOAD).completed(content.length, startNanos);
+    handOff(item, Stage.DOWNLOAD, transformExecutor, transformSlots, new Runnable() {
+      @Override
+      public void run() {
+        transform(item, content, uploadSlots, transform);
+      }
+    });
+  }
+
+  private void transform(final Item item, byte[] content, Semaphore uploadSlots,
+      Transform transform) {
+    if (item.future.isCancelled()) {
+      item.done();
+      return;
+    }
+    long startNanos = System.nanoTime();
+    final Output output;
+    try {
+      output = transform.apply(item.blob, content);
+    } catch (IOException | RuntimeException ex) {
+      item.failed(Stage.TRANSFORM, startNanos, ex);
+      return;
+    }
+    if (output == null) {
+      item.future.stage(Stage.TRANSFORM).completed(0, startNanos);
+      item.skipped();
+      return;
+    }
+    item.future.stage(Stage.TRANSFORM).completed(output.content().length, startNanos);
+    // the source content can now be collected, only the output is held in memory
+    item.reserve(output.content().length);
+    handOff(item, Stage.TRANSFORM, uploadExecutor, uploadSlots, new Runnable() {
+      @Override
+      public void run() {
+        upload(item, output);
+      }
+    });
+  }
+
+  private void upload(Item item, Output output) {
+    long startNanos = System.nanoTime();
+    try {
+      write(output);
+    } catch (IOException | RuntimeException ex) {
+      item.failed(Stage.UPLOAD, startNanos, ex instanceof IOException
+          ? new StorageException((IOException) ex) : ex);
+      return;
+    }
+    item.future.stage(Stage.UPLOAD).completed(output.content().length, startNanos);
+    item.done();
+  }
+
+  private byte[] read(Blob blob) throws IOException {
+    byte[] content = new byte[Ints.checkedCast(blob.size() == null ? 0 : blob.size())];
+    if (content.length == 0) {
+      return content;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(content);
+    try (ReadChannel reader = storage.reader(blob.blobId())) {
+      while (buffer.hasRemaining() && reader.read(buffer) >= 0) {
+        // keep reading
+      }
+    }
+    return buffer.hasRemaining() ? Arrays.copyOf(content, buffer.position()) : content;
+  }
+
+  private void write(Output output) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(output.content());
+    try (WriteChannel writer = storage.writer(output.blobInfo())) {
+      while (buffer.hasRemaining()) {
+        writer.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Passes {@code item} from {@code stage} to the next stage, waiting for a free slot in the next
+   * stage. The item fails if it can not be passed on.
+   */
+  private void handOff(Item item, Stage stage, ExecutorService executor, Semaphore slots,
+      Runnable task) {
+    try {
+      submit(executor, slots, task);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      item.failed(stage, System.nanoTime(), ex);
+    } catch (RejectedExecutionException ex) {
+      item.failed(stage, System.nanoTime(), ex);
+    }
+  }
+
+  private static void submit(ExecutorService executor, final Semaphore slots,
+      final Runnable task) throws InterruptedException {
+    slots.acquire();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            slots.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      slots.release();
+      throw ex;
+    }
+  }
+
+  private synchronized void runCompleted() {
+    if (--activeRuns == 0 && shutdown) {
+      shutdownExecutors();
+    }
+  }
+
+  private void shutdownExecutors() {
+    listExecutor.shutdown();
+    downloadExecutor.shutdown();
+    transformExecutor.shutdown();
+    uploadExecutor.shutdown();
+  }
+
+  /**
+   * Stops accepting new runs. Runs already started continue until they complete, then the
+   * threads of all stages are released.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (activeRuns == 0) {
+      shutdownExecutors();
+    }
+  }
+
+  /**
+   * Blocks until all runs have completed after a shutdown request, or the timeout occurs.
+   *
+   * @return {@code true} if all runs completed, {@code false} if the timeout elapsed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ExecutorService executor : Arrays.asList(
+        listExecutor, downloadExecutor, transformExecutor, uploadExecutor)) {
+      if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -35,7 +35,12 @@ import java.util.Objects;
 import java.util.concurrent.Callable;
 
 /**
- * Default implementation for ReadChannel.
+ * Default implementation for ReadChannel. If {@link StorageOptions#checksumValidation()} is
+ * enabled, the CRC32C checksum of the content read is computed as it is returned and, if the blob
+ * is read from its beginning without seeking, compared with the one of the blob when the end of
+ * the blob is reached. When the blob is identified without a generation, its metadata is read
+ * before its content, and the content is read from the generation of that metadata, so that the
+ * checksums compared are those of the same generation.
  */
 class BlobReadChannel implements ReadChannel {
 
@@ -49,9 +54,11 @@ class BlobReadChannel implements ReadChannel {
   private boolean isOpen;
   private boolean endOfStream;
   private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private Crc32c crc32c;
 
   private final StorageRpc storageRpc;
-  private final StorageObject storageObject;
+  private StorageObject storageObject;
+  private StorageObject metadata;
   private int bufferPos;
   private byte[] buffer;
 
@@ -63,15 +70,18 @@ class BlobReadChannel implements ReadChannel {
     isOpen = true;
     storageRpc = serviceOptions.rpc();
     storageObject = blob.toPb();
+    crc32c = serviceOptions.checksumValidation() ? new Crc32c() : null;
   }
 
   @Override
   public RestorableState<ReadChannel> capture() {
-    StateImpl.Builder builder = StateImpl.builder(serviceOptions, blob, requestOptions)
+    StateImpl.Builder builder =
+        StateImpl.builder(serviceOptions, BlobId.fromPb(storageObject), requestOptions)
         .position(position)
         .isOpen(isOpen)
         .endOfStream(endOfStream)
-        .chunkSize(chunkSize);
+        .chunkSize(chunkSize)
+        .crc32c(crc32c != null ? crc32c.copy() : null);
     if (buffer != null) {
       builder.position(position + bufferPos);
       builder.endOfStream(false);
@@ -105,6 +115,7 @@ class BlobReadChannel implements ReadChannel {
     buffer = null;
     bufferPos = 0;
     endOfStream = false;
+    crc32c = null;
   }
 
   @Override
@@ -117,9 +128,13 @@ class BlobReadChannel implements ReadChannel {
     validateOpen();
     if (buffer == null) {
       if (endOfStream) {
+        validateChecksum();
         return -1;
       }
       final int toRead = Math.max(byteBuffer.remaining(), chunkSize);
+      if (crc32c != null && storageObject.getGeneration() == null) {
+        pinGeneration();
+      }
       try {
         Tuple<String, byte[]> result = runWithRetries(new Callable<Tuple<String, byte[]>>() {
           @Override
@@ -141,12 +156,16 @@ class BlobReadChannel implements ReadChannel {
         endOfStream = true;
         if (buffer.length == 0) {
           buffer = null;
+          validateChecksum();
           return -1;
         }
       }
     }
     int toWrite = Math.min(buffer.length - bufferPos, byteBuffer.remaining());
     byteBuffer.put(buffer, bufferPos, toWrite);
+    if (crc32c != null) {
+      crc32c.update(buffer, bufferPos, toWrite);
+    }
     bufferPos += toWrite;
     if (bufferPos >= buffer.length) {
       position += buffer.length;
@@ -156,6 +175,53 @@ class BlobReadChannel implements ReadChannel {
     return toWrite;
   }
 
+  private StorageObject getMetadata() {
+    try {
+      return runWithRetries(new Callable<StorageObject>() {
+        @Override
+        public StorageObject call() {
+          return storageRpc.get(storageObject, requestOptions);
+        }
+      }, serviceOptions.retryParams(), StorageImpl.EXCEPTION_HANDLER, serviceOptions.clock());
+    } catch (RetryHelper.RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+  }
+
+  /**
+   * Reads the metadata of the blob and reads the content from its generation from now on. The
+   * checksum is not validated if the blob does not exist.
+   */
+  private void pinGeneration() {
+    metadata = getMetadata();
+    if (metadata == null || metadata.getGeneration() == null) {
+      crc32c = null;
+      return;
+    }
+    storageObject = blob.toPb().setGeneration(metadata.getGeneration());
+  }
+
+  /**
+   * Compares the checksum of the content read with the one of the blob, at most once.
+   */
+  private void validateChecksum() {
+    if (crc32c == null) {
+      return;
+    }
+    if (metadata == null) {
+      metadata = getMetadata();
+    }
+    String expected = metadata != null ? metadata.getCrc32c() : null;
+    String actual = crc32c.toBase64();
+    crc32c = null;
+    if (expected != null && !expected.equals(actual)) {
+      StringBuilder messageBuilder = new StringBuilder();
+      messageBuilder.append("Blob ").append(blob).append(" has CRC32C ").append(expected)
+          .append(" but the content read has CRC32C ").append(actual);
+      throw new StorageException(0, messageBuilder.toString());
+    }
+  }
+
   static class StateImpl implements RestorableState<ReadChannel>, Serializable {
 
     private static final long serialVersionUID = 3889420316004453706L;
@@ -168,6 +234,7 @@ class BlobReadChannel implements ReadChannel {
     private final boolean isOpen;
     private final boolean endOfStream;
     private final int chunkSize;
+    private final Crc32c crc32c;
 
     StateImpl(Builder builder) {
       this.serviceOptions = builder.serviceOptions;
@@ -178,6 +245,7 @@ class BlobReadChannel implements ReadChannel {
       this.isOpen = builder.isOpen;
       this.endOfStream = builder.endOfStream;
       this.chunkSize = builder.chunkSize;
+      this.crc32c = builder.crc32c;
     }
 
     static class Builder {
@@ -189,6 +257,7 @@ class BlobReadChannel implements ReadChannel {
       private boolean isOpen;
       private boolean endOfStream;
       private int chunkSize;
+      private Crc32c crc32c;
 
       private Builder(StorageOptions options, BlobId blob, Map<StorageRpc.Option, ?> reqOptions) {
         this.serviceOptions = options;
@@ -221,6 +290,11 @@ class BlobReadChannel implements ReadChannel {
         return this;
       }
 
+      Builder crc32c(Crc32c crc32c) {
+        this.crc32c = crc32c;
+        return this;
+      }
+
       RestorableState<ReadChannel> build() {
         return new StateImpl(this);
       }
@@ -239,13 +313,14 @@ class BlobReadChannel implements ReadChannel {
       channel.isOpen = isOpen;
       channel.endOfStream = endOfStream;
       channel.chunkSize = chunkSize;
+      channel.crc32c = crc32c != null ? crc32c.copy() : null;
       return channel;
     }
 
     @Override
     public int hashCode() {
       return Objects.hash(serviceOptions, blob, requestOptions, lastEtag, position, isOpen,
-          endOfStream, chunkSize);
+          endOfStream, chunkSize, crc32c);
     }
 
     @Override
@@ -264,7 +339,8 @@ class BlobReadChannel implements ReadChannel {
           && this.position == other.position
           && this.isOpen == other.isOpen
           && this.endOfStream == other.endOfStream
-          && this.chunkSize == other.chunkSize;
+          && this.chunkSize == other.chunkSize
+          && Objects.equals(this.crc32c, other.crc32c);
     }
 
     @Override
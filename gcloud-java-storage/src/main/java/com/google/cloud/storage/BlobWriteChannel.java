@@ -17,8 +17,8 @@
 package com.google.cloud.storage;
 
 import static com.google.cloud.RetryHelper.runWithRetries;
-import static java.util.concurrent.Executors.callable;
 
+import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.BaseWriteChannel;
 import com.google.cloud.RestorableState;
 import com.google.cloud.RetryHelper;
@@ -26,52 +26,98 @@ import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.spi.StorageRpc;
 
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
 
 /**
- * Write channel implementation to upload Google Cloud Storage blobs.
+ * Write channel implementation to upload Google Cloud Storage blobs. If
+ * {@link StorageOptions#checksumValidation()} is enabled, the CRC32C checksum of the uploaded
+ * content is computed as chunks are flushed and compared with the one of the stored blob when the
+ * upload completes.
  */
 class BlobWriteChannel extends BaseWriteChannel<StorageOptions, BlobInfo> {
 
+  private Crc32c crc32c;
+
   BlobWriteChannel(StorageOptions options, BlobInfo blob, Map<StorageRpc.Option, ?> optionsMap) {
     this(options, blob, options.rpc().open(blob.toPb(), optionsMap));
   }
 
   BlobWriteChannel(StorageOptions options, BlobInfo blobInfo, String uploadId) {
     super(options, blobInfo, uploadId);
+    crc32c = options.checksumValidation() ? new Crc32c() : null;
   }
 
   @Override
   protected void flushBuffer(final int length, final boolean last) {
+    StorageObject storageObject;
     try {
-      runWithRetries(callable(new Runnable() {
+      storageObject = runWithRetries(new Callable<StorageObject>() {
+        private boolean attempted;
+
         @Override
-        public void run() {
-          options().rpc().write(uploadId(), buffer(), 0, position(), length, last);
+        public StorageObject call() {
+          if (attempted) {
+            chunkRetried();
+          }
+          attempted = true;
+          return options().rpc().write(uploadId(), buffer(), 0, position(), length, last);
         }
-      }), options().retryParams(), StorageImpl.EXCEPTION_HANDLER, options().clock());
+      }, options().retryParams(), StorageImpl.EXCEPTION_HANDLER, options().clock());
     } catch (RetryHelper.RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
+    if (crc32c != null) {
+      crc32c.update(buffer(), 0, length);
+      if (last) {
+        validateChecksum(storageObject);
+      }
+    }
+  }
+
+  /**
+   * Compares the CRC32C of the written content with the one of {@code storageObject}, the object
+   * returned by the last write of the upload.
+   */
+  private void validateChecksum(StorageObject storageObject) {
+    String expected = storageObject != null ? storageObject.getCrc32c() : null;
+    if (expected != null && !expected.equals(crc32c.toBase64())) {
+      StringBuilder messageBuilder = new StringBuilder();
+      messageBuilder.append("Blob ").append(entity().blobId()).append(" was stored with CRC32C ")
+          .append(expected).append(" but the uploaded content has CRC32C ").append(crc32c);
+      throw new StorageException(0, messageBuilder.toString());
+    }
   }
 
   protected StateImpl.Builder stateBuilder() {
-    return StateImpl.builder(options(), entity(), uploadId());
+    return StateImpl.builder(options(), entity(), uploadId())
+        .crc32c(crc32c != null ? crc32c.copy() : null);
   }
 
   static class StateImpl extends BaseWriteChannel.BaseState<StorageOptions, BlobInfo> {
 
     private static final long serialVersionUID = -9028324143780151286L;
 
+    private final Crc32c crc32c;
+
     StateImpl(Builder builder) {
       super(builder);
+      this.crc32c = builder.crc32c;
     }
 
     static class Builder extends BaseWriteChannel.BaseState.Builder<StorageOptions, BlobInfo> {
 
+      private Crc32c crc32c;
+
       private Builder(StorageOptions options, BlobInfo blobInfo, String uploadId) {
         super(options, blobInfo, uploadId);
       }
 
+      Builder crc32c(Crc32c crc32c) {
+        this.crc32c = crc32c;
+        return this;
+      }
+
       @Override
       public RestorableState<WriteChannel> build() {
         return new StateImpl(this);
@@ -86,7 +132,19 @@ class BlobWriteChannel extends BaseWriteChannel<StorageOptions, BlobInfo> {
     public WriteChannel restore() {
       BlobWriteChannel channel = new BlobWriteChannel(serviceOptions, entity, uploadId);
       channel.restore(this);
+      channel.crc32c = crc32c != null ? crc32c.copy() : null;
       return channel;
     }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(super.hashCode(), crc32c);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return super.equals(obj) && obj instanceof StateImpl
+          && Objects.equals(crc32c, ((StateImpl) obj).crc32c);
+    }
   }
 }
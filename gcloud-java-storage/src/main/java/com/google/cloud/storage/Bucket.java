@@ -21,8 +21,10 @@ import static com.google.cloud.storage.Bucket.BucketSourceOption.toSourceOptions
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.cloud.FieldProfile;
 import com.google.cloud.Page;
 import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BucketField;
 import com.google.cloud.storage.Storage.BucketTargetOption;
 import com.google.cloud.storage.spi.StorageRpc;
 import com.google.common.base.Function;
@@ -416,7 +418,7 @@ public class Bucket extends BucketInfo {
 
     Builder(Bucket bucket) {
       this.storage = bucket.storage;
-      this.infoBuilder = new BucketInfo.BuilderImpl(bucket);
+      this.infoBuilder = new BucketInfo.BuilderImpl(bucket.complete());
     }
 
     @Override
@@ -522,7 +524,12 @@ public class Bucket extends BucketInfo {
   }
 
   Bucket(Storage storage, BucketInfo.BuilderImpl infoBuilder) {
-    super(infoBuilder);
+    this(storage, infoBuilder, null);
+  }
+
+  Bucket(Storage storage, BucketInfo.BuilderImpl infoBuilder,
+      FieldProfile.Tracker<BucketField, BucketInfo> fieldTracker) {
+    super(infoBuilder, fieldTracker);
     this.storage = checkNotNull(storage);
     this.options = storage.options();
   }
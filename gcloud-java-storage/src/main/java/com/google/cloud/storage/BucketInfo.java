@@ -30,6 +30,8 @@ import com.google.api.services.storage.model.Bucket.Versioning;
 import com.google.api.services.storage.model.Bucket.Website;
 import com.google.api.services.storage.model.BucketAccessControl;
 import com.google.api.services.storage.model.ObjectAccessControl;
+import com.google.cloud.FieldProfile;
+import com.google.cloud.storage.Storage.BucketField;
 import com.google.cloud.storage.Acl.Entity;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
@@ -45,6 +47,12 @@ import java.util.Objects;
 /**
  * Google Storage bucket metadata;
  *
+ * <p>When {@link StorageOptions.Builder#autoFieldProjection(boolean)} is enabled, buckets returned
+ * by {@link Storage} may hold only the fields that were requested. Reading any other field,
+ * copying the bucket with {@link #toBuilder()}, comparing it or serializing it fetches the
+ * complete bucket information first, which blocks on a get request and throws
+ * {@link StorageException} if the request fails or the bucket no longer exists.
+ *
  * @see <a href="https://cloud.google.com/storage/docs/concepts-techniques#concepts">Concepts and
  *      Terminology</a>
  */
@@ -81,6 +89,7 @@ public class BucketInfo implements Serializable {
   private final List<Acl> defaultAcl;
   private final String location;
   private final String storageClass;
+  private final transient FieldProfile.Tracker<BucketField, BucketInfo> fieldTracker;
 
   /**
    * Base class for bucket's delete rules. Allows to configure automatic deletion of blobs and blobs
@@ -555,6 +564,15 @@ public class BucketInfo implements Serializable {
   }
 
   BucketInfo(BuilderImpl builder) {
+    this(builder, null);
+  }
+
+  /**
+   * Creates an object fetched with automatic field selection, whose fields are read through
+   * {@code fieldTracker}.
+   */
+  BucketInfo(BuilderImpl builder, FieldProfile.Tracker<BucketField, BucketInfo> fieldTracker) {
+    this.fieldTracker = fieldTracker;
     generatedId = builder.generatedId;
     name = builder.name;
     etag = builder.etag;
@@ -577,7 +595,7 @@ public class BucketInfo implements Serializable {
    * Returns the service-generated id for the bucket.
    */
   public String generatedId() {
-    return generatedId;
+    return source(BucketField.ID).generatedId;
   }
 
   /**
@@ -591,20 +609,21 @@ public class BucketInfo implements Serializable {
    * Returns the bucket's owner. This is always the project team's owner group.
    */
   public Entity owner() {
-    return owner;
+    return source(BucketField.OWNER).owner;
   }
 
   /**
    * Returns the URI of this bucket as a string.
    */
   public String selfLink() {
-    return selfLink;
+    return source(BucketField.SELF_LINK).selfLink;
   }
 
   /**
    * Returns {@code true} if versioning is fully enabled for this bucket, {@code false} otherwise.
    */
   public Boolean versioningEnabled() {
+    Boolean versioningEnabled = source(BucketField.VERSIONING).versioningEnabled;
     return Data.isNull(versioningEnabled) ? null : versioningEnabled;
   }
 
@@ -613,14 +632,14 @@ public class BucketInfo implements Serializable {
    * blobs are treated as potential directories.
    */
   public String indexPage() {
-    return indexPage;
+    return source(BucketField.WEBSITE).indexPage;
   }
 
   /**
    * Returns the custom object to return when a requested resource is not found.
    */
   public String notFoundPage() {
-    return notFoundPage;
+    return source(BucketField.WEBSITE).notFoundPage;
   }
 
   /**
@@ -629,7 +648,7 @@ public class BucketInfo implements Serializable {
    * @see <a href="https://cloud.google.com/storage/docs/lifecycle">Lifecycle Management</a>
    */
   public List<? extends DeleteRule> deleteRules() {
-    return deleteRules;
+    return source(BucketField.LIFECYCLE).deleteRules;
   }
 
   /**
@@ -638,21 +657,21 @@ public class BucketInfo implements Serializable {
    * @see <a href="http://tools.ietf.org/html/rfc2616#section-3.11">Entity Tags</a>
    */
   public String etag() {
-    return etag;
+    return source(BucketField.ETAG).etag;
   }
 
   /**
    * Returns the time at which the bucket was created.
    */
   public Long createTime() {
-    return createTime;
+    return source(BucketField.TIME_CREATED).createTime;
   }
 
   /**
    * Returns the metadata generation of this bucket.
    */
   public Long metageneration() {
-    return metageneration;
+    return source(BucketField.METAGENERATION).metageneration;
   }
 
   /**
@@ -662,7 +681,7 @@ public class BucketInfo implements Serializable {
    * @see <a href="https://cloud.google.com/storage/docs/bucket-locations">Bucket Locations</a>
    */
   public String location() {
-    return location;
+    return source(BucketField.LOCATION).location;
   }
 
   /**
@@ -672,7 +691,7 @@ public class BucketInfo implements Serializable {
    * @see <a href="https://cloud.google.com/storage/docs/storage-classes">Storage Classes</a>
    */
   public String storageClass() {
-    return storageClass;
+    return source(BucketField.STORAGE_CLASS).storageClass;
   }
 
   /**
@@ -682,7 +701,7 @@ public class BucketInfo implements Serializable {
    *     Cross-Origin Resource Sharing (CORS)</a>
    */
   public List<Cors> cors() {
-    return cors;
+    return source(BucketField.CORS).cors;
   }
 
   /**
@@ -692,7 +711,7 @@ public class BucketInfo implements Serializable {
    *     About Access Control Lists</a>
    */
   public List<Acl> acl() {
-    return acl;
+    return source(BucketField.ACL).acl;
   }
 
   /**
@@ -702,14 +721,40 @@ public class BucketInfo implements Serializable {
    *     About Access Control Lists</a>
    */
   public List<Acl> defaultAcl() {
-    return defaultAcl;
+    return source(BucketField.DEFAULT_OBJECT_ACL).defaultAcl;
+  }
+
+  /**
+   * Returns the object to read {@code field} from: this object, or the complete bucket information
+   * if {@code field} was not selected when this object was fetched with automatic field selection.
+   *
+   * @see StorageOptions.Builder#autoFieldProjection(boolean)
+   */
+  private BucketInfo source(BucketField field) {
+    return fieldTracker == null ? this : fieldTracker.read(field, this);
+  }
+
+  /**
+   * Returns this object, or the complete bucket information if not all fields were selected when
+   * this object was fetched with automatic field selection.
+   */
+  BucketInfo complete() {
+    return fieldTracker == null ? this : fieldTracker.complete(this);
+  }
+
+  /**
+   * Serializes the complete bucket information in place of an object fetched with automatic field
+   * selection, so that fields that were not selected are not lost.
+   */
+  Object writeReplace() {
+    return complete();
   }
 
   /**
    * Returns a builder for the current bucket.
    */
   public Builder toBuilder() {
-    return new BuilderImpl(this);
+    return new BuilderImpl(complete());
   }
 
   @Override
@@ -733,6 +778,10 @@ public class BucketInfo implements Serializable {
   }
 
   com.google.api.services.storage.model.Bucket toPb() {
+    BucketInfo completeInfo = complete();
+    if (completeInfo != this) {
+      return completeInfo.toPb();
+    }
     com.google.api.services.storage.model.Bucket bucketPb =
         new com.google.api.services.storage.model.Bucket();
     bucketPb.setId(generatedId);
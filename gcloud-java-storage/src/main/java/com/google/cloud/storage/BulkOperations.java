@@ -0,0 +1,463 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes or updates all the blobs under a prefix. Blobs are listed with a
+ * {@link ShardedBlobLister} and, as soon as a group of {@link Builder#batchSize(int)} blobs is
+ * listed, the group is submitted as a {@link StorageBatch} while listing continues. Up to
+ * {@link Builder#concurrency(int)} batches are in flight at any time; listing pauses when that
+ * limit is reached, so memory use does not depend on the number of blobs.
+ *
+ * <p>Requests of a batch that fail with a retryable error (such as 429 or 5xx) are retried
+ * individually by {@link StorageBatch#submit()}. Each operation returns a {@link BulkFuture}
+ * that reports the {@link Progress} of the operation while it runs and completes with the final
+ * progress once all batches are done.
+ *
+ * <p>Example of deleting all the blobs under a prefix:
+ * <pre> {@code
+ * BulkOperations bulk = BulkOperations.builder(storage).concurrency(16).build();
+ * BulkOperations.BulkFuture future = bulk.deletePrefix("bucket", "logs/2016/");
+ * while (!future.isDone()) {
+ *   System.out.println(future.progress());
+ *   Thread.sleep(1000);
+ * }
+ * BulkOperations.Progress result = future.get();
+ * bulk.shutdown();
+ * }</pre>
+ */
+public final class BulkOperations {
+
+  private static final int DEFAULT_CONCURRENCY = 8;
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final int DEFAULT_SHARD_COUNT = 16;
+
+  private final Storage storage;
+  private final int concurrency;
+  private final int batchSize;
+  private final int shardCount;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private int activeOperations;
+  private boolean shutdown;
+
+  /**
+   * Builder for {@code BulkOperations} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int shardCount = DEFAULT_SHARD_COUNT;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the maximum number of batches of a single operation submitted concurrently.
+     * Default is 8.
+     */
+    public Builder concurrency(int concurrency) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Sets the number of blobs processed by each batch. Batches of more than 100 blobs are sent as
+     * several HTTP batch requests, see {@link StorageOptions#batchParallelism()}. Default is 100.
+     */
+    public Builder batchSize(int batchSize) {
+      checkArgument(batchSize > 0, "batchSize must be positive");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of shards the listing is split into.
+     *
+     * @see ShardedBlobLister.Builder#shardCount(int)
+     */
+    public Builder shardCount(int shardCount) {
+      checkArgument(shardCount > 0, "shardCount must be positive");
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    /**
+     * Creates a {@code BulkOperations} object.
+     */
+    public BulkOperations build() {
+      return new BulkOperations(this);
+    }
+  }
+
+  /**
+   * A snapshot of the progress of a bulk operation.
+   */
+  public static final class Progress {
+
+    private final long listed;
+    private final long succeeded;
+    private final long skipped;
+    private final long failed;
+    private final Map<BlobId, StorageException> failures;
+
+    private Progress(Counters counters) {
+      this.listed = counters.listed.get();
+      this.succeeded = counters.succeeded.get();
+      this.skipped = counters.skipped.get();
+      this.failed = counters.failed.get();
+      this.failures = ImmutableMap.copyOf(counters.failures);
+    }
+
+    /**
+     * Returns the number of blobs listed so far.
+     */
+    public long listed() {
+      return listed;
+    }
+
+    /**
+     * Returns the number of blobs successfully deleted or updated.
+     */
+    public long succeeded() {
+      return succeeded;
+    }
+
+    /**
+     * Returns the number of blobs left untouched: blobs that no longer existed when deleted, and
+     * blobs for which the update function returned {@code null}.
+     */
+    public long skipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the number of blobs that could not be deleted or updated.
+     */
+    public long failed() {
+      return failed;
+    }
+
+    /**
+     * Returns the blobs that could not be deleted or updated, along with the error that caused
+     * the failure.
+     */
+    public Map<BlobId, StorageException> failures() {
+      return failures;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("listed", listed)
+          .add("succeeded", succeeded)
+          .add("skipped", skipped)
+          .add("failed", failed)
+          .toString();
+    }
+  }
+
+  private static final class Counters {
+
+    private final AtomicLong listed = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Map<BlobId, StorageException> failures = new ConcurrentHashMap<>();
+
+    private void failed(BlobId blobId, StorageException exception) {
+      failures.put(blobId, exception);
+      failed.incrementAndGet();
+    }
+  }
+
+  /**
+   * A future for a bulk operation. The future completes with the final {@link Progress} once all
+   * listed blobs were processed, or with a {@link StorageException} if listing failed. Failures
+   * of individual blobs do not fail the future, see {@link Progress#failures()}. Cancelling the
+   * future stops listing; batches already submitted complete in the background.
+   */
+  public static final class BulkFuture extends AbstractFuture<Progress> {
+
+    private final Counters counters = new Counters();
+
+    private BulkFuture() {}
+
+    /**
+     * Returns the current progress of the operation.
+     */
+    public Progress progress() {
+      return new Progress(counters);
+    }
+
+    @Override
+    protected boolean set(Progress value) {
+      return super.set(value);
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+  }
+
+  /**
+   * Adds the operation on one blob to a batch, returning its result or {@code null} if the blob
+   * is skipped.
+   */
+  private interface BlobOperation {
+    BatchResult<?, StorageException> add(StorageBatch batch, Blob blob, BulkFuture future);
+  }
+
+  private BulkOperations(Builder builder) {
+    this.storage = builder.storage;
+    this.concurrency = builder.concurrency;
+    this.batchSize = builder.batchSize;
+    this.shardCount = builder.shardCount;
+  }
+
+  /**
+   * Returns a builder for {@code BulkOperations} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Starts deleting all the blobs in {@code bucket} whose names begin with {@code prefix}.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public BulkFuture deletePrefix(String bucket, String prefix) {
+    ShardedBlobLister lister = lister(bucket, prefix).fields(BlobField.NAME).build();
+    return start(lister, new BlobOperation() {
+      @Override
+      public BatchResult<?, StorageException> add(StorageBatch batch, final Blob blob,
+          final BulkFuture future) {
+        StorageBatchResult<Boolean> result = batch.delete(blob.bucket(), blob.name());
+        result.notify(new BatchResult.Callback<Boolean, StorageException>() {
+              @Override
+              public void success(Boolean result) {
+                (result ? future.counters.succeeded : future.counters.skipped).incrementAndGet();
+              }
+
+              @Override
+              public void error(StorageException exception) {
+                future.counters.failed(blob.blobId(), exception);
+              }
+            });
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Starts updating the metadata of all the blobs in {@code bucket} whose names begin with
+   * {@code prefix}. {@code update} is called, on the listing thread, with each listed blob and
+   * returns the information to patch the blob with, or {@code null} to leave the blob untouched.
+   * For instance, the following function sets the content type of every blob:
+   * <pre> {@code
+   * new Function<Blob, BlobInfo>() {
+   *   public BlobInfo apply(Blob blob) {
+   *     return BlobInfo.builder(blob.bucket(), blob.name()).contentType("text/plain").build();
+   *   }
+   * }
+   * }</pre>
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public BulkFuture updatePrefix(String bucket, String prefix,
+      final Function<? super Blob, ? extends BlobInfo> update) {
+    checkNotNull(update);
+    return start(lister(bucket, prefix).build(), new BlobOperation() {
+      @Override
+      public BatchResult<?, StorageException> add(StorageBatch batch, final Blob blob,
+          final BulkFuture future) {
+        BlobInfo blobInfo = update.apply(blob);
+        if (blobInfo == null) {
+          future.counters.skipped.incrementAndGet();
+          return null;
+        }
+        StorageBatchResult<Blob> result = batch.update(blobInfo);
+        result.notify(new BatchResult.Callback<Blob, StorageException>() {
+          @Override
+          public void success(Blob result) {
+            future.counters.succeeded.incrementAndGet();
+          }
+
+          @Override
+          public void error(StorageException exception) {
+            future.counters.failed(blob.blobId(), exception);
+          }
+        });
+        return result;
+      }
+    });
+  }
+
+  private ShardedBlobLister.Builder lister(String bucket, String prefix) {
+    return ShardedBlobLister.builder(storage, bucket)
+        .prefix(prefix)
+        .shardCount(shardCount);
+  }
+
+  private BulkFuture start(final ShardedBlobLister lister, final BlobOperation operation) {
+    final BulkFuture future = new BulkFuture();
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("BulkOperations was shut down");
+      }
+      activeOperations++;
+    }
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        operationCompleted();
+      }
+    }, MoreExecutors.directExecutor());
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Semaphore inFlight = new Semaphore(concurrency);
+        try (ShardedBlobLister.Listing listing = lister.list()) {
+          List<Blob> group = new ArrayList<>(batchSize);
+          while (listing.hasNext() && !future.isCancelled()) {
+            group.add(listing.next());
+            future.counters.listed.incrementAndGet();
+            if (group.size() == batchSize) {
+              submit(group, operation, future, inFlight);
+              group = new ArrayList<>(batchSize);
+            }
+          }
+          if (!group.isEmpty() && !future.isCancelled()) {
+            submit(group, operation, future, inFlight);
+          }
+          inFlight.acquire(concurrency);
+          future.set(future.progress());
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          future.setException(ex);
+        } catch (RuntimeException ex) {
+          future.setException(ex);
+        }
+      }
+    });
+    return future;
+  }
+
+  private void submit(final List<Blob> group, final BlobOperation operation,
+      final BulkFuture future, final Semaphore inFlight) throws InterruptedException {
+    inFlight.acquire();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            StorageBatch batch = storage.batch();
+            Map<BlobId, BatchResult<?, StorageException>> results = new LinkedHashMap<>();
+            for (Blob blob : group) {
+              try {
+                BatchResult<?, StorageException> result = operation.add(batch, blob, future);
+                if (result != null) {
+                  results.put(blob.blobId(), result);
+                }
+              } catch (StorageException ex) {
+                future.counters.failed(blob.blobId(), ex);
+              }
+            }
+            if (!results.isEmpty()) {
+              submit(batch, results, future);
+            }
+          } catch (RuntimeException ex) {
+            future.setException(ex);
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      inFlight.release();
+      throw ex;
+    }
+  }
+
+  private static void submit(StorageBatch batch,
+      Map<BlobId, BatchResult<?, StorageException>> results, BulkFuture future) {
+    try {
+      batch.submit();
+    } catch (StorageException ex) {
+      // an HTTP batch request failed, the blobs it carried were not processed
+      for (Map.Entry<BlobId, BatchResult<?, StorageException>> entry : results.entrySet()) {
+        if (!entry.getValue().completed()) {
+          future.counters.failed(entry.getKey(), ex);
+        }
+      }
+    }
+  }
+
+  private synchronized void operationCompleted() {
+    if (--activeOperations == 0 && shutdown) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Stops accepting new operations. Operations already started continue until they complete,
+   * then the threads listing and submitting batches are released.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (activeOperations == 0) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Blocks until all operations have completed after a shutdown request, or the timeout occurs.
+   *
+   * @return {@code true} if all operations completed, {@code false} if the timeout elapsed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
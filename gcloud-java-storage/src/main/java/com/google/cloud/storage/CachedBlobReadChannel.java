@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * A read channel for a blob pinned to a generation, served from a {@link BlobContentCache}. The
+ * blob is cached, if needed, on the first read. Captured state restores to a channel that reads
+ * from the service.
+ */
+class CachedBlobReadChannel implements ReadChannel {
+
+  private static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+  private static final Map<StorageRpc.Option, ?> NO_OPTIONS = ImmutableMap.of();
+
+  private final StorageOptions serviceOptions;
+  private final BlobId blob;
+  private final BlobContentCache cache;
+  private FileChannel content;
+  private long position;
+  private boolean isOpen = true;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  CachedBlobReadChannel(StorageOptions serviceOptions, BlobId blob, BlobContentCache cache) {
+    this.serviceOptions = serviceOptions;
+    this.blob = blob;
+    this.cache = cache;
+  }
+
+  @Override
+  public int read(ByteBuffer byteBuffer) throws IOException {
+    if (!isOpen) {
+      throw new ClosedChannelException();
+    }
+    if (content == null) {
+      content = cache.open(serviceOptions, blob);
+    }
+    if (!byteBuffer.hasRemaining()) {
+      return 0;
+    }
+    int read = content.read(byteBuffer, position);
+    if (read > 0) {
+      position += read;
+    }
+    return read;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return isOpen;
+  }
+
+  @Override
+  public void close() {
+    isOpen = false;
+    if (content != null) {
+      try {
+        content.close();
+      } catch (IOException ex) {
+        // the content was only read
+      }
+      content = null;
+    }
+  }
+
+  @Override
+  public void seek(int position) throws IOException {
+    if (!isOpen) {
+      throw new ClosedChannelException();
+    }
+    this.position = position;
+  }
+
+  @Override
+  public void chunkSize(int chunkSize) {
+    this.chunkSize = chunkSize <= 0 ? DEFAULT_CHUNK_SIZE : chunkSize;
+  }
+
+  @Override
+  public RestorableState<ReadChannel> capture() {
+    return BlobReadChannel.StateImpl.builder(serviceOptions, blob, NO_OPTIONS)
+        .position(Ints.checkedCast(position))
+        .isOpen(isOpen)
+        .chunkSize(chunkSize)
+        .build();
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives many server-side copies concurrently on a small, fixed pool of threads. Unlike
+ * {@link CopyWriter#result()}, which blocks the calling thread until the copy completes, each
+ * {@link #copy(CopyRequest)} call returns immediately with a {@link CopyFuture}. Every rewrite
+ * RPC is a separate task: as soon as one call of a copy returns, the next one is scheduled on the
+ * pool, so thousands of copies can make progress on a handful of threads.
+ *
+ * <p>For requests that do not set {@link CopyRequest#megabytesCopiedPerChunk()}, the number of
+ * megabytes rewritten per call is tuned from the observed rewrite throughput so that each call
+ * takes roughly {@link Builder#targetCallLatency(long, TimeUnit)}. The service requires all calls
+ * of one rewrite session to use the same value, so tuning only affects copies that have not
+ * started yet.
+ *
+ * <p>Example of copying many blobs to another bucket:
+ * <pre> {@code
+ * CopyManager copyManager = CopyManager.builder(storage).threadCount(4).build();
+ * List<CopyManager.CopyFuture> copies = new ArrayList<>();
+ * for (BlobId source : sources) {
+ *   copies.add(copyManager.copy(CopyRequest.of(source, BlobId.of("target", source.name()))));
+ * }
+ * for (CopyManager.CopyFuture copy : copies) {
+ *   Blob blob = copy.get();
+ * }
+ * copyManager.shutdown();
+ * }</pre>
+ *
+ * @see <a href="https://cloud.google.com/storage/docs/json_api/v1/objects/rewrite">Rewrite</a>
+ */
+public final class CopyManager {
+
+  private static final int DEFAULT_THREAD_COUNT = 4;
+  private static final long DEFAULT_TARGET_CALL_LATENCY_MILLIS = 10000;
+  private static final long MIN_MEGABYTES_PER_CALL = 1;
+  private static final long MAX_MEGABYTES_PER_CALL = 1024;
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final double SMOOTHING_FACTOR = 0.2;
+
+  private final Storage storage;
+  private final ExecutorService executor;
+  private final long targetCallLatencyMillis;
+  private final Object throughputLock = new Object();
+  private double bytesPerMilli;
+  private int activeCopies;
+  private boolean shutdown;
+
+  /**
+   * Builder for {@code CopyManager} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private long targetCallLatencyMillis = DEFAULT_TARGET_CALL_LATENCY_MILLIS;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the number of threads used to issue rewrite calls. Default is 4.
+     */
+    public Builder threadCount(int threadCount) {
+      checkArgument(threadCount > 0, "threadCount must be positive");
+      this.threadCount = threadCount;
+      return this;
+    }
+
+    /**
+     * Sets the desired duration of a single rewrite call, used to tune the number of megabytes
+     * rewritten per call. Default is 10 seconds.
+     */
+    public Builder targetCallLatency(long duration, TimeUnit unit) {
+      checkArgument(duration > 0, "duration must be positive");
+      this.targetCallLatencyMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /**
+     * Creates a {@code CopyManager} object.
+     */
+    public CopyManager build() {
+      return new CopyManager(this);
+    }
+  }
+
+  /**
+   * A future for a copy started by {@link CopyManager#copy(CopyRequest)}. The future completes
+   * with the target {@link Blob} once the copy is done, or with a {@link StorageException} if any
+   * rewrite call failed after retries. Progress can be queried while the copy is running.
+   * Cancelling the future stops issuing further rewrite calls for the copy.
+   */
+  public static final class CopyFuture extends AbstractFuture<Blob> {
+
+    private final CopyRequest request;
+    private volatile long blobSize = -1;
+    private volatile long totalBytesCopied;
+
+    private CopyFuture(CopyRequest request) {
+      this.request = request;
+    }
+
+    /**
+     * Returns the copy request this future refers to.
+     */
+    public CopyRequest request() {
+      return request;
+    }
+
+    /**
+     * Returns the size of the blob being copied, or {@code -1} if the first rewrite call has not
+     * returned yet.
+     */
+    public long blobSize() {
+      return blobSize;
+    }
+
+    /**
+     * Returns the number of bytes copied so far.
+     */
+    public long totalBytesCopied() {
+      return totalBytesCopied;
+    }
+
+    private void progress(CopyWriter writer) {
+      blobSize = writer.blobSize();
+      totalBytesCopied = writer.totalBytesCopied();
+    }
+
+    @Override
+    protected boolean set(Blob value) {
+      return super.set(value);
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+  }
+
+  private CopyManager(Builder builder) {
+    this.storage = builder.storage;
+    this.targetCallLatencyMillis = builder.targetCallLatencyMillis;
+    this.executor = Executors.newFixedThreadPool(builder.threadCount);
+  }
+
+  /**
+   * Returns a builder for {@code CopyManager} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Starts copying a blob asynchronously.
+   *
+   * @throws RejectedExecutionException if this copy manager was shut down
+   */
+  public CopyFuture copy(CopyRequest copyRequest) {
+    final CopyFuture future = new CopyFuture(copyRequest);
+    final CopyRequest tunedRequest = tune(copyRequest);
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("CopyManager was shut down");
+      }
+      activeCopies++;
+    }
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        copyCompleted();
+      }
+    }, MoreExecutors.directExecutor());
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isCancelled()) {
+            return;
+          }
+          try {
+            long start = System.currentTimeMillis();
+            CopyWriter writer = storage.copy(tunedRequest);
+            record(writer.totalBytesCopied(), System.currentTimeMillis() - start);
+            advance(future, writer);
+          } catch (RuntimeException ex) {
+            future.setException(ex);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      future.setException(ex);
+    }
+    return future;
+  }
+
+  private void advance(final CopyFuture future, final CopyWriter writer) {
+    future.progress(writer);
+    if (writer.isDone()) {
+      future.set(writer.result());
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isCancelled()) {
+            return;
+          }
+          try {
+            long previous = writer.totalBytesCopied();
+            long start = System.currentTimeMillis();
+            writer.copyChunk();
+            record(writer.totalBytesCopied() - previous, System.currentTimeMillis() - start);
+            advance(future, writer);
+          } catch (RuntimeException ex) {
+            future.setException(ex);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      future.setException(ex);
+    }
+  }
+
+  @VisibleForTesting
+  void record(long bytes, long millis) {
+    if (bytes <= 0 || millis <= 0) {
+      return;
+    }
+    double sample = (double) bytes / millis;
+    synchronized (throughputLock) {
+      bytesPerMilli = bytesPerMilli == 0
+          ? sample : SMOOTHING_FACTOR * sample + (1 - SMOOTHING_FACTOR) * bytesPerMilli;
+    }
+  }
+
+  /**
+   * Returns the number of megabytes per rewrite call that, at the currently observed throughput,
+   * makes a call last about the target latency; {@code null} if no throughput was observed yet.
+   */
+  @VisibleForTesting
+  Long megabytesPerCall() {
+    double current;
+    synchronized (throughputLock) {
+      current = bytesPerMilli;
+    }
+    if (current == 0) {
+      return null;
+    }
+    long megabytes = (long) (current * targetCallLatencyMillis / MEGABYTE);
+    return Math.max(MIN_MEGABYTES_PER_CALL, Math.min(MAX_MEGABYTES_PER_CALL, megabytes));
+  }
+
+  private CopyRequest tune(CopyRequest request) {
+    Long megabytes = megabytesPerCall();
+    if (request.megabytesCopiedPerChunk() != null || megabytes == null) {
+      return request;
+    }
+    CopyRequest.Builder builder = CopyRequest.builder()
+        .source(request.source())
+        .sourceOptions(request.sourceOptions())
+        .megabytesCopiedPerChunk(megabytes);
+    if (request.overrideInfo()) {
+      builder.target(request.target(), request.targetOptions());
+    } else {
+      builder.target(request.target().blobId());
+    }
+    return builder.build();
+  }
+
+  private synchronized void copyCompleted() {
+    if (--activeCopies == 0 && shutdown) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Stops accepting new copies. Copies already started continue until they complete, then the
+   * threads issuing rewrite calls are released.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (activeCopies == 0) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Stops all copies and interrupts the threads issuing rewrite calls. Copies that did not
+   * complete fail with a {@link RejectedExecutionException} or remain pending if their call was
+   * interrupted; cancel their futures to release waiting threads.
+   */
+  public synchronized void shutdownNow() {
+    shutdown = true;
+    executor.shutdownNow();
+  }
+
+  /**
+   * Blocks until all copies have completed after a shutdown request, or the timeout occurs.
+   *
+   * @return {@code true} if all copies completed, {@code false} if the timeout elapsed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
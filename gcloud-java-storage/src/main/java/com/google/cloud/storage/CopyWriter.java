@@ -50,12 +50,23 @@ public class CopyWriter implements Restorable<CopyWriter> {
 
   private final StorageOptions serviceOptions;
   private final StorageRpc storageRpc;
+  private final BlobMetadataCache metadataCache;
   private RewriteResponse rewriteResponse;
 
   CopyWriter(StorageOptions serviceOptions, RewriteResponse rewriteResponse) {
+    this(serviceOptions, rewriteResponse, null);
+  }
+
+  /**
+   * Creates a copy writer that invalidates the cached metadata of the target blob in
+   * {@code metadataCache}, if not {@code null}, once the copy is done.
+   */
+  CopyWriter(StorageOptions serviceOptions, RewriteResponse rewriteResponse,
+      BlobMetadataCache metadataCache) {
     this.serviceOptions = serviceOptions;
     this.rewriteResponse = rewriteResponse;
     this.storageRpc = serviceOptions.rpc();
+    this.metadataCache = metadataCache;
   }
 
   /**
@@ -107,6 +118,7 @@ public class CopyWriter implements Restorable<CopyWriter> {
    */
   public void copyChunk() {
     if (!isDone()) {
+      boolean completed = false;
       try {
         this.rewriteResponse = runWithRetries(new Callable<RewriteResponse>() {
           @Override
@@ -114,8 +126,14 @@ public class CopyWriter implements Restorable<CopyWriter> {
             return storageRpc.continueRewrite(rewriteResponse);
           }
         }, serviceOptions.retryParams(), StorageImpl.EXCEPTION_HANDLER, serviceOptions.clock());
+        completed = true;
       } catch (RetryHelper.RetryHelperException e) {
         throw StorageException.translateAndThrow(e);
+      } finally {
+        // a failed call may still have completed the copy
+        if (metadataCache != null && (isDone() || !completed)) {
+          metadataCache.invalidate(BlobId.fromPb(rewriteResponse.rewriteRequest.target));
+        }
       }
     }
   }
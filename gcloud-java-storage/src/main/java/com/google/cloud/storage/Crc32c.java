@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * An incremental CRC32C (Castagnoli) checksum, as used by {@link BlobInfo#crc32c()}. Input is
+ * processed eight bytes at a time using the slicing-by-8 algorithm. Instances are serializable so
+ * that the checksum of a partially transferred blob can be saved with a channel's state.
+ */
+final class Crc32c implements Checksum, Serializable {
+
+  private static final long serialVersionUID = -2738306745470470823L;
+  private static final int POLYNOMIAL = 0x82F63B78;
+  private static final int[][] TABLES = new int[8][256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLES[0][i] = crc;
+    }
+    for (int i = 0; i < 256; i++) {
+      for (int table = 1; table < 8; table++) {
+        int previous = TABLES[table - 1][i];
+        TABLES[table][i] = (previous >>> 8) ^ TABLES[0][previous & 0xff];
+      }
+    }
+  }
+
+  private int crc = ~0;
+
+  Crc32c() {}
+
+  private Crc32c(int crc) {
+    this.crc = crc;
+  }
+
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+  }
+
+  @Override
+  public void update(byte[] bytes, int offset, int length) {
+    int[] t0 = TABLES[0];
+    int[] t1 = TABLES[1];
+    int[] t2 = TABLES[2];
+    int[] t3 = TABLES[3];
+    int[] t4 = TABLES[4];
+    int[] t5 = TABLES[5];
+    int[] t6 = TABLES[6];
+    int[] t7 = TABLES[7];
+    int value = crc;
+    int index = offset;
+    int end = offset + length;
+    while (end - index >= 8) {
+      int low = value ^ ((bytes[index] & 0xff) | (bytes[index + 1] & 0xff) << 8
+          | (bytes[index + 2] & 0xff) << 16 | (bytes[index + 3] & 0xff) << 24);
+      int high = (bytes[index + 4] & 0xff) | (bytes[index + 5] & 0xff) << 8
+          | (bytes[index + 6] & 0xff) << 16 | (bytes[index + 7] & 0xff) << 24;
+      value = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+          ^ t3[high & 0xff] ^ t2[(high >>> 8) & 0xff] ^ t1[(high >>> 16) & 0xff] ^ t0[high >>> 24];
+      index += 8;
+    }
+    while (index < end) {
+      value = (value >>> 8) ^ t0[(value ^ bytes[index++]) & 0xff];
+    }
+    crc = value;
+  }
+
+  /**
+   * Updates the checksum with the remaining bytes of {@code buffer}, advancing its position to its
+   * limit. Direct buffers are read in place, without copying their content to the heap.
+   */
+  public void update(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      buffer.position(buffer.limit());
+      return;
+    }
+    int[] t0 = TABLES[0];
+    int[] t1 = TABLES[1];
+    int[] t2 = TABLES[2];
+    int[] t3 = TABLES[3];
+    int[] t4 = TABLES[4];
+    int[] t5 = TABLES[5];
+    int[] t6 = TABLES[6];
+    int[] t7 = TABLES[7];
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int value = crc;
+    while (buffer.remaining() >= 8) {
+      int low = value ^ buffer.getInt();
+      int high = buffer.getInt();
+      value = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+          ^ t3[high & 0xff] ^ t2[(high >>> 8) & 0xff] ^ t1[(high >>> 16) & 0xff] ^ t0[high >>> 24];
+    }
+    while (buffer.hasRemaining()) {
+      value = (value >>> 8) ^ t0[(value ^ buffer.get()) & 0xff];
+    }
+    buffer.order(order);
+    crc = value;
+  }
+
+  @Override
+  public long getValue() {
+    return ~crc & 0xffffffffL;
+  }
+
+  @Override
+  public void reset() {
+    crc = ~0;
+  }
+
+  /**
+   * Returns an independent checksum with the same state as this one.
+   */
+  Crc32c copy() {
+    return new Crc32c(crc);
+  }
+
+  /**
+   * Returns the base64-encoded, big-endian checksum, in the format of {@link BlobInfo#crc32c()}.
+   */
+  String toBase64() {
+    return BaseEncoding.base64().encode(Ints.toByteArray((int) getValue()));
+  }
+
+  @Override
+  public int hashCode() {
+    return crc;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof Crc32c && crc == ((Crc32c) obj).crc;
+  }
+
+  @Override
+  public String toString() {
+    return toBase64();
+  }
+}
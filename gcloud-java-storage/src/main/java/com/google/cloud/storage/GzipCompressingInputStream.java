@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An {@link InputStream} that reads the gzip compression of another stream, compressing it as it
+ * is read.
+ */
+class GzipCompressingInputStream extends InputStream {
+
+  private static final int HEADER_LENGTH = 10;
+  private static final int TRAILER_LENGTH = 8;
+
+  private final InputStream source;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final byte[] input;
+  private byte[] pending = header();
+  private int pendingPosition;
+  private boolean sourceDone;
+  private boolean trailerWritten;
+
+  GzipCompressingInputStream(InputStream source, int level, int bufferSize) {
+    this.source = source;
+    this.deflater = new Deflater(level, true);
+    this.input = new byte[bufferSize];
+  }
+
+  private static byte[] header() {
+    byte[] header = new byte[HEADER_LENGTH];
+    header[0] = (byte) GZIPInputStream.GZIP_MAGIC;
+    header[1] = (byte) (GZIPInputStream.GZIP_MAGIC >>> 8);
+    header[2] = Deflater.DEFLATED;
+    // no flags, modification time or extra flags; operating system unknown
+    header[9] = (byte) 0xff;
+    return header;
+  }
+
+  private byte[] trailer() {
+    byte[] trailer = new byte[TRAILER_LENGTH];
+    writeInt(trailer, 0, (int) crc.getValue());
+    writeInt(trailer, 4, (int) deflater.getBytesRead());
+    return trailer;
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) value;
+    bytes[offset + 1] = (byte) (value >>> 8);
+    bytes[offset + 2] = (byte) (value >>> 16);
+    bytes[offset + 3] = (byte) (value >>> 24);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    while (true) {
+      if (pending != null) {
+        int toCopy = Math.min(length, pending.length - pendingPosition);
+        System.arraycopy(pending, pendingPosition, bytes, offset, toCopy);
+        pendingPosition += toCopy;
+        if (pendingPosition == pending.length) {
+          pending = null;
+          pendingPosition = 0;
+        }
+        return toCopy;
+      }
+      if (deflater.finished()) {
+        if (trailerWritten) {
+          return -1;
+        }
+        pending = trailer();
+        trailerWritten = true;
+        deflater.end();
+        continue;
+      }
+      int deflated = deflater.deflate(bytes, offset, length);
+      if (deflated > 0) {
+        return deflated;
+      }
+      if (deflater.needsInput() && !sourceDone) {
+        int read = source.read(input, 0, input.length);
+        if (read < 0) {
+          sourceDone = true;
+          deflater.finish();
+        } else {
+          crc.update(input, 0, read);
+          deflater.setInput(input, 0, read);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    deflater.end();
+    source.close();
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A {@link ReadChannel} that decompresses the gzip content read from another channel as it is
+ * consumed. Content that does not start with the gzip magic number is returned as is. Positions
+ * in the decompressed content do not map to positions in the blob: {@link #seek(int)} skips
+ * forward by decompressing and discarding content, seeking backward starts decompressing again
+ * from the beginning of the blob, and a restored channel skips to its captured position the same
+ * way.
+ */
+class GzipReadChannel implements ReadChannel {
+
+  private static final int GZIP_MAGIC_LENGTH = 2;
+
+  private final ReadChannel channel;
+  private final int bufferSize;
+  private InputStream input;
+  private byte[] buffer;
+  // the position in the decompressed content
+  private long position;
+
+  GzipReadChannel(ReadChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Returns {@code true} if {@code bytes} begin with the gzip magic number.
+   */
+  static boolean isGzip(byte[] bytes, int length) {
+    return length >= GZIP_MAGIC_LENGTH && (bytes[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+        && (bytes[1] & 0xff) == (GZIPInputStream.GZIP_MAGIC >>> 8);
+  }
+
+  private InputStream input() throws IOException {
+    if (input == null) {
+      PushbackInputStream source =
+          new PushbackInputStream(Channels.newInputStream(channel), GZIP_MAGIC_LENGTH) {
+            @Override
+            public int available() throws IOException {
+              // GZIPInputStream only looks for a concatenated member if input is available, the
+              // channel can not tell so this is always reported
+              return Math.max(super.available(), 1);
+            }
+          };
+      byte[] magic = new byte[GZIP_MAGIC_LENGTH];
+      int length = 0;
+      int read;
+      while (length < magic.length
+          && (read = source.read(magic, length, magic.length - length)) >= 0) {
+        length += read;
+      }
+      source.unread(magic, 0, length);
+      input = isGzip(magic, length) ? new GZIPInputStream(source, bufferSize) : source;
+    }
+    return input;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    if (!channel.isOpen()) {
+      throw new ClosedChannelException();
+    }
+    if (!dst.hasRemaining()) {
+      return 0;
+    }
+    if (dst.hasArray()) {
+      int read = input().read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+      if (read > 0) {
+        dst.position(dst.position() + read);
+        position += read;
+      }
+      return read;
+    }
+    if (buffer == null) {
+      buffer = new byte[bufferSize];
+    }
+    int read = input().read(buffer, 0, Math.min(buffer.length, dst.remaining()));
+    if (read > 0) {
+      dst.put(buffer, 0, read);
+      position += read;
+    }
+    return read;
+  }
+
+  /**
+   * Decompresses and discards content up to {@code target}, or up to the end of the content if it
+   * is shorter.
+   */
+  private void skipTo(long target) throws IOException {
+    InputStream stream = input();
+    while (position < target) {
+      long skipped = stream.skip(target - position);
+      if (skipped <= 0) {
+        if (stream.read() < 0) {
+          return;
+        }
+        skipped = 1;
+      }
+      position += skipped;
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  @Override
+  public void close() {
+    channel.close();
+  }
+
+  @Override
+  public void seek(int position) throws IOException {
+    if (!channel.isOpen()) {
+      throw new ClosedChannelException();
+    }
+    if (position < this.position) {
+      channel.seek(0);
+      input = null;
+      this.position = 0;
+    }
+    skipTo(position);
+  }
+
+  @Override
+  public void chunkSize(int chunkSize) {
+    channel.chunkSize(chunkSize);
+  }
+
+  @Override
+  public RestorableState<ReadChannel> capture() {
+    return new StateImpl(channel.capture(), bufferSize, position);
+  }
+
+  static class StateImpl implements RestorableState<ReadChannel>, Serializable {
+
+    private static final long serialVersionUID = -2415236071209743592L;
+
+    private final RestorableState<ReadChannel> channelState;
+    private final int bufferSize;
+    private final long position;
+
+    StateImpl(RestorableState<ReadChannel> channelState, int bufferSize, long position) {
+      this.channelState = channelState;
+      this.bufferSize = bufferSize;
+      this.position = position;
+    }
+
+    @Override
+    public ReadChannel restore() {
+      ReadChannel channel = channelState.restore();
+      GzipReadChannel gzipChannel = new GzipReadChannel(channel, bufferSize);
+      if (channel.isOpen()) {
+        try {
+          // the decompressor's state is lost, decompression starts over from the first byte
+          channel.seek(0);
+          gzipChannel.skipTo(position);
+        } catch (IOException ex) {
+          throw new StorageException(ex);
+        }
+      }
+      return gzipChannel;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(channelState, bufferSize, position);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == null) {
+        return false;
+      }
+      if (!(obj instanceof StateImpl)) {
+        return false;
+      }
+      final StateImpl other = (StateImpl) obj;
+      return Objects.equals(this.channelState, other.channelState)
+          && this.bufferSize == other.bufferSize
+          && this.position == other.position;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("channelState", channelState)
+          .add("bufferSize", bufferSize)
+          .add("position", position)
+          .toString();
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link WriteChannel} that compresses with gzip the data written to it before passing it to
+ * another channel. The state of the compressor can not be saved, so {@link #capture()} ends the
+ * current gzip member and compression continues in a new member. Gzip readers decompress
+ * concatenated members as the concatenation of their content.
+ */
+class GzipWriteChannel implements WriteChannel {
+
+  private final WriteChannel channel;
+  private final int level;
+  private final int bufferSize;
+  private final byte[] buffer;
+  private GZIPOutputStream output;
+  private boolean isOpen;
+
+  GzipWriteChannel(WriteChannel channel, int level, int bufferSize) {
+    this(channel, level, bufferSize, true);
+  }
+
+  private GzipWriteChannel(WriteChannel channel, int level, int bufferSize, boolean isOpen) {
+    this.channel = channel;
+    this.level = level;
+    this.bufferSize = bufferSize;
+    this.buffer = new byte[bufferSize];
+    this.isOpen = isOpen;
+    if (isOpen) {
+      output = newMember();
+    }
+  }
+
+  /**
+   * Starts a gzip member, writing its header to the channel.
+   */
+  private GZIPOutputStream newMember() {
+    try {
+      return new GZIPOutputStream(Channels.newOutputStream(channel), bufferSize) {
+        {
+          def.setLevel(level);
+        }
+      };
+    } catch (IOException ex) {
+      throw new StorageException(ex);
+    }
+  }
+
+  private void validateOpen() throws ClosedChannelException {
+    if (!isOpen) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    validateOpen();
+    int toWrite = src.remaining();
+    if (src.hasArray()) {
+      output.write(src.array(), src.arrayOffset() + src.position(), toWrite);
+      src.position(src.limit());
+    } else {
+      while (src.hasRemaining()) {
+        int length = Math.min(src.remaining(), buffer.length);
+        src.get(buffer, 0, length);
+        output.write(buffer, 0, length);
+      }
+    }
+    return toWrite;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return isOpen;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isOpen) {
+      output.close();
+      isOpen = false;
+    }
+  }
+
+  @Override
+  public void chunkSize(int chunkSize) {
+    channel.chunkSize(chunkSize);
+  }
+
+  /**
+   * Captures the state of this channel. The current gzip member is ended first, so that all the
+   * data written so far reaches the underlying channel before its state is captured, and both this
+   * channel and the restored one continue in a new member.
+   */
+  @Override
+  public RestorableState<WriteChannel> capture() {
+    if (isOpen) {
+      try {
+        output.finish();
+      } catch (IOException ex) {
+        throw new StorageException(ex);
+      }
+    }
+    StateImpl state = new StateImpl(channel.capture(), level, bufferSize, isOpen);
+    if (isOpen) {
+      output = newMember();
+    }
+    return state;
+  }
+
+  static class StateImpl implements RestorableState<WriteChannel>, Serializable {
+
+    private static final long serialVersionUID = 7294155186214535413L;
+
+    private final RestorableState<WriteChannel> channelState;
+    private final int level;
+    private final int bufferSize;
+    private final boolean isOpen;
+
+    StateImpl(RestorableState<WriteChannel> channelState, int level, int bufferSize,
+        boolean isOpen) {
+      this.channelState = channelState;
+      this.level = level;
+      this.bufferSize = bufferSize;
+      this.isOpen = isOpen;
+    }
+
+    @Override
+    public WriteChannel restore() {
+      return new GzipWriteChannel(channelState.restore(), level, bufferSize, isOpen);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(channelState, level, bufferSize, isOpen);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == null) {
+        return false;
+      }
+      if (!(obj instanceof StateImpl)) {
+        return false;
+      }
+      final StateImpl other = (StateImpl) obj;
+      return Objects.equals(this.channelState, other.channelState)
+          && this.level == other.level
+          && this.bufferSize == other.bufferSize
+          && this.isOpen == other.isOpen;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("channelState", channelState)
+          .add("level", level)
+          .add("bufferSize", bufferSize)
+          .add("isOpen", isOpen)
+          .toString();
+    }
+  }
+}
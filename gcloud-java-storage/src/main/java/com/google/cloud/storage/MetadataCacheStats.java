@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Statistics of the blob metadata cache of a {@link Storage} object.
+ *
+ * @see StorageOptions.Builder#metadataCache(long, long, java.util.concurrent.TimeUnit)
+ * @see Storage#metadataCacheStats()
+ */
+public final class MetadataCacheStats implements Serializable {
+
+  private static final long serialVersionUID = 5461282337618947202L;
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long size;
+
+  MetadataCacheStats(long hitCount, long missCount, long evictionCount, long size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of {@link Storage#get(BlobId, Storage.BlobGetOption...)} calls served from
+   * the cache.
+   */
+  public long hitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of cacheable {@link Storage#get(BlobId, Storage.BlobGetOption...)} calls
+   * that required an RPC, either because the blob was not cached or because its cached metadata
+   * did not satisfy the request's preconditions.
+   */
+  public long missCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the ratio of hits to cacheable requests, {@code 1.0} if there were no requests.
+   */
+  public double hitRate() {
+    long requestCount = hitCount + missCount;
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  /**
+   * Returns the number of entries evicted because the cache was full or the entry expired.
+   * Entries removed because of a write through the same {@link Storage} object are not counted.
+   */
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the approximate number of blobs currently cached.
+   */
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hitCount, missCount, evictionCount, size);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof MetadataCacheStats)) {
+      return false;
+    }
+    MetadataCacheStats other = (MetadataCacheStats) obj;
+    return hitCount == other.hitCount
+        && missCount == other.missCount
+        && evictionCount == other.evictionCount
+        && size == other.size;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hitCount", hitCount)
+        .add("missCount", missCount)
+        .add("evictionCount", evictionCount)
+        .add("size", size)
+        .toString();
+  }
+}
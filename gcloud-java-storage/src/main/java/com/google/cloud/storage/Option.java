@@ -32,17 +32,40 @@ abstract class Option implements Serializable {
   private static final long serialVersionUID = -73199088766477208L;
 
   private final StorageRpc.Option rpcOption;
+  private final String clientOption;
   private final Object value;
 
   Option(StorageRpc.Option rpcOption, Object value) {
     this.rpcOption = checkNotNull(rpcOption);
+    this.clientOption = null;
     this.value = value;
   }
 
+  /**
+   * Creates an option applied by the client, which is not sent to the service.
+   */
+  Option(String clientOption, Object value) {
+    this.rpcOption = null;
+    this.clientOption = checkNotNull(clientOption);
+    this.value = value;
+  }
+
+  /**
+   * Returns the option sent to the service, or {@code null} if the option is applied by the
+   * client.
+   */
   StorageRpc.Option rpcOption() {
     return rpcOption;
   }
 
+  /**
+   * Returns the name of the option applied by the client, or {@code null} if the option is sent to
+   * the service.
+   */
+  String clientOption() {
+    return clientOption;
+  }
+
   Object value() {
     return value;
   }
@@ -54,18 +77,19 @@ abstract class Option implements Serializable {
     }
     Option other = (Option) obj;
     return Objects.equals(rpcOption, other.rpcOption)
+        && Objects.equals(clientOption, other.clientOption)
         && Objects.equals(value, other.value);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(rpcOption, value);
+    return Objects.hash(rpcOption, clientOption, value);
   }
 
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
-        .add("name", rpcOption.value())
+        .add("name", rpcOption != null ? rpcOption.value() : clientOption)
         .add("value", value)
         .toString();
   }
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.Page;
+import com.google.cloud.RetryHelper.RetryInterruptedException;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lists the blobs of a bucket by splitting the name space into lexicographic ranges (shards) and
+ * listing all shards concurrently. Pages are prefetched in the background while the caller
+ * iterates, so listing very large buckets is not bound by the latency of serial pagination.
+ *
+ * <p>Shard boundaries are either provided with {@link Builder#splitPoints(Iterable)} or computed
+ * by sampling: the first page of the listing is fetched and the names after its last blob are
+ * split into {@link Builder#shardCount(int)} ranges. Blobs are returned in name order if
+ * {@link Builder#ordered(boolean)} is set, otherwise in the order pages arrive.
+ *
+ * <p>{@link Listing#cursors()} returns a cursor per shard that can be passed to
+ * {@link #resume(List)} to continue an interrupted scan. A cursor only advances once all blobs of
+ * a page have been returned, so a resumed scan may return again blobs of partially consumed
+ * pages.
+ *
+ * <p>Example of listing a bucket with 16 concurrent shards:
+ * <pre> {@code
+ * ShardedBlobLister lister = ShardedBlobLister.builder(storage, "bucket")
+ *     .shardCount(16)
+ *     .build();
+ * try (ShardedBlobLister.Listing listing = lister.list()) {
+ *   while (listing.hasNext()) {
+ *     Blob blob = listing.next();
+ *     // do something with the blob
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>Listing with versions or in directory mode is not supported.
+ */
+public final class ShardedBlobLister {
+
+  private static final int DEFAULT_SHARD_COUNT = 16;
+  private static final int DEFAULT_THREAD_COUNT = 8;
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+  private static final int DEFAULT_PREFETCH_PAGES = 2;
+  private static final int SPLIT_DIGITS = 3;
+  private static final int SPLIT_RADIX = 128;
+  private static final char MAX_SPLIT_CHAR = (char) (SPLIT_RADIX - 1);
+
+  private final Storage storage;
+  private final String bucket;
+  private final String prefix;
+  private final List<String> splitPoints;
+  private final int shardCount;
+  private final int threadCount;
+  private final int pageSize;
+  private final int prefetchPages;
+  private final boolean ordered;
+  private final BlobField[] fields;
+
+  /**
+   * Builder for {@code ShardedBlobLister} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private final String bucket;
+    private String prefix;
+    private List<String> splitPoints;
+    private int shardCount = DEFAULT_SHARD_COUNT;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+    private boolean ordered;
+    private BlobField[] fields;
+
+    private Builder(Storage storage, String bucket) {
+      this.storage = checkNotNull(storage);
+      this.bucket = checkNotNull(bucket);
+    }
+
+    /**
+     * Restricts the listing to blobs whose names begin with {@code prefix}.
+     */
+    public Builder prefix(String prefix) {
+      this.prefix = prefix;
+      return this;
+    }
+
+    /**
+     * Sets the names at which the listing is split into shards. {@code n} split points produce
+     * {@code n + 1} shards. If set, no sampling is done and {@link #shardCount(int)} is ignored.
+     */
+    public Builder splitPoints(Iterable<String> splitPoints) {
+      this.splitPoints = ImmutableList.copyOf(new TreeSet<>(ImmutableList.copyOf(splitPoints)));
+      return this;
+    }
+
+    /**
+     * Sets the number of shards the names following the sampled first page are split into.
+     * Default is 16.
+     */
+    public Builder shardCount(int shardCount) {
+      checkArgument(shardCount > 0, "shardCount must be positive");
+      this.shardCount = shardCount;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads listing shards concurrently. Default is 8.
+     */
+    public Builder threadCount(int threadCount) {
+      checkArgument(threadCount > 0, "threadCount must be positive");
+      this.threadCount = threadCount;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of blobs requested per page. Default is 1000.
+     */
+    public Builder pageSize(int pageSize) {
+      checkArgument(pageSize > 0, "pageSize must be positive");
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    /**
+     * Sets how many pages each listing thread fetches ahead of the caller. Default is 2.
+     */
+    public Builder prefetchPages(int prefetchPages) {
+      checkArgument(prefetchPages > 0, "prefetchPages must be positive");
+      this.prefetchPages = prefetchPages;
+      return this;
+    }
+
+    /**
+     * Sets whether blobs should be returned in name order. If {@code false} blobs are returned
+     * as soon as their page is fetched, regardless of the shard they belong to. Default is
+     * {@code false}.
+     */
+    public Builder ordered(boolean ordered) {
+      this.ordered = ordered;
+      return this;
+    }
+
+    /**
+     * Sets the blob fields to be returned by the listing RPCs.
+     *
+     * @see BlobListOption#fields(BlobField...)
+     */
+    public Builder fields(BlobField... fields) {
+      this.fields = fields.clone();
+      return this;
+    }
+
+    /**
+     * Creates a {@code ShardedBlobLister} object.
+     */
+    public ShardedBlobLister build() {
+      return new ShardedBlobLister(this);
+    }
+  }
+
+  /**
+   * The position of a listing in one shard. A shard covers blob names equal to or after
+   * {@link #startOffset()} and before {@link #endOffset()}.
+   */
+  public static final class ShardCursor implements Serializable {
+
+    private static final long serialVersionUID = -3458212417924498107L;
+
+    private final String startOffset;
+    private final String endOffset;
+    private final String pageToken;
+    private final boolean done;
+
+    ShardCursor(String startOffset, String endOffset, String pageToken, boolean done) {
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+      this.pageToken = pageToken;
+      this.done = done;
+    }
+
+    /**
+     * Returns the first blob name of the shard, inclusive. {@code null} if the shard starts with
+     * the first blob of the listing.
+     */
+    public String startOffset() {
+      return startOffset;
+    }
+
+    /**
+     * Returns the last blob name of the shard, exclusive. {@code null} if the shard ends with the
+     * last blob of the listing.
+     */
+    public String endOffset() {
+      return endOffset;
+    }
+
+    /**
+     * Returns the token of the next page to fetch in the shard, or {@code null} if listing the
+     * shard starts (or restarts) from its first page.
+     */
+    public String pageToken() {
+      return pageToken;
+    }
+
+    /**
+     * Returns {@code true} if all blobs in the shard were returned.
+     */
+    public boolean isDone() {
+      return done;
+    }
+
+    ShardCursor advance(String nextPageToken) {
+      return new ShardCursor(startOffset, endOffset, nextPageToken, nextPageToken == null);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startOffset, endOffset, pageToken, done);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof ShardCursor)) {
+        return false;
+      }
+      ShardCursor other = (ShardCursor) obj;
+      return Objects.equals(startOffset, other.startOffset)
+          && Objects.equals(endOffset, other.endOffset)
+          && Objects.equals(pageToken, other.pageToken)
+          && done == other.done;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("startOffset", startOffset)
+          .add("endOffset", endOffset)
+          .add("pageToken", pageToken)
+          .add("done", done)
+          .toString();
+    }
+  }
+
+  private static final class ShardPage {
+
+    private final int shard;
+    private final List<Blob> blobs;
+    private final String nextPageToken;
+    private final RuntimeException error;
+
+    ShardPage(int shard, List<Blob> blobs, String nextPageToken, RuntimeException error) {
+      this.shard = shard;
+      this.blobs = blobs;
+      this.nextPageToken = nextPageToken;
+      this.error = error;
+    }
+  }
+
+  /**
+   * An iterator over the blobs of a sharded listing. Pages are fetched in the background until
+   * all shards are listed or the listing is closed. The listing is closed automatically when the
+   * last blob was returned or a listing RPC failed; callers that stop iterating early should
+   * close it to release the listing threads.
+   */
+  public final class Listing extends AbstractIterator<Blob> implements AutoCloseable {
+
+    private final List<ShardCursor> cursors;
+    private final List<BlockingQueue<ShardPage>> queues;
+    private final ExecutorService executor;
+    private int finishedShards;
+    private int orderedShard;
+    private ShardPage currentPage;
+    private Iterator<Blob> current = Collections.emptyIterator();
+
+    private Listing(List<ShardCursor> shards, List<Blob> firstPage) {
+      this.cursors = new ArrayList<>(shards);
+      int shardCount = shards.size();
+      ImmutableList.Builder<BlockingQueue<ShardPage>> queuesBuilder = ImmutableList.builder();
+      if (ordered) {
+        for (int i = 0; i < shardCount; i++) {
+          queuesBuilder.add(new ArrayBlockingQueue<ShardPage>(prefetchPages));
+        }
+      } else {
+        queuesBuilder.add(new ArrayBlockingQueue<ShardPage>(prefetchPages * threadCount));
+      }
+      this.queues = queuesBuilder.build();
+      this.executor = Executors.newFixedThreadPool(Math.min(threadCount, shardCount));
+      for (int i = 0; i < shardCount; i++) {
+        ShardCursor cursor = shards.get(i);
+        if (cursor.isDone()) {
+          finishedShards++;
+        } else if (i == 0 && firstPage != null) {
+          queue(0).add(new ShardPage(0, firstPage, null, null));
+        } else {
+          listShard(i, cursor);
+        }
+      }
+    }
+
+    private BlockingQueue<ShardPage> queue(int shard) {
+      return ordered ? queues.get(shard) : queues.get(0);
+    }
+
+    private void listShard(final int shard, final ShardCursor cursor) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          BlockingQueue<ShardPage> queue = queue(shard);
+          try {
+            String pageToken = cursor.pageToken();
+            do {
+              Page<Blob> page = storage.list(bucket, listOptions(cursor, pageToken));
+              pageToken = Strings.emptyToNull(page.nextPageCursor());
+              queue.put(new ShardPage(shard, ImmutableList.copyOf(page.values()), pageToken, null));
+            } while (pageToken != null);
+          } catch (InterruptedException ex) {
+            // listing was closed
+          } catch (RuntimeException ex) {
+            try {
+              queue.put(new ShardPage(shard, null, null, ex));
+            } catch (InterruptedException interrupted) {
+              // listing was closed
+            }
+          }
+        }
+      });
+    }
+
+    @Override
+    protected Blob computeNext() {
+      while (!current.hasNext()) {
+        if (finishedShards == cursors.size()) {
+          close();
+          return endOfData();
+        }
+        ShardPage page = takePage();
+        if (page.error != null) {
+          close();
+          throw page.error;
+        }
+        currentPage = page;
+        current = page.blobs.iterator();
+        if (!current.hasNext()) {
+          pageConsumed();
+        }
+      }
+      Blob blob = current.next();
+      if (!current.hasNext()) {
+        pageConsumed();
+      }
+      return blob;
+    }
+
+    private ShardPage takePage() {
+      if (ordered) {
+        while (cursors.get(orderedShard).isDone()) {
+          orderedShard++;
+        }
+      }
+      try {
+        return queue(orderedShard).take();
+      } catch (InterruptedException ex) {
+        close();
+        RetryInterruptedException.propagate();
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    private synchronized void pageConsumed() {
+      ShardCursor cursor = cursors.get(currentPage.shard).advance(currentPage.nextPageToken);
+      cursors.set(currentPage.shard, cursor);
+      if (cursor.isDone()) {
+        finishedShards++;
+      }
+      currentPage = null;
+    }
+
+    /**
+     * Returns the cursors of all shards, reflecting the blobs returned so far. Shards that were
+     * fully listed are returned as done.
+     */
+    public synchronized List<ShardCursor> cursors() {
+      return ImmutableList.copyOf(cursors);
+    }
+
+    /**
+     * Stops fetching pages and releases the listing threads.
+     */
+    @Override
+    public void close() {
+      executor.shutdownNow();
+    }
+  }
+
+  private ShardedBlobLister(Builder builder) {
+    this.storage = builder.storage;
+    this.bucket = builder.bucket;
+    this.prefix = builder.prefix;
+    this.splitPoints = builder.splitPoints;
+    this.shardCount = builder.shardCount;
+    this.threadCount = builder.threadCount;
+    this.pageSize = builder.pageSize;
+    this.prefetchPages = builder.prefetchPages;
+    this.ordered = builder.ordered;
+    this.fields = builder.fields;
+  }
+
+  /**
+   * Returns a builder for {@code ShardedBlobLister} objects.
+   */
+  public static Builder builder(Storage storage, String bucket) {
+    return new Builder(storage, bucket);
+  }
+
+  /**
+   * Starts listing the bucket. If no split points were set, the first page is fetched by the
+   * calling thread to compute the shards.
+   *
+   * @throws StorageException upon failure
+   */
+  public Listing list() {
+    if (splitPoints != null) {
+      return new Listing(shards(splitPoints, null), null);
+    }
+    Page<Blob> sample = storage.list(bucket, listOptions(null, null));
+    List<Blob> sampleBlobs = ImmutableList.copyOf(sample.values());
+    if (Strings.isNullOrEmpty(sample.nextPageCursor()) || sampleBlobs.isEmpty()) {
+      return new Listing(ImmutableList.of(new ShardCursor(null, null, null, false)), sampleBlobs);
+    }
+    // the last sampled name starts the second shard, the first shard is the rest of the sample
+    String last = sampleBlobs.get(sampleBlobs.size() - 1).name();
+    List<Blob> firstPage = new ArrayList<>();
+    for (Blob blob : sampleBlobs) {
+      if (blob.name().compareTo(last) < 0) {
+        firstPage.add(blob);
+      }
+    }
+    List<String> points = Lists.newArrayList(last);
+    points.addAll(splitRange(last, Strings.nullToEmpty(prefix) + MAX_SPLIT_CHAR, shardCount));
+    return new Listing(shards(points, null), firstPage);
+  }
+
+  /**
+   * Continues a listing from the cursors returned by {@link Listing#cursors()}. This lister must
+   * be configured with the same prefix and fields as the one that started the listing.
+   */
+  public Listing resume(List<ShardCursor> cursors) {
+    checkArgument(!cursors.isEmpty(), "cursors must not be empty");
+    return new Listing(cursors, null);
+  }
+
+  private static List<ShardCursor> shards(List<String> points, String pageToken) {
+    List<ShardCursor> shards = new ArrayList<>(points.size() + 1);
+    String start = null;
+    for (String point : points) {
+      shards.add(new ShardCursor(start, point, pageToken, false));
+      start = point;
+    }
+    shards.add(new ShardCursor(start, null, pageToken, false));
+    return shards;
+  }
+
+  private BlobListOption[] listOptions(ShardCursor cursor, String pageToken) {
+    List<BlobListOption> options = new ArrayList<>();
+    options.add(BlobListOption.pageSize(pageSize));
+    if (prefix != null) {
+      options.add(BlobListOption.prefix(prefix));
+    }
+    if (fields != null) {
+      options.add(BlobListOption.fields(fields));
+    }
+    if (cursor != null && cursor.startOffset() != null) {
+      options.add(BlobListOption.startOffset(cursor.startOffset()));
+    }
+    if (cursor != null && cursor.endOffset() != null) {
+      options.add(BlobListOption.endOffset(cursor.endOffset()));
+    }
+    if (pageToken != null) {
+      options.add(BlobListOption.pageToken(pageToken));
+    }
+    return options.toArray(new BlobListOption[options.size()]);
+  }
+
+  /**
+   * Returns up to {@code count - 1} names that split the names between {@code lower} and
+   * {@code upper} into {@code count} ranges, assuming names are evenly distributed over the
+   * first characters following the common prefix of {@code lower} and {@code upper}. Returned
+   * names are sorted and strictly between {@code lower} and {@code upper}.
+   */
+  @VisibleForTesting
+  static List<String> splitRange(String lower, String upper, int count) {
+    int common = 0;
+    while (common < lower.length() && common < upper.length()
+        && lower.charAt(common) == upper.charAt(common)) {
+      common++;
+    }
+    long lowerValue = value(lower, common);
+    long upperValue = value(upper, common);
+    TreeSet<String> points = new TreeSet<>();
+    for (int i = 1; i < count; i++) {
+      String point = lower.substring(0, common)
+          + name(lowerValue + (upperValue - lowerValue) * i / count);
+      if (point.compareTo(lower) > 0 && point.compareTo(upper) < 0) {
+        points.add(point);
+      }
+    }
+    return ImmutableList.copyOf(points);
+  }
+
+  private static long value(String name, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + SPLIT_DIGITS; i++) {
+      char digit = i < name.length() ? (char) Math.min(name.charAt(i), MAX_SPLIT_CHAR) : 0;
+      value = value * SPLIT_RADIX + digit;
+    }
+    return value;
+  }
+
+  private static String name(long value) {
+    char[] digits = new char[SPLIT_DIGITS];
+    for (int i = SPLIT_DIGITS - 1; i >= 0; i--) {
+      digits[i] = (char) (value % SPLIT_RADIX);
+      value /= SPLIT_RADIX;
+    }
+    int length = SPLIT_DIGITS;
+    while (length > 0 && digits[length - 1] == 0) {
+      length--;
+    }
+    // control characters are not valid in names, use the smallest printable one instead
+    for (int i = 0; i < length; i++) {
+      digits[i] = (char) Math.max(digits[i], ' ');
+    }
+    return new String(digits, 0, length);
+  }
+}
@@ -39,14 +39,18 @@ import com.google.common.collect.Lists;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 /**
  * An interface for Google Cloud Storage.
@@ -90,7 +94,8 @@ public interface Storage extends Service<StorageOptions> {
     VERSIONING("versioning"),
     CORS("cors"),
     STORAGE_CLASS("storageClass"),
-    ETAG("etag");
+    ETAG("etag"),
+    LIFECYCLE("lifecycle");
 
     static final List<? extends FieldSelector> REQUIRED_FIELDS = ImmutableList.of(NAME);
 
@@ -327,14 +332,20 @@ public interface Storage extends Service<StorageOptions> {
     static Tuple<BlobInfo, BlobTargetOption[]> convert(BlobInfo info, BlobWriteOption... options) {
       BlobInfo.Builder infoBuilder = info.toBuilder().crc32c(null).md5(null);
       List<BlobTargetOption> targetOptions = Lists.newArrayListWithCapacity(options.length);
+      boolean gzip = BlobWriteOption.gzipSettings(options) != null;
       for (BlobWriteOption option : options) {
         switch (option.option) {
           case IF_CRC32C_MATCH:
+            checkArgument(!gzip, "crc32cMatch can not be used with gzip");
             infoBuilder.crc32c(info.crc32c());
             break;
           case IF_MD5_MATCH:
+            checkArgument(!gzip, "md5Match can not be used with gzip");
             infoBuilder.md5(info.md5());
             break;
+          case GZIP:
+            infoBuilder.contentEncoding("gzip");
+            break;
           default:
             targetOptions.add(option.toTargetOption());
             break;
@@ -351,13 +362,14 @@ public interface Storage extends Service<StorageOptions> {
   class BlobWriteOption implements Serializable {
 
     private static final long serialVersionUID = -3880421670966224580L;
+    private static final int DEFAULT_GZIP_BUFFER_SIZE = 64 * 1024;
 
     private final Option option;
     private final Object value;
 
     enum Option {
       PREDEFINED_ACL, IF_GENERATION_MATCH, IF_GENERATION_NOT_MATCH, IF_METAGENERATION_MATCH,
-      IF_METAGENERATION_NOT_MATCH, IF_MD5_MATCH, IF_CRC32C_MATCH;
+      IF_METAGENERATION_NOT_MATCH, IF_MD5_MATCH, IF_CRC32C_MATCH, GZIP;
 
       StorageRpc.Option toRpcOption() {
         return StorageRpc.Option.valueOf(this.name());
@@ -455,6 +467,48 @@ public interface Storage extends Service<StorageOptions> {
     public static BlobWriteOption crc32cMatch() {
       return new BlobWriteOption(Option.IF_CRC32C_MATCH, true);
     }
+
+    /**
+     * Returns an option that compresses the content with gzip, at the default compression level,
+     * as it is uploaded and sets the blob's content encoding to {@code gzip}. This option can not
+     * be used with {@link #md5Match()} or {@link #crc32cMatch()}, nor can the state of a
+     * {@link WriteChannel} opened with it be captured.
+     *
+     * @see BlobSourceOption#decompress()
+     */
+    public static BlobWriteOption gzip() {
+      return gzip(Deflater.DEFAULT_COMPRESSION, DEFAULT_GZIP_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns an option that compresses the content with gzip as it is uploaded and sets the
+     * blob's content encoding to {@code gzip}.
+     *
+     * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param bufferSize the size, in bytes, of the buffer data is compressed in
+     * @see #gzip()
+     */
+    public static BlobWriteOption gzip(int level, int bufferSize) {
+      checkArgument(level == Deflater.DEFAULT_COMPRESSION
+          || level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+          "Invalid compression level %s", level);
+      checkArgument(bufferSize > 0, "bufferSize must be positive");
+      return new BlobWriteOption(Option.GZIP, ImmutableList.of(level, bufferSize));
+    }
+
+    /**
+     * Returns the compression level and buffer size of the {@link #gzip()} option in
+     * {@code options}, or {@code null} if {@code options} do not require compression.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Integer> gzipSettings(BlobWriteOption... options) {
+      for (BlobWriteOption option : options) {
+        if (option.option == Option.GZIP) {
+          return (List<Integer>) option.value;
+        }
+      }
+      return null;
+    }
   }
 
   /**
@@ -463,11 +517,17 @@ public interface Storage extends Service<StorageOptions> {
   class BlobSourceOption extends Option {
 
     private static final long serialVersionUID = -3712768261070182991L;
+    private static final int DEFAULT_DECOMPRESS_BUFFER_SIZE = 64 * 1024;
+    private static final String DECOMPRESS = "decompress";
 
-    private BlobSourceOption(StorageRpc.Option rpcOption, Long value) {
+    private BlobSourceOption(StorageRpc.Option rpcOption, Object value) {
       super(rpcOption, value);
     }
 
+    private BlobSourceOption(String clientOption, Object value) {
+      super(clientOption, value);
+    }
+
     /**
      * Returns an option for blob's data generation match. If this option is used the request will
      * fail if blob's generation does not match. The generation value to compare with the actual
@@ -521,6 +581,41 @@ public interface Storage extends Service<StorageOptions> {
     public static BlobSourceOption metagenerationNotMatch(long metageneration) {
       return new BlobSourceOption(StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, metageneration);
     }
+
+    /**
+     * Returns an option that makes {@link Storage#reader(BlobId, BlobSourceOption...)} and
+     * {@link Storage#readAllBytes(BlobId, BlobSourceOption...)} decompress the content of blobs
+     * stored with gzip, such as those uploaded with {@link BlobWriteOption#gzip()}. Decompression
+     * is streamed as the channel is read. Content that is not gzip-compressed is returned as is.
+     * Channels opened with this option can neither seek nor be captured.
+     */
+    public static BlobSourceOption decompress() {
+      return decompress(DEFAULT_DECOMPRESS_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns an option to decompress the content of blobs stored with gzip, using a buffer of
+     * {@code bufferSize} bytes.
+     *
+     * @see #decompress()
+     */
+    public static BlobSourceOption decompress(int bufferSize) {
+      checkArgument(bufferSize > 0, "bufferSize must be positive");
+      return new BlobSourceOption(DECOMPRESS, bufferSize);
+    }
+
+    /**
+     * Returns the buffer size of the {@link #decompress()} option in {@code options}, or
+     * {@code null} if {@code options} do not require decompression.
+     */
+    static Integer decompressBufferSize(BlobSourceOption... options) {
+      for (BlobSourceOption option : options) {
+        if (DECOMPRESS.equals(option.clientOption())) {
+          return (Integer) option.value();
+        }
+      }
+      return null;
+    }
   }
 
   /**
@@ -683,6 +778,23 @@ public interface Storage extends Service<StorageOptions> {
       return new BlobListOption(StorageRpc.Option.PREFIX, prefix);
     }
 
+    /**
+     * Returns an option to filter results to blobs whose names are lexicographically equal to or
+     * after {@code startOffset}. Combined with {@link #endOffset(String)} this restricts the
+     * listing to a range of names.
+     */
+    public static BlobListOption startOffset(String startOffset) {
+      return new BlobListOption(StorageRpc.Option.START_OFFSET, startOffset);
+    }
+
+    /**
+     * Returns an option to filter results to blobs whose names are lexicographically before
+     * {@code endOffset}.
+     */
+    public static BlobListOption endOffset(String endOffset) {
+      return new BlobListOption(StorageRpc.Option.END_OFFSET, endOffset);
+    }
+
     /**
      * If specified, results are returned in a directory-like mode. Blobs whose names, after a
      * possible {@link #prefix(String)}, do not contain the '/' delimiter are returned as is. Blobs
@@ -729,7 +841,7 @@ public interface Storage extends Service<StorageOptions> {
     private final Object value;
 
     enum Option {
-      HTTP_METHOD, CONTENT_TYPE, MD5, SERVICE_ACCOUNT_CRED
+      HTTP_METHOD, CONTENT_TYPE, MD5, SERVICE_ACCOUNT_CRED, PARALLELISM
     }
 
     private SignUrlOption(Option option, Object value) {
@@ -778,6 +890,16 @@ public interface Storage extends Service<StorageOptions> {
     public static SignUrlOption signWith(ServiceAccountSigner signer) {
       return new SignUrlOption(Option.SERVICE_ACCOUNT_CRED, signer);
     }
+
+    /**
+     * Signs URLs on a {@link java.util.concurrent.ForkJoinPool} with the given parallelism. Only
+     * used by {@link Storage#signUrls(Iterable, long, TimeUnit, SignUrlOption...)}, URLs are
+     * signed by the calling thread by default.
+     */
+    public static SignUrlOption parallelism(int parallelism) {
+      checkArgument(parallelism > 0, "parallelism must be positive");
+      return new SignUrlOption(Option.PARALLELISM, parallelism);
+    }
   }
 
   /**
@@ -1249,6 +1371,34 @@ public interface Storage extends Service<StorageOptions> {
    */
   Blob create(BlobInfo blobInfo, InputStream content, BlobWriteOption... options);
 
+  /**
+   * Creates a new blob from the remaining bytes of {@code content}, which may be a heap or a direct
+   * buffer. The buffer's content is streamed to the service as is, without being copied to an
+   * intermediate array, and the buffer's position is not modified. Content of up to 8 MiB is sent
+   * with a single direct upload, larger content is sent with a resumable upload. Unless the
+   * {@link BlobWriteOption#gzip()} option is used, MD5 and CRC32C hashes of {@code content} are
+   * computed and used for validating transferred data. Hashes given in {@code blobInfo} are used
+   * instead only if requested via the {@code BlobWriteOption.md5Match} and
+   * {@code BlobWriteOption.crc32cMatch} options.
+   *
+   * @return a [@code Blob} with complete information
+   * @throws StorageException upon failure
+   * @see <a href="https://cloud.google.com/storage/docs/hashes-etags">Hashes and ETags</a>
+   */
+  Blob create(BlobInfo blobInfo, ByteBuffer content, BlobWriteOption... options);
+
+  /**
+   * Creates a new blob from the content read from {@code content} until end of stream. If the
+   * channel ends within the first 8 MiB a single direct upload is used, otherwise the content is
+   * sent with a resumable upload, 8 MiB at a time. By default any md5 and crc32c values in the
+   * given {@code blobInfo} are ignored unless requested via the {@code BlobWriteOption.md5Match}
+   * and {@code BlobWriteOption.crc32cMatch} options. The given channel is not closed.
+   *
+   * @return a [@code Blob} with complete information
+   * @throws StorageException upon failure
+   */
+  Blob create(BlobInfo blobInfo, ReadableByteChannel content, BlobWriteOption... options);
+
   /**
    * Returns the requested bucket or {@code null} if not found.
    *
@@ -1424,6 +1574,54 @@ public interface Storage extends Service<StorageOptions> {
    */
   byte[] readAllBytes(BlobId blob, BlobSourceOption... options);
 
+  /**
+   * Reads up to {@code dst.remaining()} bytes of a blob, starting at {@code offset}, into
+   * {@code dst}. Unlike a {@link ReadChannel}, this method keeps no state between calls: each
+   * call issues a single range request for exactly the requested bytes, offsets are not limited
+   * to 2GB, and the method can be called concurrently from many threads. Set a generation in
+   * {@code blob} (e.g. {@code blob.blobId()} of a {@link Blob} previously obtained) to pin all
+   * reads to the same version of the blob; otherwise each call reads the latest generation.
+   *
+   * <p>Example of reading the last 8 bytes of a blob:
+   * <pre> {@code
+   * Blob blob = storage.get(BlobId.of("bucket", "file.parquet"));
+   * ByteBuffer footer = ByteBuffer.allocate(8);
+   * storage.read(blob.blobId(), blob.size() - 8, footer);
+   * }</pre>
+   *
+   * @return the number of bytes read, possibly less than requested if the end of the blob was
+   *     reached, or {@code -1} if {@code offset} is at or past the end of the blob
+   * @throws StorageException upon failure
+   */
+  int read(BlobId blob, long offset, ByteBuffer dst, BlobSourceOption... options);
+
+  /**
+   * Reads several ranges of a blob. Each entry of {@code ranges} maps an offset in the blob to
+   * the buffer its bytes are read into, up to the buffer's remaining bytes. Ranges that are close
+   * to each other are merged and fetched with a single range request, so reading many small
+   * ranges (e.g. the column chunks of a columnar file) needs few requests. Buffers whose range
+   * extends past the end of the blob are only partially filled. The position of each buffer is
+   * advanced by the number of bytes read into it.
+   *
+   * <p>If the ranges require more than one request and {@code blob} has no generation, a
+   * {@link StorageException} is thrown if the blob is updated between requests.
+   *
+   * <p>Example of reading two ranges of a blob:
+   * <pre> {@code
+   * BlobId blobId = BlobId.of("bucket", "file.parquet", generation);
+   * ByteBuffer first = ByteBuffer.allocate(1024);
+   * ByteBuffer second = ByteBuffer.allocate(4096);
+   * Map<Long, ByteBuffer> ranges = new HashMap<>();
+   * ranges.put(4L, first);
+   * ranges.put(2048L, second);
+   * long bytesRead = storage.read(blobId, ranges);
+   * }</pre>
+   *
+   * @return the total number of bytes read into all buffers
+   * @throws StorageException upon failure
+   */
+  long read(BlobId blob, Map<Long, ByteBuffer> ranges, BlobSourceOption... options);
+
   /**
    * Creates a new empty batch for grouping multiple service calls in one underlying RPC call.
    *
@@ -1449,6 +1647,20 @@ public interface Storage extends Service<StorageOptions> {
    */
   StorageBatch batch();
 
+  /**
+   * Returns the statistics of the blob metadata cache, or {@code null} if the cache is not
+   * enabled.
+   *
+   * <p>Example of checking the hit rate of the cache:
+   * <pre> {@code
+   * MetadataCacheStats stats = storage.metadataCacheStats();
+   * double hitRate = stats.hitRate();
+   * }</pre>
+   *
+   * @see StorageOptions.Builder#metadataCache(long, long, TimeUnit)
+   */
+  MetadataCacheStats metadataCacheStats();
+
   /**
    * Returns a channel for reading the blob's content. The blob's latest generation is read. If the
    * blob changes while reading (i.e. {@link BlobInfo#etag()} changes), subsequent calls to
@@ -1541,6 +1753,38 @@ public interface Storage extends Service<StorageOptions> {
    */
   URL signUrl(BlobInfo blobInfo, long duration, TimeUnit unit, SignUrlOption... options);
 
+  /**
+   * Generates signed URLs for several blobs, all valid for the same amount of time and signed with
+   * the same options. This method is equivalent to calling
+   * {@link #signUrl(BlobInfo, long, TimeUnit, SignUrlOption...)} for each blob, but the signer is
+   * looked up once and the parts of the URLs that do not depend on the blob are only computed
+   * once. If a {@link ServiceAccountAuthCredentials} is used, URLs are signed with its private
+   * key without creating a {@link java.security.Signature} object per URL. Signing can be spread
+   * over several threads with the {@link SignUrlOption#parallelism(int)} option.
+   *
+   * <p>Example usage of creating signed URLs valid for 1 day, using 4 threads:
+   * <pre> {@code
+   * List<URL> urls = service.signUrls(blobInfos, 1, TimeUnit.DAYS, SignUrlOption.parallelism(4));
+   * }</pre>
+   *
+   * @param blobInfos the blobs associated with the signed URLs
+   * @param duration time until the signed URLs expire, expressed in {@code unit}. The finest
+   *     granularity supported is 1 second, finer granularities will be truncated
+   * @param unit time unit of the {@code duration} parameter
+   * @param options optional URL signing options
+   * @return the signed URLs, in the order of {@code blobInfos}
+   * @throws IllegalStateException if {@link SignUrlOption#signWith(ServiceAccountSigner)} was not
+   *     used and no implementation of {@link ServiceAccountSigner} was provided to
+   *     {@link StorageOptions}
+   * @throws IllegalArgumentException if {@code SignUrlOption.withMd5()} option is used and the
+   *     {@code md5()} of a blob is {@code null}, or {@code SignUrlOption.withContentType()} is used
+   *     and the {@code contentType()} of a blob is {@code null}
+   * @throws SigningException if the attempt to sign a URL failed
+   * @see <a href="https://cloud.google.com/storage/docs/access-control#Signed-URLs">Signed-URLs</a>
+   */
+  List<URL> signUrls(Iterable<BlobInfo> blobInfos, long duration, TimeUnit unit,
+      SignUrlOption... options);
+
   /**
    * Gets the requested blobs. A batch request is used to perform this call.
    *
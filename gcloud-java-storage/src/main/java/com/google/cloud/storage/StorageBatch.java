@@ -57,11 +57,17 @@ public class StorageBatch {
   private final RpcBatch batch;
   private final StorageRpc storageRpc;
   private final StorageOptions options;
+  private final BlobMetadataCache metadataCache;
 
   StorageBatch(StorageOptions options) {
+    this(options, null);
+  }
+
+  StorageBatch(StorageOptions options, BlobMetadataCache metadataCache) {
     this.options = options;
     this.storageRpc = options.rpc();
     this.batch = storageRpc.createBatch();
+    this.metadataCache = metadataCache;
   }
 
   @VisibleForTesting
@@ -98,7 +104,7 @@ public class StorageBatch {
    */
   public StorageBatchResult<Boolean> delete(BlobId blob, BlobSourceOption... options) {
     StorageBatchResult<Boolean> result = new StorageBatchResult<>();
-    RpcBatch.Callback<Void> callback = createDeleteCallback(result);
+    RpcBatch.Callback<Void> callback = createDeleteCallback(blob, result);
     Map<StorageRpc.Option, ?> optionMap = StorageImpl.optionMap(blob, options);
     batch.addDelete(blob.toPb(), callback, optionMap);
     return result;
@@ -112,7 +118,8 @@ public class StorageBatch {
    */
   public StorageBatchResult<Blob> update(BlobInfo blobInfo, BlobTargetOption... options) {
     StorageBatchResult<Blob> result = new StorageBatchResult<>();
-    RpcBatch.Callback<StorageObject> callback = createUpdateCallback(this.options, result);
+    RpcBatch.Callback<StorageObject> callback =
+        createUpdateCallback(this.options, blobInfo.blobId(), result);
     Map<StorageRpc.Option, ?> optionMap = StorageImpl.optionMap(blobInfo, options);
     batch.addPatch(blobInfo.toPb(), callback, optionMap);
     return result;
@@ -145,21 +152,33 @@ public class StorageBatch {
   }
 
   /**
-   * Submits this batch for processing using a single RPC request.
+   * Submits this batch for processing. Requests are sent in HTTP batches of up to 100 requests,
+   * up to {@link StorageOptions#batchParallelism()} of them concurrently. The results' callbacks
+   * may therefore be called from other threads and in any order, but never concurrently. This
+   * method returns once all the results are complete.
    */
   public void submit() {
     batch.submit();
   }
 
-  private RpcBatch.Callback<Void> createDeleteCallback(final StorageBatchResult<Boolean> result) {
+  private void invalidateMetadata(BlobId blobId) {
+    if (metadataCache != null) {
+      metadataCache.invalidate(blobId);
+    }
+  }
+
+  private RpcBatch.Callback<Void> createDeleteCallback(final BlobId blobId,
+      final StorageBatchResult<Boolean> result) {
     return new RpcBatch.Callback<Void>() {
       @Override
       public void onSuccess(Void response) {
+        invalidateMetadata(blobId);
         result.success(true);
       }
 
       @Override
       public void onFailure(GoogleJsonError googleJsonError) {
+        invalidateMetadata(blobId);
         StorageException serviceException = new StorageException(googleJsonError);
         if (serviceException.code() == HTTP_NOT_FOUND) {
           result.success(false);
@@ -191,15 +210,17 @@ public class StorageBatch {
   }
 
   private RpcBatch.Callback<StorageObject> createUpdateCallback(final StorageOptions serviceOptions,
-      final StorageBatchResult<Blob> result) {
+      final BlobId blobId, final StorageBatchResult<Blob> result) {
     return new RpcBatch.Callback<StorageObject>() {
       @Override
       public void onSuccess(StorageObject response) {
+        invalidateMetadata(blobId);
         result.success(response == null ? null : Blob.fromPb(serviceOptions.service(), response));
       }
 
       @Override
       public void onFailure(GoogleJsonError googleJsonError) {
+        invalidateMetadata(blobId);
         result.error(new StorageException(googleJsonError));
       }
     };
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a continuous stream of blob operations as batch requests. Operations are queued as they
+ * are added, and the queued operations are submitted in the background as a {@link StorageBatch}
+ * as soon as {@link Builder#batchSize(int)} of them are queued, or once the oldest of them has
+ * waited for {@link Builder#lingerTime(long, TimeUnit)}. Up to {@link Builder#concurrency(int)}
+ * batches are submitted concurrently. Each operation returns a {@link ListenableFuture} that is
+ * completed with its result when its batch has been processed.
+ *
+ * <p>At most {@link Builder#maxPendingOperations(int)} operations can be queued or in flight at
+ * any time. Adding an operation beyond that limit blocks until earlier operations complete, so
+ * that producers are slowed down to the rate at which batches are processed.
+ *
+ * <p>Example of deleting a stream of blobs:
+ * <pre> {@code
+ * StorageBatchWriter writer = StorageBatchWriter.builder(storage).build();
+ * List<ListenableFuture<Boolean>> results = new ArrayList<>();
+ * for (BlobId blobId : blobsToDelete) {
+ *   results.add(writer.delete(blobId));
+ * }
+ * writer.shutdown();
+ * List<Boolean> deleted = Futures.allAsList(results).get();
+ * }</pre>
+ */
+public final class StorageBatchWriter {
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final int DEFAULT_CONCURRENCY = 4;
+  private static final long DEFAULT_LINGER_MILLIS = 50;
+
+  private final Storage storage;
+  private final int batchSize;
+  private final long lingerNanos;
+  private final Semaphore pendingOperations;
+  private final ScheduledThreadPoolExecutor executor;
+  private List<Operation<?>> queued = new ArrayList<>();
+  private ScheduledFuture<?> lingerFuture;
+  private boolean shutdown;
+
+  /**
+   * Builder for {@code StorageBatchWriter} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_LINGER_MILLIS);
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int maxPendingOperations;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the number of queued operations that causes a batch to be submitted. Batches of more
+     * than 100 operations are sent as several HTTP batch requests, see
+     * {@link StorageOptions#batchParallelism()}. Default is 100.
+     */
+    public Builder batchSize(int batchSize) {
+      checkArgument(batchSize > 0, "batchSize must be positive");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets how long an operation can stay queued before the queued operations are submitted, even
+     * if they are fewer than {@link #batchSize(int)}. Default is 50 milliseconds.
+     */
+    public Builder lingerTime(long lingerTime, TimeUnit unit) {
+      checkArgument(lingerTime >= 0, "lingerTime must not be negative");
+      this.lingerNanos = unit.toNanos(lingerTime);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of batches submitted concurrently. Default is 4.
+     */
+    public Builder concurrency(int concurrency) {
+      checkArgument(concurrency > 0, "concurrency must be positive");
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of operations that can be queued or in flight. Adding operations
+     * beyond this limit blocks the caller. Default is twice the number of operations in
+     * {@link #concurrency(int)} full batches.
+     */
+    public Builder maxPendingOperations(int maxPendingOperations) {
+      checkArgument(maxPendingOperations > 0, "maxPendingOperations must be positive");
+      this.maxPendingOperations = maxPendingOperations;
+      return this;
+    }
+
+    /**
+     * Creates a {@code StorageBatchWriter} object.
+     */
+    public StorageBatchWriter build() {
+      return new StorageBatchWriter(this);
+    }
+  }
+
+  /**
+   * An operation waiting to be added to a batch.
+   */
+  private abstract static class Operation<T> {
+
+    private final SettableFuture<T> future = SettableFuture.create();
+
+    abstract StorageBatchResult<T> add(StorageBatch batch);
+
+    void addTo(StorageBatch batch) {
+      add(batch).notify(new BatchResult.Callback<T, StorageException>() {
+        @Override
+        public void success(T result) {
+          future.set(result);
+        }
+
+        @Override
+        public void error(StorageException exception) {
+          future.setException(exception);
+        }
+      });
+    }
+  }
+
+  private StorageBatchWriter(Builder builder) {
+    this.storage = builder.storage;
+    this.batchSize = builder.batchSize;
+    this.lingerNanos = builder.lingerNanos;
+    this.pendingOperations = new Semaphore(builder.maxPendingOperations > 0
+        ? builder.maxPendingOperations : 2 * builder.concurrency * builder.batchSize);
+    this.executor = new ScheduledThreadPoolExecutor(builder.concurrency);
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Returns a builder for {@code StorageBatchWriter} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Queues a "delete blob" operation. The returned future yields {@code true} upon successful
+   * deletion, {@code false} if the blob was not found, or fails with a {@link StorageException}
+   * if the operation failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Boolean> delete(String bucket, String blob,
+      BlobSourceOption... options) {
+    return delete(BlobId.of(bucket, blob), options);
+  }
+
+  /**
+   * Queues a "delete blob" operation. The returned future yields {@code true} upon successful
+   * deletion, {@code false} if the blob was not found, or fails with a {@link StorageException}
+   * if the operation failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Boolean> delete(final BlobId blob, final BlobSourceOption... options) {
+    return add(new Operation<Boolean>() {
+      @Override
+      StorageBatchResult<Boolean> add(StorageBatch batch) {
+        return batch.delete(blob, options);
+      }
+    });
+  }
+
+  /**
+   * Queues an "update blob" operation. The {@code options} can be used in the same way as for
+   * {@link Storage#update(BlobInfo, BlobTargetOption...)}. The returned future yields the updated
+   * {@link Blob} if successful, or fails with a {@link StorageException} if the operation failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Blob> update(final BlobInfo blobInfo,
+      final BlobTargetOption... options) {
+    return add(new Operation<Blob>() {
+      @Override
+      StorageBatchResult<Blob> add(StorageBatch batch) {
+        return batch.update(blobInfo, options);
+      }
+    });
+  }
+
+  /**
+   * Queues a "get blob" operation. The {@code options} can be used in the same way as for
+   * {@link Storage#get(BlobId, BlobGetOption...)}. The returned future yields the requested
+   * {@link Blob} if successful, {@code null} if no such blob exists, or fails with a
+   * {@link StorageException} if the operation failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Blob> get(String bucket, String blob, BlobGetOption... options) {
+    return get(BlobId.of(bucket, blob), options);
+  }
+
+  /**
+   * Queues a "get blob" operation. The {@code options} can be used in the same way as for
+   * {@link Storage#get(BlobId, BlobGetOption...)}. The returned future yields the requested
+   * {@link Blob} if successful, {@code null} if no such blob exists, or fails with a
+   * {@link StorageException} if the operation failed.
+   *
+   * @throws RejectedExecutionException if this object was shut down
+   */
+  public ListenableFuture<Blob> get(final BlobId blob, final BlobGetOption... options) {
+    return add(new Operation<Blob>() {
+      @Override
+      StorageBatchResult<Blob> add(StorageBatch batch) {
+        return batch.get(blob, options);
+      }
+    });
+  }
+
+  private <T> ListenableFuture<T> add(Operation<T> operation) {
+    synchronized (this) {
+      checkNotShutdown();
+    }
+    pendingOperations.acquireUninterruptibly();
+    synchronized (this) {
+      if (shutdown) {
+        pendingOperations.release();
+        checkNotShutdown();
+      }
+      queued.add(operation);
+      if (queued.size() >= batchSize) {
+        submitQueued();
+      } else if (queued.size() == 1) {
+        final List<Operation<?>> batch = queued;
+        lingerFuture = executor.schedule(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (StorageBatchWriter.this) {
+              if (queued == batch) {
+                submitQueued();
+              }
+            }
+          }
+        }, lingerNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+    return operation.future;
+  }
+
+  /**
+   * Throws if this object was shut down. Must be called holding this object's lock.
+   */
+  private void checkNotShutdown() {
+    if (shutdown) {
+      throw new RejectedExecutionException("StorageBatchWriter was shut down");
+    }
+  }
+
+  /**
+   * Submits the queued operations, if any. Must be called holding this object's lock.
+   */
+  private void submitQueued() {
+    if (queued.isEmpty()) {
+      return;
+    }
+    if (lingerFuture != null) {
+      lingerFuture.cancel(false);
+      lingerFuture = null;
+    }
+    final List<Operation<?>> operations = queued;
+    queued = new ArrayList<>(batchSize);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          StorageBatch batch = storage.batch();
+          boolean added = false;
+          for (Operation<?> operation : operations) {
+            try {
+              operation.addTo(batch);
+              added = true;
+            } catch (RuntimeException ex) {
+              operation.future.setException(ex);
+            }
+          }
+          if (added) {
+            batch.submit();
+          }
+        } catch (RuntimeException ex) {
+          // the batch request failed, the operations it carried were not processed
+          for (Operation<?> operation : operations) {
+            operation.future.setException(ex);
+          }
+        } finally {
+          pendingOperations.release(operations.size());
+        }
+      }
+    });
+  }
+
+  /**
+   * Submits the queued operations without waiting for a full batch or for the linger time to
+   * pass.
+   */
+  public synchronized void flush() {
+    if (!shutdown) {
+      submitQueued();
+    }
+  }
+
+  /**
+   * Submits the queued operations and stops accepting new ones. Batches already submitted
+   * complete in the background, then the threads submitting batches are released.
+   */
+  public synchronized void shutdown() {
+    if (!shutdown) {
+      submitQueued();
+      shutdown = true;
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Blocks until all operations have completed after a shutdown request, or the timeout occurs.
+   *
+   * @return {@code true} if all operations completed, {@code false} if the timeout elapsed first
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
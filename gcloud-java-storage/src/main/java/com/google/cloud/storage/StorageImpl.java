@@ -29,21 +29,25 @@ import static com.google.cloud.storage.spi.StorageRpc.Option.IF_SOURCE_METAGENER
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 
 import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.BaseService;
 import com.google.cloud.BatchResult;
+import com.google.cloud.FieldProfile;
 import com.google.cloud.Page;
 import com.google.cloud.PageImpl;
 import com.google.cloud.PageImpl.NextPageFetcher;
 import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
 import com.google.cloud.RetryHelper.RetryHelperException;
 import com.google.cloud.ServiceAccountSigner;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.spi.StorageRpc;
 import com.google.cloud.storage.spi.StorageRpc.RewriteResponse;
 import com.google.cloud.storage.spi.StorageRpc.Tuple;
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -51,21 +55,30 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
@@ -73,6 +86,13 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   private static final String EMPTY_BYTE_ARRAY_MD5 = "1B2M2Y8AsgTpgAmY7PhCfg==";
   private static final String EMPTY_BYTE_ARRAY_CRC32C = "AAAAAA==";
   private static final String PATH_DELIMITER = "/";
+  private static final long MAX_RANGE_GAP = 256 * 1024;
+  private static final long MAX_MERGED_RANGE_SIZE = 16 * 1024 * 1024;
+  // content up to this size is sent with a direct upload, larger content is sent with a resumable
+  // upload in chunks of this size (a multiple of 256 KiB, as required by the service)
+  private static final int UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int MIN_UPLOAD_BUFFER_SIZE = 64 * 1024;
+  private static final Map<StorageRpc.Option, ?> NO_RPC_OPTIONS = ImmutableMap.of();
 
   private static final Function<Tuple<Storage, Boolean>, Boolean> DELETE_FUNCTION =
       new Function<Tuple<Storage, Boolean>, Boolean>() {
@@ -83,10 +103,24 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       };
 
   private final StorageRpc storageRpc;
+  private final BlobMetadataCache metadataCache;
+  private final BlobContentCache contentCache;
+  private final FieldProfile<BucketField> bucketFieldProfile;
+  private final FieldProfile<BlobField> blobFieldProfile;
 
   StorageImpl(StorageOptions options) {
     super(options);
     storageRpc = options.rpc();
+    metadataCache = BlobMetadataCache.create(options);
+    contentCache = BlobContentCache.create(options);
+    if (options.autoFieldProjection()) {
+      bucketFieldProfile = new FieldProfile<>(BucketField.class, StorageImpl.class, Bucket.class);
+      blobFieldProfile =
+          new FieldProfile<>(BlobField.class, StorageImpl.class, Blob.class, Bucket.class);
+    } else {
+      bucketFieldProfile = null;
+      blobFieldProfile = null;
+    }
   }
 
   @Override
@@ -129,6 +163,10 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   @Override
   public Blob create(BlobInfo blobInfo, InputStream content, BlobWriteOption... options) {
     Tuple<BlobInfo, BlobTargetOption[]> targetOptions = BlobTargetOption.convert(blobInfo, options);
+    List<Integer> gzip = BlobWriteOption.gzipSettings(options);
+    if (gzip != null && content != null) {
+      content = new GzipCompressingInputStream(content, gzip.get(0), gzip.get(1));
+    }
     return create(targetOptions.x(), content, targetOptions.y());
   }
 
@@ -145,13 +183,201 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock()));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(info.blobId());
+    }
+  }
+
+  @Override
+  public Blob create(BlobInfo blobInfo, ByteBuffer content, BlobWriteOption... options) {
+    ByteBuffer buffer = content != null ? content.duplicate() : ByteBuffer.wrap(EMPTY_BYTE_ARRAY);
+    if (BlobWriteOption.gzipSettings(options) != null) {
+      // the size of the compressed content is not known in advance
+      return create(blobInfo, Channels.newChannel(new ByteBufferInputStream(buffer)), options);
+    }
+    Tuple<BlobInfo, BlobTargetOption[]> targetOptions = BlobTargetOption.convert(blobInfo, options);
+    return upload(withHashes(targetOptions.x(), buffer), buffer, targetOptions.y());
+  }
+
+  @Override
+  public Blob create(BlobInfo blobInfo, ReadableByteChannel content, BlobWriteOption... options) {
+    Tuple<BlobInfo, BlobTargetOption[]> targetOptions = BlobTargetOption.convert(blobInfo, options);
+    List<Integer> gzip = BlobWriteOption.gzipSettings(options);
+    if (gzip != null) {
+      content = Channels.newChannel(new GzipCompressingInputStream(
+          Channels.newInputStream(content), gzip.get(0), gzip.get(1)));
+    }
+    BlobInfo info = targetOptions.x();
+    // the buffer grows up to a chunk until the end of the content is found, so that small content
+    // does not allocate a whole chunk
+    byte[] buffer = new byte[MIN_UPLOAD_BUFFER_SIZE];
+    int length = read(content, buffer, 0);
+    while (length == buffer.length && buffer.length < UPLOAD_CHUNK_SIZE) {
+      buffer = Arrays.copyOf(buffer, Math.min(2 * buffer.length, UPLOAD_CHUNK_SIZE));
+      length = read(content, buffer, length);
+    }
+    if (length < UPLOAD_CHUNK_SIZE) {
+      ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, length);
+      return upload(withHashes(info, wrapped), wrapped, targetOptions.y());
+    }
+    final StorageObject blobPb = info.toPb();
+    final Map<StorageRpc.Option, ?> optionsMap = optionMap(info, targetOptions.y());
+    Crc32c crc32c = options().checksumValidation() ? new Crc32c() : null;
+    try {
+      String uploadId = openUpload(blobPb, optionsMap);
+      long position = 0;
+      while (length == UPLOAD_CHUNK_SIZE) {
+        writeUpload(uploadId, buffer, 0, position, length, false);
+        if (crc32c != null) {
+          crc32c.update(buffer, 0, length);
+        }
+        position += length;
+        length = read(content, buffer, 0);
+      }
+      StorageObject storageObject = writeUpload(uploadId, buffer, 0, position, length, true);
+      if (crc32c != null) {
+        crc32c.update(buffer, 0, length);
+      }
+      if (crc32c != null && storageObject.getCrc32c() != null
+          && !storageObject.getCrc32c().equals(crc32c.toBase64())) {
+        StringBuilder messageBuilder = new StringBuilder();
+        messageBuilder.append("Blob ").append(info.blobId()).append(" was stored with CRC32C ")
+            .append(storageObject.getCrc32c()).append(" but the uploaded content has CRC32C ")
+            .append(crc32c);
+        throw new StorageException(0, messageBuilder.toString());
+      }
+      return Blob.fromPb(this, storageObject);
+    } catch (RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(info.blobId());
+    }
+  }
+
+  /**
+   * Reads from {@code channel} into {@code buffer}, starting at {@code offset}, until the buffer is
+   * full or the end of the stream is reached. Returns the number of bytes in the buffer.
+   */
+  private static int read(ReadableByteChannel channel, byte[] buffer, int offset) {
+    ByteBuffer wrapped = ByteBuffer.wrap(buffer, offset, buffer.length - offset);
+    try {
+      while (wrapped.hasRemaining() && channel.read(wrapped) >= 0) {
+        // keep reading
+      }
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
+    return wrapped.position();
+  }
+
+  /**
+   * Sets the MD5 and CRC32C hashes of {@code content} on {@code info}, unless already provided.
+   * The hashes are computed in place, also for direct buffers.
+   */
+  private static BlobInfo withHashes(BlobInfo info, ByteBuffer content) {
+    BlobInfo.Builder builder = info.toBuilder();
+    if (info.md5() == null) {
+      MessageDigest md5;
+      try {
+        md5 = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      md5.update(content.duplicate());
+      builder.md5(BaseEncoding.base64().encode(md5.digest()));
+    }
+    if (info.crc32c() == null) {
+      Crc32c crc32c = new Crc32c();
+      crc32c.update(content.duplicate());
+      builder.crc32c(crc32c.toBase64());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Uploads the remaining bytes of {@code content}, with a direct upload if they fit a chunk or
+   * with a resumable upload otherwise. Heap buffers are written from their backing array, direct
+   * buffers are streamed for direct uploads and staged one chunk at a time for resumable uploads.
+   */
+  private Blob upload(BlobInfo info, final ByteBuffer content, BlobTargetOption... options) {
+    final StorageObject blobPb = info.toPb();
+    final Map<StorageRpc.Option, ?> optionsMap = optionMap(info, options);
+    try {
+      if (content.remaining() <= UPLOAD_CHUNK_SIZE) {
+        return Blob.fromPb(this, runWithRetries(new Callable<StorageObject>() {
+          @Override
+          public StorageObject call() {
+            return storageRpc.create(blobPb, new ByteBufferInputStream(content.duplicate()),
+                optionsMap);
+          }
+        }, options().retryParams(), EXCEPTION_HANDLER, options().clock()));
+      }
+      String uploadId = openUpload(blobPb, optionsMap);
+      ByteBuffer remaining = content.duplicate();
+      byte[] staging = remaining.hasArray() ? null : new byte[UPLOAD_CHUNK_SIZE];
+      long position = 0;
+      StorageObject storageObject = null;
+      while (remaining.hasRemaining()) {
+        int length = Math.min(remaining.remaining(), UPLOAD_CHUNK_SIZE);
+        boolean last = length == remaining.remaining();
+        if (staging == null) {
+          storageObject = writeUpload(uploadId, remaining.array(),
+              remaining.arrayOffset() + remaining.position(), position, length, last);
+          remaining.position(remaining.position() + length);
+        } else {
+          remaining.get(staging, 0, length);
+          storageObject = writeUpload(uploadId, staging, 0, position, length, last);
+        }
+        position += length;
+      }
+      // the metadata returned by the upload itself, a later read could see a newer generation
+      return Blob.fromPb(this, storageObject);
+    } catch (RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(info.blobId());
     }
   }
 
+  private String openUpload(final StorageObject blobPb,
+      final Map<StorageRpc.Option, ?> optionsMap) {
+    return runWithRetries(new Callable<String>() {
+      @Override
+      public String call() {
+        return storageRpc.open(blobPb, optionsMap);
+      }
+    }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
+  }
+
+  /**
+   * Writes a chunk of a resumable upload, returning the uploaded object if {@code last} is
+   * {@code true}.
+   */
+  private StorageObject writeUpload(final String uploadId, final byte[] bytes, final int offset,
+      final long position, final int length, final boolean last) {
+    return runWithRetries(new Callable<StorageObject>() {
+      @Override
+      public StorageObject call() {
+        return storageRpc.write(uploadId, bytes, offset, position, length, last);
+      }
+    }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
+  }
+
   @Override
   public Bucket get(String bucket, BucketGetOption... options) {
+    Object site = callSite(bucketFieldProfile, options);
+    if (site == null) {
+      return getBucket(bucket, optionMap(options));
+    }
+    Set<BucketField> selected = bucketFieldProfile.fields(site);
+    BucketGetOption[] getOptions = selected == null ? options : withOption(options,
+        BucketGetOption.fields(selected.toArray(new BucketField[selected.size()])));
+    Bucket answer = getBucket(bucket, optionMap(getOptions));
+    return answer == null ? null : track(answer, site, selected, optionMap(options));
+  }
+
+  private Bucket getBucket(String bucket, final Map<StorageRpc.Option, ?> optionsMap) {
     final com.google.api.services.storage.model.Bucket bucketPb = BucketInfo.of(bucket).toPb();
-    final Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
     try {
       com.google.api.services.storage.model.Bucket answer = runWithRetries(
           new Callable<com.google.api.services.storage.model.Bucket>() {
@@ -173,8 +399,27 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
   @Override
   public Blob get(BlobId blob, BlobGetOption... options) {
+    Object site = callSite(blobFieldProfile, options);
+    if (site == null) {
+      return getBlob(blob, optionMap(blob, options));
+    }
+    Set<BlobField> selected = blobFieldProfile.fields(site);
+    BlobGetOption[] getOptions = selected == null ? options : withOption(options,
+        BlobGetOption.fields(selected.toArray(new BlobField[selected.size()])));
+    Blob answer = getBlob(blob, optionMap(blob, getOptions));
+    return answer == null ? null : track(answer, site, selected, blob, optionMap(blob, options));
+  }
+
+  private Blob getBlob(BlobId blob, final Map<StorageRpc.Option, ?> optionsMap) {
     final StorageObject storedObject = blob.toPb();
-    final Map<StorageRpc.Option, ?> optionsMap = optionMap(blob, options);
+    long cacheToken = 0;
+    if (metadataCache != null) {
+      Blob cached = metadataCache.get(blob, optionsMap);
+      if (cached != null) {
+        return cached;
+      }
+      cacheToken = metadataCache.token();
+    }
     try {
       StorageObject storageObject = runWithRetries(new Callable<StorageObject>() {
         @Override
@@ -182,7 +427,11 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
           return storageRpc.get(storedObject, optionsMap);
         }
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
-      return storageObject == null ? null : Blob.fromPb(this, storageObject);
+      Blob answer = storageObject == null ? null : Blob.fromPb(this, storageObject);
+      if (metadataCache != null) {
+        metadataCache.put(blob, optionsMap, answer, cacheToken);
+      }
+      return answer;
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -198,18 +447,22 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     private static final long serialVersionUID = 5850406828803613729L;
     private final Map<StorageRpc.Option, ?> requestOptions;
     private final StorageOptions serviceOptions;
+    private final Object site;
+    private final Set<BucketField> selected;
 
     BucketPageFetcher(
         StorageOptions serviceOptions, String cursor,
-        Map<StorageRpc.Option, ?> optionMap) {
+        Map<StorageRpc.Option, ?> optionMap, Object site, Set<BucketField> selected) {
       this.requestOptions =
           PageImpl.nextRequestOptions(StorageRpc.Option.PAGE_TOKEN, cursor, optionMap);
       this.serviceOptions = serviceOptions;
+      this.site = site;
+      this.selected = selected;
     }
 
     @Override
     public Page<Bucket> nextPage() {
-      return listBuckets(serviceOptions, requestOptions);
+      return listBuckets(serviceOptions, requestOptions, site, selected);
     }
   }
 
@@ -219,33 +472,50 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     private final Map<StorageRpc.Option, ?> requestOptions;
     private final StorageOptions serviceOptions;
     private final String bucket;
+    private final Object site;
+    private final Set<BlobField> selected;
 
     BlobPageFetcher(String bucket, StorageOptions serviceOptions, String cursor,
-        Map<StorageRpc.Option, ?> optionMap) {
+        Map<StorageRpc.Option, ?> optionMap, Object site, Set<BlobField> selected) {
       this.requestOptions =
           PageImpl.nextRequestOptions(StorageRpc.Option.PAGE_TOKEN, cursor, optionMap);
       this.serviceOptions = serviceOptions;
       this.bucket = bucket;
+      this.site = site;
+      this.selected = selected;
     }
 
     @Override
     public Page<Blob> nextPage() {
-      return listBlobs(bucket, serviceOptions, requestOptions);
+      return listBlobs(bucket, serviceOptions, requestOptions, site, selected);
     }
   }
 
   @Override
   public Page<Bucket> list(BucketListOption... options) {
-    return listBuckets(options(), optionMap(options));
+    Object site = callSite(bucketFieldProfile, options);
+    Set<BucketField> selected = site == null ? null : bucketFieldProfile.fields(site);
+    if (selected != null) {
+      options = withOption(options,
+          BucketListOption.fields(selected.toArray(new BucketField[selected.size()])));
+    }
+    return listBuckets(options(), optionMap(options), site, selected);
   }
 
   @Override
   public Page<Blob> list(final String bucket, BlobListOption... options) {
-    return listBlobs(bucket, options(), optionMap(options));
+    Object site = callSite(blobFieldProfile, options);
+    Set<BlobField> selected = site == null ? null : blobFieldProfile.fields(site);
+    if (selected != null) {
+      options = withOption(options,
+          BlobListOption.fields(selected.toArray(new BlobField[selected.size()])));
+    }
+    return listBlobs(bucket, options(), optionMap(options), site, selected);
   }
 
   private static Page<Bucket> listBuckets(final StorageOptions serviceOptions,
-      final Map<StorageRpc.Option, ?> optionsMap) {
+      final Map<StorageRpc.Option, ?> optionsMap, final Object site,
+      final Set<BucketField> selected) {
     try {
       Tuple<String, Iterable<com.google.api.services.storage.model.Bucket>> result = runWithRetries(
           new Callable<Tuple<String, Iterable<com.google.api.services.storage.model.Bucket>>>() {
@@ -260,11 +530,15 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
               new Function<com.google.api.services.storage.model.Bucket, Bucket>() {
                 @Override
                 public Bucket apply(com.google.api.services.storage.model.Bucket bucketPb) {
-                  return Bucket.fromPb(serviceOptions.service(), bucketPb);
+                  Storage storage = serviceOptions.service();
+                  Bucket bucket = Bucket.fromPb(storage, bucketPb);
+                  return site != null && storage instanceof StorageImpl
+                      ? ((StorageImpl) storage).track(bucket, site, selected, NO_RPC_OPTIONS)
+                      : bucket;
                 }
               });
       return new PageImpl<>(
-          new BucketPageFetcher(serviceOptions, cursor, optionsMap), cursor,
+          new BucketPageFetcher(serviceOptions, cursor, optionsMap, site, selected), cursor,
           buckets);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
@@ -272,7 +546,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   }
 
   private static Page<Blob> listBlobs(final String bucket,
-      final StorageOptions serviceOptions, final Map<StorageRpc.Option, ?> optionsMap) {
+      final StorageOptions serviceOptions, final Map<StorageRpc.Option, ?> optionsMap,
+      final Object site, final Set<BlobField> selected) {
     try {
       Tuple<String, Iterable<StorageObject>> result = runWithRetries(
           new Callable<Tuple<String, Iterable<StorageObject>>>() {
@@ -288,11 +563,16 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
               : Iterables.transform(result.y(), new Function<StorageObject, Blob>() {
                 @Override
                 public Blob apply(StorageObject storageObject) {
-                  return Blob.fromPb(serviceOptions.service(), storageObject);
+                  Storage storage = serviceOptions.service();
+                  Blob blob = Blob.fromPb(storage, storageObject);
+                  return site != null && storage instanceof StorageImpl && !blob.isDirectory()
+                      ? ((StorageImpl) storage).track(blob, site, selected, blob.blobId(),
+                          NO_RPC_OPTIONS)
+                      : blob;
                 }
               });
       return new PageImpl<>(
-          new BlobPageFetcher(bucket, serviceOptions, cursor, optionsMap),
+          new BlobPageFetcher(bucket, serviceOptions, cursor, optionsMap, site, selected),
           cursor,
           blobs);
     } catch (RetryHelperException e) {
@@ -330,6 +610,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock()));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(blobInfo.blobId());
     }
   }
 
@@ -372,6 +654,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(blob);
     }
   }
 
@@ -401,6 +685,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock()));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(composeRequest.target().blobId());
     }
   }
 
@@ -421,9 +707,11 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
               copyRequest.megabytesCopiedPerChunk()));
         }
       }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
-      return new CopyWriter(options(), rewriteResponse);
+      return new CopyWriter(options(), rewriteResponse, metadataCache);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
+    } finally {
+      invalidateMetadata(copyRequest.target().blobId());
     }
   }
 
@@ -434,8 +722,35 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
   @Override
   public byte[] readAllBytes(BlobId blob, BlobSourceOption... options) {
-    final StorageObject storageObject = blob.toPb();
-    final Map<StorageRpc.Option, ?> optionsMap = optionMap(blob, options);
+    Map<StorageRpc.Option, ?> optionsMap = optionMap(blob, options);
+    byte[] content;
+    if (contentCache != null && BlobContentCache.isCacheable(blob, optionsMap)) {
+      try (FileChannel cached = contentCache.open(options(), blob)) {
+        ByteBuffer buffer = ByteBuffer.allocate(Ints.checkedCast(cached.size()));
+        while (buffer.hasRemaining() && cached.read(buffer, buffer.position()) >= 0) {
+          // keep reading
+        }
+        content = buffer.array();
+      } catch (IOException ex) {
+        throw new StorageException(ex);
+      }
+    } else {
+      content = load(blob.toPb(), optionsMap);
+    }
+    Integer bufferSize = BlobSourceOption.decompressBufferSize(options);
+    if (bufferSize == null || !GzipReadChannel.isGzip(content, content.length)) {
+      return content;
+    }
+    try (InputStream input =
+        new GZIPInputStream(new ByteArrayInputStream(content), bufferSize)) {
+      return ByteStreams.toByteArray(input);
+    } catch (IOException ex) {
+      throw new StorageException(ex);
+    }
+  }
+
+  private byte[] load(final StorageObject storageObject,
+      final Map<StorageRpc.Option, ?> optionsMap) {
     try {
       return runWithRetries(new Callable<byte[]>() {
         @Override
@@ -448,27 +763,172 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     }
   }
 
+  @Override
+  public int read(BlobId blob, long offset, ByteBuffer dst, BlobSourceOption... options) {
+    checkArgument(offset >= 0, "offset must not be negative");
+    if (!dst.hasRemaining()) {
+      return 0;
+    }
+    byte[] bytes = readRange(blob.toPb(), optionMap(blob, options), offset, dst.remaining()).y();
+    if (bytes.length == 0) {
+      return -1;
+    }
+    dst.put(bytes);
+    return bytes.length;
+  }
+
+  @Override
+  public long read(BlobId blob, Map<Long, ByteBuffer> ranges, BlobSourceOption... options) {
+    StorageObject storageObject = blob.toPb();
+    Map<StorageRpc.Option, ?> optionsMap = optionMap(blob, options);
+    List<Map.Entry<Long, ByteBuffer>> sorted = new ArrayList<>();
+    for (Map.Entry<Long, ByteBuffer> range : new TreeMap<>(ranges).entrySet()) {
+      checkArgument(range.getKey() >= 0, "offset must not be negative");
+      if (range.getValue().hasRemaining()) {
+        sorted.add(range);
+      }
+    }
+    String etag = null;
+    long bytesRead = 0;
+    int first = 0;
+    while (first < sorted.size()) {
+      long start = sorted.get(first).getKey();
+      long end = start + sorted.get(first).getValue().remaining();
+      int last = first + 1;
+      // merge following ranges while the gap to skip and the merged request stay small
+      while (last < sorted.size()) {
+        long nextStart = sorted.get(last).getKey();
+        long nextEnd = nextStart + sorted.get(last).getValue().remaining();
+        if (nextStart - end > MAX_RANGE_GAP
+            || Math.max(end, nextEnd) - start > MAX_MERGED_RANGE_SIZE) {
+          break;
+        }
+        end = Math.max(end, nextEnd);
+        last++;
+      }
+      Tuple<String, byte[]> result =
+          readRange(storageObject, optionsMap, start, Ints.checkedCast(end - start));
+      byte[] bytes = result.y();
+      if (bytes.length > 0) {
+        if (etag != null && !etag.equals(result.x())) {
+          throw new StorageException(0, "Blob " + blob + " was updated while reading");
+        }
+        etag = result.x();
+      }
+      for (Map.Entry<Long, ByteBuffer> range : sorted.subList(first, last)) {
+        int rangeOffset = (int) (range.getKey() - start);
+        int length = Math.min(range.getValue().remaining(), bytes.length - rangeOffset);
+        if (length > 0) {
+          range.getValue().put(bytes, rangeOffset, length);
+          bytesRead += length;
+        }
+      }
+      first = last;
+    }
+    return bytesRead;
+  }
+
+  private Tuple<String, byte[]> readRange(final StorageObject storageObject,
+      final Map<StorageRpc.Option, ?> optionsMap, final long offset, final int length) {
+    try {
+      return runWithRetries(new Callable<Tuple<String, byte[]>>() {
+        @Override
+        public Tuple<String, byte[]> call() {
+          return storageRpc.read(storageObject, optionsMap, offset, length);
+        }
+      }, options().retryParams(), EXCEPTION_HANDLER, options().clock());
+    } catch (RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+  }
+
   @Override
   public StorageBatch batch() {
-    return new StorageBatch(this.options());
+    return new StorageBatch(this.options(), metadataCache);
+  }
+
+  @Override
+  public MetadataCacheStats metadataCacheStats() {
+    return metadataCache == null ? null : metadataCache.stats();
+  }
+
+  /**
+   * A {@link WriteChannel} that invalidates the cached metadata of the blob it writes once the
+   * upload is closed. Channels restored from a captured state do not invalidate the cache.
+   */
+  private static final class MetadataInvalidatingWriteChannel implements WriteChannel {
+
+    private final WriteChannel channel;
+    private final BlobMetadataCache metadataCache;
+    private final BlobId blobId;
+
+    MetadataInvalidatingWriteChannel(WriteChannel channel, BlobMetadataCache metadataCache,
+        BlobId blobId) {
+      this.channel = channel;
+      this.metadataCache = metadataCache;
+      this.blobId = blobId;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+      } finally {
+        metadataCache.invalidate(blobId);
+      }
+    }
+
+    @Override
+    public void chunkSize(int chunkSize) {
+      channel.chunkSize(chunkSize);
+    }
+
+    @Override
+    public RestorableState<WriteChannel> capture() {
+      return channel.capture();
+    }
+  }
+
+  private void invalidateMetadata(BlobId blobId) {
+    if (metadataCache != null) {
+      metadataCache.invalidate(blobId);
+    }
   }
 
   @Override
   public ReadChannel reader(String bucket, String blob, BlobSourceOption... options) {
-    Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
-    return new BlobReadChannel(options(), BlobId.of(bucket, blob), optionsMap);
+    return reader(BlobId.of(bucket, blob), options);
   }
 
   @Override
   public ReadChannel reader(BlobId blob, BlobSourceOption... options) {
     Map<StorageRpc.Option, ?> optionsMap = optionMap(blob, options);
-    return new BlobReadChannel(options(), blob, optionsMap);
+    ReadChannel channel = contentCache != null && BlobContentCache.isCacheable(blob, optionsMap)
+        ? new CachedBlobReadChannel(options(), blob, contentCache)
+        : new BlobReadChannel(options(), blob, optionsMap);
+    Integer bufferSize = BlobSourceOption.decompressBufferSize(options);
+    return bufferSize != null ? new GzipReadChannel(channel, bufferSize) : channel;
   }
 
   @Override
-  public BlobWriteChannel writer(BlobInfo blobInfo, BlobWriteOption... options) {
+  public WriteChannel writer(BlobInfo blobInfo, BlobWriteOption... options) {
     Tuple<BlobInfo, BlobTargetOption[]> targetOptions = BlobTargetOption.convert(blobInfo, options);
-    return writer(targetOptions.x(), targetOptions.y());
+    WriteChannel channel = writer(targetOptions.x(), targetOptions.y());
+    if (metadataCache != null) {
+      channel = new MetadataInvalidatingWriteChannel(channel, metadataCache, blobInfo.blobId());
+    }
+    List<Integer> gzip = BlobWriteOption.gzipSettings(options);
+    return gzip != null ? new GzipWriteChannel(channel, gzip.get(0), gzip.get(1)) : channel;
   }
 
   private BlobWriteChannel writer(BlobInfo blobInfo, BlobTargetOption... options) {
@@ -478,10 +938,29 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
   @Override
   public URL signUrl(BlobInfo blobInfo, long duration, TimeUnit unit, SignUrlOption... options) {
+    return urlSigner(duration, unit, signUrlOptionMap(options)).sign(blobInfo);
+  }
+
+  @Override
+  public List<URL> signUrls(Iterable<BlobInfo> blobInfos, long duration, TimeUnit unit,
+      SignUrlOption... options) {
+    EnumMap<SignUrlOption.Option, Object> optionMap = signUrlOptionMap(options);
+    int parallelism = firstNonNull((Integer) optionMap.get(SignUrlOption.Option.PARALLELISM), 1);
+    return urlSigner(duration, unit, optionMap)
+        .sign(ImmutableList.copyOf(blobInfos), parallelism);
+  }
+
+  private static EnumMap<SignUrlOption.Option, Object> signUrlOptionMap(
+      SignUrlOption... options) {
     EnumMap<SignUrlOption.Option, Object> optionMap = Maps.newEnumMap(SignUrlOption.Option.class);
     for (SignUrlOption option : options) {
       optionMap.put(option.option(), option.value());
     }
+    return optionMap;
+  }
+
+  private UrlSigner urlSigner(long duration, TimeUnit unit,
+      Map<SignUrlOption.Option, Object> optionMap) {
     ServiceAccountSigner authCredentials =
         (ServiceAccountSigner) optionMap.get(SignUrlOption.Option.SERVICE_ACCOUNT_CRED);
     if (authCredentials == null) {
@@ -489,52 +968,9 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
           "Signing key was not provided and could not be derived");
       authCredentials = (ServiceAccountSigner) this.options().authCredentials();
     }
-    // construct signature - see https://cloud.google.com/storage/docs/access-control#Signed-URLs
-    StringBuilder stBuilder = new StringBuilder();
-    if (optionMap.containsKey(SignUrlOption.Option.HTTP_METHOD)) {
-      stBuilder.append(optionMap.get(SignUrlOption.Option.HTTP_METHOD));
-    } else {
-      stBuilder.append(HttpMethod.GET);
-    }
-    stBuilder.append('\n');
-    if (firstNonNull((Boolean) optionMap.get(SignUrlOption.Option.MD5), false)) {
-      checkArgument(blobInfo.md5() != null, "Blob is missing a value for md5");
-      stBuilder.append(blobInfo.md5());
-    }
-    stBuilder.append('\n');
-    if (firstNonNull((Boolean) optionMap.get(SignUrlOption.Option.CONTENT_TYPE), false)) {
-      checkArgument(blobInfo.contentType() != null, "Blob is missing a value for content-type");
-      stBuilder.append(blobInfo.contentType());
-    }
-    stBuilder.append('\n');
     long expiration = TimeUnit.SECONDS.convert(
         options().clock().millis() + unit.toMillis(duration), TimeUnit.MILLISECONDS);
-    stBuilder.append(expiration).append('\n');
-    StringBuilder path = new StringBuilder();
-    if (!blobInfo.bucket().startsWith("/")) {
-      path.append('/');
-    }
-    path.append(blobInfo.bucket());
-    if (!blobInfo.bucket().endsWith("/")) {
-      path.append('/');
-    }
-    if (blobInfo.name().startsWith("/")) {
-      path.setLength(path.length() - 1);
-    }
-    path.append(blobInfo.name());
-    stBuilder.append(path);
-    try {
-      byte[] signatureBytes = authCredentials.sign(stBuilder.toString().getBytes(UTF_8));
-      stBuilder = new StringBuilder("https://storage.googleapis.com").append(path);
-      String signature =
-          URLEncoder.encode(BaseEncoding.base64().encode(signatureBytes), UTF_8.name());
-      stBuilder.append("?GoogleAccessId=").append(authCredentials.account());
-      stBuilder.append("&Expires=").append(expiration);
-      stBuilder.append("&Signature=").append(signature);
-      return new URL(stBuilder.toString());
-    } catch (MalformedURLException | UnsupportedEncodingException ex) {
-      throw new IllegalStateException(ex);
-    }
+    return new UrlSigner(authCredentials, optionMap, expiration);
   }
 
   @Override
@@ -547,15 +983,17 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     StorageBatch batch = batch();
     final List<Blob> results = Lists.newArrayList();
     for (BlobId blob : blobIds) {
+      final int index = results.size();
+      results.add(null);
       batch.get(blob).notify(new BatchResult.Callback<Blob, StorageException>() {
         @Override
         public void success(Blob result) {
-          results.add(result);
+          results.set(index, result);
         }
 
         @Override
         public void error(StorageException exception) {
-          results.add(null);
+          results.set(index, null);
         }
       });
     }
@@ -573,15 +1011,17 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     StorageBatch batch = batch();
     final List<Blob> results = Lists.newArrayList();
     for (BlobInfo blobInfo : blobInfos) {
+      final int index = results.size();
+      results.add(null);
       batch.update(blobInfo).notify(new BatchResult.Callback<Blob, StorageException>() {
         @Override
         public void success(Blob result) {
-          results.add(result);
+          results.set(index, result);
         }
 
         @Override
         public void error(StorageException exception) {
-          results.add(null);
+          results.set(index, null);
         }
       });
     }
@@ -599,15 +1039,17 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     StorageBatch batch = batch();
     final List<Boolean> results = Lists.newArrayList();
     for (BlobId blob : blobIds) {
+      final int index = results.size();
+      results.add(null);
       batch.delete(blob).notify(new BatchResult.Callback<Boolean, StorageException>() {
         @Override
         public void success(Boolean result) {
-          results.add(result);
+          results.set(index, result);
         }
 
         @Override
         public void error(StorageException exception) {
-          results.add(Boolean.FALSE);
+          results.set(index, Boolean.FALSE);
         }
       });
     }
@@ -632,6 +1074,71 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     }
   }
 
+  /**
+   * Returns the call site to profile for a request with {@code options}, {@code null} if automatic
+   * field projection is disabled or the request selects its own fields.
+   */
+  private static Object callSite(FieldProfile<?> profile, Option... options) {
+    if (profile == null) {
+      return null;
+    }
+    for (Option option : options) {
+      if (option.rpcOption() == StorageRpc.Option.FIELDS) {
+        return null;
+      }
+    }
+    return profile.callSite();
+  }
+
+  private static <T extends Option> T[] withOption(T[] options, T option) {
+    T[] result = Arrays.copyOf(options, options.length + 1);
+    result[options.length] = option;
+    return result;
+  }
+
+  /**
+   * Returns a copy of {@code bucket}, returned to {@code site} with {@code selected} fields, that
+   * records the fields read from it and is completed with a get request with {@code optionsMap}
+   * when a field that was not selected is read. Completing it fails with a
+   * {@link StorageException} if the bucket no longer exists.
+   */
+  private Bucket track(Bucket bucket, Object site, Set<BucketField> selected,
+      final Map<StorageRpc.Option, ?> optionsMap) {
+    final String name = bucket.name();
+    return new Bucket(this, new BucketInfo.BuilderImpl(bucket),
+        bucketFieldProfile.tracker(site, selected, new Supplier<BucketInfo>() {
+          @Override
+          public BucketInfo get() {
+            Bucket complete = getBucket(name, optionsMap);
+            if (complete == null) {
+              throw new StorageException(HTTP_NOT_FOUND, "Bucket " + name + " not found");
+            }
+            return complete;
+          }
+        }));
+  }
+
+  /**
+   * Returns a copy of {@code blob}, returned to {@code site} with {@code selected} fields, that
+   * records the fields read from it and is completed by getting {@code blobId} with
+   * {@code optionsMap} when a field that was not selected is read. Completing it fails with a
+   * {@link StorageException} if the blob no longer exists.
+   */
+  private Blob track(Blob blob, Object site, Set<BlobField> selected, final BlobId blobId,
+      final Map<StorageRpc.Option, ?> optionsMap) {
+    return new Blob(this, new BlobInfo.BuilderImpl(blob),
+        blobFieldProfile.tracker(site, selected, new Supplier<BlobInfo>() {
+          @Override
+          public BlobInfo get() {
+            Blob complete = getBlob(blobId, optionsMap);
+            if (complete == null) {
+              throw new StorageException(HTTP_NOT_FOUND, "Blob " + blobId + " not found");
+            }
+            return complete;
+          }
+        }));
+  }
+
   private static Map<StorageRpc.Option, ?> optionMap(Long generation, Long metaGeneration,
       Iterable<? extends Option> options) {
     return optionMap(generation, metaGeneration, options, false);
@@ -641,6 +1148,10 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       Iterable<? extends Option> options, boolean useAsSource) {
     Map<StorageRpc.Option, Object> temp = Maps.newEnumMap(StorageRpc.Option.class);
     for (Option option : options) {
+      if (option.rpcOption() == null) {
+        // applied by the client, not sent to the service
+        continue;
+      }
       Object prev = temp.put(option.rpcOption(), option.value());
       checkArgument(prev == null, "Duplicate option %s", option);
     }
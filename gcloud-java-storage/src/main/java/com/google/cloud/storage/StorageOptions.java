@@ -16,19 +16,33 @@
 
 package com.google.cloud.storage;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.storage.spi.DefaultStorageRpc;
 import com.google.cloud.storage.spi.StorageRpc;
 import com.google.cloud.storage.spi.StorageRpcFactory;
 import com.google.common.collect.ImmutableSet;
 
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class StorageOptions extends ServiceOptions<Storage, StorageRpc, StorageOptions> {
 
   private static final long serialVersionUID = -7804860602287801084L;
   private static final String GCS_SCOPE = "https://www.googleapis.com/auth/devstorage.full_control";
   private static final Set<String> SCOPES = ImmutableSet.of(GCS_SCOPE);
+  private static final int DEFAULT_BATCH_PARALLELISM = 4;
+
+  private final int batchParallelism;
+  private final long metadataCacheSize;
+  private final long metadataCacheTtlMillis;
+  private final boolean checksumValidation;
+  private final String contentCacheDirectory;
+  private final long contentCacheMaximumBytes;
+  private final boolean autoFieldProjection;
 
   public static class DefaultStorageFactory implements StorageFactory {
 
@@ -53,10 +67,100 @@ public class StorageOptions extends ServiceOptions<Storage, StorageRpc, StorageO
   public static class Builder extends
       ServiceOptions.Builder<Storage, StorageRpc, StorageOptions, Builder> {
 
+    private int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+    private long metadataCacheSize;
+    private long metadataCacheTtlMillis;
+    private boolean checksumValidation;
+    private String contentCacheDirectory;
+    private long contentCacheMaximumBytes;
+    private boolean autoFieldProjection;
+
     private Builder() {}
 
     private Builder(StorageOptions options) {
       super(options);
+      batchParallelism = options.batchParallelism;
+      metadataCacheSize = options.metadataCacheSize;
+      metadataCacheTtlMillis = options.metadataCacheTtlMillis;
+      checksumValidation = options.checksumValidation;
+      contentCacheDirectory = options.contentCacheDirectory;
+      contentCacheMaximumBytes = options.contentCacheMaximumBytes;
+      autoFieldProjection = options.autoFieldProjection;
+    }
+
+    /**
+     * Sets the maximum number of HTTP batch requests that a {@link StorageBatch} sends
+     * concurrently when submitted. Batches with more than 100 operations are split into several
+     * HTTP batch requests. Default is 4; use 1 to send them one after another.
+     */
+    public Builder batchParallelism(int batchParallelism) {
+      checkArgument(batchParallelism > 0, "batchParallelism must be positive");
+      this.batchParallelism = batchParallelism;
+      return this;
+    }
+
+    /**
+     * Enables caching the metadata returned by
+     * {@link Storage#get(BlobId, Storage.BlobGetOption...)}. At most {@code maximumSize} blobs are
+     * cached, each for at most {@code ttl}. Cached metadata is invalidated when the blob is
+     * created, updated, deleted or is the target of a compose or copy request issued through the
+     * same {@link Storage} object or one of its batches. Uploads through a
+     * {@link Storage#writer(BlobInfo, Storage.BlobWriteOption...)} channel invalidate the blob
+     * when the channel is closed, and copies when the {@link CopyWriter} is done. Changes made by
+     * other clients, or through a restored write channel, are only seen once the entry expires.
+     * The cache is disabled by default.
+     *
+     * @see Storage#metadataCacheStats()
+     */
+    public Builder metadataCache(long maximumSize, long ttl, TimeUnit unit) {
+      checkArgument(maximumSize >= 0, "maximumSize must not be negative");
+      checkArgument(ttl > 0, "ttl must be positive");
+      this.metadataCacheSize = maximumSize;
+      this.metadataCacheTtlMillis = unit.toMillis(ttl);
+      return this;
+    }
+
+    /**
+     * Sets whether read and write channels validate the CRC32C checksum of the content they
+     * transfer. The checksum is computed as data goes through the channel; when an upload is
+     * completed, or when a read channel that was not moved with {@code seek} reaches the end of the
+     * blob, it is compared with the checksum reported by the service, at the cost of one metadata
+     * request. A mismatch causes a {@link StorageException}. Default is {@code false}.
+     */
+    public Builder checksumValidation(boolean checksumValidation) {
+      this.checksumValidation = checksumValidation;
+      return this;
+    }
+
+    /**
+     * Enables caching the content of blobs on local disk, in {@code directory}, which is created
+     * if needed. Only reads of a specific blob generation with no other options, through
+     * {@link Storage#readAllBytes(BlobId, Storage.BlobSourceOption...)} and
+     * {@link Storage#reader(BlobId, Storage.BlobSourceOption...)}, are cached; as the content of
+     * a generation never changes, cached content is always current. Least recently read blobs are
+     * deleted when the cached content exceeds {@code maximumBytes}. The directory can be shared by
+     * several processes, which then download each blob only once. The cache is disabled by
+     * default.
+     */
+    public Builder contentCache(String directory, long maximumBytes) {
+      checkArgument(maximumBytes > 0, "maximumBytes must be positive");
+      this.contentCacheDirectory = checkNotNull(directory);
+      this.contentCacheMaximumBytes = maximumBytes;
+      return this;
+    }
+
+    /**
+     * Sets whether blob and bucket metadata requests automatically select the fields that are
+     * used. Calls to {@link Storage#get(BlobId, Storage.BlobGetOption...)},
+     * {@link Storage#get(String, Storage.BucketGetOption...)} and the {@code list} methods that do
+     * not specify fields are grouped by the line of code that issued them: the first call returns
+     * complete metadata, later calls only request the fields that were read from the results of
+     * the previous ones. Reading a field that was not requested fetches the complete metadata of
+     * that blob or bucket, at the cost of one more request. Default is {@code false}.
+     */
+    public Builder autoFieldProjection(boolean autoFieldProjection) {
+      this.autoFieldProjection = autoFieldProjection;
+      return this;
     }
 
     @Override
@@ -67,6 +171,13 @@ public class StorageOptions extends ServiceOptions<Storage, StorageRpc, StorageO
 
   private StorageOptions(Builder builder) {
     super(StorageFactory.class, StorageRpcFactory.class, builder);
+    batchParallelism = builder.batchParallelism;
+    metadataCacheSize = builder.metadataCacheSize;
+    metadataCacheTtlMillis = builder.metadataCacheTtlMillis;
+    checksumValidation = builder.checksumValidation;
+    contentCacheDirectory = builder.contentCacheDirectory;
+    contentCacheMaximumBytes = builder.contentCacheMaximumBytes;
+    autoFieldProjection = builder.autoFieldProjection;
   }
 
   @Override
@@ -84,6 +195,60 @@ public class StorageOptions extends ServiceOptions<Storage, StorageRpc, StorageO
     return SCOPES;
   }
 
+  /**
+   * Returns the maximum number of HTTP batch requests that a {@link StorageBatch} sends
+   * concurrently when submitted.
+   */
+  public int batchParallelism() {
+    return batchParallelism;
+  }
+
+  /**
+   * Returns the maximum number of blobs whose metadata is cached, {@code 0} if the metadata cache
+   * is disabled.
+   */
+  public long metadataCacheSize() {
+    return metadataCacheSize;
+  }
+
+  /**
+   * Returns for how long, in milliseconds, blob metadata is cached.
+   */
+  public long metadataCacheTtlMillis() {
+    return metadataCacheTtlMillis;
+  }
+
+  /**
+   * Returns whether read and write channels validate the CRC32C checksum of the content they
+   * transfer.
+   */
+  public boolean checksumValidation() {
+    return checksumValidation;
+  }
+
+  /**
+   * Returns the directory where blob content is cached, {@code null} if the content cache is
+   * disabled.
+   */
+  public String contentCacheDirectory() {
+    return contentCacheDirectory;
+  }
+
+  /**
+   * Returns the maximum number of bytes of blob content cached on disk.
+   */
+  public long contentCacheMaximumBytes() {
+    return contentCacheMaximumBytes;
+  }
+
+  /**
+   * Returns whether blob and bucket metadata requests automatically select the fields that are
+   * used.
+   */
+  public boolean autoFieldProjection() {
+    return autoFieldProjection;
+  }
+
   /**
    * Returns a default {@code StorageOptions} instance.
    */
@@ -99,12 +264,25 @@ public class StorageOptions extends ServiceOptions<Storage, StorageRpc, StorageO
 
   @Override
   public int hashCode() {
-    return baseHashCode();
+    return Objects.hash(baseHashCode(), batchParallelism, metadataCacheSize,
+        metadataCacheTtlMillis, checksumValidation, contentCacheDirectory,
+        contentCacheMaximumBytes, autoFieldProjection);
   }
 
   @Override
   public boolean equals(Object obj) {
-    return obj instanceof StorageOptions && baseEquals((StorageOptions) obj);
+    if (!(obj instanceof StorageOptions)) {
+      return false;
+    }
+    StorageOptions other = (StorageOptions) obj;
+    return baseEquals(other)
+        && batchParallelism == other.batchParallelism
+        && metadataCacheSize == other.metadataCacheSize
+        && metadataCacheTtlMillis == other.metadataCacheTtlMillis
+        && checksumValidation == other.checksumValidation
+        && Objects.equals(contentCacheDirectory, other.contentCacheDirectory)
+        && contentCacheMaximumBytes == other.contentCacheMaximumBytes
+        && autoFieldProjection == other.autoFieldProjection;
   }
 
   public static Builder builder() {
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A utility to mirror directory trees to and from Google Cloud Storage. Only files that changed
+ * are transferred: a local file and a blob are considered equal if they have the same size and
+ * either the same modification time or the same CRC32C checksum. The CRC32C checksum of a local
+ * file is computed only when sizes match but modification times differ.
+ *
+ * <p>Files are transferred by a bounded pool of workers. Each transfer periodically captures the
+ * {@link RestorableState} of its channel; if a chunk fails with a retryable error after the
+ * channel's own retries are exhausted, the transfer is resumed from the last captured state rather
+ * than restarted.
+ *
+ * <p>Example of mirroring a local directory to a bucket:
+ * <pre> {@code
+ * TransferManager transferManager = TransferManager.builder(storage)
+ *     .workerCount(16)
+ *     .deleteExtraneous(true)
+ *     .build();
+ * TransferManager.SyncResult result =
+ *     transferManager.upload(Paths.get("/data/reports"), "bucket", "reports/");
+ * System.out.println(result.bytesTransferred() + " bytes at " + result.bytesPerSecond() + " B/s");
+ * }</pre>
+ */
+public final class TransferManager {
+
+  /**
+   * The metadata key used to store the modification time (in seconds since epoch) of an uploaded
+   * file. The same key is used by {@code gsutil rsync}.
+   */
+  static final String MTIME_METADATA_KEY = "goog-reserved-file-mtime";
+
+  private static final int DEFAULT_WORKER_COUNT = 8;
+  private static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+  private static final int DEFAULT_MAX_RESUMES = 3;
+  private static final int DELETE_BATCH_SIZE = 1000;
+  private static final String PATH_DELIMITER = "/";
+
+  private final Storage storage;
+  private final int workerCount;
+  private final int chunkSize;
+  private final int maxResumes;
+  private final boolean deleteExtraneous;
+
+  /**
+   * Builder for {@code TransferManager} objects.
+   */
+  public static final class Builder {
+
+    private final Storage storage;
+    private int workerCount = DEFAULT_WORKER_COUNT;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxResumes = DEFAULT_MAX_RESUMES;
+    private boolean deleteExtraneous;
+
+    private Builder(Storage storage) {
+      this.storage = checkNotNull(storage);
+    }
+
+    /**
+     * Sets the maximum number of files transferred concurrently. Default is 8.
+     */
+    public Builder workerCount(int workerCount) {
+      checkArgument(workerCount > 0, "workerCount must be positive");
+      this.workerCount = workerCount;
+      return this;
+    }
+
+    /**
+     * Sets the size of the chunks read from and written to channels. Files smaller than this
+     * value are uploaded with a single request. Default is 2MB.
+     */
+    public Builder chunkSize(int chunkSize) {
+      checkArgument(chunkSize > 0, "chunkSize must be positive");
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * Sets how many times a single file transfer is resumed from its last captured state before
+     * the transfer is reported as failed. Default is 3.
+     */
+    public Builder maxResumes(int maxResumes) {
+      checkArgument(maxResumes >= 0, "maxResumes must not be negative");
+      this.maxResumes = maxResumes;
+      return this;
+    }
+
+    /**
+     * Sets whether files or blobs that exist in the target but not in the source should be
+     * deleted. Blobs are deleted in bulk using {@link StorageBatch}. Default is {@code false}.
+     */
+    public Builder deleteExtraneous(boolean deleteExtraneous) {
+      this.deleteExtraneous = deleteExtraneous;
+      return this;
+    }
+
+    /**
+     * Creates a {@code TransferManager} object.
+     */
+    public TransferManager build() {
+      return new TransferManager(this);
+    }
+  }
+
+  /**
+   * The outcome of a directory synchronization.
+   */
+  public static final class SyncResult {
+
+    private final long filesTransferred;
+    private final long filesSkipped;
+    private final long filesDeleted;
+    private final long bytesTransferred;
+    private final long elapsedMillis;
+    private final Map<String, Exception> failures;
+
+    private SyncResult(Stats stats, long elapsedMillis) {
+      this.filesTransferred = stats.filesTransferred.get();
+      this.filesSkipped = stats.filesSkipped.get();
+      this.filesDeleted = stats.filesDeleted.get();
+      this.bytesTransferred = stats.bytesTransferred.get();
+      this.elapsedMillis = elapsedMillis;
+      this.failures = ImmutableMap.copyOf(stats.failures);
+    }
+
+    /**
+     * Returns the number of files that were transferred.
+     */
+    public long filesTransferred() {
+      return filesTransferred;
+    }
+
+    /**
+     * Returns the number of files that were not transferred because they did not change.
+     */
+    public long filesSkipped() {
+      return filesSkipped;
+    }
+
+    /**
+     * Returns the number of extraneous files or blobs that were deleted.
+     */
+    public long filesDeleted() {
+      return filesDeleted;
+    }
+
+    /**
+     * Returns the total number of bytes transferred.
+     */
+    public long bytesTransferred() {
+      return bytesTransferred;
+    }
+
+    /**
+     * Returns the wall-clock duration of the synchronization, in milliseconds.
+     */
+    public long elapsedMillis() {
+      return elapsedMillis;
+    }
+
+    /**
+     * Returns the aggregate throughput of the synchronization, in bytes per second.
+     */
+    public double bytesPerSecond() {
+      return elapsedMillis == 0 ? 0 : bytesTransferred * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Returns the files or blobs that could not be transferred or deleted, keyed by blob name,
+     * along with the error that caused the failure.
+     */
+    public Map<String, Exception> failures() {
+      return failures;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("filesTransferred", filesTransferred)
+          .add("filesSkipped", filesSkipped)
+          .add("filesDeleted", filesDeleted)
+          .add("bytesTransferred", bytesTransferred)
+          .add("elapsedMillis", elapsedMillis)
+          .add("failures", failures.size())
+          .toString();
+    }
+  }
+
+  private static final class Stats {
+
+    private final AtomicLong filesTransferred = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final Map<String, Exception> failures = new ConcurrentHashMap<>();
+  }
+
+  private interface Transfer {
+    void run() throws IOException;
+  }
+
+  private TransferManager(Builder builder) {
+    this.storage = builder.storage;
+    this.workerCount = builder.workerCount;
+    this.chunkSize = builder.chunkSize;
+    this.maxResumes = builder.maxResumes;
+    this.deleteExtraneous = builder.deleteExtraneous;
+  }
+
+  /**
+   * Returns a builder for {@code TransferManager} objects.
+   */
+  public static Builder builder(Storage storage) {
+    return new Builder(storage);
+  }
+
+  /**
+   * Uploads the files under {@code source} that are missing or changed in {@code bucket} under
+   * {@code prefix}. A file with relative path {@code a/b.txt} is uploaded to the blob named
+   * {@code prefix + "a/b.txt"}. If {@code prefix} is not empty and does not end with '/' a '/'
+   * is appended to it.
+   *
+   * @throws IOException if the local directory tree could not be traversed
+   * @throws StorageException if the blobs under {@code prefix} could not be listed
+   * @throws InterruptedException if the calling thread was interrupted while waiting for workers
+   */
+  public SyncResult upload(final Path source, final String bucket, String prefix)
+      throws IOException, InterruptedException {
+    checkArgument(Files.isDirectory(source), "%s is not a directory", source);
+    final String normalizedPrefix = normalizePrefix(prefix);
+    long start = System.currentTimeMillis();
+    final Stats stats = new Stats();
+    final Map<String, Blob> remote = new HashMap<>();
+    Iterator<Blob> blobs = list(bucket, normalizedPrefix);
+    while (blobs.hasNext()) {
+      Blob blob = blobs.next();
+      if (!blob.name().endsWith(PATH_DELIMITER)) {
+        remote.put(blob.name(), blob);
+      }
+    }
+    final Workers workers = new Workers();
+    try {
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+            throws IOException {
+          if (!attrs.isRegularFile()) {
+            return FileVisitResult.CONTINUE;
+          }
+          final String name = normalizedPrefix + relativeName(source, file);
+          final Blob blob = remote.remove(name);
+          workers.submit(name, stats, new Transfer() {
+            @Override
+            public void run() throws IOException {
+              if (isUpToDate(file, attrs, blob)) {
+                stats.filesSkipped.incrementAndGet();
+              } else {
+                uploadFile(file, attrs, BlobId.of(bucket, name), stats);
+                stats.filesTransferred.incrementAndGet();
+              }
+            }
+          });
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      workers.awaitTermination();
+    } finally {
+      workers.shutdownNow();
+    }
+    if (deleteExtraneous) {
+      deleteBlobs(remote.values(), stats);
+    }
+    return new SyncResult(stats, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Downloads the blobs in {@code bucket} under {@code prefix} that are missing or changed in
+   * {@code target}. A blob named {@code prefix + "a/b.txt"} is downloaded to the file with
+   * relative path {@code a/b.txt}. If {@code prefix} is not empty and does not end with '/' a '/'
+   * is appended to it. Files are first downloaded to a temporary file in the target directory and
+   * then moved in place.
+   *
+   * @throws IOException if the local directory tree could not be created or traversed
+   * @throws StorageException if the blobs under {@code prefix} could not be listed
+   * @throws InterruptedException if the calling thread was interrupted while waiting for workers
+   */
+  public SyncResult download(String bucket, String prefix, final Path target)
+      throws IOException, InterruptedException {
+    String normalizedPrefix = normalizePrefix(prefix);
+    long start = System.currentTimeMillis();
+    final Stats stats = new Stats();
+    final Set<Path> expected = new HashSet<>();
+    Files.createDirectories(target);
+    Workers workers = new Workers();
+    try {
+      Iterator<Blob> blobs = list(bucket, normalizedPrefix);
+      while (blobs.hasNext()) {
+        final Blob blob = blobs.next();
+        if (blob.name().endsWith(PATH_DELIMITER)) {
+          continue;
+        }
+        final Path file =
+            target.resolve(blob.name().substring(normalizedPrefix.length())).normalize();
+        if (!file.startsWith(target)) {
+          stats.failures.put(blob.name(),
+              new IOException("Blob name resolves outside of " + target));
+          continue;
+        }
+        if (deleteExtraneous) {
+          expected.add(file);
+        }
+        workers.submit(blob.name(), stats, new Transfer() {
+          @Override
+          public void run() throws IOException {
+            BasicFileAttributes attrs = Files.exists(file)
+                ? Files.readAttributes(file, BasicFileAttributes.class) : null;
+            if (attrs != null && isUpToDate(file, attrs, blob)) {
+              stats.filesSkipped.incrementAndGet();
+            } else {
+              downloadFile(blob, file, stats);
+              stats.filesTransferred.incrementAndGet();
+            }
+          }
+        });
+      }
+      workers.awaitTermination();
+    } finally {
+      workers.shutdownNow();
+    }
+    if (deleteExtraneous) {
+      Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          if (!expected.contains(file)) {
+            Files.delete(file);
+            stats.filesDeleted.incrementAndGet();
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    return new SyncResult(stats, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * A bounded pool of workers. Submission blocks once {@code workerCount} transfers are running,
+   * so that the number of queued transfers never grows with the size of the directory tree.
+   */
+  private final class Workers {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+    private final Semaphore permits = new Semaphore(workerCount);
+
+    void submit(final String name, final Stats stats, final Transfer transfer) throws IOException {
+      try {
+        permits.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for a worker", ex);
+      }
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            transfer.run();
+          } catch (IOException | RuntimeException ex) {
+            stats.failures.put(name, ex);
+          } finally {
+            permits.release();
+          }
+        }
+      });
+    }
+
+    void awaitTermination() throws InterruptedException {
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        // keep waiting, transfers of large files may take a long time
+      }
+    }
+
+    void shutdownNow() {
+      executor.shutdownNow();
+    }
+  }
+
+  private Iterator<Blob> list(String bucket, String prefix) {
+    return storage.list(bucket,
+        BlobListOption.prefix(prefix),
+        BlobListOption.fields(BlobField.SIZE, BlobField.CRC32C, BlobField.METADATA,
+            BlobField.UPDATED, BlobField.GENERATION)).iterateAll();
+  }
+
+  private void uploadFile(Path file, BasicFileAttributes attrs, BlobId blobId, Stats stats)
+      throws IOException {
+    BlobInfo blobInfo = BlobInfo.builder(blobId)
+        .metadata(ImmutableMap.of(MTIME_METADATA_KEY, Long.toString(
+            attrs.lastModifiedTime().to(TimeUnit.SECONDS))))
+        .build();
+    if (attrs.size() < chunkSize) {
+      byte[] content = Files.readAllBytes(file);
+      storage.create(blobInfo, content);
+      stats.bytesTransferred.addAndGet(content.length);
+      return;
+    }
+    // the service rejects the upload if the content does not match the file's CRC32C, so closing
+    // the channel of an aborted upload does not create a truncated blob
+    WriteChannel writer = storage.writer(blobInfo.toBuilder().crc32c(crc32c(file)).build(),
+        BlobWriteOption.crc32cMatch());
+    try {
+      writer.chunkSize(chunkSize);
+      RestorableState<WriteChannel> checkpoint = writer.capture();
+      long checkpointOffset = 0;
+      long offset = 0;
+      int resumes = 0;
+      ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+      try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+        while (true) {
+          try {
+            buffer.clear();
+            int read = input.read(buffer, offset);
+            if (read < 0) {
+              writer.close();
+              break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+              writer.write(buffer);
+            }
+            offset += read;
+            stats.bytesTransferred.addAndGet(read);
+            if (offset - checkpointOffset >= chunkSize) {
+              checkpoint = writer.capture();
+              checkpointOffset = offset;
+            }
+          } catch (StorageException ex) {
+            if (!ex.retryable() || resumes++ >= maxResumes) {
+              throw ex;
+            }
+            writer = checkpoint.restore();
+            stats.bytesTransferred.addAndGet(checkpointOffset - offset);
+            offset = checkpointOffset;
+          }
+        }
+      }
+    } finally {
+      if (writer.isOpen()) {
+        try {
+          writer.close();
+        } catch (IOException | StorageException ex) {
+          // the upload already failed
+        }
+      }
+    }
+  }
+
+  private void downloadFile(Blob blob, Path file, Stats stats) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      ReadChannel reader = storage.reader(
+          BlobId.of(blob.bucket(), blob.name(), blob.generation()));
+      reader.chunkSize(chunkSize);
+      RestorableState<ReadChannel> checkpoint = reader.capture();
+      long checkpointOffset = 0;
+      long offset = 0;
+      int resumes = 0;
+      ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+      try (FileChannel output = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (true) {
+          try {
+            buffer.clear();
+            int read = reader.read(buffer);
+            if (read < 0) {
+              break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+              output.write(buffer);
+            }
+            offset += read;
+            stats.bytesTransferred.addAndGet(read);
+            if (offset - checkpointOffset >= chunkSize) {
+              checkpoint = reader.capture();
+              checkpointOffset = offset;
+            }
+          } catch (StorageException ex) {
+            if (!ex.retryable() || resumes++ >= maxResumes) {
+              throw ex;
+            }
+            reader = checkpoint.restore();
+            output.truncate(checkpointOffset);
+            output.position(checkpointOffset);
+            stats.bytesTransferred.addAndGet(checkpointOffset - offset);
+            offset = checkpointOffset;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+      Long mtime = remoteMtimeSeconds(blob);
+      if (mtime != null) {
+        Files.setLastModifiedTime(temp, FileTime.from(mtime, TimeUnit.SECONDS));
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void deleteBlobs(Iterable<Blob> blobs, final Stats stats) {
+    StorageBatch batch = storage.batch();
+    int batchSize = 0;
+    for (final Blob blob : blobs) {
+      batch.delete(blob.blobId()).notify(new BatchResult.Callback<Boolean, StorageException>() {
+        @Override
+        public void success(Boolean result) {
+          if (result) {
+            stats.filesDeleted.incrementAndGet();
+          }
+        }
+
+        @Override
+        public void error(StorageException exception) {
+          stats.failures.put(blob.name(), exception);
+        }
+      });
+      if (++batchSize == DELETE_BATCH_SIZE) {
+        batch.submit();
+        batch = storage.batch();
+        batchSize = 0;
+      }
+    }
+    if (batchSize > 0) {
+      batch.submit();
+    }
+  }
+
+  /**
+   * Returns {@code true} if {@code file} and {@code blob} have the same content. Contents are
+   * considered equal if sizes match and either modification times or CRC32C checksums match.
+   */
+  static boolean isUpToDate(Path file, BasicFileAttributes attrs, BlobInfo blob)
+      throws IOException {
+    if (blob == null || blob.size() == null || blob.size() != attrs.size()) {
+      return false;
+    }
+    Long remoteMtime = remoteMtimeSeconds(blob);
+    if (remoteMtime != null && remoteMtime == attrs.lastModifiedTime().to(TimeUnit.SECONDS)) {
+      return true;
+    }
+    return blob.crc32c() != null && blob.crc32c().equals(crc32c(file));
+  }
+
+  private static Long remoteMtimeSeconds(BlobInfo blob) {
+    Map<String, String> metadata = blob.metadata();
+    if (metadata != null && metadata.get(MTIME_METADATA_KEY) != null) {
+      try {
+        return Long.parseLong(metadata.get(MTIME_METADATA_KEY));
+      } catch (NumberFormatException ex) {
+        // fall back to the blob's update time
+      }
+    }
+    return blob.updateTime() != null ? TimeUnit.MILLISECONDS.toSeconds(blob.updateTime()) : null;
+  }
+
+  /**
+   * Returns the base64-encoded CRC32C checksum of a file, in the format used by
+   * {@link BlobInfo#crc32c()}.
+   */
+  static String crc32c(Path file) throws IOException {
+    Hasher hasher = Hashing.crc32c().newHasher();
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (input.read(buffer) >= 0) {
+        buffer.flip();
+        hasher.putBytes(buffer.array(), 0, buffer.limit());
+        buffer.clear();
+      }
+    }
+    return BaseEncoding.base64().encode(Ints.toByteArray(hasher.hash().asInt()));
+  }
+
+  private static String relativeName(Path root, Path file) {
+    Path relative = root.relativize(file);
+    StringBuilder name = new StringBuilder();
+    for (Path element : relative) {
+      if (name.length() > 0) {
+        name.append(PATH_DELIMITER);
+      }
+      name.append(element.toString());
+    }
+    return name.toString();
+  }
+
+  private static String normalizePrefix(String prefix) {
+    if (prefix == null || prefix.isEmpty() || prefix.endsWith(PATH_DELIMITER)) {
+      return prefix == null ? "" : prefix;
+    }
+    return prefix + PATH_DELIMITER;
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.cloud.AuthCredentials.ServiceAccountAuthCredentials;
+import com.google.cloud.ServiceAccountSigner;
+import com.google.cloud.storage.Storage.SignUrlOption;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Signs URLs for blobs with the same signer, expiration and options. The parts of the string to
+ * sign and of the URL that do not depend on the blob are computed once. When the signer is a
+ * {@link ServiceAccountAuthCredentials}, URLs are signed with its private key using one
+ * {@link Signature} object per thread, rather than one per URL.
+ *
+ * @see <a href="https://cloud.google.com/storage/docs/access-control#Signed-URLs">Signed-URLs</a>
+ */
+final class UrlSigner {
+
+  private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+  private static final String BASE_URL = "https://storage.googleapis.com";
+  private static final int FORK_THRESHOLD = 256;
+
+  private final ServiceAccountSigner signer;
+  private final PrivateKey privateKey;
+  private final boolean md5;
+  private final boolean contentType;
+  private final String methodLine;
+  private final String expirationLine;
+  private final String query;
+
+  UrlSigner(ServiceAccountSigner signer, Map<SignUrlOption.Option, Object> options,
+      long expiration) {
+    this.signer = signer;
+    this.privateKey = signer instanceof ServiceAccountAuthCredentials
+        ? ((ServiceAccountAuthCredentials) signer).privateKey() : null;
+    this.md5 = firstNonNull((Boolean) options.get(SignUrlOption.Option.MD5), false);
+    this.contentType =
+        firstNonNull((Boolean) options.get(SignUrlOption.Option.CONTENT_TYPE), false);
+    Object httpMethod = options.get(SignUrlOption.Option.HTTP_METHOD);
+    this.methodLine = (httpMethod != null ? httpMethod : HttpMethod.GET) + "\n";
+    this.expirationLine = expiration + "\n";
+    this.query = "?GoogleAccessId=" + signer.account() + "&Expires=" + expiration + "&Signature=";
+  }
+
+  /**
+   * Signs blobs one at a time, reusing the same {@link Signature} object if possible.
+   */
+  private final class BlobSigner {
+
+    private final StringBuilder builder = new StringBuilder();
+    private Signature signature;
+
+    BlobSigner() {
+      if (privateKey != null) {
+        try {
+          signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+          signature.initSign(privateKey);
+        } catch (GeneralSecurityException ex) {
+          // signer.sign will report the error, if any
+          signature = null;
+        }
+      }
+    }
+
+    URL sign(BlobInfo blobInfo) {
+      builder.setLength(0);
+      builder.append(methodLine);
+      if (md5) {
+        checkArgument(blobInfo.md5() != null, "Blob is missing a value for md5");
+        builder.append(blobInfo.md5());
+      }
+      builder.append('\n');
+      if (contentType) {
+        checkArgument(blobInfo.contentType() != null, "Blob is missing a value for content-type");
+        builder.append(blobInfo.contentType());
+      }
+      builder.append('\n');
+      builder.append(expirationLine);
+      int pathStart = builder.length();
+      if (!blobInfo.bucket().startsWith("/")) {
+        builder.append('/');
+      }
+      builder.append(blobInfo.bucket());
+      if (!blobInfo.bucket().endsWith("/")) {
+        builder.append('/');
+      }
+      if (blobInfo.name().startsWith("/")) {
+        builder.setLength(builder.length() - 1);
+      }
+      builder.append(blobInfo.name());
+      byte[] signatureBytes = sign(builder.toString().getBytes(UTF_8));
+      String path = builder.substring(pathStart);
+      try {
+        builder.setLength(0);
+        builder.append(BASE_URL).append(path).append(query)
+            .append(URLEncoder.encode(BaseEncoding.base64().encode(signatureBytes), UTF_8.name()));
+        return new URL(builder.toString());
+      } catch (MalformedURLException | UnsupportedEncodingException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    private byte[] sign(byte[] toSign) {
+      if (signature != null) {
+        try {
+          signature.update(toSign);
+          return signature.sign();
+        } catch (GeneralSecurityException ex) {
+          // let the signer retry and report the error, from now on
+          signature = null;
+        }
+      }
+      return signer.sign(toSign);
+    }
+  }
+
+  /**
+   * Signs the URLs of the blobs in {@code blobInfos[from, to)} into {@code urls}, splitting the
+   * range in halves until it is small enough to be signed by a single {@link BlobSigner}.
+   */
+  private final class SignTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 5526440413016413768L;
+
+    private final List<BlobInfo> blobInfos;
+    private final URL[] urls;
+    private final int from;
+    private final int to;
+
+    SignTask(List<BlobInfo> blobInfos, URL[] urls, int from, int to) {
+      this.blobInfos = blobInfos;
+      this.urls = urls;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= FORK_THRESHOLD) {
+        sign(blobInfos, urls, from, to);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new SignTask(blobInfos, urls, from, middle),
+            new SignTask(blobInfos, urls, middle, to));
+      }
+    }
+  }
+
+  private void sign(List<BlobInfo> blobInfos, URL[] urls, int from, int to) {
+    BlobSigner blobSigner = new BlobSigner();
+    for (int i = from; i < to; i++) {
+      urls[i] = blobSigner.sign(blobInfos.get(i));
+    }
+  }
+
+  /**
+   * Returns the signed URL of {@code blobInfo}.
+   */
+  URL sign(BlobInfo blobInfo) {
+    return new BlobSigner().sign(blobInfo);
+  }
+
+  /**
+   * Returns the signed URLs of {@code blobInfos}, in the same order. If {@code parallelism} is
+   * greater than 1, URLs are signed on a {@link ForkJoinPool} with that parallelism.
+   */
+  List<URL> sign(List<BlobInfo> blobInfos, int parallelism) {
+    URL[] urls = new URL[blobInfos.size()];
+    if (parallelism <= 1 || urls.length <= FORK_THRESHOLD) {
+      sign(blobInfos, urls, 0, urls.length);
+    } else {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new SignTask(blobInfos, urls, 0, urls.length));
+      } finally {
+        pool.shutdown();
+      }
+    }
+    return ImmutableList.copyOf(urls);
+  }
+}
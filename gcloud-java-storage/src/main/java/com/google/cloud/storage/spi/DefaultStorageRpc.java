@@ -15,6 +15,7 @@
 package com.google.cloud.storage.spi;
 
 import static com.google.cloud.storage.spi.StorageRpc.Option.DELIMITER;
+import static com.google.cloud.storage.spi.StorageRpc.Option.END_OFFSET;
 import static com.google.cloud.storage.spi.StorageRpc.Option.FIELDS;
 import static com.google.cloud.storage.spi.StorageRpc.Option.IF_GENERATION_MATCH;
 import static com.google.cloud.storage.spi.StorageRpc.Option.IF_GENERATION_NOT_MATCH;
@@ -29,6 +30,7 @@ import static com.google.cloud.storage.spi.StorageRpc.Option.PAGE_TOKEN;
 import static com.google.cloud.storage.spi.StorageRpc.Option.PREDEFINED_ACL;
 import static com.google.cloud.storage.spi.StorageRpc.Option.PREDEFINED_DEFAULT_OBJECT_ACL;
 import static com.google.cloud.storage.spi.StorageRpc.Option.PREFIX;
+import static com.google.cloud.storage.spi.StorageRpc.Option.START_OFFSET;
 import static com.google.cloud.storage.spi.StorageRpc.Option.VERSIONS;
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
@@ -53,27 +55,38 @@ import com.google.api.client.json.jackson.JacksonFactory;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.Storage.Objects.Get;
 import com.google.api.services.storage.Storage.Objects.Insert;
+import com.google.api.services.storage.StorageRequest;
 import com.google.api.services.storage.model.Bucket;
 import com.google.api.services.storage.model.Buckets;
 import com.google.api.services.storage.model.ComposeRequest;
 import com.google.api.services.storage.model.ComposeRequest.SourceObjects.ObjectPreconditions;
 import com.google.api.services.storage.model.Objects;
 import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.BaseServiceException;
+import com.google.cloud.RetryParams;
 import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultStorageRpc implements StorageRpc {
 
@@ -82,6 +95,8 @@ public class DefaultStorageRpc implements StorageRpc {
   private final Storage storage;
 
   private static final long MEGABYTE = 1024L * 1024L;
+  private static final ExecutorService BATCH_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("storage-batch-%d").build());
 
   public DefaultStorageRpc(StorageOptions options) {
     HttpTransport transport = options.httpTransportFactory().create();
@@ -102,25 +117,18 @@ public class DefaultStorageRpc implements StorageRpc {
     private static final int MAX_BATCH_SIZE = 100;
 
     private final Storage storage;
-    private final LinkedList<BatchRequest> batches;
-    private int currentBatchSize;
+    private final List<BatchEntry<?>> entries;
 
     private DefaultRpcBatch(Storage storage) {
       this.storage = storage;
-      batches = new LinkedList<>();
-      batches.add(storage.batch());
+      entries = new ArrayList<>();
     }
 
     @Override
     public void addDelete(StorageObject storageObject, RpcBatch.Callback<Void> callback,
         Map<Option, ?> options) {
       try {
-        if (currentBatchSize == MAX_BATCH_SIZE) {
-          batches.add(storage.batch());
-          currentBatchSize = 0;
-        }
-        deleteCall(storageObject, options).queue(batches.getLast(), toJsonCallback(callback));
-        currentBatchSize++;
+        entries.add(new BatchEntry<>(deleteCall(storageObject, options), callback));
       } catch (IOException ex) {
         throw translate(ex);
       }
@@ -130,12 +138,7 @@ public class DefaultStorageRpc implements StorageRpc {
     public void addPatch(StorageObject storageObject, RpcBatch.Callback<StorageObject> callback,
         Map<Option, ?> options) {
       try {
-        if (currentBatchSize == MAX_BATCH_SIZE) {
-          batches.add(storage.batch());
-          currentBatchSize = 0;
-        }
-        patchCall(storageObject, options).queue(batches.getLast(), toJsonCallback(callback));
-        currentBatchSize++;
+        entries.add(new BatchEntry<>(patchCall(storageObject, options), callback));
       } catch (IOException ex) {
         throw translate(ex);
       }
@@ -145,42 +148,159 @@ public class DefaultStorageRpc implements StorageRpc {
     public void addGet(StorageObject storageObject, RpcBatch.Callback<StorageObject> callback,
         Map<Option, ?> options) {
       try {
-        if (currentBatchSize == MAX_BATCH_SIZE) {
-          batches.add(storage.batch());
-          currentBatchSize = 0;
-        }
-        getCall(storageObject, options).queue(batches.getLast(), toJsonCallback(callback));
-        currentBatchSize++;
+        entries.add(new BatchEntry<>(getCall(storageObject, options), callback));
       } catch (IOException ex) {
         throw translate(ex);
       }
     }
 
+    /**
+     * Submits the queued requests in HTTP batches of at most {@code MAX_BATCH_SIZE} requests. Up
+     * to {@link StorageOptions#batchParallelism()} batches are executed concurrently, by the
+     * calling thread and by threads of a pool shared by all batches. Requests that fail with a
+     * retryable error are resubmitted, in new batches, according to the service's
+     * {@link RetryParams}; their callbacks are only notified of the final outcome. Callbacks may
+     * be called from pool threads, but never concurrently. The queued requests are removed.
+     */
     @Override
     public void submit() {
+      RetryParams retryParams = options.retryParams();
+      List<BatchEntry<?>> pending = new ArrayList<>(entries);
+      entries.clear();
+      Object callbackLock = new Object();
+      int attempt = 0;
+      while (!pending.isEmpty()) {
+        attempt++;
+        boolean lastAttempt = attempt >= retryParams.retryMaxAttempts();
+        List<BatchEntry<?>> retries = Collections.synchronizedList(new ArrayList<BatchEntry<?>>());
+        List<BatchRequest> batches = new ArrayList<>();
+        try {
+          for (List<BatchEntry<?>> partition : Lists.partition(pending, MAX_BATCH_SIZE)) {
+            BatchRequest batch = storage.batch();
+            for (BatchEntry<?> entry : partition) {
+              entry.queue(batch, retries, lastAttempt, callbackLock);
+            }
+            batches.add(batch);
+          }
+        } catch (IOException ex) {
+          throw translate(ex);
+        }
+        execute(batches);
+        if (!retries.isEmpty()) {
+          sleep(retryDelayMillis(retryParams, attempt));
+        }
+        pending = retries;
+      }
+    }
+
+    private void execute(List<BatchRequest> batches) {
+      int parallelism = Math.min(options.batchParallelism(), batches.size());
+      AtomicInteger next = new AtomicInteger();
+      BatchWorker worker = new BatchWorker(batches, next);
+      List<Future<Void>> futures = new ArrayList<>(parallelism);
       try {
-        for (BatchRequest batch : batches) {
-          batch.execute();
+        for (int i = 1; i < parallelism; i++) {
+          futures.add(BATCH_EXECUTOR.submit(worker));
+        }
+        worker.call();
+        for (Future<Void> future : futures) {
+          try {
+            future.get();
+          } catch (ExecutionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+            throw Throwables.propagate(ex.getCause());
+          }
         }
       } catch (IOException ex) {
+        // stop the other workers once their current batch completes
+        next.set(batches.size());
         throw translate(ex);
+      } catch (InterruptedException ex) {
+        next.set(batches.size());
+        Thread.currentThread().interrupt();
+        throw new StorageException(BaseServiceException.UNKNOWN_CODE,
+            "Interrupted while waiting for batch requests", ex);
+      } catch (RuntimeException ex) {
+        next.set(batches.size());
+        throw ex;
       }
     }
   }
 
-  private static <T> JsonBatchCallback<T> toJsonCallback(final RpcBatch.Callback<T> callback) {
-    return new JsonBatchCallback<T>() {
-      @Override
-      public void onSuccess(T response, HttpHeaders httpHeaders) throws IOException {
-        callback.onSuccess(response);
-      }
+  /**
+   * Executes batch requests, taking the next one from a shared index until all are taken.
+   */
+  private static class BatchWorker implements Callable<Void> {
 
-      @Override
-      public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders)
-          throws IOException {
-        callback.onFailure(googleJsonError);
+    private final List<BatchRequest> batches;
+    private final AtomicInteger next;
+
+    BatchWorker(List<BatchRequest> batches, AtomicInteger next) {
+      this.batches = batches;
+      this.next = next;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      for (int index = next.getAndIncrement(); index < batches.size();
+          index = next.getAndIncrement()) {
+        batches.get(index).execute();
       }
-    };
+      return null;
+    }
+  }
+
+  /**
+   * A request queued in a {@link DefaultRpcBatch}, together with its callback.
+   */
+  private static class BatchEntry<T> {
+
+    private final StorageRequest<T> request;
+    private final RpcBatch.Callback<T> callback;
+
+    BatchEntry(StorageRequest<T> request, RpcBatch.Callback<T> callback) {
+      this.request = request;
+      this.callback = callback;
+    }
+
+    void queue(BatchRequest batch, final List<BatchEntry<?>> retries, final boolean lastAttempt,
+        final Object callbackLock) throws IOException {
+      request.queue(batch, new JsonBatchCallback<T>() {
+        @Override
+        public void onSuccess(T response, HttpHeaders httpHeaders) {
+          synchronized (callbackLock) {
+            callback.onSuccess(response);
+          }
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders) {
+          if (!lastAttempt && translate(googleJsonError).retryable()) {
+            retries.add(BatchEntry.this);
+          } else {
+            synchronized (callbackLock) {
+              callback.onFailure(googleJsonError);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  private static long retryDelayMillis(RetryParams retryParams, int attempt) {
+    double delay = retryParams.initialRetryDelayMillis()
+        * Math.pow(retryParams.retryDelayBackoffFactor(), attempt - 1);
+    return (long) Math.min(delay, retryParams.maxRetryDelayMillis());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(BaseServiceException.UNKNOWN_CODE,
+          "Interrupted while waiting to retry batch requests", ex);
+    }
   }
 
   private static StorageException translate(IOException exception) {
@@ -245,7 +365,7 @@ public class DefaultStorageRpc implements StorageRpc {
   @Override
   public Tuple<String, Iterable<StorageObject>> list(final String bucket, Map<Option, ?> options) {
     try {
-      Objects objects = storage.objects()
+      Storage.Objects.List request = storage.objects()
           .list(bucket)
           .setProjection(DEFAULT_PROJECTION)
           .setVersions(VERSIONS.getBoolean(options))
@@ -253,8 +373,17 @@ public class DefaultStorageRpc implements StorageRpc {
           .setPrefix(PREFIX.getString(options))
           .setMaxResults(MAX_RESULTS.getLong(options))
           .setPageToken(PAGE_TOKEN.getString(options))
-          .setFields(FIELDS.getString(options))
-          .execute();
+          .setFields(FIELDS.getString(options));
+      // range parameters are not modeled by the generated client, set them as raw parameters
+      String startOffset = START_OFFSET.getString(options);
+      if (startOffset != null) {
+        request.set(START_OFFSET.value(), startOffset);
+      }
+      String endOffset = END_OFFSET.getString(options);
+      if (endOffset != null) {
+        request.set(END_OFFSET.value(), endOffset);
+      }
+      Objects objects = request.execute();
       Iterable<StorageObject> storageObjects = Iterables.concat(
           firstNonNull(objects.getItems(), ImmutableList.<StorageObject>of()),
           objects.getPrefixes() != null
@@ -484,11 +613,11 @@ public class DefaultStorageRpc implements StorageRpc {
   }
 
   @Override
-  public void write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset, int length,
-      boolean last) {
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+      int length, boolean last) {
     try {
       if (length == 0 && !last) {
-        return;
+        return null;
       }
       GenericUrl url = new GenericUrl(uploadId);
       HttpRequest httpRequest = storage.getRequestFactory().buildPutRequest(url,
@@ -507,11 +636,13 @@ public class DefaultStorageRpc implements StorageRpc {
         range.append('*');
       }
       httpRequest.getHeaders().setContentRange(range.toString());
+      httpRequest.setParser(storage.getObjectParser());
       int code;
       String message;
       IOException exception = null;
+      HttpResponse response = null;
       try {
-        HttpResponse response = httpRequest.execute();
+        response = httpRequest.execute();
         code = response.getStatusCode();
         message = response.getStatusMessage();
       } catch (HttpResponseException ex) {
@@ -528,6 +659,7 @@ public class DefaultStorageRpc implements StorageRpc {
         error.setMessage(message);
         throw translate(error);
       }
+      return last ? response.parseAs(StorageObject.class) : null;
     } catch (IOException ex) {
       throw translate(ex);
     }
@@ -540,8 +672,9 @@ public class DefaultStorageRpc implements StorageRpc {
       GenericUrl url = req.buildHttpRequest().getUrl();
       String scheme = url.getScheme();
       String host = url.getHost();
+      int port = url.getPort();
       String path = "/upload" + url.getRawPath();
-      url = new GenericUrl(scheme + "://" + host + path);
+      url = new GenericUrl(scheme + "://" + host + (port != -1 ? ":" + port : "") + path);
       url.set("uploadType", "resumable");
       url.set("name", object.getName());
       for (Option option : options.keySet()) {
@@ -64,7 +64,9 @@ public interface RpcBatch {
       Map<StorageRpc.Option, ?> options);
 
   /**
-   * Submits a batch of requests for processing using a single RPC request to Cloud Storage.
+   * Submits the batch of requests for processing. Implementations may send the requests in
+   * several RPC requests to Cloud Storage, concurrently, and call the callbacks from other
+   * threads; callbacks of the same batch are never called concurrently.
    */
   void submit();
 }
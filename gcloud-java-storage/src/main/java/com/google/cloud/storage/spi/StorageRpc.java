@@ -43,7 +43,9 @@ public interface StorageRpc {
     PAGE_TOKEN("pageToken"),
     DELIMITER("delimiter"),
     VERSIONS("versions"),
-    FIELDS("fields");
+    FIELDS("fields"),
+    START_OFFSET("startOffset"),
+    END_OFFSET("endOffset");
 
     private final String value;
 
@@ -291,12 +293,14 @@ public interface StorageRpc {
   String open(StorageObject object, Map<Option, ?> options);
 
   /**
-   * Writes the provided bytes to a storage object at the provided location.
+   * Writes the provided bytes to a storage object at the provided location. If {@code last} is
+   * {@code true} the upload is completed and the metadata of the uploaded object is returned,
+   * otherwise {@code null} is returned.
    *
    * @throws StorageException upon failure
    */
-  void write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset, int length,
-      boolean last);
+  StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+      int length, boolean last);
 
   /**
    * Sends a rewrite request to open a rewrite channel.
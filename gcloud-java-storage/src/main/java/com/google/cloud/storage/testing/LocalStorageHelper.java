@@ -0,0 +1,822 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NO_CONTENT;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.HttpMediaType;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.client.util.escape.CharEscapers;
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.Buckets;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.cloud.storage.spi.StorageRpc.RewriteRequest;
+import com.google.cloud.storage.spi.StorageRpc.RewriteResponse;
+import com.google.cloud.storage.spi.StorageRpc.Tuple;
+import com.google.cloud.storage.spi.StorageRpcFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.fileupload.MultipartStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A local, in-memory Google Cloud Storage fake, meant for tests and for measuring the throughput
+ * of storage code without a network.
+ *
+ * <p>The fake can be used in process, through the {@link StorageOptions} returned by
+ * {@link #options()}, or over HTTP, through the {@link StorageOptions} returned by
+ * {@link #serverOptions()} once the local server has been {@link #start() started}. The latter
+ * exercises the whole client stack, including HTTP batches and resumable upload sessions. Both
+ * share the same buckets and objects.
+ *
+ * <p>Latency, bandwidth and failures can be simulated:
+ * <pre> {@code
+ * LocalStorageHelper helper = LocalStorageHelper.builder()
+ *     .latency(20, TimeUnit.MILLISECONDS)
+ *     .bandwidth(10 * 1024 * 1024)
+ *     .failureRate(0.01)
+ *     .build();
+ * Storage storage = helper.options().service();
+ * } </pre>
+ *
+ * <p>While the fake attempts to simulate the service, there are some differences in the
+ * behaviour. Only the latest generation of an object is kept, ACLs are not enforced and field
+ * selection is ignored: responses always contain all fields. Object content is kept in memory,
+ * and is therefore limited in size. In-process batches do not retry failed requests; use the
+ * local server to exercise the client's batch retries.
+ */
+public final class LocalStorageHelper {
+
+  private static final Logger log = Logger.getLogger(LocalStorageHelper.class.getName());
+  private static final JsonFactory jsonFactory = new JacksonFactory();
+  private static final String PROJECT_ID = "local-project";
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final String STORAGE_CONTEXT = "/storage/v1/b";
+  private static final String UPLOAD_CONTEXT = "/upload/storage/v1/b";
+  private static final String DOWNLOAD_PREFIX = "/download";
+  // indexes of path segments in /storage/v1/b/{bucket}/o/{object}/rewriteTo/b/{bucket}/o/{object}
+  private static final int BUCKET_INDEX = 4;
+  private static final int OBJECT_INDEX = 6;
+  private static final int REWRITE_TARGET_BUCKET_INDEX = 9;
+  private static final int REWRITE_TARGET_OBJECT_INDEX = 11;
+  private static final int UPLOAD_BUCKET_INDEX = 5;
+  private static final String RESPONSE_BOUNDARY = "____THIS_IS_HELPERS_BOUNDARY____";
+
+  private final LocalStorageRpc rpc;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final int port;
+
+  /**
+   * For matching URLs to operations.
+   */
+  private enum CallRegex {
+    BUCKET_LIST("GET", STORAGE_CONTEXT),
+    BUCKET_CREATE("POST", STORAGE_CONTEXT),
+    BUCKET_GET("GET", STORAGE_CONTEXT + "/[^/]+"),
+    BUCKET_PATCH("PATCH", STORAGE_CONTEXT + "/[^/]+"),
+    BUCKET_DELETE("DELETE", STORAGE_CONTEXT + "/[^/]+"),
+    OBJECT_LIST("GET", STORAGE_CONTEXT + "/[^/]+/o"),
+    OBJECT_GET("GET", STORAGE_CONTEXT + "/[^/]+/o/[^/]+"),
+    OBJECT_PATCH("PATCH", STORAGE_CONTEXT + "/[^/]+/o/[^/]+"),
+    OBJECT_DELETE("DELETE", STORAGE_CONTEXT + "/[^/]+/o/[^/]+"),
+    OBJECT_COMPOSE("POST", STORAGE_CONTEXT + "/[^/]+/o/[^/]+/compose"),
+    OBJECT_REWRITE("POST", STORAGE_CONTEXT + "/[^/]+/o/[^/]+/rewriteTo/b/[^/]+/o/[^/]+"),
+    OBJECT_INSERT("POST", UPLOAD_CONTEXT + "/[^/]+/o"),
+    OBJECT_UPLOAD("PUT", UPLOAD_CONTEXT + "/[^/]+/o"),
+    BATCH("POST", "/batch(/storage/v1)?");
+
+    private final String method;
+    private final Pattern pathPattern;
+
+    CallRegex(String method, String pathRegex) {
+      this.method = method;
+      this.pathPattern = Pattern.compile(pathRegex);
+    }
+  }
+
+  /**
+   * An HTTP request, either received by the server or part of a batch.
+   */
+  private static final class Request {
+
+    private final String method;
+    private final URI uri;
+    private final Map<String, String> headers;
+    private final byte[] content;
+    private final String rawPath;
+    private final List<String> path;
+    private final Map<String, String> parameters;
+
+    Request(String method, URI uri, Map<String, String> headers, byte[] content) {
+      this.method = method;
+      this.uri = uri;
+      this.headers = headers;
+      this.content = content;
+      // media downloads are object gets under the download prefix
+      String rawPath = uri.getRawPath();
+      this.rawPath = rawPath.startsWith(DOWNLOAD_PREFIX + STORAGE_CONTEXT)
+          ? rawPath.substring(DOWNLOAD_PREFIX.length()) : rawPath;
+      this.path = new ArrayList<>();
+      for (String token : this.rawPath.split("/")) {
+        path.add(CharEscapers.decodeUri(token));
+      }
+      this.parameters = new HashMap<>();
+      if (uri.getRawQuery() != null) {
+        for (String parameter : uri.getRawQuery().split("&")) {
+          int index = parameter.indexOf('=');
+          if (index > 0) {
+            parameters.put(CharEscapers.decodeUri(parameter.substring(0, index)),
+                CharEscapers.decodeUri(parameter.substring(index + 1)));
+          }
+        }
+      }
+    }
+
+    String header(String name) {
+      return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * Returns the decoded path segment at {@code index}.
+     */
+    String pathSegment(int index) {
+      return path.get(index);
+    }
+
+    <T> T parse(Class<T> clazz) throws IOException {
+      if (content.length == 0) {
+        try {
+          return clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+          throw new IOException(ex);
+        }
+      }
+      return jsonFactory.fromString(new String(content, UTF_8), clazz);
+    }
+
+    /**
+     * Returns the {@link StorageRpc} options set as query parameters.
+     */
+    Map<StorageRpc.Option, Object> options() {
+      Map<StorageRpc.Option, Object> options = new EnumMap<>(StorageRpc.Option.class);
+      for (StorageRpc.Option option : StorageRpc.Option.values()) {
+        String value = parameters.get(option.value());
+        if (value == null) {
+          continue;
+        }
+        if (option.value().startsWith("if") || option == StorageRpc.Option.MAX_RESULTS) {
+          options.put(option, Long.valueOf(value));
+        } else if (option == StorageRpc.Option.VERSIONS) {
+          options.put(option, Boolean.valueOf(value));
+        } else {
+          options.put(option, value);
+        }
+      }
+      return options;
+    }
+
+    Long longParameter(String name) {
+      String value = parameters.get(name);
+      return value != null ? Long.valueOf(value) : null;
+    }
+  }
+
+  private static final class Response {
+
+    private final int code;
+    private final byte[] body;
+    private final Map<String, String> headers;
+
+    Response(int code, byte[] body, Map<String, String> headers) {
+      this.code = code;
+      this.body = body;
+      this.headers = headers;
+    }
+
+    static Response json(GenericJson json) throws IOException {
+      return new Response(HTTP_OK, jsonFactory.toByteArray(json),
+          ImmutableMap.of("Content-Type", "application/json; charset=UTF-8"));
+    }
+
+    static Response empty(int code) {
+      return new Response(code, new byte[0], ImmutableMap.<String, String>of());
+    }
+
+    static Response error(int code, String message) {
+      Map<String, Object> error = new HashMap<>();
+      error.put("code", code);
+      error.put("message", message);
+      error.put("errors",
+          ImmutableList.of(ImmutableMap.of("domain", "global", "message", message)));
+      try {
+        return new Response(code, jsonFactory.toByteArray(ImmutableMap.of("error", error)),
+            ImmutableMap.of("Content-Type", "application/json; charset=UTF-8"));
+      } catch (IOException ex) {
+        return empty(HTTP_INTERNAL_ERROR);
+      }
+    }
+  }
+
+  private class RequestHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) {
+      Response response;
+      try {
+        String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+          headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+        }
+        byte[] content = decodeContent(headers, exchange.getRequestBody());
+        response = dispatch(new Request(method != null ? method : exchange.getRequestMethod(),
+            exchange.getRequestURI(), headers, content));
+      } catch (IOException ex) {
+        response = Response.error(HTTP_BAD_REQUEST, ex.getMessage());
+      }
+      writeResponse(exchange, response);
+    }
+  }
+
+  /**
+   * Class that holds the in-memory {@link StorageRpc} shared by the in-process and the HTTP
+   * clients.
+   */
+  private static final class LocalStorageRpcFactory implements StorageRpcFactory {
+
+    private final LocalStorageRpc rpc;
+
+    LocalStorageRpcFactory(LocalStorageRpc rpc) {
+      this.rpc = rpc;
+    }
+
+    @Override
+    public StorageRpc create(StorageOptions options) {
+      return rpc;
+    }
+  }
+
+  /**
+   * Builder for {@code LocalStorageHelper} objects.
+   */
+  public static final class Builder {
+
+    private long latencyMillis;
+    private long bytesPerSecond;
+    private double failureRate;
+    private int failureCode = 503;
+    private Random random = new Random();
+
+    private Builder() {}
+
+    /**
+     * Sets the latency added to every request. Requests in a batch share the latency of the
+     * batch. By default no latency is added.
+     */
+    public Builder latency(long latency, TimeUnit unit) {
+      checkArgument(latency >= 0, "Latency must be >= 0");
+      this.latencyMillis = unit.toMillis(latency);
+      return this;
+    }
+
+    /**
+     * Sets the rate, in bytes per second, at which object content is transferred by each
+     * request. By default bandwidth is not limited.
+     */
+    public Builder bandwidth(long bytesPerSecond) {
+      checkArgument(bytesPerSecond >= 0, "Bandwidth must be >= 0");
+      this.bytesPerSecond = bytesPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets the probability, between 0 and 1, that a request fails. Each request in a batch fails
+     * independently. By default requests do not fail.
+     */
+    public Builder failureRate(double failureRate) {
+      checkArgument(failureRate >= 0 && failureRate <= 1, "Failure rate must be in [0, 1]");
+      this.failureRate = failureRate;
+      return this;
+    }
+
+    /**
+     * Sets the HTTP status code of failed requests. The default value is 503.
+     */
+    public Builder failureCode(int failureCode) {
+      this.failureCode = failureCode;
+      return this;
+    }
+
+    /**
+     * Sets the seed used to choose which requests fail, so that failures can be reproduced.
+     */
+    public Builder seed(long seed) {
+      this.random = new Random(seed);
+      return this;
+    }
+
+    public LocalStorageHelper build() {
+      return new LocalStorageHelper(this);
+    }
+  }
+
+  private LocalStorageHelper(Builder builder) {
+    rpc = new LocalStorageRpc(builder.latencyMillis, builder.bytesPerSecond, builder.failureRate,
+        builder.failureCode, builder.random);
+    try {
+      server = HttpServer.create(new InetSocketAddress(0), 0);
+      port = server.getAddress().getPort();
+      executor = Executors.newCachedThreadPool();
+      server.setExecutor(executor);
+      server.createContext("/", new RequestHandler());
+    } catch (IOException e) {
+      throw new RuntimeException("Could not bind the local storage server.", e);
+    }
+  }
+
+  /**
+   * Returns a builder for {@code LocalStorageHelper} objects.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a {@code LocalStorageHelper} that simulates neither latency nor failures.
+   */
+  public static LocalStorageHelper create() {
+    return builder().build();
+  }
+
+  /**
+   * Accessor for testing purposes.
+   */
+  LocalStorageRpc rpc() {
+    return rpc;
+  }
+
+  /**
+   * Returns a {@link StorageOptions} instance whose services call the in-memory fake directly,
+   * without going through HTTP.
+   */
+  public StorageOptions options() {
+    return StorageOptions.builder()
+        .projectId(PROJECT_ID)
+        .authCredentials(AuthCredentials.noAuth())
+        .serviceRpcFactory(new LocalStorageRpcFactory(rpc))
+        .build();
+  }
+
+  /**
+   * Returns a {@link StorageOptions} instance that sets the host to use the local server.
+   */
+  public StorageOptions serverOptions() {
+    return StorageOptions.builder()
+        .projectId(PROJECT_ID)
+        .host("http://localhost:" + port)
+        .authCredentials(AuthCredentials.noAuth())
+        .build();
+  }
+
+  /**
+   * Starts the thread that runs the local storage server.
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops the thread that runs the local storage server.
+   */
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+  }
+
+  private Response dispatch(Request request) {
+    String path = request.rawPath;
+    for (CallRegex regex : CallRegex.values()) {
+      if (request.method.equals(regex.method) && regex.pathPattern.matcher(path).matches()) {
+        try {
+          return handle(regex, request);
+        } catch (StorageException ex) {
+          return Response.error(ex.code(), ex.getMessage());
+        } catch (IOException | IllegalArgumentException ex) {
+          return Response.error(HTTP_BAD_REQUEST, ex.getMessage());
+        }
+      }
+    }
+    return Response.error(HTTP_NOT_FOUND, String.format(
+        "The url %s for %s method does not match any API call.", request.uri, request.method));
+  }
+
+  private Response handle(CallRegex regex, Request request) throws IOException {
+    Map<StorageRpc.Option, Object> options = request.options();
+    String bucket = null;
+    if (regex == CallRegex.OBJECT_INSERT || regex == CallRegex.OBJECT_UPLOAD) {
+      bucket = request.pathSegment(UPLOAD_BUCKET_INDEX);
+    } else if (regex != CallRegex.BUCKET_LIST && regex != CallRegex.BUCKET_CREATE
+        && regex != CallRegex.BATCH) {
+      bucket = request.pathSegment(BUCKET_INDEX);
+    }
+    switch (regex) {
+      case BUCKET_LIST:
+        Tuple<String, Iterable<Bucket>> buckets = rpc.list(options);
+        return Response.json(new Buckets()
+            .setKind("storage#buckets")
+            .setItems(ImmutableList.copyOf(buckets.y()))
+            .setNextPageToken(buckets.x()));
+      case BUCKET_CREATE:
+        return Response.json(rpc.create(request.parse(Bucket.class), options));
+      case BUCKET_GET:
+        Bucket bucketPb = rpc.get(new Bucket().setName(bucket), options);
+        return bucketPb != null ? Response.json(bucketPb)
+            : Response.error(HTTP_NOT_FOUND, "Bucket " + bucket + " not found");
+      case BUCKET_PATCH:
+        return Response.json(rpc.patch(request.parse(Bucket.class).setName(bucket), options));
+      case BUCKET_DELETE:
+        return rpc.delete(new Bucket().setName(bucket), options) ? Response.empty(HTTP_NO_CONTENT)
+            : Response.error(HTTP_NOT_FOUND, "Bucket " + bucket + " not found");
+      case OBJECT_LIST:
+        return listObjects(bucket, options);
+      case OBJECT_GET:
+        return getObject(request, object(request), options);
+      case OBJECT_PATCH:
+        StorageObject patch = request.parse(StorageObject.class)
+            .setBucket(bucket)
+            .setName(request.pathSegment(OBJECT_INDEX));
+        return Response.json(rpc.patch(patch, options));
+      case OBJECT_DELETE:
+        return rpc.delete(object(request), options) ? Response.empty(HTTP_NO_CONTENT)
+            : Response.error(HTTP_NOT_FOUND, "Object not found");
+      case OBJECT_COMPOSE:
+        return compose(request, bucket, options);
+      case OBJECT_REWRITE:
+        return rewrite(request, options);
+      case OBJECT_INSERT:
+        return insert(request, bucket, options);
+      case OBJECT_UPLOAD:
+        return upload(request);
+      case BATCH:
+        return batch(request);
+      default:
+        return Response.error(HTTP_INTERNAL_ERROR, "Operation without a handler.");
+    }
+  }
+
+  private static StorageObject object(Request request) {
+    return new StorageObject()
+        .setBucket(request.pathSegment(BUCKET_INDEX))
+        .setName(request.pathSegment(OBJECT_INDEX))
+        .setGeneration(request.longParameter("generation"));
+  }
+
+  private Response listObjects(String bucket, Map<StorageRpc.Option, Object> options)
+      throws IOException {
+    Tuple<String, Iterable<StorageObject>> result = rpc.list(bucket, options);
+    List<StorageObject> items = new ArrayList<>();
+    List<String> prefixes = new ArrayList<>();
+    for (StorageObject object : result.y()) {
+      if (Boolean.TRUE.equals(object.get("isDirectory"))) {
+        prefixes.add(object.getName());
+      } else {
+        items.add(object);
+      }
+    }
+    return Response.json(new Objects()
+        .setKind("storage#objects")
+        .setItems(items)
+        .setPrefixes(prefixes)
+        .setNextPageToken(result.x()));
+  }
+
+  /**
+   * Returns the object's metadata or, if {@code alt=media} is requested, its content. A single
+   * range of content can be requested with the {@code Range} header.
+   */
+  private Response getObject(Request request, StorageObject object,
+      Map<StorageRpc.Option, Object> options) throws IOException {
+    if (!"media".equals(request.parameters.get("alt"))) {
+      StorageObject result = rpc.get(object, options);
+      return result != null ? Response.json(result)
+          : Response.error(HTTP_NOT_FOUND, "Object " + object.getName() + " not found");
+    }
+    String range = request.header("Range");
+    if (range == null) {
+      byte[] content = rpc.load(object, options);
+      return new Response(HTTP_OK, content,
+          ImmutableMap.of("Content-Type", "application/octet-stream"));
+    }
+    String[] bounds = range.substring("bytes=".length()).split("-");
+    long position = Long.parseLong(bounds[0]);
+    long limit = bounds.length > 1 ? Long.parseLong(bounds[1]) + 1 : Integer.MAX_VALUE;
+    Tuple<String, byte[]> result =
+        rpc.read(object, options, position, (int) Math.min(limit - position, Integer.MAX_VALUE));
+    if (result.y().length == 0) {
+      return Response.error(416, "Requested range not satisfiable");
+    }
+    return new Response(HTTP_PARTIAL, result.y(), ImmutableMap.of(
+        "Content-Type", "application/octet-stream",
+        "Content-Range", "bytes " + position + "-" + (position + result.y().length - 1) + "/*",
+        "ETag", result.x()));
+  }
+
+  private Response compose(Request request, String bucket,
+      Map<StorageRpc.Option, Object> options) throws IOException {
+    ComposeRequest composeRequest = request.parse(ComposeRequest.class);
+    List<StorageObject> sources = new ArrayList<>();
+    for (ComposeRequest.SourceObjects source : composeRequest.getSourceObjects()) {
+      sources.add(new StorageObject()
+          .setBucket(bucket)
+          .setName(source.getName())
+          .setGeneration(source.getGeneration()));
+    }
+    StorageObject target = composeRequest.getDestination() != null
+        ? composeRequest.getDestination() : new StorageObject();
+    target.setBucket(bucket).setName(request.pathSegment(OBJECT_INDEX));
+    return Response.json(rpc.compose(sources, target, options));
+  }
+
+  private Response rewrite(Request request, Map<StorageRpc.Option, Object> options)
+      throws IOException {
+    StorageObject source = new StorageObject()
+        .setBucket(request.pathSegment(BUCKET_INDEX))
+        .setName(request.pathSegment(OBJECT_INDEX))
+        .setGeneration(request.longParameter("sourceGeneration"));
+    boolean overrideInfo = request.content.length > 0;
+    StorageObject target = request.parse(StorageObject.class)
+        .setBucket(request.pathSegment(REWRITE_TARGET_BUCKET_INDEX))
+        .setName(request.pathSegment(REWRITE_TARGET_OBJECT_INDEX));
+    Long maxBytes = request.longParameter("maxBytesRewrittenPerCall");
+    // rounded up, so that every call makes progress
+    RewriteRequest rewriteRequest = new RewriteRequest(source, options, overrideInfo, target,
+        options, maxBytes != null ? (maxBytes + MEGABYTE - 1) / MEGABYTE : null);
+    String token = request.parameters.get("rewriteToken");
+    RewriteResponse response = token == null ? rpc.openRewrite(rewriteRequest)
+        : rpc.continueRewrite(new RewriteResponse(rewriteRequest, null, 0, false, token, 0));
+    return Response.json(new com.google.api.services.storage.model.RewriteResponse()
+        .setKind("storage#rewriteResponse")
+        .setTotalBytesRewritten(BigInteger.valueOf(response.totalBytesRewritten))
+        .setObjectSize(BigInteger.valueOf(response.blobSize))
+        .setDone(response.isDone)
+        .setRewriteToken(response.rewriteToken)
+        .setResource(response.result));
+  }
+
+  /**
+   * Handles media, multipart and resumable uploads. For resumable uploads, the URL of the upload
+   * session is returned in the {@code Location} header.
+   */
+  private Response insert(Request request, String bucket, Map<StorageRpc.Option, Object> options)
+      throws IOException {
+    String uploadType = request.parameters.get("uploadType");
+    if ("resumable".equals(uploadType)) {
+      StorageObject object = request.parse(StorageObject.class).setBucket(bucket);
+      if (object.getName() == null) {
+        object.setName(request.parameters.get("name"));
+      }
+      if (object.getContentType() == null) {
+        object.setContentType(request.header("X-Upload-Content-Type"));
+      }
+      String uploadId = rpc.open(object, options);
+      return new Response(HTTP_OK, new byte[0], ImmutableMap.of("Location",
+          "http://localhost:" + port + UPLOAD_CONTEXT + "/" + CharEscapers.escapeUriPath(bucket)
+              + "/o?uploadType=resumable&upload_id=" + uploadId));
+    }
+    StorageObject object;
+    byte[] content;
+    if ("multipart".equals(uploadType)) {
+      List<byte[]> parts = parseMultipart(request.header("Content-Type"), request.content);
+      if (parts.size() != 2) {
+        throw new IOException("Expected metadata and media parts, found " + parts.size());
+      }
+      object = jsonFactory.fromString(new String(body(parts.get(0)), UTF_8), StorageObject.class);
+      content = body(parts.get(1));
+    } else {
+      object = new StorageObject()
+          .setName(request.parameters.get("name"))
+          .setContentType(request.header("Content-Type"));
+      content = request.content;
+    }
+    object.setBucket(bucket);
+    return Response.json(rpc.create(object, new ByteArrayInputStream(content), options));
+  }
+
+  /**
+   * Handles a chunk of a resumable upload, as described by its {@code Content-Range} header.
+   */
+  private Response upload(Request request) throws IOException {
+    String contentRange = request.header("Content-Range");
+    if (contentRange == null || !contentRange.startsWith("bytes ")) {
+      throw new IOException("Invalid Content-Range header " + contentRange);
+    }
+    String[] range = contentRange.substring("bytes ".length()).split("/");
+    boolean last = !"*".equals(range[1]);
+    long destOffset = "*".equals(range[0])
+        ? Long.parseLong(range[1]) : Long.parseLong(range[0].split("-")[0]);
+    StorageObject result = rpc.upload(request.parameters.get("upload_id"), request.content, 0,
+        destOffset, request.content.length, last);
+    if (result != null) {
+      return Response.json(result);
+    }
+    long limit = destOffset + request.content.length;
+    return new Response(308, new byte[0], ImmutableMap.of("Range", "bytes=0-" + (limit - 1)));
+  }
+
+  /**
+   * Handles a batch request, dispatching each of its parts as a separate request.
+   */
+  private Response batch(Request request) throws IOException {
+    final List<byte[]> parts = parseMultipart(request.header("Content-Type"), request.content);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final IOException[] exception = new IOException[1];
+    rpc.runBatch(new Runnable() {
+      @Override
+      public void run() {
+        int contentId = 1;
+        try {
+          for (byte[] part : parts) {
+            Response response = dispatch(parseRequest(body(part)));
+            out.write(("--" + RESPONSE_BOUNDARY + "\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-ID: <response-" + contentId++ + ">\r\n\r\n"
+                + "HTTP/1.1 " + response.code + " " + (response.code < 400 ? "OK" : "Error")
+                + "\r\n").getBytes(UTF_8));
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+              out.write((header.getKey() + ": " + header.getValue() + "\r\n").getBytes(UTF_8));
+            }
+            out.write(("Content-Length: " + response.body.length + "\r\n\r\n").getBytes(UTF_8));
+            out.write(response.body);
+            out.write("\r\n".getBytes(UTF_8));
+          }
+          out.write(("--" + RESPONSE_BOUNDARY + "--\r\n").getBytes(UTF_8));
+        } catch (IOException ex) {
+          exception[0] = ex;
+        }
+      }
+    });
+    if (exception[0] != null) {
+      throw exception[0];
+    }
+    return new Response(HTTP_OK, out.toByteArray(),
+        ImmutableMap.of("Content-Type", "multipart/mixed; boundary=" + RESPONSE_BOUNDARY));
+  }
+
+  /**
+   * Parses the HTTP request contained in a part of a batch request.
+   */
+  private static Request parseRequest(byte[] bytes) throws IOException {
+    int headersEnd = indexOf(bytes, "\r\n\r\n".getBytes(UTF_8));
+    String head = new String(bytes, 0, headersEnd < 0 ? bytes.length : headersEnd, UTF_8);
+    byte[] content = headersEnd < 0 ? new byte[0]
+        : Arrays.copyOfRange(bytes, headersEnd + 4, bytes.length);
+    String[] lines = head.split("\r\n");
+    String[] requestLine = lines[0].split(" ");
+    Map<String, String> headers = new HashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      int index = lines[i].indexOf(':');
+      if (index > 0) {
+        headers.put(lines[i].substring(0, index).trim().toLowerCase(),
+            lines[i].substring(index + 1).trim());
+      }
+    }
+    String method = headers.containsKey("x-http-method-override")
+        ? headers.get("x-http-method-override") : requestLine[0];
+    try {
+      return new Request(method, new URI(requestLine[1]), headers,
+          decodeContent(headers, new ByteArrayInputStream(content)));
+    } catch (URISyntaxException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Returns the parts of a multipart content, each with its headers.
+   */
+  private static List<byte[]> parseMultipart(String contentType, byte[] content)
+      throws IOException {
+    if (contentType == null) {
+      throw new IOException("Content-Type header was not provided for multipart content.");
+    }
+    String boundary = new HttpMediaType(contentType).getParameter("boundary");
+    MultipartStream multipartStream = new MultipartStream(new ByteArrayInputStream(content),
+        boundary.getBytes(UTF_8), 1024, null);
+    List<byte[]> parts = new ArrayList<>();
+    boolean nextPart = multipartStream.skipPreamble();
+    while (nextPart) {
+      ByteArrayOutputStream part = new ByteArrayOutputStream();
+      part.write(multipartStream.readHeaders().getBytes(UTF_8));
+      multipartStream.readBodyData(part);
+      parts.add(part.toByteArray());
+      nextPart = multipartStream.readBoundary();
+    }
+    return parts;
+  }
+
+  /**
+   * Returns the body of a part returned by {@link #parseMultipart(String, byte[])}.
+   */
+  private static byte[] body(byte[] part) {
+    int headersEnd = indexOf(part, "\r\n\r\n".getBytes(UTF_8));
+    return headersEnd < 0 ? part : Arrays.copyOfRange(part, headersEnd + 4, part.length);
+  }
+
+  private static int indexOf(byte[] bytes, byte[] target) {
+    outer:
+    for (int i = 0; i <= bytes.length - target.length; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (bytes[i + j] != target[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static byte[] decodeContent(Map<String, String> headers, InputStream inputStream)
+      throws IOException {
+    String encoding = headers.get("content-encoding");
+    InputStream input = inputStream;
+    if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+      input = new GZIPInputStream(inputStream);
+    } else if (encoding != null && !"identity".equals(encoding)) {
+      throw new IOException(
+          "The request has the following unsupported HTTP content encoding: " + encoding);
+    }
+    return ByteStreams.toByteArray(input);
+  }
+
+  private static void writeResponse(HttpExchange exchange, Response response) {
+    try {
+      for (Map.Entry<String, String> header : response.headers.entrySet()) {
+        exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+      }
+      exchange.sendResponseHeaders(response.code,
+          response.body.length > 0 ? response.body.length : -1);
+      OutputStream outputStream = exchange.getResponseBody();
+      outputStream.write(response.body);
+      outputStream.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "IOException encountered when sending response.", e);
+    }
+  }
+}
@@ -0,0 +1,785 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.testing;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_CONFLICT;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_PRECON_FAILED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.BaseServiceException;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.spi.RpcBatch;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory {@link StorageRpc}. Buckets and the latest generation of each object are kept in
+ * memory; object versioning, ACLs and field selection are not simulated. Every call is delayed by
+ * the configured latency and, for calls that transfer object content, by the time needed to
+ * transfer it at the configured bandwidth. Calls fail with the configured error code at the
+ * configured rate, before having any effect.
+ */
+final class LocalStorageRpc implements StorageRpc {
+
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final int MAX_COMPOSE_SOURCES = 32;
+  private static final long DEFAULT_MAX_RESULTS = 1000L;
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+  private static final Set<String> BUCKET_READ_ONLY_FIELDS = ImmutableSet.of("kind", "id", "name",
+      "selfLink", "projectNumber", "metageneration", "etag", "timeCreated");
+  private static final Set<String> OBJECT_READ_ONLY_FIELDS = ImmutableSet.of("kind", "id",
+      "bucket", "name", "selfLink", "mediaLink", "generation", "metageneration", "size",
+      "md5Hash", "crc32c", "etag", "timeCreated", "updated", "componentCount");
+
+  private final ConcurrentSkipListMap<String, BucketEntry> buckets = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final AtomicLong generations = new AtomicLong(System.currentTimeMillis() * 1000);
+  private final ThreadLocal<Boolean> inBatch = new ThreadLocal<>();
+  private final long latencyMillis;
+  private final long bytesPerSecond;
+  private final double failureRate;
+  private final int failureCode;
+  private final Random random;
+
+  private static final class BucketEntry {
+
+    private final Bucket metadata;
+    private final ConcurrentSkipListMap<String, ObjectEntry> objects;
+
+    BucketEntry(Bucket metadata, ConcurrentSkipListMap<String, ObjectEntry> objects) {
+      this.metadata = metadata;
+      this.objects = objects;
+    }
+  }
+
+  private static final class ObjectEntry {
+
+    private final StorageObject metadata;
+    private final byte[] content;
+
+    ObjectEntry(StorageObject metadata, byte[] content) {
+      this.metadata = metadata;
+      this.content = content;
+    }
+  }
+
+  private static final class Upload {
+
+    private final StorageObject object;
+    private final Map<Option, ?> options;
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private boolean done;
+
+    Upload(StorageObject object, Map<Option, ?> options) {
+      this.object = object;
+      this.options = options;
+    }
+  }
+
+  LocalStorageRpc(long latencyMillis, long bytesPerSecond, double failureRate, int failureCode,
+      Random random) {
+    this.latencyMillis = latencyMillis;
+    this.bytesPerSecond = bytesPerSecond;
+    this.failureRate = failureRate;
+    this.failureCode = failureCode;
+    this.random = random;
+  }
+
+  /**
+   * Waits for the configured latency (unless the call is part of a batch) and for the time needed
+   * to transfer {@code bytes} at the configured bandwidth. Throws a {@link StorageException} with
+   * the configured code if the call was chosen to fail.
+   */
+  private void simulate(long bytes) {
+    if (inBatch.get() == null) {
+      sleep(latencyMillis);
+    }
+    if (failureRate > 0 && random.nextDouble() < failureRate) {
+      throw new StorageException(failureCode, "Injected failure");
+    }
+    if (bytesPerSecond > 0) {
+      sleep(bytes * 1000 / bytesPerSecond);
+    }
+  }
+
+  private static void sleep(long millis) {
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(BaseServiceException.UNKNOWN_CODE,
+          "Interrupted while simulating latency", ex);
+    }
+  }
+
+  /**
+   * Runs the requests of a batch. The configured latency is applied once, rather than once per
+   * request, while failures are injected in each request.
+   */
+  void runBatch(Runnable requests) {
+    sleep(latencyMillis);
+    inBatch.set(Boolean.TRUE);
+    try {
+      requests.run();
+    } finally {
+      inBatch.remove();
+    }
+  }
+
+  private static StorageException notFound(String message) {
+    return new StorageException(HTTP_NOT_FOUND, message);
+  }
+
+  private static StorageException preconditionFailed() {
+    return new StorageException(HTTP_PRECON_FAILED, "Precondition Failed");
+  }
+
+  private static Long longOption(Map<Option, ?> options, Option option) {
+    return (Long) options.get(option);
+  }
+
+  private static String stringOption(Map<Option, ?> options, Option option) {
+    return (String) options.get(option);
+  }
+
+  private static void checkPreconditions(ObjectEntry current, Map<Option, ?> options,
+      Option generationMatch, Option generationNotMatch, Option metagenerationMatch,
+      Option metagenerationNotMatch) {
+    long generation = current != null ? current.metadata.getGeneration() : 0L;
+    Long value = longOption(options, generationMatch);
+    if (value != null && value != generation) {
+      throw preconditionFailed();
+    }
+    value = longOption(options, generationNotMatch);
+    if (value != null && value == generation) {
+      throw preconditionFailed();
+    }
+    value = longOption(options, metagenerationMatch);
+    if (value != null
+        && (current == null || value.longValue() != current.metadata.getMetageneration())) {
+      throw preconditionFailed();
+    }
+    value = longOption(options, metagenerationNotMatch);
+    if (value != null && current != null
+        && value.longValue() == current.metadata.getMetageneration()) {
+      throw preconditionFailed();
+    }
+  }
+
+  private static void checkPreconditions(ObjectEntry current, Map<Option, ?> options) {
+    checkPreconditions(current, options, Option.IF_GENERATION_MATCH,
+        Option.IF_GENERATION_NOT_MATCH, Option.IF_METAGENERATION_MATCH,
+        Option.IF_METAGENERATION_NOT_MATCH);
+  }
+
+  private static void checkSourcePreconditions(ObjectEntry current, Map<Option, ?> options) {
+    checkPreconditions(current, options, Option.IF_SOURCE_GENERATION_MATCH,
+        Option.IF_SOURCE_GENERATION_NOT_MATCH, Option.IF_SOURCE_METAGENERATION_MATCH,
+        Option.IF_SOURCE_METAGENERATION_NOT_MATCH);
+  }
+
+  private static void checkPreconditions(BucketEntry current, Map<Option, ?> options) {
+    Long value = longOption(options, Option.IF_METAGENERATION_MATCH);
+    if (value != null && value.longValue() != current.metadata.getMetageneration()) {
+      throw preconditionFailed();
+    }
+    value = longOption(options, Option.IF_METAGENERATION_NOT_MATCH);
+    if (value != null && value.longValue() == current.metadata.getMetageneration()) {
+      throw preconditionFailed();
+    }
+  }
+
+  private BucketEntry bucket(String bucket) {
+    BucketEntry entry = buckets.get(bucket);
+    if (entry == null) {
+      throw notFound("Bucket " + bucket + " not found");
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the object identified by {@code object}, or {@code null} if it does not exist or if
+   * its generation does not match the requested one.
+   */
+  private ObjectEntry object(StorageObject object) {
+    BucketEntry bucket = buckets.get(object.getBucket());
+    ObjectEntry entry = bucket != null ? bucket.objects.get(object.getName()) : null;
+    if (entry != null && object.getGeneration() != null
+        && !object.getGeneration().equals(entry.metadata.getGeneration())) {
+      return null;
+    }
+    return entry;
+  }
+
+  private ObjectEntry existingObject(StorageObject object) {
+    ObjectEntry entry = object(object);
+    if (entry == null) {
+      throw notFound("Object " + object.getName() + " not found");
+    }
+    return entry;
+  }
+
+  private static String etag(long generation, long metageneration) {
+    return BaseEncoding.base64().encode((generation + "/" + metageneration).getBytes(UTF_8));
+  }
+
+  /**
+   * Merges the fields set in {@code patch} into {@code target}. Entries of the {@code metadata}
+   * map are merged one by one, removing those whose value is null.
+   */
+  @SuppressWarnings("unchecked")
+  private static void merge(GenericJson target, GenericJson patch, Set<String> readOnlyFields) {
+    for (Map.Entry<String, Object> entry : patch.entrySet()) {
+      String key = entry.getKey();
+      Object value = entry.getValue();
+      if (readOnlyFields.contains(key)) {
+        continue;
+      }
+      if (Data.isNull(value)) {
+        target.set(key, null);
+      } else if ("metadata".equals(key) && target.get(key) instanceof Map) {
+        Map<String, Object> merged = new HashMap<>((Map<String, Object>) target.get(key));
+        for (Map.Entry<String, Object> metadataEntry : ((Map<String, Object>) value).entrySet()) {
+          if (Data.isNull(metadataEntry.getValue())) {
+            merged.remove(metadataEntry.getKey());
+          } else {
+            merged.put(metadataEntry.getKey(), metadataEntry.getValue());
+          }
+        }
+        target.set(key, merged);
+      } else {
+        target.set(key, value);
+      }
+    }
+  }
+
+  /**
+   * Returns whether {@code hash} was provided, hashes cleared by the client are sent as JSON
+   * nulls.
+   */
+  private static boolean isProvided(String hash) {
+    return hash != null && !Data.isNull(hash);
+  }
+
+  /**
+   * Stores {@code content} as a new generation of {@code object}, checking the provided hashes
+   * and {@code options} preconditions.
+   */
+  private StorageObject store(StorageObject object, byte[] content, Map<Option, ?> options) {
+    String md5 = BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes());
+    String crc32c = BaseEncoding.base64()
+        .encode(Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+    if (isProvided(object.getMd5Hash()) && !object.getMd5Hash().equals(md5)) {
+      throw new StorageException(HTTP_BAD_REQUEST,
+          "Provided MD5 hash doesn't match calculated MD5 hash");
+    }
+    if (isProvided(object.getCrc32c()) && !object.getCrc32c().equals(crc32c)) {
+      throw new StorageException(HTTP_BAD_REQUEST,
+          "Provided CRC32C checksum doesn't match calculated CRC32C checksum");
+    }
+    synchronized (this) {
+      BucketEntry bucket = bucket(object.getBucket());
+      checkPreconditions(bucket.objects.get(object.getName()), options);
+      long generation = generations.incrementAndGet();
+      DateTime now = new DateTime(System.currentTimeMillis());
+      StorageObject metadata = object.clone()
+          .setId(object.getBucket() + "/" + object.getName() + "/" + generation)
+          .setGeneration(generation)
+          .setMetageneration(1L)
+          .setSize(BigInteger.valueOf(content.length))
+          .setMd5Hash(md5)
+          .setCrc32c(crc32c)
+          .setEtag(etag(generation, 1L))
+          .setTimeCreated(now)
+          .setUpdated(now)
+          .setContentType(firstNonNull(object.getContentType(), DEFAULT_CONTENT_TYPE));
+      bucket.objects.put(object.getName(), new ObjectEntry(metadata, content));
+      return metadata.clone();
+    }
+  }
+
+  @Override
+  public Bucket create(Bucket bucket, Map<Option, ?> options) {
+    simulate(0);
+    synchronized (this) {
+      if (buckets.containsKey(bucket.getName())) {
+        throw new StorageException(HTTP_CONFLICT,
+            "You already own this bucket. Please select another name.");
+      }
+      long now = System.currentTimeMillis();
+      Bucket metadata = bucket.clone()
+          .setId(bucket.getName())
+          .setMetageneration(1L)
+          .setEtag(etag(now, 1L))
+          .setTimeCreated(new DateTime(now))
+          .setLocation(firstNonNull(bucket.getLocation(), "US"))
+          .setStorageClass(firstNonNull(bucket.getStorageClass(), "STANDARD"));
+      buckets.put(bucket.getName(),
+          new BucketEntry(metadata, new ConcurrentSkipListMap<String, ObjectEntry>()));
+      return metadata.clone();
+    }
+  }
+
+  @Override
+  public StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options) {
+    byte[] bytes;
+    try {
+      bytes = ByteStreams.toByteArray(content);
+    } catch (IOException ex) {
+      throw new StorageException(ex);
+    }
+    simulate(bytes.length);
+    return store(object, bytes, options);
+  }
+
+  @Override
+  public Tuple<String, Iterable<Bucket>> list(Map<Option, ?> options) {
+    simulate(0);
+    String prefix = firstNonNull(stringOption(options, Option.PREFIX), "");
+    long maxResults = firstNonNull(longOption(options, Option.MAX_RESULTS), DEFAULT_MAX_RESULTS);
+    String pageToken = stringOption(options, Option.PAGE_TOKEN);
+    NavigableMap<String, BucketEntry> view = pageToken != null && pageToken.compareTo(prefix) >= 0
+        ? buckets.tailMap(pageToken, false) : buckets.tailMap(prefix, true);
+    List<Bucket> results = new ArrayList<>();
+    String nextPageToken = null;
+    for (Map.Entry<String, BucketEntry> entry : view.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      if (results.size() == maxResults) {
+        nextPageToken = Iterables.getLast(results).getName();
+        break;
+      }
+      results.add(entry.getValue().metadata.clone());
+    }
+    return Tuple.<String, Iterable<Bucket>>of(nextPageToken, results);
+  }
+
+  @Override
+  public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options) {
+    simulate(0);
+    BucketEntry bucketEntry = bucket(bucket);
+    String prefix = firstNonNull(stringOption(options, Option.PREFIX), "");
+    String delimiter = stringOption(options, Option.DELIMITER);
+    String startOffset = stringOption(options, Option.START_OFFSET);
+    String endOffset = stringOption(options, Option.END_OFFSET);
+    String pageToken = stringOption(options, Option.PAGE_TOKEN);
+    long maxResults = firstNonNull(longOption(options, Option.MAX_RESULTS), DEFAULT_MAX_RESULTS);
+    String from = startOffset != null && startOffset.compareTo(prefix) > 0 ? startOffset : prefix;
+    NavigableMap<String, ObjectEntry> view = pageToken != null && pageToken.compareTo(from) >= 0
+        ? bucketEntry.objects.tailMap(pageToken, false) : bucketEntry.objects.tailMap(from, true);
+    // a page token containing the delimiter is a prefix: objects in that prefix were returned
+    String lastPrefix = delimiter != null && pageToken != null
+        && pageToken.indexOf(delimiter, prefix.length()) >= 0 ? pageToken : null;
+    List<StorageObject> items = new ArrayList<>();
+    List<StorageObject> prefixes = new ArrayList<>();
+    String last = null;
+    String nextPageToken = null;
+    for (Map.Entry<String, ObjectEntry> entry : view.entrySet()) {
+      String name = entry.getKey();
+      if (!name.startsWith(prefix) || endOffset != null && name.compareTo(endOffset) >= 0) {
+        break;
+      }
+      if (lastPrefix != null && name.startsWith(lastPrefix)) {
+        continue;
+      }
+      if (items.size() + prefixes.size() == maxResults) {
+        nextPageToken = last;
+        break;
+      }
+      int index = delimiter != null ? name.indexOf(delimiter, prefix.length()) : -1;
+      if (index >= 0) {
+        lastPrefix = name.substring(0, index + delimiter.length());
+        prefixes.add(new StorageObject()
+            .set("isDirectory", true)
+            .setBucket(bucket)
+            .setName(lastPrefix)
+            .setSize(BigInteger.ZERO));
+        last = lastPrefix;
+      } else {
+        items.add(entry.getValue().metadata.clone());
+        last = name;
+      }
+    }
+    return Tuple.<String, Iterable<StorageObject>>of(nextPageToken,
+        Iterables.concat(items, prefixes));
+  }
+
+  @Override
+  public Bucket get(Bucket bucket, Map<Option, ?> options) {
+    simulate(0);
+    BucketEntry entry = buckets.get(bucket.getName());
+    if (entry == null) {
+      return null;
+    }
+    checkPreconditions(entry, options);
+    return entry.metadata.clone();
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options) {
+    simulate(0);
+    ObjectEntry entry = object(object);
+    if (entry == null) {
+      return null;
+    }
+    checkPreconditions(entry, options);
+    return entry.metadata.clone();
+  }
+
+  @Override
+  public Bucket patch(Bucket bucket, Map<Option, ?> options) {
+    simulate(0);
+    synchronized (this) {
+      BucketEntry entry = bucket(bucket.getName());
+      checkPreconditions(entry, options);
+      Bucket metadata = entry.metadata.clone();
+      merge(metadata, bucket, BUCKET_READ_ONLY_FIELDS);
+      long metageneration = metadata.getMetageneration() + 1;
+      metadata.setMetageneration(metageneration)
+          .setEtag(etag(metadata.getTimeCreated().getValue(), metageneration));
+      buckets.put(bucket.getName(), new BucketEntry(metadata, entry.objects));
+      return metadata.clone();
+    }
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options) {
+    simulate(0);
+    synchronized (this) {
+      // as for the service, the generation of the object is ignored
+      ObjectEntry entry = existingObject(storageObject.clone().setGeneration(null));
+      checkPreconditions(entry, options);
+      StorageObject metadata = entry.metadata.clone();
+      merge(metadata, storageObject, OBJECT_READ_ONLY_FIELDS);
+      long metageneration = metadata.getMetageneration() + 1;
+      metadata.setMetageneration(metageneration)
+          .setEtag(etag(metadata.getGeneration(), metageneration))
+          .setUpdated(new DateTime(System.currentTimeMillis()));
+      buckets.get(metadata.getBucket()).objects
+          .put(metadata.getName(), new ObjectEntry(metadata, entry.content));
+      return metadata.clone();
+    }
+  }
+
+  @Override
+  public boolean delete(Bucket bucket, Map<Option, ?> options) {
+    simulate(0);
+    synchronized (this) {
+      BucketEntry entry = buckets.get(bucket.getName());
+      if (entry == null) {
+        return false;
+      }
+      checkPreconditions(entry, options);
+      if (!entry.objects.isEmpty()) {
+        throw new StorageException(HTTP_CONFLICT,
+            "The bucket you tried to delete was not empty.");
+      }
+      buckets.remove(bucket.getName());
+      return true;
+    }
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) {
+    simulate(0);
+    synchronized (this) {
+      ObjectEntry entry = object(object);
+      if (entry == null) {
+        return false;
+      }
+      checkPreconditions(entry, options);
+      buckets.get(object.getBucket()).objects.remove(object.getName());
+      return true;
+    }
+  }
+
+  /**
+   * A batch whose requests are executed, one after the other, when it is submitted. Failed
+   * requests are not retried.
+   */
+  private final class LocalRpcBatch implements RpcBatch {
+
+    private final List<BatchEntry<?>> entries = new ArrayList<>();
+
+    @Override
+    public void addDelete(final StorageObject storageObject, Callback<Void> callback,
+        final Map<Option, ?> options) {
+      entries.add(new BatchEntry<Void>(callback) {
+        @Override
+        Void call() {
+          if (!delete(storageObject, options)) {
+            throw notFound("Object " + storageObject.getName() + " not found");
+          }
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void addPatch(final StorageObject storageObject, Callback<StorageObject> callback,
+        final Map<Option, ?> options) {
+      entries.add(new BatchEntry<StorageObject>(callback) {
+        @Override
+        StorageObject call() {
+          return patch(storageObject, options);
+        }
+      });
+    }
+
+    @Override
+    public void addGet(final StorageObject storageObject, Callback<StorageObject> callback,
+        final Map<Option, ?> options) {
+      entries.add(new BatchEntry<StorageObject>(callback) {
+        @Override
+        StorageObject call() {
+          StorageObject result = get(storageObject, options);
+          if (result == null) {
+            throw notFound("Object " + storageObject.getName() + " not found");
+          }
+          return result;
+        }
+      });
+    }
+
+    @Override
+    public void submit() {
+      runBatch(new Runnable() {
+        @Override
+        public void run() {
+          for (BatchEntry<?> entry : entries) {
+            entry.run();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * A request in a {@link LocalRpcBatch}. Its callback is notified of the outcome of
+   * {@link #call()}.
+   */
+  private abstract static class BatchEntry<T> {
+
+    private final RpcBatch.Callback<T> callback;
+
+    BatchEntry(RpcBatch.Callback<T> callback) {
+      this.callback = callback;
+    }
+
+    abstract T call();
+
+    void run() {
+      T result;
+      try {
+        result = call();
+      } catch (StorageException ex) {
+        callback.onFailure(toError(ex));
+        return;
+      }
+      callback.onSuccess(result);
+    }
+  }
+
+  static GoogleJsonError toError(StorageException exception) {
+    GoogleJsonError error = new GoogleJsonError();
+    error.setCode(exception.code());
+    error.setMessage(exception.getMessage());
+    return error;
+  }
+
+  @Override
+  public RpcBatch createBatch() {
+    return new LocalRpcBatch();
+  }
+
+  @Override
+  public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+      Map<Option, ?> targetOptions) {
+    simulate(0);
+    if (Iterables.size(sources) > MAX_COMPOSE_SOURCES) {
+      throw new StorageException(HTTP_BAD_REQUEST,
+          "The number of source components provided exceeds the maximum");
+    }
+    synchronized (this) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      for (StorageObject source : sources) {
+        ObjectEntry entry = bucket(target.getBucket()).objects.get(source.getName());
+        if (entry == null) {
+          throw notFound("Object " + source.getName() + " not found");
+        }
+        if (source.getGeneration() != null
+            && !source.getGeneration().equals(entry.metadata.getGeneration())) {
+          throw preconditionFailed();
+        }
+        content.write(entry.content, 0, entry.content.length);
+      }
+      return store(target.clone().setMd5Hash(null).setCrc32c(null), content.toByteArray(),
+          targetOptions);
+    }
+  }
+
+  @Override
+  public byte[] load(StorageObject storageObject, Map<Option, ?> options) {
+    ObjectEntry entry = existingObject(storageObject);
+    checkPreconditions(entry, options);
+    simulate(entry.content.length);
+    return entry.content.clone();
+  }
+
+  @Override
+  public Tuple<String, byte[]> read(StorageObject from, Map<Option, ?> options, long position,
+      int bytes) {
+    ObjectEntry entry = existingObject(from);
+    checkPreconditions(entry, options);
+    if (position >= entry.content.length) {
+      // the service replies with a 416 (range not satisfiable) error
+      simulate(0);
+      return Tuple.of(null, new byte[0]);
+    }
+    int length = (int) Math.min(bytes, entry.content.length - position);
+    simulate(length);
+    return Tuple.of(entry.metadata.getEtag(),
+        Arrays.copyOfRange(entry.content, (int) position, (int) position + length));
+  }
+
+  @Override
+  public String open(StorageObject object, Map<Option, ?> options) {
+    simulate(0);
+    bucket(object.getBucket());
+    String uploadId = UUID.randomUUID().toString();
+    uploads.put(uploadId, new Upload(object.clone(), ImmutableMap.<Option, Object>copyOf(options)));
+    return uploadId;
+  }
+
+  @Override
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+      int length, boolean last) {
+    return upload(uploadId, toWrite, toWriteOffset, destOffset, length, last);
+  }
+
+  /**
+   * Writes to the upload session {@code uploadId}. Content already received is ignored, as the
+   * service does. Returns the created object if {@code last} is {@code true}, {@code null}
+   * otherwise.
+   */
+  StorageObject upload(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+      int length, boolean last) {
+    simulate(length);
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw notFound("Upload session " + uploadId + " not found");
+    }
+    byte[] content;
+    synchronized (upload) {
+      long received = upload.content.size();
+      if (upload.done || destOffset > received) {
+        throw new StorageException(HTTP_BAD_REQUEST, "Invalid upload offset " + destOffset);
+      }
+      int skip = (int) Math.min(length, received - destOffset);
+      upload.content.write(toWrite, toWriteOffset + skip, length - skip);
+      if (!last) {
+        return null;
+      }
+      upload.done = true;
+      content = upload.content.toByteArray();
+    }
+    uploads.remove(uploadId);
+    return store(upload.object, content, upload.options);
+  }
+
+  @Override
+  public RewriteResponse openRewrite(RewriteRequest rewriteRequest) {
+    return rewrite(rewriteRequest, null);
+  }
+
+  @Override
+  public RewriteResponse continueRewrite(RewriteResponse previousResponse) {
+    return rewrite(previousResponse.rewriteRequest, previousResponse.rewriteToken);
+  }
+
+  /**
+   * Copies at most {@link RewriteRequest#megabytesRewrittenPerCall} megabytes of the source, and at
+   * least one. The rewrite token records the source generation and the number of bytes copied so
+   * far.
+   */
+  private RewriteResponse rewrite(RewriteRequest request, String token) {
+    simulate(0);
+    ObjectEntry source = existingObject(request.source);
+    checkSourcePreconditions(source, request.sourceOptions);
+    long generation = source.metadata.getGeneration();
+    long size = source.content.length;
+    long rewritten = 0;
+    if (token != null) {
+      String[] parts = token.split(":");
+      if (parts.length != 2 || Long.parseLong(parts[0]) != generation) {
+        throw new StorageException(HTTP_BAD_REQUEST, "Invalid rewrite token " + token);
+      }
+      rewritten = Long.parseLong(parts[1]);
+    }
+    rewritten = request.megabytesRewrittenPerCall != null
+        ? Math.min(size, rewritten + Math.max(1, request.megabytesRewrittenPerCall) * MEGABYTE)
+        : size;
+    if (rewritten < size) {
+      return new RewriteResponse(request, null, size, false, generation + ":" + rewritten,
+          rewritten);
+    }
+    StorageObject target = request.overrideInfo ? request.target.clone()
+        : source.metadata.clone()
+            .setBucket(request.target.getBucket())
+            .setName(request.target.getName());
+    StorageObject result = store(target.setMd5Hash(null).setCrc32c(null), source.content,
+        request.targetOptions);
+    return new RewriteResponse(request, result, size, true, null, size);
+  }
+}
@@ -15,7 +15,7 @@
  */
 
 /**
- * A testing helper for Google Cloud Storage.
+ * Testing helpers for Google Cloud Storage.
  *
  * <p>A simple usage example:
  *
@@ -32,6 +32,13 @@
  * RemoteStorageHelper.forceDelete(storage, bucket, 5, TimeUnit.SECONDS);
  * } </pre>
  *
+ * <p>{@link com.google.cloud.storage.testing.LocalStorageHelper} provides an in-memory storage
+ * instead, which can also simulate latency, bandwidth and failures:
+ * <pre> {@code
+ * LocalStorageHelper helper = LocalStorageHelper.create();
+ * Storage storage = helper.options().service();
+ * } </pre>
+ *
  * @see <a href="https://github.com/GoogleCloudPlatform/gcloud-java/blob/master/TESTING.md#testing-code-that-uses-storage">
  *     gcloud-java tools for testing</a>
  */
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+public class BlobBlockCacheTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("bucket", "name", 42L);
+  private static final byte[] CONTENT = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+  private static final BlobInfo BLOB_INFO =
+      BlobInfo.builder(BLOB_ID).size((long) CONTENT.length).build();
+
+  private Storage storage;
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+  }
+
+  @After
+  public void tearDown() {
+    verify(storage);
+  }
+
+  private void expectRead(long offset) {
+    expectRead(BLOB_ID, CONTENT, offset);
+  }
+
+  private void expectRead(BlobId blobId, final byte[] content, long offset) {
+    expect(storage.read(eq(blobId), eq(offset), anyObject(ByteBuffer.class)))
+        .andAnswer(new IAnswer<Integer>() {
+          @Override
+          public Integer answer() {
+            long position = (Long) getCurrentArguments()[1];
+            ByteBuffer dst = (ByteBuffer) getCurrentArguments()[2];
+            dst.put(content, (int) position, dst.remaining());
+            return dst.position();
+          }
+        });
+  }
+
+  @Test
+  public void testReadWithReadAheadAndCache() throws IOException {
+    // the first read fetches two blocks ahead, the read after the seek a single block
+    expectRead(0);
+    expectRead(8);
+    replay(storage);
+    BlobBlockCache cache = BlobBlockCache.builder(storage).blockSize(4).build();
+    SeekableByteChannel channel = cache.open(BLOB_INFO);
+    assertEquals(CONTENT.length, channel.size());
+    ByteBuffer buffer = ByteBuffer.allocate(3);
+    assertEquals(3, channel.read(buffer));
+    assertArrayEquals(new byte[]{0, 1, 2}, buffer.array());
+    channel.position(8);
+    buffer.clear();
+    assertEquals(2, channel.read(buffer));
+    assertArrayEquals(new byte[]{8, 9}, Arrays.copyOf(buffer.array(), 2));
+    assertEquals(-1, channel.read(buffer));
+    channel.position(0);
+    ByteBuffer all = ByteBuffer.allocate(CONTENT.length);
+    assertEquals(CONTENT.length, channel.read(all));
+    assertArrayEquals(CONTENT, all.array());
+    assertEquals(new BlobBlockCache.Stats(3, 2, 0, CONTENT.length, CONTENT.length),
+        cache.stats());
+  }
+
+  @Test
+  public void testReadAheadGrowsWithSmallSequentialReads() throws IOException {
+    BlobId blobId = BlobId.of("bucket", "large", 42L);
+    byte[] content = new byte[32];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    // 2-byte blocks: 2 blocks are fetched, then 4, then 8, then the last 2
+    expectRead(blobId, content, 0);
+    expectRead(blobId, content, 4);
+    expectRead(blobId, content, 12);
+    expectRead(blobId, content, 28);
+    replay(storage);
+    BlobBlockCache cache = BlobBlockCache.builder(storage)
+        .blockSize(2)
+        .maxReadAheadBlocks(8)
+        .build();
+    SeekableByteChannel channel =
+        cache.open(BlobInfo.builder(blobId).size((long) content.length).build());
+    ByteBuffer buffer = ByteBuffer.allocate(1);
+    for (byte expected : content) {
+      buffer.clear();
+      assertEquals(1, channel.read(buffer));
+      assertEquals(expected, buffer.get(0));
+    }
+    assertEquals(4, cache.stats().missCount());
+  }
+
+  @Test
+  public void testOffHeapBlocksSharedBetweenChannels() throws IOException {
+    expectRead(0);
+    expectRead(8);
+    replay(storage);
+    BlobBlockCache cache = BlobBlockCache.builder(storage)
+        .blockSize(4)
+        .offHeap(true)
+        .build();
+    ByteBuffer first = ByteBuffer.allocate(CONTENT.length);
+    cache.open(BLOB_INFO).read(first);
+    ByteBuffer second = ByteBuffer.allocate(CONTENT.length);
+    cache.open(BLOB_INFO).read(second);
+    assertArrayEquals(CONTENT, first.array());
+    assertArrayEquals(CONTENT, second.array());
+    assertEquals(CONTENT.length, cache.stats().fetchedBytes());
+  }
+
+  @Test
+  public void testReadBlobShorterThanRecordedSize() throws IOException {
+    // the blob was overwritten with 6 bytes after its 10-byte metadata was read
+    expect(storage.read(eq(BLOB_ID), eq(0L), anyObject(ByteBuffer.class)))
+        .andAnswer(new IAnswer<Integer>() {
+          @Override
+          public Integer answer() {
+            ByteBuffer dst = (ByteBuffer) getCurrentArguments()[2];
+            dst.put(CONTENT, 0, 6);
+            return 6;
+          }
+        });
+    expect(storage.read(eq(BLOB_ID), eq(6L), anyObject(ByteBuffer.class))).andReturn(-1);
+    replay(storage);
+    SeekableByteChannel channel =
+        BlobBlockCache.builder(storage).blockSize(4).build().open(BLOB_INFO);
+    ByteBuffer buffer = ByteBuffer.allocate(CONTENT.length);
+    assertEquals(6, channel.read(buffer));
+    assertArrayEquals(Arrays.copyOf(CONTENT, 6), Arrays.copyOf(buffer.array(), 6));
+    assertEquals(-1, channel.read(buffer));
+    channel.position(7);
+    buffer.clear();
+    assertEquals(-1, channel.read(buffer));
+  }
+
+  @Test
+  public void testOpenMissingBlob() {
+    expect(storage.get(BlobId.of("bucket", "missing"))).andReturn(null);
+    replay(storage);
+    try {
+      BlobBlockCache.builder(storage).build().open(BlobId.of("bucket", "missing"));
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertEquals(404, ex.code());
+    }
+  }
+
+  @Test
+  public void testClosedAndReadOnly() throws IOException {
+    replay(storage);
+    SeekableByteChannel channel = BlobBlockCache.builder(storage).build().open(BLOB_INFO);
+    try {
+      channel.write(ByteBuffer.allocate(1));
+      fail("NonWritableChannelException expected");
+    } catch (NonWritableChannelException ex) {
+      // expected
+    }
+    channel.close();
+    assertFalse(channel.isOpen());
+    try {
+      channel.read(ByteBuffer.allocate(1));
+      fail("ClosedChannelException expected");
+    } catch (ClosedChannelException ex) {
+      // expected
+    }
+  }
+}
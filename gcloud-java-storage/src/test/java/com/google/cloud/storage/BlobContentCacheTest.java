@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RetryParams;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.cloud.storage.spi.StorageRpc.Tuple;
+import com.google.cloud.storage.spi.StorageRpcFactory;
+import com.google.common.collect.ImmutableMap;
+
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BlobContentCacheTest {
+
+  private static final BlobId BLOB_ID1 = BlobId.of("b", "n1", 1L);
+  private static final BlobId BLOB_ID2 = BlobId.of("b", "n2", 2L);
+  private static final byte[] CONTENT1 = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+  private static final byte[] CONTENT2 = {9, 8, 7, 6, 5, 4, 3, 2, 1, 0};
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StorageOptions options;
+  private StorageRpcFactory rpcFactoryMock;
+  private StorageRpc storageRpcMock;
+  private Path directory;
+
+  @Before
+  public void setUp() {
+    rpcFactoryMock = createMock(StorageRpcFactory.class);
+    storageRpcMock = createMock(StorageRpc.class);
+    expect(rpcFactoryMock.create(anyObject(StorageOptions.class))).andReturn(storageRpcMock)
+        .anyTimes();
+    replay(rpcFactoryMock);
+    options = StorageOptions.builder()
+        .projectId("projectId")
+        .serviceRpcFactory(rpcFactoryMock)
+        .retryParams(RetryParams.noRetries())
+        .build();
+    directory = folder.getRoot().toPath().resolve("cache");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    verify(rpcFactoryMock, storageRpcMock);
+  }
+
+  private void expectDownload(BlobId blobId, byte[] content) {
+    expect(storageRpcMock.read(eq(blobId.toPb()), eq(EMPTY_RPC_OPTIONS), eq(0L), anyInt()))
+        .andReturn(Tuple.of("etag", content));
+  }
+
+  private static byte[] toArray(FileChannel channel) throws IOException {
+    try (FileChannel content = channel) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) content.size());
+      while (buffer.hasRemaining() && content.read(buffer, buffer.position()) >= 0) {
+        // keep reading
+      }
+      return buffer.array();
+    }
+  }
+
+  @Test
+  public void testGetDownloadsOnce() throws IOException {
+    expectDownload(BLOB_ID1, CONTENT1);
+    replay(storageRpcMock);
+    BlobContentCache cache = new BlobContentCache(directory, 100);
+    assertArrayEquals(CONTENT1, toArray(cache.open(options, BLOB_ID1)));
+    assertArrayEquals(CONTENT1, toArray(cache.open(options, BLOB_ID1)));
+    assertEquals(CONTENT1.length, cache.size());
+  }
+
+  @Test
+  public void testContentSharedByCaches() throws IOException {
+    expectDownload(BLOB_ID1, CONTENT1);
+    replay(storageRpcMock);
+    assertArrayEquals(CONTENT1,
+        toArray(new BlobContentCache(directory, 100).open(options, BLOB_ID1)));
+    BlobContentCache cache = new BlobContentCache(directory, 100);
+    assertEquals(CONTENT1.length, cache.size());
+    assertArrayEquals(CONTENT1, toArray(cache.open(options, BLOB_ID1)));
+  }
+
+  @Test
+  public void testGenerationsAreCachedSeparately() throws IOException {
+    BlobId otherGeneration = BlobId.of(BLOB_ID1.bucket(), BLOB_ID1.name(), 3L);
+    expectDownload(BLOB_ID1, CONTENT1);
+    expectDownload(otherGeneration, CONTENT2);
+    replay(storageRpcMock);
+    BlobContentCache cache = new BlobContentCache(directory, 100);
+    assertArrayEquals(CONTENT1, toArray(cache.open(options, BLOB_ID1)));
+    assertArrayEquals(CONTENT2, toArray(cache.open(options, otherGeneration)));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws IOException {
+    expectDownload(BLOB_ID1, CONTENT1);
+    expectDownload(BLOB_ID2, CONTENT2);
+    expectDownload(BLOB_ID1, CONTENT1);
+    replay(storageRpcMock);
+    BlobContentCache cache = new BlobContentCache(directory, 15);
+    FileChannel evicted = cache.open(options, BLOB_ID1);
+    assertArrayEquals(CONTENT2, toArray(cache.open(options, BLOB_ID2)));
+    assertEquals(CONTENT2.length, cache.size());
+    assertArrayEquals(CONTENT1, toArray(evicted));
+    assertArrayEquals(CONTENT1, toArray(cache.open(options, BLOB_ID1)));
+    assertEquals(CONTENT1.length, cache.size());
+  }
+
+  @Test
+  public void testLockFilesAreDeleted() throws IOException {
+    expectDownload(BLOB_ID1, CONTENT1);
+    expectDownload(BLOB_ID2, CONTENT2);
+    replay(storageRpcMock);
+    BlobContentCache cache = new BlobContentCache(directory, 15);
+    toArray(cache.open(options, BLOB_ID1));
+    toArray(cache.open(options, BLOB_ID2));
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      Iterator<Path> iterator = files.iterator();
+      assertFalse(iterator.next().toString().endsWith(".lock"));
+      assertFalse(iterator.hasNext());
+    }
+  }
+
+  @Test
+  public void testCachesSharingDirectoryInOneProcess() throws Exception {
+    final CountDownLatch downloadStarted = new CountDownLatch(1);
+    final CountDownLatch finishDownload = new CountDownLatch(1);
+    expect(storageRpcMock.read(eq(BLOB_ID1.toPb()), eq(EMPTY_RPC_OPTIONS), eq(0L), anyInt()))
+        .andAnswer(new IAnswer<Tuple<String, byte[]>>() {
+          @Override
+          public Tuple<String, byte[]> answer() throws InterruptedException {
+            downloadStarted.countDown();
+            finishDownload.await();
+            return Tuple.of("etag", CONTENT1);
+          }
+        });
+    replay(storageRpcMock);
+    final BlobContentCache first = new BlobContentCache(directory, 100);
+    final BlobContentCache second = new BlobContentCache(directory, 100);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<byte[]> download = executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return toArray(first.open(options, BLOB_ID1));
+        }
+      });
+      assertTrue(downloadStarted.await(10, TimeUnit.SECONDS));
+      final byte[][] waited = new byte[1][];
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            waited[0] = toArray(second.open(options, BLOB_ID1));
+          } catch (IOException ex) {
+            throw new RuntimeException(ex);
+          }
+        }
+      };
+      waiter.start();
+      // let the download complete once the second cache waits for it
+      while (waiter.isAlive() && waiter.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+      finishDownload.countDown();
+      assertArrayEquals(CONTENT1, download.get(10, TimeUnit.SECONDS));
+      waiter.join(TimeUnit.SECONDS.toMillis(10));
+      assertArrayEquals(CONTENT1, waited[0]);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIsCacheable() {
+    replay(storageRpcMock);
+    assertTrue(BlobContentCache.isCacheable(BLOB_ID1, EMPTY_RPC_OPTIONS));
+    assertFalse(BlobContentCache.isCacheable(BlobId.of("b", "n"), EMPTY_RPC_OPTIONS));
+    assertFalse(BlobContentCache.isCacheable(BLOB_ID1,
+        ImmutableMap.of(StorageRpc.Option.IF_METAGENERATION_MATCH, 1L)));
+  }
+
+  @Test
+  public void testCachedReadChannel() throws IOException {
+    expectDownload(BLOB_ID1, CONTENT1);
+    replay(storageRpcMock);
+    ReadChannel reader =
+        new CachedBlobReadChannel(options, BLOB_ID1, new BlobContentCache(directory, 100));
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    assertEquals(4, reader.read(buffer));
+    assertArrayEquals(new byte[] {0, 1, 2, 3}, buffer.array());
+    reader.seek(8);
+    buffer.clear();
+    assertEquals(2, reader.read(buffer));
+    assertEquals(8, buffer.get(0));
+    assertEquals(9, buffer.get(1));
+    assertEquals(-1, reader.read(buffer));
+    BlobReadChannel restored = (BlobReadChannel) reader.capture().restore();
+    assertEquals(BlobReadChannel.StateImpl.builder(options, BLOB_ID1, EMPTY_RPC_OPTIONS)
+        .position(10)
+        .isOpen(true)
+        .chunkSize(2 * 1024 * 1024)
+        .build(), restored.capture());
+    reader.close();
+    assertFalse(reader.isOpen());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.cloud.Clock;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class BlobMetadataCacheTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("bucket", "name");
+  private static final Map<StorageRpc.Option, ?> EMPTY_OPTIONS =
+      ImmutableMap.<StorageRpc.Option, Object>of();
+  private static final long TTL_MILLIS = 1000;
+
+  private final FakeClock clock = new FakeClock();
+  private BlobMetadataCache cache;
+  private Blob blob;
+
+  private static class FakeClock extends Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    cache = new BlobMetadataCache(2, TTL_MILLIS, clock);
+    Storage storage = createStrictMock(Storage.class);
+    blob = new Blob(storage, new BlobInfo.BuilderImpl(
+        BlobInfo.builder(BlobId.of("bucket", "name", 42L)).metageneration(3L).build()));
+  }
+
+  @Test
+  public void testGetAndPut() {
+    assertNull(cache.get(BLOB_ID, EMPTY_OPTIONS));
+    cache.put(BLOB_ID, EMPTY_OPTIONS, blob, cache.token());
+    assertSame(blob, cache.get(BLOB_ID, EMPTY_OPTIONS));
+    assertSame(blob, cache.get(BlobId.of("bucket", "name", 42L), EMPTY_OPTIONS));
+    assertNull(cache.get(BlobId.of("bucket", "name", 41L), EMPTY_OPTIONS));
+    assertEquals(new MetadataCacheStats(2, 2, 0, 1), cache.stats());
+  }
+
+  @Test
+  public void testPreconditions() {
+    cache.put(BLOB_ID, EMPTY_OPTIONS, blob, cache.token());
+    assertSame(blob, cache.get(BLOB_ID,
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 42L)));
+    assertNull(cache.get(BLOB_ID, ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 41L)));
+    assertNull(cache.get(BLOB_ID,
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_NOT_MATCH, 42L)));
+    assertSame(blob, cache.get(BLOB_ID,
+        ImmutableMap.of(StorageRpc.Option.IF_METAGENERATION_MATCH, 3L)));
+    assertNull(cache.get(BLOB_ID,
+        ImmutableMap.of(StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, 3L)));
+  }
+
+  @Test
+  public void testPartialResponsesNotCached() {
+    cache.put(BLOB_ID, ImmutableMap.of(StorageRpc.Option.FIELDS, "items(name)"), blob,
+        cache.token());
+    cache.put(BlobId.of("bucket", "name", 42L), EMPTY_OPTIONS, blob, cache.token());
+    assertNull(cache.get(BLOB_ID, EMPTY_OPTIONS));
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.put(BLOB_ID, EMPTY_OPTIONS, blob, cache.token());
+    cache.invalidate(BlobId.of("bucket", "name", 42L));
+    assertNull(cache.get(BLOB_ID, EMPTY_OPTIONS));
+  }
+
+  @Test
+  public void testPutAfterInvalidation() {
+    long token = cache.token();
+    cache.invalidate(BLOB_ID);
+    cache.put(BLOB_ID, EMPTY_OPTIONS, blob, token);
+    assertNull(cache.get(BLOB_ID, EMPTY_OPTIONS));
+  }
+
+  @Test
+  public void testExpiration() {
+    cache.put(BLOB_ID, EMPTY_OPTIONS, blob, cache.token());
+    clock.millis = TTL_MILLIS - 1;
+    assertSame(blob, cache.get(BLOB_ID, EMPTY_OPTIONS));
+    clock.millis = TTL_MILLIS;
+    assertNull(cache.get(BLOB_ID, EMPTY_OPTIONS));
+  }
+}
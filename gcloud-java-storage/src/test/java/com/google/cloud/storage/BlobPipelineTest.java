@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.RetryParams;
+import com.google.cloud.storage.testing.LocalStorageHelper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Bytes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BlobPipelineTest {
+
+  private static final String SOURCE = "source";
+  private static final String TARGET = "target";
+
+  private static final BlobPipeline.Transform UPPER_CASE = new BlobPipeline.Transform() {
+    @Override
+    public BlobPipeline.Output apply(Blob source, byte[] content) {
+      BlobInfo target = BlobInfo.builder(TARGET, source.name()).build();
+      byte[] upperCase = new String(content, UTF_8).toUpperCase().getBytes(UTF_8);
+      return BlobPipeline.Output.of(target, upperCase);
+    }
+  };
+
+  private Storage storage;
+  private BlobPipeline pipeline;
+
+  @Before
+  public void setUp() {
+    storage = LocalStorageHelper.create().options().toBuilder()
+        .retryParams(RetryParams.noRetries())
+        .build()
+        .service();
+    storage.create(BucketInfo.of(SOURCE));
+    storage.create(BucketInfo.of(TARGET));
+    for (String name : ImmutableSet.of("p/a", "p/b", "p/c", "q/d")) {
+      storage.create(BlobInfo.builder(SOURCE, name).build(), name.getBytes(UTF_8));
+    }
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (pipeline != null) {
+      pipeline.shutdown();
+      assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testTransformPrefix() throws ExecutionException, InterruptedException {
+    pipeline = BlobPipeline.builder(storage).downloadConcurrency(2).uploadConcurrency(2).build();
+    BlobPipeline.Progress progress = pipeline.transformPrefix(SOURCE, "p/", UPPER_CASE).get();
+    assertEquals(3, progress.listed());
+    assertEquals(3, progress.succeeded());
+    assertEquals(0, progress.skipped());
+    assertEquals(0, progress.failed());
+    assertEquals(0, progress.inFlightBytes());
+    for (BlobPipeline.Stage stage : BlobPipeline.Stage.values()) {
+      assertEquals(3, progress.stage(stage).completed());
+      assertEquals(9, progress.stage(stage).bytes());
+    }
+    assertArrayEquals("P/A".getBytes(UTF_8), storage.readAllBytes(TARGET, "p/a"));
+    assertArrayEquals("P/B".getBytes(UTF_8), storage.readAllBytes(TARGET, "p/b"));
+    assertArrayEquals("P/C".getBytes(UTF_8), storage.readAllBytes(TARGET, "p/c"));
+    assertNull(storage.get(TARGET, "q/d"));
+  }
+
+  @Test
+  public void testSkippedAndFailedBlobs() throws ExecutionException, InterruptedException {
+    final IOException failure = new IOException("transform failed");
+    pipeline = BlobPipeline.builder(storage).build();
+    BlobPipeline.Progress progress = pipeline.transformPrefix(SOURCE, "p/",
+        new BlobPipeline.Transform() {
+          @Override
+          public BlobPipeline.Output apply(Blob source, byte[] content) throws IOException {
+            if (source.name().equals("p/a")) {
+              return null;
+            }
+            if (source.name().equals("p/b")) {
+              throw failure;
+            }
+            return UPPER_CASE.apply(source, content);
+          }
+        }).get();
+    assertEquals(3, progress.listed());
+    assertEquals(1, progress.succeeded());
+    assertEquals(1, progress.skipped());
+    assertEquals(1, progress.failed());
+    assertEquals(1, progress.stage(BlobPipeline.Stage.TRANSFORM).failed());
+    assertSame(failure, progress.failures().get(storage.get(SOURCE, "p/b").blobId()));
+    assertEquals(0, progress.inFlightBytes());
+    assertNull(storage.get(TARGET, "p/a"));
+    assertNull(storage.get(TARGET, "p/b"));
+    assertArrayEquals("P/C".getBytes(UTF_8), storage.readAllBytes(TARGET, "p/c"));
+  }
+
+  @Test
+  public void testMaxInFlightBytes() throws ExecutionException, InterruptedException {
+    final AtomicInteger transforming = new AtomicInteger();
+    final AtomicInteger maxTransforming = new AtomicInteger();
+    pipeline = BlobPipeline.builder(storage)
+        .transformConcurrency(4)
+        .maxInFlightBytes(3)
+        .build();
+    BlobPipeline.Progress progress = pipeline.transformPrefix(SOURCE, "",
+        new BlobPipeline.Transform() {
+          @Override
+          public BlobPipeline.Output apply(Blob source, byte[] content) throws IOException {
+            int current = transforming.incrementAndGet();
+            maxTransforming.set(Math.max(maxTransforming.get(), current));
+            try {
+              Thread.sleep(10);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            transforming.decrementAndGet();
+            return UPPER_CASE.apply(source, content);
+          }
+        }).get();
+    assertEquals(4, progress.succeeded());
+    assertEquals(0, progress.inFlightBytes());
+    // every blob holds 3 bytes, only one blob at a time fits the limit
+    assertEquals(1, maxTransforming.get());
+  }
+
+  @Test
+  public void testMaxInFlightBytesWithLargerOutput()
+      throws ExecutionException, InterruptedException {
+    final AtomicReference<BlobPipeline.PipelineFuture> future = new AtomicReference<>();
+    final AtomicLong maxInFlightBytes = new AtomicLong();
+    pipeline = BlobPipeline.builder(storage)
+        .transformConcurrency(4)
+        .maxInFlightBytes(6)
+        .build();
+    future.set(pipeline.transformPrefix(SOURCE, "", new BlobPipeline.Transform() {
+      @Override
+      public BlobPipeline.Output apply(Blob source, byte[] content) throws IOException {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        BlobPipeline.PipelineFuture current = future.get();
+        if (current != null) {
+          long inFlightBytes = current.progress().inFlightBytes();
+          synchronized (maxInFlightBytes) {
+            maxInFlightBytes.set(Math.max(maxInFlightBytes.get(), inFlightBytes));
+          }
+        }
+        BlobInfo target = BlobInfo.builder(TARGET, source.name()).build();
+        return BlobPipeline.Output.of(target, Bytes.concat(content, content));
+      }
+    }));
+    BlobPipeline.Progress progress = future.get().get();
+    assertEquals(4, progress.succeeded());
+    assertEquals(0, progress.inFlightBytes());
+    // outputs twice as large as their sources may take the content in memory over the limit,
+    // listing pauses so that it never exceeds twice the limit
+    assertTrue(maxInFlightBytes.get() <= 12);
+    assertArrayEquals("q/dq/d".getBytes(UTF_8), storage.readAllBytes(TARGET, "q/d"));
+  }
+
+  @Test
+  public void testLargerOutputWithSingleTransformThread() throws Exception {
+    for (String name : ImmutableSet.of("r/a", "r/b")) {
+      storage.create(BlobInfo.builder(SOURCE, name).build(), new byte[50]);
+    }
+    pipeline = BlobPipeline.builder(storage)
+        .transformConcurrency(1)
+        .maxInFlightBytes(100)
+        .build();
+    BlobPipeline.PipelineFuture future = pipeline.transformPrefix(SOURCE, "r/",
+        new BlobPipeline.Transform() {
+          @Override
+          public BlobPipeline.Output apply(Blob source, byte[] content) {
+            return BlobPipeline.Output.of(BlobInfo.builder(TARGET, source.name()).build(),
+                new byte[80]);
+          }
+        });
+    // growing to 80 bytes must not wait for the bytes of the blob waiting for the transform
+    BlobPipeline.Progress progress = future.get(10, TimeUnit.SECONDS);
+    assertEquals(2, progress.succeeded());
+    assertEquals(0, progress.inFlightBytes());
+    assertEquals(80, storage.readAllBytes(TARGET, "r/b").length);
+  }
+
+  @Test
+  public void testListingFailure() throws InterruptedException {
+    pipeline = BlobPipeline.builder(storage).build();
+    try {
+      pipeline.transformPrefix("missing-bucket", "", UPPER_CASE).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof StorageException);
+    }
+  }
+
+  @Test
+  public void testShutdown() throws InterruptedException {
+    pipeline = BlobPipeline.builder(storage).build();
+    pipeline.shutdown();
+    try {
+      pipeline.transformPrefix(SOURCE, "p/", UPPER_CASE);
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+  }
+}
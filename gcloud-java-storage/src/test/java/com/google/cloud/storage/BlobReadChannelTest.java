@@ -32,6 +32,9 @@ import com.google.cloud.RetryParams;
 import com.google.cloud.storage.spi.StorageRpc;
 import com.google.cloud.storage.spi.StorageRpcFactory;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 
 import org.junit.After;
 import org.junit.Before;
@@ -134,6 +137,64 @@ public class BlobReadChannelTest {
     assertEquals(-1, reader.read(readBuffer));
   }
 
+  @Test
+  public void testReadWithChecksumValidation() throws IOException {
+    StorageOptions validatingOptions = options.toBuilder().checksumValidation(true).build();
+    byte[] result = randomByteArray(42);
+    String crc32c = BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(result).asInt()));
+    expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
+        .andReturn(StorageRpc.Tuple.of("etag", result));
+    expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BlobInfo.builder(BLOB_ID).crc32c(crc32c).build().toPb());
+    replay(storageRpcMock);
+    reader = new BlobReadChannel(validatingOptions, BLOB_ID, EMPTY_RPC_OPTIONS);
+    ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+    assertEquals(42, reader.read(readBuffer));
+    assertEquals(-1, reader.read(readBuffer));
+    assertEquals(-1, reader.read(readBuffer));
+  }
+
+  @Test
+  public void testReadWithChecksumValidationPinsGeneration() throws IOException {
+    StorageOptions validatingOptions = options.toBuilder().checksumValidation(true).build();
+    BlobId blobId = BlobId.of(BUCKET_NAME, BLOB_NAME);
+    BlobId pinnedId = BlobId.of(BUCKET_NAME, BLOB_NAME, 42L);
+    byte[] result = randomByteArray(42);
+    String crc32c = BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(result).asInt()));
+    // the checksum and the content are read from the same generation, even if the blob is
+    // overwritten while it is read
+    expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BlobInfo.builder(pinnedId).crc32c(crc32c).build().toPb());
+    expect(storageRpcMock.read(pinnedId.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
+        .andReturn(StorageRpc.Tuple.of("etag", result));
+    replay(storageRpcMock);
+    reader = new BlobReadChannel(validatingOptions, blobId, EMPTY_RPC_OPTIONS);
+    ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+    assertEquals(42, reader.read(readBuffer));
+    assertEquals(-1, reader.read(readBuffer));
+  }
+
+  @Test
+  public void testReadWithChecksumMismatch() throws IOException {
+    StorageOptions validatingOptions = options.toBuilder().checksumValidation(true).build();
+    expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
+        .andReturn(StorageRpc.Tuple.of("etag", randomByteArray(42)));
+    expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BlobInfo.builder(BLOB_ID).crc32c("AAAAAA==").build().toPb());
+    replay(storageRpcMock);
+    reader = new BlobReadChannel(validatingOptions, BLOB_ID, EMPTY_RPC_OPTIONS);
+    ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+    assertEquals(42, reader.read(readBuffer));
+    try {
+      reader.read(readBuffer);
+      fail("Expected ReadChannel read to throw StorageException");
+    } catch (StorageException ex) {
+      assertTrue(ex.getMessage().contains("CRC32C AAAAAA=="));
+    }
+  }
+
   @Test
   public void testSeek() throws IOException {
     reader = new BlobReadChannel(options, BLOB_ID, EMPTY_RPC_OPTIONS);
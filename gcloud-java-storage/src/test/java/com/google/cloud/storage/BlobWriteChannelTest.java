@@ -30,12 +30,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.cloud.Clock;
 import com.google.cloud.RestorableState;
 import com.google.cloud.RetryParams;
 import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.spi.StorageRpc;
 import com.google.cloud.storage.spi.StorageRpcFactory;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 
 import org.easymock.Capture;
 import org.easymock.CaptureType;
@@ -105,8 +109,8 @@ public class BlobWriteChannelTest {
   public void testWriteWithFlush() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L),
-        eq(CUSTOM_CHUNK_SIZE), eq(false));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L),
+        eq(CUSTOM_CHUNK_SIZE), eq(false))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     writer.chunkSize(CUSTOM_CHUNK_SIZE);
@@ -119,8 +123,8 @@ public class BlobWriteChannelTest {
   public void testWritesAndFlush() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L),
-        eq(DEFAULT_CHUNK_SIZE), eq(false));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L),
+        eq(DEFAULT_CHUNK_SIZE), eq(false))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     ByteBuffer[] buffers = new ByteBuffer[DEFAULT_CHUNK_SIZE / MIN_CHUNK_SIZE];
@@ -140,7 +144,8 @@ public class BlobWriteChannelTest {
   public void testCloseWithoutFlush() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0), eq(true));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0),
+        eq(true))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     assertTrue(writer.isOpen());
@@ -154,8 +159,8 @@ public class BlobWriteChannelTest {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
     ByteBuffer buffer = randomBuffer(MIN_CHUNK_SIZE);
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(MIN_CHUNK_SIZE),
-        eq(true));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L),
+        eq(MIN_CHUNK_SIZE), eq(true))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     assertTrue(writer.isOpen());
@@ -170,7 +175,8 @@ public class BlobWriteChannelTest {
   public void testWriteClosed() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0), eq(true));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0),
+        eq(true))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     writer.close();
@@ -182,14 +188,49 @@ public class BlobWriteChannelTest {
     }
   }
 
+  @Test
+  public void testCloseWithChecksumValidation() throws IOException {
+    StorageOptions validatingOptions = options.toBuilder().checksumValidation(true).build();
+    ByteBuffer buffer = randomBuffer(MIN_CHUNK_SIZE);
+    String crc32c = BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(buffer.array()).asInt()));
+    expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(MIN_CHUNK_SIZE), eq(true)))
+        .andReturn(BLOB_INFO.toBuilder().crc32c(crc32c).build().toPb());
+    replay(storageRpcMock);
+    writer = new BlobWriteChannel(validatingOptions, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.write(buffer);
+    writer.close();
+    assertTrue(!writer.isOpen());
+  }
+
+  @Test
+  public void testCloseWithChecksumMismatch() throws IOException {
+    StorageOptions validatingOptions = options.toBuilder().checksumValidation(true).build();
+    expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(MIN_CHUNK_SIZE), eq(true)))
+        .andReturn(BLOB_INFO.toBuilder().crc32c("AAAAAA==").build().toPb());
+    replay(storageRpcMock);
+    writer = new BlobWriteChannel(validatingOptions, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.write(randomBuffer(MIN_CHUNK_SIZE));
+    try {
+      writer.close();
+      fail("Expected close to throw StorageException");
+    } catch (StorageException ex) {
+      assertTrue(ex.getMessage().contains("CRC32C AAAAAA=="));
+    }
+  }
+
   @Test
   public void testSaveAndRestore() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance(CaptureType.ALL);
     Capture<Long> capturedPosition = Capture.newInstance(CaptureType.ALL);
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0),
-        captureLong(capturedPosition), eq(DEFAULT_CHUNK_SIZE), eq(false));
-    expectLastCall().times(2);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0),
+        captureLong(capturedPosition), eq(DEFAULT_CHUNK_SIZE), eq(false))).andReturn(null)
+        .times(2);
     replay(storageRpcMock);
     ByteBuffer buffer1 = randomBuffer(DEFAULT_CHUNK_SIZE);
     ByteBuffer buffer2 = randomBuffer(DEFAULT_CHUNK_SIZE);
@@ -208,7 +249,8 @@ public class BlobWriteChannelTest {
   public void testSaveAndRestoreClosed() throws IOException {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
     Capture<byte[]> capturedBuffer = Capture.newInstance();
-    storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0), eq(true));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), capture(capturedBuffer), eq(0), eq(0L), eq(0),
+        eq(true))).andReturn(null);
     replay(storageRpcMock);
     writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
     writer.close();
@@ -225,6 +267,96 @@ public class BlobWriteChannelTest {
     assertEquals(expectedWriterState, restoredWriter.capture());
   }
 
+  // every call advances the clock by the same amount, so all chunks take the same time and larger
+  // chunks have higher throughput
+  private static Clock steppingClock() {
+    return new Clock() {
+      private long millis;
+
+      @Override
+      public long millis() {
+        return millis += 10;
+      }
+    };
+  }
+
+  @Test
+  public void testAdaptiveChunkSizeGrowsUpToMax() throws IOException {
+    options = options.toBuilder().clock(steppingClock()).build();
+    expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq((long) MIN_CHUNK_SIZE), eq(2 * MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq(3L * MIN_CHUNK_SIZE), eq(3 * MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    replay(storageRpcMock);
+    writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    writer.adaptiveChunkSize(3 * MIN_CHUNK_SIZE + 42);
+    writer.write(randomBuffer(MIN_CHUNK_SIZE));
+    writer.write(randomBuffer(2 * MIN_CHUNK_SIZE));
+    writer.write(randomBuffer(3 * MIN_CHUNK_SIZE));
+    RestorableState<WriteChannel> expectedWriterState =
+        BlobWriteChannel.StateImpl.builder(options, BLOB_INFO, UPLOAD_ID)
+            .buffer(new byte[0])
+            .chunkSize(3 * MIN_CHUNK_SIZE)
+            .maxChunkSize(3 * MIN_CHUNK_SIZE)
+            .growing(true)
+            // the retry helper reads the clock once per write too
+            .lastThroughput(3.0 * MIN_CHUNK_SIZE / 20)
+            .isOpen(true)
+            .position(6 * MIN_CHUNK_SIZE)
+            .build();
+    assertEquals(expectedWriterState, writer.capture().restore().capture());
+  }
+
+  @Test
+  public void testAdaptiveChunkSizeSplitsLargeWrites() throws IOException {
+    options = options.toBuilder().clock(steppingClock()).build();
+    expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq((long) MIN_CHUNK_SIZE), eq(2 * MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq(3L * MIN_CHUNK_SIZE), eq(2 * MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq(5L * MIN_CHUNK_SIZE), eq(MIN_CHUNK_SIZE), eq(true))).andReturn(null);
+    replay(storageRpcMock);
+    writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    writer.adaptiveChunkSize(2 * MIN_CHUNK_SIZE);
+    assertEquals(6 * MIN_CHUNK_SIZE, writer.write(randomBuffer(6 * MIN_CHUNK_SIZE)));
+    writer.close();
+  }
+
+  @Test
+  public void testAdaptiveChunkSizeShrinksOnRetry() throws IOException {
+    options = options.toBuilder()
+        .retryParams(RetryParams.builder()
+            .retryMinAttempts(2)
+            .retryMaxAttempts(2)
+            .initialRetryDelayMillis(1)
+            .maxRetryDelayMillis(1)
+            .build())
+        .build();
+    expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(2 * MIN_CHUNK_SIZE), eq(false)))
+        .andThrow(new StorageException(503, "Service Unavailable"));
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0), eq(0L),
+        eq(2 * MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    expect(storageRpcMock.write(eq(UPLOAD_ID), anyObject(byte[].class), eq(0),
+        eq(2L * MIN_CHUNK_SIZE), eq(MIN_CHUNK_SIZE), eq(false))).andReturn(null);
+    replay(storageRpcMock);
+    writer = new BlobWriteChannel(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(2 * MIN_CHUNK_SIZE);
+    writer.adaptiveChunkSize(4 * MIN_CHUNK_SIZE);
+    writer.write(randomBuffer(2 * MIN_CHUNK_SIZE));
+    writer.write(randomBuffer(MIN_CHUNK_SIZE));
+  }
+
   @Test
   public void testStateEquals() {
     expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID).times(2);
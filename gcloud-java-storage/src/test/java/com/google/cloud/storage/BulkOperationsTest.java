@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.Page;
+import com.google.cloud.PageImpl;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class BulkOperationsTest {
+
+  private static final String BUCKET = "b";
+  private static final BlobListOption PAGE_SIZE = BlobListOption.pageSize(1000);
+  private static final BlobListOption PREFIX = BlobListOption.prefix("p/");
+  private static final StorageException UNAVAILABLE = new StorageException(503, "Unavailable");
+
+  private Storage storage;
+  // the storage of listed blobs, whose calls are not verified
+  private Storage blobStorage;
+  private StorageBatch batch;
+  private BulkOperations bulkOperations;
+  private final List<Runnable> pendingResults = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+    blobStorage = createNiceMock(Storage.class);
+    replay(blobStorage);
+    batch = createMock(StorageBatch.class);
+    bulkOperations = BulkOperations.builder(storage).concurrency(1).batchSize(2).build();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    bulkOperations.shutdown();
+    assertTrue(bulkOperations.awaitTermination(10, TimeUnit.SECONDS));
+    verify(storage, batch);
+  }
+
+  private Page<Blob> page(String... names) {
+    List<Blob> blobs = new ArrayList<>();
+    for (String name : names) {
+      BlobInfo blobInfo = BlobInfo.builder(BUCKET, name).build();
+      blobs.add(new Blob(blobStorage, new BlobInfo.BuilderImpl(blobInfo)));
+    }
+    return new PageImpl<>(null, null, blobs);
+  }
+
+  private <T> IAnswer<StorageBatchResult<T>> completeOnSubmit(final T value,
+      final StorageException error) {
+    return new IAnswer<StorageBatchResult<T>>() {
+      @Override
+      public StorageBatchResult<T> answer() {
+        final StorageBatchResult<T> result = new StorageBatchResult<>();
+        pendingResults.add(new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) {
+              result.error(error);
+            } else {
+              result.success(value);
+            }
+          }
+        });
+        return result;
+      }
+    };
+  }
+
+  private void expectSubmits(int count) {
+    batch.submit();
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() {
+        for (Runnable result : pendingResults) {
+          result.run();
+        }
+        pendingResults.clear();
+        return null;
+      }
+    }).times(count);
+  }
+
+  @Test
+  public void testDeletePrefix() throws Exception {
+    expect(storage.list(BUCKET, PAGE_SIZE, PREFIX, BlobListOption.fields(BlobField.NAME)))
+        .andReturn(page("p/a", "p/b", "p/c", "p/d", "p/e"));
+    expect(storage.batch()).andReturn(batch).times(3);
+    replay(storage);
+    expect(batch.delete(BUCKET, "p/a")).andAnswer(completeOnSubmit(true, null));
+    expect(batch.delete(BUCKET, "p/b")).andAnswer(completeOnSubmit(true, null));
+    expect(batch.delete(BUCKET, "p/c")).andAnswer(completeOnSubmit(false, null));
+    expect(batch.delete(BUCKET, "p/d")).andAnswer(completeOnSubmit(true, UNAVAILABLE));
+    expect(batch.delete(BUCKET, "p/e")).andAnswer(completeOnSubmit(true, null));
+    expectSubmits(3);
+    replay(batch);
+    BulkOperations.Progress progress =
+        bulkOperations.deletePrefix(BUCKET, "p/").get(10, TimeUnit.SECONDS);
+    assertEquals(5, progress.listed());
+    assertEquals(3, progress.succeeded());
+    assertEquals(1, progress.skipped());
+    assertEquals(1, progress.failed());
+    assertEquals(ImmutableMap.of(BlobId.of(BUCKET, "p/d"), UNAVAILABLE), progress.failures());
+  }
+
+  @Test
+  public void testUpdatePrefix() throws Exception {
+    expect(storage.list(BUCKET, PAGE_SIZE, PREFIX)).andReturn(page("p/a.txt", "p/b", "p/c.txt"));
+    expect(storage.batch()).andReturn(batch).times(2);
+    replay(storage);
+    BlobInfo first = BlobInfo.builder(BUCKET, "p/a.txt").contentType("text/plain").build();
+    BlobInfo second = BlobInfo.builder(BUCKET, "p/c.txt").contentType("text/plain").build();
+    expect(batch.update(first)).andAnswer(completeOnSubmit((Blob) null, null));
+    expect(batch.update(second)).andAnswer(completeOnSubmit((Blob) null, null));
+    expectSubmits(2);
+    replay(batch);
+    BulkOperations.BulkFuture future = bulkOperations.updatePrefix(BUCKET, "p/",
+        new Function<Blob, BlobInfo>() {
+          @Override
+          public BlobInfo apply(Blob blob) {
+            return blob.name().endsWith(".txt")
+                ? BlobInfo.builder(blob.blobId()).contentType("text/plain").build() : null;
+          }
+        });
+    BulkOperations.Progress progress = future.get(10, TimeUnit.SECONDS);
+    assertEquals(3, progress.listed());
+    assertEquals(2, progress.succeeded());
+    assertEquals(1, progress.skipped());
+    assertEquals(0, progress.failed());
+    assertEquals(2, future.progress().succeeded());
+  }
+
+  @Test
+  public void testSubmitFailure() throws Exception {
+    expect(storage.list(BUCKET, PAGE_SIZE, PREFIX, BlobListOption.fields(BlobField.NAME)))
+        .andReturn(page("p/a", "p/b"));
+    expect(storage.batch()).andReturn(batch);
+    replay(storage);
+    expect(batch.delete(BUCKET, "p/a")).andAnswer(completeOnSubmit(true, null));
+    expect(batch.delete(BUCKET, "p/b")).andAnswer(completeOnSubmit(true, null));
+    batch.submit();
+    expectLastCall().andThrow(UNAVAILABLE);
+    replay(batch);
+    BulkOperations.Progress progress =
+        bulkOperations.deletePrefix(BUCKET, "p/").get(10, TimeUnit.SECONDS);
+    assertEquals(2, progress.listed());
+    assertEquals(0, progress.succeeded());
+    assertEquals(2, progress.failed());
+    assertEquals(ImmutableSet.of(BlobId.of(BUCKET, "p/a"), BlobId.of(BUCKET, "p/b")),
+        progress.failures().keySet());
+  }
+
+  @Test
+  public void testListingFailure() throws InterruptedException {
+    expect(storage.list(BUCKET, PAGE_SIZE, PREFIX, BlobListOption.fields(BlobField.NAME)))
+        .andThrow(UNAVAILABLE);
+    replay(storage, batch);
+    try {
+      bulkOperations.deletePrefix(BUCKET, "p/").get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertSame(UNAVAILABLE, ex.getCause());
+    }
+  }
+}
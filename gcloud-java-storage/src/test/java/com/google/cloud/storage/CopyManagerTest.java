@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.RetryParams;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.spi.StorageRpc;
+import com.google.cloud.storage.spi.StorageRpc.RewriteRequest;
+import com.google.cloud.storage.spi.StorageRpc.RewriteResponse;
+import com.google.cloud.storage.spi.StorageRpcFactory;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CopyManagerTest {
+
+  private static final BlobId SOURCE = BlobId.of("b", "n");
+  private static final BlobId TARGET = BlobId.of("b1", "n1");
+  private static final BlobInfo RESULT_INFO = BlobInfo.builder(TARGET).contentType("type").build();
+  private static final CopyRequest COPY_REQUEST = CopyRequest.of(SOURCE, TARGET);
+  private static final Map<StorageRpc.Option, ?> EMPTY_OPTIONS = ImmutableMap.of();
+  private static final RewriteRequest REWRITE_REQUEST = new RewriteRequest(SOURCE.toPb(),
+      EMPTY_OPTIONS, false, BlobInfo.builder(TARGET).build().toPb(), EMPTY_OPTIONS, null);
+  private static final RewriteResponse RESPONSE =
+      new RewriteResponse(REWRITE_REQUEST, null, 42L, false, "token", 21L);
+  private static final RewriteResponse RESPONSE_DONE =
+      new RewriteResponse(REWRITE_REQUEST, RESULT_INFO.toPb(), 42L, true, "token", 42L);
+
+  private StorageOptions options;
+  private StorageRpcFactory rpcFactoryMock;
+  private StorageRpc storageRpcMock;
+  private Storage storageMock;
+  private CopyManager copyManager;
+
+  @Before
+  public void setUp() {
+    rpcFactoryMock = createMock(StorageRpcFactory.class);
+    storageRpcMock = createMock(StorageRpc.class);
+    storageMock = createMock(Storage.class);
+    expect(rpcFactoryMock.create(anyObject(StorageOptions.class))).andReturn(storageRpcMock)
+        .anyTimes();
+    replay(rpcFactoryMock);
+    options = StorageOptions.builder()
+        .projectId("projectid")
+        .serviceRpcFactory(rpcFactoryMock)
+        .retryParams(RetryParams.noRetries())
+        .build();
+    copyManager = CopyManager.builder(storageMock).threadCount(2).build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    copyManager.shutdown();
+    assertTrue(copyManager.awaitTermination(1, TimeUnit.MINUTES));
+    verify(rpcFactoryMock, storageRpcMock, storageMock);
+  }
+
+  @Test
+  public void testCopy() throws Exception {
+    expect(storageMock.copy(COPY_REQUEST)).andReturn(new CopyWriter(options, RESPONSE));
+    expect(storageRpcMock.continueRewrite(RESPONSE)).andReturn(RESPONSE_DONE);
+    replay(storageRpcMock, storageMock);
+    CopyManager.CopyFuture future = copyManager.copy(COPY_REQUEST);
+    assertSame(COPY_REQUEST, future.request());
+    Blob result = future.get();
+    assertEquals(new Blob(options.service(), new BlobInfo.BuilderImpl(RESULT_INFO)), result);
+    assertEquals(42L, future.blobSize());
+    assertEquals(42L, future.totalBytesCopied());
+  }
+
+  @Test
+  public void testCopyFails() throws Exception {
+    StorageException exception = new StorageException(500, "error");
+    expect(storageMock.copy(COPY_REQUEST)).andThrow(exception);
+    replay(storageRpcMock, storageMock);
+    CopyManager.CopyFuture future = copyManager.copy(COPY_REQUEST);
+    try {
+      future.get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException ex) {
+      assertSame(exception, ex.getCause());
+    }
+  }
+
+  @Test
+  public void testMegabytesPerCall() throws Exception {
+    replay(storageRpcMock, storageMock);
+    assertNull(copyManager.megabytesPerCall());
+    CopyManager tunedManager = CopyManager.builder(storageMock)
+        .targetCallLatency(1, TimeUnit.SECONDS)
+        .build();
+    tunedManager.record(8L * 1024 * 1024, 1000);
+    assertEquals(Long.valueOf(8), tunedManager.megabytesPerCall());
+    tunedManager.shutdown();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class Crc32cTest {
+
+  private static final Random RANDOM = new Random();
+
+  @Test
+  public void testCheckValue() {
+    Crc32c crc32c = new Crc32c();
+    byte[] bytes = "123456789".getBytes(UTF_8);
+    crc32c.update(bytes, 0, bytes.length);
+    assertEquals(0xE3069283L, crc32c.getValue());
+    assertEquals("4waSgw==", crc32c.toBase64());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0L, new Crc32c().getValue());
+    assertEquals("AAAAAA==", new Crc32c().toBase64());
+  }
+
+  @Test
+  public void testIncrementalUpdates() {
+    for (int length : new int[] {1, 7, 8, 9, 63, 64, 1000, 65537}) {
+      byte[] bytes = new byte[length];
+      RANDOM.nextBytes(bytes);
+      int split = RANDOM.nextInt(length);
+      Crc32c crc32c = new Crc32c();
+      crc32c.update(bytes, 0, split);
+      crc32c.update(bytes[split]);
+      crc32c.update(bytes, split + 1, length - split - 1);
+      assertEquals(Hashing.crc32c().hashBytes(bytes).asInt(), (int) crc32c.getValue());
+    }
+  }
+
+  @Test
+  public void testCopyAndReset() {
+    byte[] bytes = new byte[100];
+    RANDOM.nextBytes(bytes);
+    Crc32c crc32c = new Crc32c();
+    crc32c.update(bytes, 0, 50);
+    Crc32c copy = crc32c.copy();
+    assertEquals(crc32c, copy);
+    copy.update(bytes, 50, 50);
+    assertNotEquals(crc32c, copy);
+    crc32c.update(bytes, 50, 50);
+    assertEquals(crc32c, copy);
+    assertEquals(crc32c.hashCode(), copy.hashCode());
+    crc32c.reset();
+    assertEquals(new Crc32c(), crc32c);
+  }
+
+  @Test
+  public void testByteBufferUpdates() {
+    for (int length : new int[] {0, 1, 7, 8, 9, 1000, 65537}) {
+      byte[] bytes = new byte[length + 3];
+      RANDOM.nextBytes(bytes);
+      Crc32c expected = new Crc32c();
+      expected.update(bytes, 3, length);
+      ByteBuffer heap = ByteBuffer.wrap(bytes, 3, length).slice();
+      Crc32c heapCrc32c = new Crc32c();
+      heapCrc32c.update(heap);
+      assertEquals(expected, heapCrc32c);
+      assertEquals(0, heap.remaining());
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).position(3);
+      Crc32c directCrc32c = new Crc32c();
+      directCrc32c.update(direct);
+      assertEquals(expected, directCrc32c);
+      assertEquals(0, direct.remaining());
+      assertEquals(ByteOrder.BIG_ENDIAN, direct.order());
+    }
+  }
+}
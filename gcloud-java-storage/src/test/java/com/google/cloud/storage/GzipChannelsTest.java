@@ -0,0 +1,271 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.common.base.Strings;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class GzipChannelsTest {
+
+  private static final byte[] CONTENT =
+      Strings.repeat("{\"id\":42,\"status\":\"done\"}\n", 5000).getBytes(UTF_8);
+
+  private static class ByteArrayWriteChannel implements WriteChannel {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private boolean isOpen = true;
+    // the last channel restored from a state captured from this one
+    private ByteArrayWriteChannel restored;
+
+    ByteArrayWriteChannel() {}
+
+    ByteArrayWriteChannel(byte[] written, boolean isOpen) {
+      output.write(written, 0, written.length);
+      this.isOpen = isOpen;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      output.write(src.array(), src.arrayOffset() + src.position(), length);
+      src.position(src.limit());
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return isOpen;
+    }
+
+    @Override
+    public void close() {
+      isOpen = false;
+    }
+
+    @Override
+    public void chunkSize(int chunkSize) {}
+
+    @Override
+    public RestorableState<WriteChannel> capture() {
+      return new WriteState(this, output.toByteArray(), isOpen);
+    }
+  }
+
+  private static class WriteState implements RestorableState<WriteChannel> {
+
+    private final ByteArrayWriteChannel captured;
+    private final byte[] written;
+    private final boolean isOpen;
+
+    WriteState(ByteArrayWriteChannel captured, byte[] written, boolean isOpen) {
+      this.captured = captured;
+      this.written = written;
+      this.isOpen = isOpen;
+    }
+
+    @Override
+    public WriteChannel restore() {
+      captured.restored = new ByteArrayWriteChannel(written, isOpen);
+      return captured.restored;
+    }
+  }
+
+  private static class ByteArrayReadChannel implements ReadChannel {
+
+    private final ByteBuffer content;
+    private boolean isOpen = true;
+
+    ByteArrayReadChannel(byte[] content) {
+      this.content = ByteBuffer.wrap(content);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (!content.hasRemaining()) {
+        return -1;
+      }
+      // return short reads to exercise buffering
+      int length = Math.min(Math.min(dst.remaining(), content.remaining()), 1000);
+      ByteBuffer slice = content.slice();
+      slice.limit(length);
+      dst.put(slice);
+      content.position(content.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return isOpen;
+    }
+
+    @Override
+    public void close() {
+      isOpen = false;
+    }
+
+    @Override
+    public void seek(int position) {
+      content.position(position);
+    }
+
+    @Override
+    public void chunkSize(int chunkSize) {}
+
+    @Override
+    public RestorableState<ReadChannel> capture() {
+      return new ReadState(content.array(), content.position());
+    }
+  }
+
+  private static class ReadState implements RestorableState<ReadChannel>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] content;
+    private final int position;
+
+    ReadState(byte[] content, int position) {
+      this.content = content;
+      this.position = position;
+    }
+
+    @Override
+    public ReadChannel restore() {
+      ByteArrayReadChannel channel = new ByteArrayReadChannel(content);
+      channel.content.position(position);
+      return channel;
+    }
+  }
+
+  private static byte[] compress(byte[] content, int level) throws IOException {
+    ByteArrayWriteChannel target = new ByteArrayWriteChannel();
+    GzipWriteChannel channel = new GzipWriteChannel(target, level, 4096);
+    ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+    direct.put(content).flip();
+    assertEquals(content.length, channel.write(direct));
+    channel.close();
+    assertFalse(channel.isOpen());
+    assertFalse(target.isOpen());
+    return target.output.toByteArray();
+  }
+
+  private static byte[] readAll(ReadChannel channel, boolean direct) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(777) : ByteBuffer.allocate(777);
+    while (channel.read(buffer) >= 0) {
+      buffer.flip();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      output.write(bytes);
+      buffer.clear();
+    }
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] compressed = compress(CONTENT, Deflater.BEST_COMPRESSION);
+    assertTrue(compressed.length < CONTENT.length / 20);
+    assertArrayEquals(CONTENT,
+        readAll(new GzipReadChannel(new ByteArrayReadChannel(compressed), 512), false));
+    assertArrayEquals(CONTENT,
+        readAll(new GzipReadChannel(new ByteArrayReadChannel(compressed), 512), true));
+  }
+
+  @Test
+  public void testReadUncompressedContent() throws IOException {
+    assertArrayEquals(CONTENT,
+        readAll(new GzipReadChannel(new ByteArrayReadChannel(CONTENT), 512), false));
+    assertArrayEquals(new byte[] {0x1f},
+        readAll(new GzipReadChannel(new ByteArrayReadChannel(new byte[] {0x1f}), 512), false));
+  }
+
+  private static byte[] read(ReadChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // keep reading
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    byte[] compressed = compress(CONTENT, Deflater.BEST_SPEED);
+    GzipReadChannel reader = new GzipReadChannel(new ByteArrayReadChannel(compressed), 512);
+    reader.seek(50000);
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 50000, 50100), read(reader, 100));
+    reader.seek(42);
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 42, 142), read(reader, 100));
+    reader.seek(CONTENT.length + 10);
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  public void testCaptureAndRestoreReader() throws IOException {
+    byte[] compressed = compress(CONTENT, Deflater.BEST_SPEED);
+    GzipReadChannel reader = new GzipReadChannel(new ByteArrayReadChannel(compressed), 512);
+    assertArrayEquals(Arrays.copyOf(CONTENT, 30000), read(reader, 30000));
+    RestorableState<ReadChannel> state = reader.capture();
+    ReadChannel restored = state.restore();
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 30000, CONTENT.length),
+        readAll(restored, false));
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 30000, CONTENT.length), readAll(reader, false));
+  }
+
+  @Test
+  public void testCaptureAndRestoreWriter() throws IOException {
+    ByteArrayWriteChannel target = new ByteArrayWriteChannel();
+    GzipWriteChannel writer = new GzipWriteChannel(target, Deflater.BEST_SPEED, 512);
+    writer.write(ByteBuffer.wrap(CONTENT, 0, 40000));
+    RestorableState<WriteChannel> state = writer.capture();
+    writer.write(ByteBuffer.wrap(CONTENT, 40000, CONTENT.length - 40000));
+    writer.close();
+    assertArrayEquals(CONTENT, readAll(
+        new GzipReadChannel(new ByteArrayReadChannel(target.output.toByteArray()), 512), false));
+    WriteChannel restored = state.restore();
+    restored.write(ByteBuffer.wrap(CONTENT, 40000, CONTENT.length - 40000));
+    restored.close();
+    assertFalse(target.restored.isOpen());
+    assertArrayEquals(CONTENT, readAll(
+        new GzipReadChannel(new ByteArrayReadChannel(target.restored.output.toByteArray()), 512),
+        false));
+  }
+
+  @Test
+  public void testCaptureClosedWriter() throws IOException {
+    GzipWriteChannel writer = new GzipWriteChannel(new ByteArrayWriteChannel(), 1, 512);
+    writer.close();
+    assertFalse(writer.capture().restore().isOpen());
+  }
+}
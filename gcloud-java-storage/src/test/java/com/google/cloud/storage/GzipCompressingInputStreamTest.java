@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+public class GzipCompressingInputStreamTest {
+
+  private static final byte[] JSON = Strings.repeat("{\"severity\":\"INFO\",\"message\":\"ok\"}\n",
+      10000).getBytes(UTF_8);
+
+  private static byte[] compress(byte[] content, int level, int bufferSize) throws IOException {
+    try (InputStream input = new GzipCompressingInputStream(
+        new ByteArrayInputStream(content), level, bufferSize)) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] compressed = compress(JSON, Deflater.DEFAULT_COMPRESSION, 1024);
+    assertTrue(compressed.length < JSON.length / 20);
+    assertArrayEquals(JSON, decompress(compressed));
+  }
+
+  @Test
+  public void testIncompressibleContent() throws IOException {
+    byte[] content = new byte[100000];
+    new Random().nextBytes(content);
+    assertArrayEquals(content, decompress(compress(content, Deflater.BEST_SPEED, 7)));
+    assertArrayEquals(content, decompress(compress(content, Deflater.NO_COMPRESSION, 8192)));
+  }
+
+  @Test
+  public void testEmptyContent() throws IOException {
+    assertArrayEquals(new byte[0], decompress(compress(new byte[0], 6, 16)));
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] expected = compress(JSON, 9, 4096);
+    try (InputStream input =
+        new GzipCompressingInputStream(new ByteArrayInputStream(JSON), 9, 4096)) {
+      for (byte b : expected) {
+        assertEquals(b & 0xff, input.read());
+      }
+      assertEquals(-1, input.read());
+    }
+  }
+}
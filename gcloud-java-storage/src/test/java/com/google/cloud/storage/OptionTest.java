@@ -21,6 +21,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 
 import com.google.cloud.storage.spi.StorageRpc;
+import com.google.common.collect.ImmutableMap;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -60,6 +61,30 @@ public class OptionTest {
     assertEquals(RPC_OPTION, option.rpcOption());
     assertNull(option.value());
     thrown.expect(NullPointerException.class);
-    new Option(null, VALUE) {};
+    new Option((StorageRpc.Option) null, VALUE) {};
+  }
+
+  @Test
+  public void testClientOption() {
+    Option option = new Option("client", VALUE) {};
+    assertNull(option.rpcOption());
+    assertEquals("client", option.clientOption());
+    assertEquals(VALUE, option.value());
+    assertEquals(option, new Option("client", VALUE) {});
+    assertNotEquals(option, new Option("other", VALUE) {});
+    assertNull(OPTION.clientOption());
+  }
+
+  @Test
+  public void testDecompressIsNotSentToTheService() {
+    Storage.BlobSourceOption decompress = Storage.BlobSourceOption.decompress(1024);
+    assertNull(decompress.rpcOption());
+    assertEquals(Integer.valueOf(1024), Storage.BlobSourceOption.decompressBufferSize(
+        Storage.BlobSourceOption.generationMatch(), decompress));
+    assertNull(Storage.BlobSourceOption.decompressBufferSize(
+        Storage.BlobSourceOption.generationMatch()));
+    assertEquals(ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 42L),
+        StorageImpl.optionMap(BlobId.of("b", "n", 42L), decompress,
+            Storage.BlobSourceOption.generationMatch()));
   }
 }
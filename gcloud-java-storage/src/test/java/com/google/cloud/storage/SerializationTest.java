@@ -28,6 +28,7 @@ import com.google.common.collect.ImmutableMap;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class SerializationTest extends BaseSerializationTest {
 
@@ -71,6 +72,10 @@ public class SerializationTest extends BaseSerializationTest {
     StorageOptions otherOptions = options.toBuilder()
         .projectId("p2")
         .authCredentials(null)
+        .batchParallelism(8)
+        .metadataCache(100, 1, TimeUnit.MINUTES)
+        .checksumValidation(true)
+        .contentCache("/tmp/gcs-cache", 1024)
         .build();
     return new Serializable[]{ACL_DOMAIN, ACL_GROUP, ACL_PROJECT_, ACL_USER, ACL_RAW, ACL,
         BLOB_INFO, BLOB, BUCKET_INFO, BUCKET, ORIGIN, CORS, PAGE_RESULT, BLOB_LIST_OPTIONS,
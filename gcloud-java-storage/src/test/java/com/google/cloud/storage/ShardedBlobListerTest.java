@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.Page;
+import com.google.cloud.PageImpl;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ShardedBlobListerTest {
+
+  private static final String BUCKET = "bucket";
+  private static final BlobListOption PAGE_SIZE = BlobListOption.pageSize(2);
+
+  private Storage storage;
+  // the storage of listed blobs, whose calls are not verified
+  private Storage blobStorage;
+
+  @Before
+  public void setUp() {
+    storage = createMock(Storage.class);
+    blobStorage = createNiceMock(Storage.class);
+    replay(blobStorage);
+  }
+
+  @After
+  public void tearDown() {
+    verify(storage);
+  }
+
+  private Page<Blob> page(String cursor, String... names) {
+    List<Blob> blobs = new ArrayList<>();
+    for (String name : names) {
+      BlobInfo blobInfo = BlobInfo.builder(BUCKET, name).build();
+      blobs.add(new Blob(blobStorage, new BlobInfo.BuilderImpl(blobInfo)));
+    }
+    return new PageImpl<>(null, cursor, blobs);
+  }
+
+  private static List<String> names(ShardedBlobLister.Listing listing) {
+    List<String> names = new ArrayList<>();
+    while (listing.hasNext()) {
+      names.add(listing.next().name());
+    }
+    return names;
+  }
+
+  @Test
+  public void testSplitRange() {
+    replay(storage);
+    List<String> points = ShardedBlobLister.splitRange("a", "\u007f", 4);
+    assertEquals(3, points.size());
+    String previous = "a";
+    for (String point : points) {
+      assertTrue(point.compareTo(previous) > 0);
+      previous = point;
+    }
+    assertTrue(previous.compareTo("\u007f") < 0);
+    for (String point : ShardedBlobLister.splitRange("dir/a", "dir/b", 8)) {
+      assertTrue(point.startsWith("dir/a"));
+    }
+    assertTrue(ShardedBlobLister.splitRange("a", "a", 4).isEmpty());
+  }
+
+  @Test
+  public void testListWithSplitPointsOrdered() {
+    expect(storage.list(BUCKET, PAGE_SIZE, BlobListOption.endOffset("m")))
+        .andReturn(page("token", "a", "b"));
+    expect(storage.list(BUCKET, PAGE_SIZE, BlobListOption.endOffset("m"),
+        BlobListOption.pageToken("token"))).andReturn(page(null, "c"));
+    expect(storage.list(BUCKET, PAGE_SIZE, BlobListOption.startOffset("m")))
+        .andReturn(page(null, "m", "n"));
+    replay(storage);
+    ShardedBlobLister lister = ShardedBlobLister.builder(storage, BUCKET)
+        .splitPoints(ImmutableList.of("m"))
+        .pageSize(2)
+        .ordered(true)
+        .build();
+    ShardedBlobLister.Listing listing = lister.list();
+    assertEquals(ImmutableList.of("a", "b", "c", "m", "n"), names(listing));
+    for (ShardedBlobLister.ShardCursor cursor : listing.cursors()) {
+      assertTrue(cursor.isDone());
+    }
+  }
+
+  @Test
+  public void testListSampled() {
+    BlobListOption prefix = BlobListOption.prefix("p/");
+    expect(storage.list(BUCKET, PAGE_SIZE, prefix)).andReturn(page("token", "p/a", "p/c"));
+    List<String> points = Lists.newArrayList("p/c");
+    points.addAll(ShardedBlobLister.splitRange("p/c", "p/\u007f", 2));
+    assertEquals(2, points.size());
+    expect(storage.list(BUCKET, PAGE_SIZE, prefix, BlobListOption.startOffset(points.get(0)),
+        BlobListOption.endOffset(points.get(1)))).andReturn(page(null, "p/c", "p/d"));
+    expect(storage.list(BUCKET, PAGE_SIZE, prefix, BlobListOption.startOffset(points.get(1))))
+        .andReturn(page(null, "p/z"));
+    replay(storage);
+    ShardedBlobLister lister = ShardedBlobLister.builder(storage, BUCKET)
+        .prefix("p/")
+        .shardCount(2)
+        .pageSize(2)
+        .build();
+    ShardedBlobLister.Listing listing = lister.list();
+    List<String> names = names(listing);
+    assertEquals(4, names.size());
+    assertEquals(ImmutableSet.of("p/a", "p/c", "p/d", "p/z"), new HashSet<>(names));
+    assertEquals(3, listing.cursors().size());
+  }
+
+  @Test
+  public void testResume() {
+    expect(storage.list(BUCKET, PAGE_SIZE, BlobListOption.startOffset("m"),
+        BlobListOption.pageToken("token"))).andReturn(page(null, "x", "y"));
+    replay(storage);
+    ShardedBlobLister lister = ShardedBlobLister.builder(storage, BUCKET).pageSize(2).build();
+    List<ShardedBlobLister.ShardCursor> cursors = ImmutableList.of(
+        new ShardedBlobLister.ShardCursor(null, "m", null, true),
+        new ShardedBlobLister.ShardCursor("m", null, "token", false));
+    ShardedBlobLister.Listing listing = lister.resume(cursors);
+    Set<String> names = new HashSet<>(names(listing));
+    assertEquals(ImmutableSet.of("x", "y"), names);
+    assertEquals(new ShardedBlobLister.ShardCursor("m", null, null, true),
+        listing.cursors().get(1));
+  }
+
+  @Test
+  public void testListFails() {
+    StorageException exception = new StorageException(500, "error");
+    expect(storage.list(BUCKET, PAGE_SIZE)).andThrow(exception);
+    replay(storage);
+    ShardedBlobLister lister = ShardedBlobLister.builder(storage, BUCKET)
+        .splitPoints(ImmutableList.<String>of())
+        .pageSize(2)
+        .build();
+    ShardedBlobLister.Listing listing = lister.list();
+    try {
+      listing.hasNext();
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertSame(exception, ex);
+    }
+    assertFalse(listing.cursors().get(0).isDone());
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.RetryParams;
+import com.google.cloud.storage.testing.LocalStorageHelper;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class StorageBatchWriterTest {
+
+  private static final String BUCKET = "b";
+  private static final byte[] CONTENT = {0xD, 0xE, 0xA, 0xD};
+
+  private Storage localStorage;
+  private Storage storage;
+
+  @Before
+  public void setUp() {
+    localStorage = LocalStorageHelper.create().options().toBuilder()
+        .retryParams(RetryParams.noRetries())
+        .build()
+        .service();
+    localStorage.create(BucketInfo.of(BUCKET));
+    storage = createMock(Storage.class);
+  }
+
+  private void expectBatches(int count) {
+    expect(storage.batch()).andAnswer(new IAnswer<StorageBatch>() {
+      @Override
+      public StorageBatch answer() {
+        return localStorage.batch();
+      }
+    }).times(count);
+    replay(storage);
+  }
+
+  private static void shutdown(StorageBatchWriter writer) throws InterruptedException {
+    writer.shutdown();
+    assertTrue(writer.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFullBatches() throws Exception {
+    expectBatches(2);
+    StorageBatchWriter writer = StorageBatchWriter.builder(storage)
+        .batchSize(3)
+        .concurrency(1)
+        .lingerTime(1, TimeUnit.HOURS)
+        .build();
+    List<ListenableFuture<Boolean>> results = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      localStorage.create(BlobInfo.builder(BUCKET, "blob" + i).build(), CONTENT);
+      results.add(writer.delete(BUCKET, "blob" + i));
+    }
+    for (Boolean deleted : Futures.allAsList(results).get(10, TimeUnit.SECONDS)) {
+      assertTrue(deleted);
+    }
+    for (int i = 0; i < 6; i++) {
+      assertNull(localStorage.get(BUCKET, "blob" + i));
+    }
+    shutdown(writer);
+    verify(storage);
+  }
+
+  @Test
+  public void testLingerTime() throws Exception {
+    expectBatches(1);
+    StorageBatchWriter writer = StorageBatchWriter.builder(storage)
+        .lingerTime(10, TimeUnit.MILLISECONDS)
+        .build();
+    localStorage.create(BlobInfo.builder(BUCKET, "blob").build(), CONTENT);
+    Blob blob = writer.get(BUCKET, "blob").get(10, TimeUnit.SECONDS);
+    assertEquals(CONTENT.length, blob.size().longValue());
+    shutdown(writer);
+    verify(storage);
+  }
+
+  @Test
+  public void testResults() throws Exception {
+    expectBatches(1);
+    StorageBatchWriter writer = StorageBatchWriter.builder(storage)
+        .lingerTime(1, TimeUnit.HOURS)
+        .build();
+    localStorage.create(BlobInfo.builder(BUCKET, "blob").build(), CONTENT);
+    ListenableFuture<Blob> updated =
+        writer.update(BlobInfo.builder(BUCKET, "blob").contentType("text/plain").build());
+    ListenableFuture<Blob> missing = writer.get(BUCKET, "missing");
+    ListenableFuture<Boolean> notDeleted = writer.delete(BUCKET, "missing");
+    ListenableFuture<Blob> notUpdated =
+        writer.update(BlobInfo.builder(BUCKET, "missing").contentType("text/plain").build());
+    writer.flush();
+    assertEquals("text/plain", updated.get(10, TimeUnit.SECONDS).contentType());
+    assertNull(missing.get(10, TimeUnit.SECONDS));
+    assertFalse(notDeleted.get(10, TimeUnit.SECONDS));
+    try {
+      notUpdated.get(10, TimeUnit.SECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertEquals(404, ((StorageException) ex.getCause()).code());
+    }
+    shutdown(writer);
+    verify(storage);
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    expectBatches(1);
+    StorageBatchWriter writer = StorageBatchWriter.builder(storage)
+        .lingerTime(1, TimeUnit.HOURS)
+        .build();
+    localStorage.create(BlobInfo.builder(BUCKET, "blob").build(), CONTENT);
+    ListenableFuture<Boolean> deleted = writer.delete(BUCKET, "blob");
+    shutdown(writer);
+    assertTrue(deleted.isDone());
+    assertTrue(deleted.get());
+    try {
+      writer.delete(BUCKET, "blob");
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+    verify(storage);
+  }
+
+  @Test
+  public void testShutdownCompletesQueuedBatches() throws Exception {
+    // slow batches, so that most of them are still queued when shutdown is called
+    localStorage = LocalStorageHelper.builder().latency(10, TimeUnit.MILLISECONDS).build()
+        .options().toBuilder()
+        .retryParams(RetryParams.noRetries())
+        .build()
+        .service();
+    localStorage.create(BucketInfo.of(BUCKET));
+    for (int i = 0; i < 20; i++) {
+      localStorage.create(BlobInfo.builder(BUCKET, "blob" + i).build(), CONTENT);
+    }
+    expectBatches(20);
+    StorageBatchWriter writer = StorageBatchWriter.builder(storage)
+        .batchSize(1)
+        .concurrency(1)
+        .lingerTime(1, TimeUnit.HOURS)
+        .build();
+    List<ListenableFuture<Boolean>> results = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      results.add(writer.delete(BUCKET, "blob" + i));
+    }
+    shutdown(writer);
+    for (ListenableFuture<Boolean> deleted : results) {
+      assertTrue(deleted.isDone());
+      assertTrue(deleted.get());
+    }
+    verify(storage);
+  }
+}
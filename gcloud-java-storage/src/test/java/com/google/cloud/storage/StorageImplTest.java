@@ -21,6 +21,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -32,6 +33,7 @@ import com.google.cloud.Clock;
 import com.google.cloud.Page;
 import com.google.cloud.ReadChannel;
 import com.google.cloud.RetryParams;
+import com.google.cloud.ServiceAccountSigner;
 import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Storage.CopyRequest;
 import com.google.cloud.storage.spi.RpcBatch;
@@ -41,7 +43,10 @@ import com.google.cloud.storage.spi.StorageRpcFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -53,11 +58,15 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -69,9 +78,14 @@ import java.security.spec.EncodedKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class StorageImplTest {
 
@@ -399,6 +413,88 @@ public class StorageImplTest {
     assertEquals(expectedBlob1, blob);
   }
 
+  @Test
+  public void testCreateBlobFromDirectByteBuffer() throws IOException {
+    Capture<InputStream> capturedStream = Capture.newInstance();
+    EasyMock.expect(storageRpcMock.create(
+        EasyMock.eq(BLOB_INFO1.toBuilder().md5(CONTENT_MD5).crc32c(CONTENT_CRC32C).build().toPb()),
+        EasyMock.capture(capturedStream),
+        EasyMock.eq(EMPTY_RPC_OPTIONS)))
+        .andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    ByteBuffer content = ByteBuffer.allocateDirect(BLOB_CONTENT.length);
+    content.put(BLOB_CONTENT).flip();
+    Blob blob = storage.create(BLOB_INFO1, content);
+    assertEquals(expectedBlob1, blob);
+    assertEquals(BLOB_CONTENT.length, content.remaining());
+    assertArrayEquals(BLOB_CONTENT, ByteStreams.toByteArray(capturedStream.getValue()));
+  }
+
+  @Test
+  public void testCreateBlobFromLargeByteBuffer() {
+    byte[] content = new byte[8 * 1024 * 1024 + 1];
+    content[content.length - 1] = 42;
+    BlobInfo infoWithHashes = BLOB_INFO1.toBuilder()
+        .md5(BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes()))
+        .crc32c(BaseEncoding.base64().encode(
+            Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt())))
+        .build();
+    EasyMock.expect(storageRpcMock.open(infoWithHashes.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn("upload-id");
+    EasyMock.expect(storageRpcMock.write("upload-id", content, 0, 0L, 8 * 1024 * 1024, false))
+        .andReturn(null);
+    EasyMock.expect(storageRpcMock.write("upload-id", content, 8 * 1024 * 1024,
+        8 * 1024 * 1024L, 1, true)).andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    Blob blob = storage.create(BLOB_INFO1, ByteBuffer.wrap(content));
+    assertEquals(expectedBlob1, blob);
+  }
+
+  @Test
+  public void testCreateBlobFromChannel() throws IOException {
+    Capture<InputStream> capturedStream = Capture.newInstance();
+    EasyMock.expect(storageRpcMock.create(
+        EasyMock.eq(BLOB_INFO1.toBuilder().md5(CONTENT_MD5).crc32c(CONTENT_CRC32C).build().toPb()),
+        EasyMock.capture(capturedStream),
+        EasyMock.eq(EMPTY_RPC_OPTIONS)))
+        .andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(BLOB_CONTENT));
+    Blob blob = storage.create(BLOB_INFO1, channel);
+    assertEquals(expectedBlob1, blob);
+    assertTrue(channel.isOpen());
+    assertArrayEquals(BLOB_CONTENT, ByteStreams.toByteArray(capturedStream.getValue()));
+  }
+
+  @Test
+  public void testCreateBlobFromLargeChannel() {
+    int chunkSize = 8 * 1024 * 1024;
+    byte[] content = new byte[2 * chunkSize];
+    content[content.length - 1] = 42;
+    Capture<byte[]> capturedBytes = Capture.newInstance();
+    BlobInfo infoWithoutHashes = BLOB_INFO1.toBuilder().md5(null).crc32c(null).build();
+    EasyMock.expect(storageRpcMock.open(infoWithoutHashes.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn("upload-id");
+    EasyMock.expect(storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.<byte[]>anyObject(),
+        EasyMock.eq(0), EasyMock.eq(0L), EasyMock.eq(chunkSize), EasyMock.eq(false)))
+        .andReturn(null);
+    EasyMock.expect(storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.capture(capturedBytes),
+        EasyMock.eq(0), EasyMock.eq((long) chunkSize), EasyMock.eq(chunkSize),
+        EasyMock.eq(false))).andReturn(null);
+    EasyMock.expect(storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.<byte[]>anyObject(),
+        EasyMock.eq(0), EasyMock.eq(2L * chunkSize), EasyMock.eq(0), EasyMock.eq(true)))
+        .andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    Blob blob = storage.create(BLOB_INFO1,
+        Channels.newChannel(new ByteArrayInputStream(content)));
+    assertEquals(expectedBlob1, blob);
+    assertEquals(42, capturedBytes.getValue()[chunkSize - 1]);
+  }
+
   @Test
   public void testGetBucket() {
     EasyMock.expect(storageRpcMock.get(BucketInfo.of(BUCKET_NAME1).toPb(), EMPTY_RPC_OPTIONS))
@@ -465,6 +561,252 @@ public class StorageImplTest {
     assertEquals(expectedBlob1, blob);
   }
 
+  @Test
+  public void testGetBlobWithMetadataCache() {
+    EasyMock.expect(
+        storageRpcMock.get(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.expect(
+        storageRpcMock.delete(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(true);
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().metadataCache(10, 1, TimeUnit.MINUTES).build();
+    initializeService();
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    assertEquals(expectedBlob1, storage.get(BLOB_INFO1.blobId()));
+    assertTrue(storage.delete(BUCKET_NAME1, BLOB_NAME1));
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    MetadataCacheStats stats = storage.metadataCacheStats();
+    assertEquals(2, stats.hitCount());
+    assertEquals(2, stats.missCount());
+  }
+
+  @Test
+  public void testWriterInvalidatesMetadataCache() throws IOException {
+    EasyMock.expect(
+        storageRpcMock.get(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    BlobInfo infoWithoutHashes = BLOB_INFO1.toBuilder().md5(null).crc32c(null).build();
+    EasyMock.expect(storageRpcMock.open(infoWithoutHashes.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn("upload-id");
+    EasyMock.expect(storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.<byte[]>anyObject(),
+        EasyMock.eq(0), EasyMock.eq(0L), EasyMock.eq(0), EasyMock.eq(true)))
+        .andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().metadataCache(10, 1, TimeUnit.MINUTES).build();
+    initializeService();
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    WriteChannel channel = storage.writer(BLOB_INFO1);
+    // the upload is not visible until the channel is closed
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    channel.close();
+    assertEquals(expectedBlob1, storage.get(BUCKET_NAME1, BLOB_NAME1));
+    MetadataCacheStats stats = storage.metadataCacheStats();
+    assertEquals(1, stats.hitCount());
+    assertEquals(2, stats.missCount());
+  }
+
+  @Test
+  public void testCopyInvalidatesMetadataCacheWhenDone() {
+    CopyRequest request = Storage.CopyRequest.of(BLOB_INFO1.blobId(), BLOB_INFO2.blobId());
+    StorageRpc.RewriteRequest rpcRequest = new StorageRpc.RewriteRequest(request.source().toPb(),
+        EMPTY_RPC_OPTIONS, false, BLOB_INFO2.toPb(), EMPTY_RPC_OPTIONS, null);
+    StorageRpc.RewriteResponse rpcResponse1 = new StorageRpc.RewriteResponse(rpcRequest, null, 42L,
+        false, "token", 21L);
+    StorageRpc.RewriteResponse rpcResponse2 = new StorageRpc.RewriteResponse(rpcRequest,
+        BLOB_INFO2.toPb(), 42L, true, "token", 42L);
+    EasyMock.expect(storageRpcMock.openRewrite(rpcRequest)).andReturn(rpcResponse1);
+    EasyMock.expect(storageRpcMock.continueRewrite(rpcResponse1)).andReturn(rpcResponse2);
+    EasyMock.expect(storageRpcMock.get(BLOB_INFO2.blobId().toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO2.toPb()).times(2);
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().metadataCache(10, 1, TimeUnit.MINUTES).build();
+    initializeService();
+    CopyWriter writer = storage.copy(request);
+    // the target read while the copy is in progress is cached until the copy is done
+    storage.get(BLOB_INFO2.blobId());
+    storage.get(BLOB_INFO2.blobId());
+    writer.copyChunk();
+    assertTrue(writer.isDone());
+    storage.get(BLOB_INFO2.blobId());
+    MetadataCacheStats stats = storage.metadataCacheStats();
+    assertEquals(1, stats.hitCount());
+    assertEquals(2, stats.missCount());
+  }
+
+  @Test
+  public void testGetBlobWithAutoFieldProjection() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), projectedOptions))
+        .andReturn(projectedInfo.toPb());
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    for (int i = 0; i < 2; i++) {
+      Blob blob = storage.get(blobId);
+      assertEquals("application/json", blob.contentType());
+      if (i == 1) {
+        // size was not read after the first call, the complete blob is fetched to provide it
+        assertEquals(BLOB_INFO1.size(), blob.size());
+        assertEquals(BLOB_INFO1.metageneration(), blob.metageneration());
+      }
+    }
+  }
+
+  @Test
+  public void testAutoFieldProjectionCompletesCopiedBlobs() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), projectedOptions))
+        .andReturn(projectedInfo.toPb());
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    for (int i = 0; i < 2; i++) {
+      Blob blob = storage.get(blobId);
+      assertEquals("application/json", blob.contentType());
+      if (i == 1) {
+        // copies and comparisons use the complete blob, which is fetched once
+        assertEquals(expectedBlob1, blob);
+        assertEquals(BLOB_INFO1.size(), blob.toBuilder().build().size());
+      }
+    }
+  }
+
+  @Test
+  public void testAutoFieldProjectionTracksBlobId() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), projectedOptions))
+        .andReturn(projectedInfo.toPb());
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    for (int i = 0; i < 2; i++) {
+      Blob blob = storage.get(blobId);
+      assertEquals("application/json", blob.contentType());
+      if (i == 1) {
+        // the generation was not selected, the complete blob is fetched to provide it
+        assertEquals(BLOB_INFO1.blobId(), blob.blobId());
+      }
+    }
+  }
+
+  @Test
+  public void testAutoFieldProjectionSerializesCompleteBlob() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), projectedOptions))
+        .andReturn(projectedInfo.toPb());
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    for (int i = 0; i < 2; i++) {
+      Blob blob = storage.get(blobId);
+      assertEquals("application/json", blob.contentType());
+      if (i == 1) {
+        // the complete blob is serialized in place of the projected one
+        Blob replacement = (Blob) blob.writeReplace();
+        assertNotSame(blob, replacement);
+        assertEquals(expectedBlob1, replacement);
+        assertSame(replacement, replacement.writeReplace());
+      }
+    }
+  }
+
+  @Test
+  public void testAutoFieldProjectionFailsWhenBlobIsDeleted() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO1.toPb());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), projectedOptions))
+        .andReturn(projectedInfo.toPb());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), EMPTY_RPC_OPTIONS)).andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    Blob blob = null;
+    for (int i = 0; i < 2; i++) {
+      blob = storage.get(blobId);
+      assertEquals("application/json", blob.contentType());
+    }
+    // the blob was deleted, the complete blob can not be fetched to provide its size
+    thrown.expect(StorageException.class);
+    thrown.expectMessage("not found");
+    blob.size();
+  }
+
+  @Test
+  public void testListBlobsWithAutoFieldProjection() {
+    BlobInfo projectedInfo =
+        BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).contentType("application/json").build();
+    Map<StorageRpc.Option, ?> projectedOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobListOption.fields(Storage.BlobField.CONTENT_TYPE).value());
+    EasyMock.expect(storageRpcMock.list(BUCKET_NAME1, EMPTY_RPC_OPTIONS)).andReturn(
+        Tuple.<String, Iterable<com.google.api.services.storage.model.StorageObject>>of(
+            null, ImmutableList.of(BLOB_INFO1.toPb())));
+    EasyMock.expect(storageRpcMock.list(BUCKET_NAME1, projectedOptions)).andReturn(
+        Tuple.<String, Iterable<com.google.api.services.storage.model.StorageObject>>of(
+            null, ImmutableList.of(projectedInfo.toPb())));
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    for (int i = 0; i < 2; i++) {
+      for (Blob blob : storage.list(BUCKET_NAME1).values()) {
+        assertEquals("application/json", blob.contentType());
+      }
+    }
+  }
+
+  @Test
+  public void testGetBlobWithExplicitFieldsAndAutoFieldProjection() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    Map<StorageRpc.Option, ?> fieldsOptions = ImmutableMap.of(StorageRpc.Option.FIELDS,
+        Storage.BlobGetOption.fields(Storage.BlobField.SIZE).value());
+    EasyMock.expect(storageRpcMock.get(blobId.toPb(), fieldsOptions))
+        .andReturn(BLOB_INFO1.toPb()).times(2);
+    EasyMock.replay(storageRpcMock);
+    options = options.toBuilder().autoFieldProjection(true).build();
+    initializeService();
+    Storage.BlobGetOption fields = Storage.BlobGetOption.fields(Storage.BlobField.SIZE);
+    for (int i = 0; i < 2; i++) {
+      assertEquals(expectedBlob1, storage.get(blobId, fields));
+    }
+  }
+
+  @Test
+  public void testMetadataCacheDisabled() {
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    assertNull(storage.metadataCacheStats());
+  }
+
   @Test
   public void testGetBlobWithOptions() {
     EasyMock.expect(
@@ -959,6 +1301,87 @@ public class StorageImplTest {
     assertArrayEquals(BLOB_CONTENT, readBytes);
   }
 
+  @Test
+  public void testReadAllBytesDecompress() throws IOException {
+    EasyMock.expect(
+        storageRpcMock.load(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(gzip(BLOB_CONTENT));
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    byte[] readBytes = storage.readAllBytes(BUCKET_NAME1, BLOB_NAME1,
+        Storage.BlobSourceOption.decompress());
+    assertArrayEquals(BLOB_CONTENT, readBytes);
+  }
+
+  @Test
+  public void testReaderDecompress() throws IOException {
+    EasyMock.expect(storageRpcMock.read(BLOB_INFO2.blobId().toPb(), EMPTY_RPC_OPTIONS, 0,
+        DEFAULT_CHUNK_SIZE)).andReturn(Tuple.of("etag", gzip(BLOB_CONTENT)));
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    ReadChannel channel = storage.reader(BLOB_INFO2.blobId(),
+        Storage.BlobSourceOption.decompress());
+    ByteBuffer buffer = ByteBuffer.allocate(42);
+    assertEquals(BLOB_CONTENT.length, channel.read(buffer));
+    assertEquals(-1, channel.read(buffer));
+    assertArrayEquals(BLOB_CONTENT, Arrays.copyOf(buffer.array(), BLOB_CONTENT.length));
+  }
+
+  @Test
+  public void testReadAtOffset() {
+    long offset = 3L * 1024 * 1024 * 1024;
+    EasyMock.expect(storageRpcMock.read(BLOB_INFO1.blobId().toPb(), EMPTY_RPC_OPTIONS, offset, 4))
+        .andReturn(Tuple.of("etag", new byte[]{1, 2, 3}));
+    EasyMock.expect(storageRpcMock.read(BLOB_INFO1.blobId().toPb(), EMPTY_RPC_OPTIONS,
+        offset + 3, 1)).andReturn(Tuple.<String, byte[]>of(null, new byte[0]));
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    assertEquals(3, storage.read(BLOB_INFO1.blobId(), offset, buffer));
+    assertEquals(3, buffer.position());
+    assertEquals(-1, storage.read(BLOB_INFO1.blobId(), offset + 3, buffer));
+    assertEquals(0, storage.read(BLOB_INFO1.blobId(), offset, ByteBuffer.allocate(0)));
+  }
+
+  @Test
+  public void testReadRanges() {
+    byte[] merged = new byte[13];
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] = (byte) i;
+    }
+    EasyMock.expect(storageRpcMock.read(BLOB_INFO1.blobId().toPb(), EMPTY_RPC_OPTIONS, 0, 13))
+        .andReturn(Tuple.of("etag", merged));
+    EasyMock.expect(storageRpcMock.read(BLOB_INFO1.blobId().toPb(), EMPTY_RPC_OPTIONS,
+        10000000L, 2)).andReturn(Tuple.of("etag", new byte[]{42}));
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    ByteBuffer first = ByteBuffer.allocate(2);
+    ByteBuffer second = ByteBuffer.allocate(3);
+    ByteBuffer third = ByteBuffer.allocate(2);
+    long bytesRead = storage.read(BLOB_INFO1.blobId(),
+        ImmutableMap.of(10L, second, 10000000L, third, 0L, first));
+    assertEquals(6, bytesRead);
+    assertArrayEquals(new byte[]{0, 1}, first.array());
+    assertArrayEquals(new byte[]{10, 11, 12}, second.array());
+    assertEquals(1, third.position());
+    assertEquals(42, third.get(0));
+  }
+
+  @Test
+  public void testReadRangesBlobUpdated() {
+    BlobId blobId = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    EasyMock.expect(storageRpcMock.read(blobId.toPb(), EMPTY_RPC_OPTIONS, 0, 1))
+        .andReturn(Tuple.of("etag1", new byte[]{1}));
+    EasyMock.expect(storageRpcMock.read(blobId.toPb(), EMPTY_RPC_OPTIONS, 10000000L, 1))
+        .andReturn(Tuple.of("etag2", new byte[]{2}));
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    thrown.expect(StorageException.class);
+    thrown.expectMessage("was updated while reading");
+    storage.read(blobId,
+        ImmutableMap.of(0L, ByteBuffer.allocate(1), 10000000L, ByteBuffer.allocate(1)));
+  }
+
   @Test
   public void testReadAllBytesWithOptions() {
     EasyMock.expect(
@@ -1062,6 +1485,38 @@ public class StorageImplTest {
     assertTrue(channel.isOpen());
   }
 
+  @Test
+  public void testWriterWithGzip() throws IOException {
+    BlobInfo info = BLOB_INFO1.toBuilder().md5(null).crc32c(null).contentEncoding("gzip").build();
+    EasyMock.expect(storageRpcMock.open(info.toPb(), EMPTY_RPC_OPTIONS)).andReturn("upload-id");
+    Capture<byte[]> capturedBuffer = Capture.newInstance();
+    Capture<Integer> capturedLength = Capture.newInstance();
+    EasyMock.expect(storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.capture(capturedBuffer),
+        EasyMock.eq(0), EasyMock.eq(0L), EasyMock.captureInt(capturedLength), EasyMock.eq(true)))
+        .andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    byte[] content = new byte[64 * 1024];
+    WriteChannel channel = storage.writer(BLOB_INFO1, Storage.BlobWriteOption.gzip());
+    channel.write(ByteBuffer.wrap(content));
+    channel.close();
+    int length = capturedLength.getValue();
+    assertTrue(length < content.length / 10);
+    try (GZIPInputStream input = new GZIPInputStream(
+        new ByteArrayInputStream(capturedBuffer.getValue(), 0, length))) {
+      assertArrayEquals(content, ByteStreams.toByteArray(input));
+    }
+  }
+
+  @Test
+  public void testWriterWithGzipAndHashMatch() {
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    thrown.expect(IllegalArgumentException.class);
+    storage.writer(BLOB_INFO1, Storage.BlobWriteOption.gzip(),
+        Storage.BlobWriteOption.md5Match());
+  }
+
   @Test
   public void testSignUrl() throws NoSuchAlgorithmException, InvalidKeyException,
       SignatureException, UnsupportedEncodingException {
@@ -1144,6 +1599,76 @@ public class StorageImplTest {
         URLDecoder.decode(signature, UTF_8.name()))));
   }
 
+  @Test
+  public void testSignUrls() throws NoSuchAlgorithmException, InvalidKeyException,
+      SignatureException, UnsupportedEncodingException {
+    EasyMock.replay(storageRpcMock);
+    ServiceAccountAuthCredentials authCredentials =
+        ServiceAccountAuthCredentials.createFor(ACCOUNT, privateKey);
+    storage = options.toBuilder().authCredentials(authCredentials).build().service();
+    List<BlobInfo> blobInfos = new ArrayList<>();
+    for (int i = 0; i < 600; i++) {
+      blobInfos.add(BlobInfo.builder(BUCKET_NAME1, "n" + i).contentType("text/plain").build());
+    }
+    List<URL> urls = storage.signUrls(blobInfos, 14, TimeUnit.DAYS,
+        Storage.SignUrlOption.withContentType(), Storage.SignUrlOption.parallelism(4));
+    assertEquals(blobInfos.size(), urls.size());
+    Signature signer = Signature.getInstance("SHA256withRSA");
+    signer.initVerify(publicKey);
+    for (int i = 0; i < blobInfos.size(); i++) {
+      String stringUrl = urls.get(i).toString();
+      String expectedUrl = new StringBuilder("https://storage.googleapis.com/")
+          .append(BUCKET_NAME1).append("/n").append(i).append("?GoogleAccessId=").append(ACCOUNT)
+          .append("&Expires=").append(42L + 1209600).append("&Signature=").toString();
+      assertTrue(stringUrl.startsWith(expectedUrl));
+      String signature = stringUrl.substring(expectedUrl.length());
+      String signedMessage = new StringBuilder().append(HttpMethod.GET).append("\n\ntext/plain\n")
+          .append(42L + 1209600).append("\n/").append(BUCKET_NAME1).append("/n").append(i)
+          .toString();
+      signer.update(signedMessage.getBytes(UTF_8));
+      assertTrue(signer.verify(BaseEncoding.base64().decode(
+          URLDecoder.decode(signature, UTF_8.name()))));
+    }
+    assertEquals(storage.signUrl(blobInfos.get(42), 14, TimeUnit.DAYS,
+        Storage.SignUrlOption.withContentType()), urls.get(42));
+  }
+
+  @Test
+  public void testSignUrlsWithSigner() {
+    EasyMock.replay(storageRpcMock);
+    initializeService();
+    final AtomicInteger signatures = new AtomicInteger();
+    ServiceAccountSigner signer = new ServiceAccountSigner() {
+      @Override
+      public String account() {
+        return ACCOUNT;
+      }
+
+      @Override
+      public byte[] sign(byte[] toSign) {
+        return new byte[] {(byte) signatures.incrementAndGet()};
+      }
+    };
+    List<URL> urls = storage.signUrls(ImmutableList.of(BLOB_INFO1, BLOB_INFO2), 14,
+        TimeUnit.DAYS, Storage.SignUrlOption.signWith(signer));
+    assertEquals(2, signatures.get());
+    assertTrue(urls.get(0).toString().endsWith("/" + BLOB_NAME1 + "?GoogleAccessId=" + ACCOUNT
+        + "&Expires=" + (42L + 1209600) + "&Signature=AQ%3D%3D"));
+    assertTrue(urls.get(1).toString().endsWith("&Signature=Ag%3D%3D"));
+  }
+
+  @Test
+  public void testSignUrlsMissingMd5() {
+    EasyMock.replay(storageRpcMock);
+    ServiceAccountAuthCredentials authCredentials =
+        ServiceAccountAuthCredentials.createFor(ACCOUNT, privateKey);
+    storage = options.toBuilder().authCredentials(authCredentials).build().service();
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Blob is missing a value for md5");
+    storage.signUrls(ImmutableList.of(BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).build()), 1,
+        TimeUnit.DAYS, Storage.SignUrlOption.withMd5());
+  }
+
   @Test
   public void testGetAllArray() {
     BlobId blobId1 = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
@@ -1192,6 +1717,30 @@ public class StorageImplTest {
     EasyMock.verify(batchMock);
   }
 
+  @Test
+  public void testGetAllCallbacksOutOfOrder() {
+    BlobId blobId1 = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
+    BlobId blobId2 = BlobId.of(BUCKET_NAME1, BLOB_NAME2);
+    RpcBatch batchMock = EasyMock.createMock(RpcBatch.class);
+    Capture<RpcBatch.Callback<StorageObject>> callback1 = Capture.newInstance();
+    Capture<RpcBatch.Callback<StorageObject>> callback2 = Capture.newInstance();
+    batchMock.addGet(EasyMock.eq(blobId1.toPb()), EasyMock.capture(callback1),
+        EasyMock.eq(ImmutableMap.<StorageRpc.Option, Object>of()));
+    batchMock.addGet(EasyMock.eq(blobId2.toPb()), EasyMock.capture(callback2),
+        EasyMock.eq(ImmutableMap.<StorageRpc.Option, Object>of()));
+    EasyMock.expect(storageRpcMock.createBatch()).andReturn(batchMock);
+    batchMock.submit();
+    EasyMock.replay(storageRpcMock, batchMock);
+    initializeService();
+    List<Blob> resultBlobs = storage.get(blobId1, blobId2);
+    callback2.getValue().onFailure(new GoogleJsonError());
+    callback1.getValue().onSuccess(BLOB_INFO1.toPb());
+    assertEquals(2, resultBlobs.size());
+    assertEquals(new Blob(storage, new BlobInfo.BuilderImpl(BLOB_INFO1)), resultBlobs.get(0));
+    assertNull(resultBlobs.get(1));
+    EasyMock.verify(batchMock);
+  }
+
   @Test
   public void testDeleteAllArray() {
     BlobId blobId1 = BlobId.of(BUCKET_NAME1, BLOB_NAME1);
@@ -1323,4 +1872,12 @@ public class StorageImplTest {
     thrown.expectMessage(exceptionMessage);
     storage.get(blob);
   }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(content);
+    }
+    return output.toByteArray();
+  }
 }
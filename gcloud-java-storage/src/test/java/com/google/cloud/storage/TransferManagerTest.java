@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.PageImpl;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class TransferManagerTest {
+
+  private static final String BUCKET = "bucket";
+  private static final String PREFIX = "prefix/";
+  private static final byte[] CONTENT = "content".getBytes(UTF_8);
+  private static final String CONTENT_CRC32C = BaseEncoding.base64().encode(
+      Ints.toByteArray(Hashing.crc32c().hashBytes(CONTENT).asInt()));
+  private static final long MTIME_SECONDS = 1234567890L;
+  private static final BlobListOption[] LIST_OPTIONS = {BlobListOption.prefix(PREFIX),
+      BlobListOption.fields(BlobField.SIZE, BlobField.CRC32C, BlobField.METADATA,
+          BlobField.UPDATED, BlobField.GENERATION)};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Storage storage;
+  // the storage of listed blobs, whose calls are not verified
+  private Storage blobStorage;
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    storage = createMock(Storage.class);
+    blobStorage = createNiceMock(Storage.class);
+    replay(blobStorage);
+    root = folder.newFolder().toPath();
+  }
+
+  @After
+  public void tearDown() {
+    verify(storage);
+  }
+
+  private Path writeFile(String name) throws IOException {
+    Path file = root.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, CONTENT);
+    Files.setLastModifiedTime(file, FileTime.from(MTIME_SECONDS, TimeUnit.SECONDS));
+    return file;
+  }
+
+  private Blob remoteBlob(String name, String crc32c, Long mtime) {
+    BlobInfo.Builder builder = BlobInfo.builder(BUCKET, name, 42L)
+        .size((long) CONTENT.length)
+        .crc32c(crc32c);
+    if (mtime != null) {
+      builder.metadata(ImmutableMap.of(TransferManager.MTIME_METADATA_KEY, mtime.toString()));
+    }
+    return new Blob(blobStorage, new BlobInfo.BuilderImpl(builder.build()));
+  }
+
+  @Test
+  public void testIsUpToDate() throws IOException {
+    replay(storage);
+    Path file = writeFile("file");
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    assertFalse(TransferManager.isUpToDate(file, attrs, null));
+    assertTrue(TransferManager.isUpToDate(file, attrs, remoteBlob("n", null, MTIME_SECONDS)));
+    assertTrue(TransferManager.isUpToDate(file, attrs, remoteBlob("n", CONTENT_CRC32C, 1L)));
+    assertFalse(TransferManager.isUpToDate(file, attrs, remoteBlob("n", "AAAAAA==", 1L)));
+    BlobInfo differentSize = BlobInfo.builder(BUCKET, "n").size(1L).build();
+    assertFalse(TransferManager.isUpToDate(file, attrs, differentSize));
+  }
+
+  @Test
+  public void testCrc32c() throws IOException {
+    replay(storage);
+    assertEquals(CONTENT_CRC32C, TransferManager.crc32c(writeFile("file")));
+  }
+
+  @Test
+  public void testUpload() throws Exception {
+    writeFile("a/changed");
+    writeFile("unchanged");
+    expect(storage.list(BUCKET, LIST_OPTIONS)).andReturn(new PageImpl<>(null, null,
+        ImmutableList.of(remoteBlob(PREFIX + "unchanged", null, MTIME_SECONDS))));
+    BlobInfo expectedInfo = BlobInfo.builder(BUCKET, PREFIX + "a/changed")
+        .metadata(ImmutableMap.of(TransferManager.MTIME_METADATA_KEY,
+            Long.toString(MTIME_SECONDS)))
+        .build();
+    expect(storage.create(eq(expectedInfo), aryEq(CONTENT))).andReturn(null);
+    replay(storage);
+    TransferManager.SyncResult result =
+        TransferManager.builder(storage).workerCount(2).build().upload(root, BUCKET, "prefix");
+    assertEquals(1, result.filesTransferred());
+    assertEquals(1, result.filesSkipped());
+    assertEquals(0, result.filesDeleted());
+    assertEquals(CONTENT.length, result.bytesTransferred());
+    assertTrue(result.failures().isEmpty());
+  }
+
+  @Test
+  public void testFailedUploadClosesWriter() throws Exception {
+    writeFile("file");
+    expect(storage.list(BUCKET, LIST_OPTIONS))
+        .andReturn(new PageImpl<>(null, null, ImmutableList.<Blob>of()));
+    BlobInfo expectedInfo = BlobInfo.builder(BUCKET, PREFIX + "file")
+        .metadata(ImmutableMap.of(TransferManager.MTIME_METADATA_KEY,
+            Long.toString(MTIME_SECONDS)))
+        .crc32c(CONTENT_CRC32C)
+        .build();
+    WriteChannel writer = createMock(WriteChannel.class);
+    expect(storage.writer(expectedInfo, BlobWriteOption.crc32cMatch())).andReturn(writer);
+    writer.chunkSize(4);
+    expect(writer.capture()).andReturn(null);
+    expect(writer.write(anyObject(ByteBuffer.class)))
+        .andThrow(new StorageException(403, "Forbidden"));
+    expect(writer.isOpen()).andReturn(true);
+    writer.close();
+    replay(storage, writer);
+    TransferManager.SyncResult result =
+        TransferManager.builder(storage).chunkSize(4).build().upload(root, BUCKET, "prefix");
+    assertEquals(0, result.filesTransferred());
+    assertEquals(1, result.failures().size());
+    verify(writer);
+  }
+
+  @Test
+  public void testDownload() throws Exception {
+    writeFile("unchanged");
+    Blob unchanged = remoteBlob(PREFIX + "unchanged", null, MTIME_SECONDS);
+    Blob missing = remoteBlob(PREFIX + "a/missing", null, MTIME_SECONDS);
+    expect(storage.list(BUCKET, LIST_OPTIONS))
+        .andReturn(new PageImpl<>(null, null, ImmutableList.of(unchanged, missing)));
+    expect(storage.reader(BlobId.of(BUCKET, PREFIX + "a/missing", 42L)))
+        .andReturn(new ContentReadChannel());
+    replay(storage);
+    TransferManager.SyncResult result =
+        TransferManager.builder(storage).build().download(BUCKET, PREFIX, root);
+    assertEquals(1, result.filesTransferred());
+    assertEquals(1, result.filesSkipped());
+    assertEquals(CONTENT.length, result.bytesTransferred());
+    Path downloaded = root.resolve("a/missing");
+    assertArrayEquals(CONTENT, Files.readAllBytes(downloaded));
+    assertEquals(MTIME_SECONDS,
+        Files.getLastModifiedTime(downloaded).to(TimeUnit.SECONDS));
+  }
+
+  private static class ContentReadChannel implements ReadChannel {
+
+    private boolean read;
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void seek(int position) {}
+
+    @Override
+    public void chunkSize(int chunkSize) {}
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (read) {
+        return -1;
+      }
+      read = true;
+      dst.put(CONTENT);
+      return CONTENT.length;
+    }
+
+    @Override
+    public RestorableState<ReadChannel> capture() {
+      return null;
+    }
+  }
+}
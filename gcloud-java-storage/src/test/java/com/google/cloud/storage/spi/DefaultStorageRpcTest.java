@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.RetryParams;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.storage.StorageOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DefaultStorageRpcTest {
+
+  private static final String BUCKET = "bucket";
+  private static final Pattern REQUEST_LINE =
+      Pattern.compile("^DELETE \\S+/o/([^?\\s]+)", Pattern.MULTILINE);
+  private static final String BOUNDARY = "batch_boundary";
+
+  private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+  private final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+  private final AtomicInteger executing = new AtomicInteger();
+  private final AtomicInteger maxExecuting = new AtomicInteger();
+  private final AtomicInteger inCallback = new AtomicInteger();
+  private volatile boolean concurrentCallbacks;
+  // the names of the objects whose first delete fails with the given status code
+  private Map<String, Integer> failures = ImmutableMap.of();
+
+  private final HttpTransport transport = new MockHttpTransport() {
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          int current = executing.incrementAndGet();
+          try {
+            synchronized (maxExecuting) {
+              maxExecuting.set(Math.max(maxExecuting.get(), current));
+            }
+            Thread.sleep(50);
+            return batchResponse(getContentAsString());
+          } catch (InterruptedException ex) {
+            throw new IOException(ex);
+          } finally {
+            executing.decrementAndGet();
+          }
+        }
+      };
+    }
+  };
+
+  private DefaultStorageRpc rpc;
+
+  @Before
+  public void setUp() {
+    StorageOptions options = StorageOptions.builder()
+        .projectId("project")
+        .authCredentials(AuthCredentials.noAuth())
+        .httpTransportFactory(new ServiceOptions.HttpTransportFactory() {
+          @Override
+          public HttpTransport create() {
+            return transport;
+          }
+        })
+        .retryParams(RetryParams.builder()
+            .retryMaxAttempts(3)
+            .initialRetryDelayMillis(1)
+            .maxRetryDelayMillis(10)
+            .build())
+        .batchParallelism(3)
+        .build();
+    rpc = new DefaultStorageRpc(options);
+  }
+
+  private LowLevelHttpResponse batchResponse(String request) {
+    Matcher matcher = REQUEST_LINE.matcher(request);
+    StringBuilder content = new StringBuilder();
+    int size = 0;
+    while (matcher.find()) {
+      size++;
+      String name = matcher.group(1);
+      attempts.putIfAbsent(name, new AtomicInteger());
+      int attempt = attempts.get(name).incrementAndGet();
+      content.append("--").append(BOUNDARY).append("\r\n")
+          .append("Content-Type: application/http\r\n\r\n");
+      Integer failure = failures.get(name);
+      if (failure != null && attempt == 1) {
+        String error = "{\"error\":{\"code\":" + failure + ",\"message\":\"failure\"}}";
+        content.append("HTTP/1.1 ").append(failure).append(" Failure\r\n")
+            .append("Content-Type: application/json; charset=UTF-8\r\n")
+            .append("Content-Length: ").append(error.length()).append("\r\n\r\n")
+            .append(error).append("\r\n");
+      } else {
+        content.append("HTTP/1.1 204 No Content\r\nContent-Length: 0\r\n\r\n");
+      }
+    }
+    content.append("--").append(BOUNDARY).append("--\r\n");
+    batchSizes.add(size);
+    return new MockLowLevelHttpResponse()
+        .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+        .setContent(content.toString());
+  }
+
+  private class DeleteCallback implements RpcBatch.Callback<Void> {
+
+    private volatile boolean succeeded;
+    private volatile GoogleJsonError error;
+
+    private void enter() {
+      if (inCallback.incrementAndGet() > 1) {
+        concurrentCallbacks = true;
+      }
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      inCallback.decrementAndGet();
+    }
+
+    @Override
+    public void onSuccess(Void response) {
+      enter();
+      succeeded = true;
+    }
+
+    @Override
+    public void onFailure(GoogleJsonError googleJsonError) {
+      enter();
+      error = googleJsonError;
+    }
+  }
+
+  private List<DeleteCallback> addDeletes(RpcBatch batch, int count) {
+    List<DeleteCallback> callbacks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      DeleteCallback callback = new DeleteCallback();
+      batch.addDelete(new StorageObject().setBucket(BUCKET).setName("n" + i), callback,
+          ImmutableMap.<StorageRpc.Option, Object>of());
+      callbacks.add(callback);
+    }
+    return callbacks;
+  }
+
+  @Test
+  public void testSubmitSplitsAndParallelizesBatches() {
+    RpcBatch batch = rpc.createBatch();
+    List<DeleteCallback> callbacks = addDeletes(batch, 450);
+    batch.submit();
+    for (DeleteCallback callback : callbacks) {
+      assertTrue(callback.succeeded);
+    }
+    List<Integer> sizes = new ArrayList<>(batchSizes);
+    Collections.sort(sizes);
+    assertEquals(ImmutableList.of(50, 100, 100, 100, 100), sizes);
+    assertTrue(maxExecuting.get() > 1);
+    assertTrue(maxExecuting.get() <= 3);
+    assertFalse(concurrentCallbacks);
+  }
+
+  @Test
+  public void testSubmitRetriesRetryableFailures() {
+    failures = ImmutableMap.of("n1", 503, "n2", 404);
+    RpcBatch batch = rpc.createBatch();
+    List<DeleteCallback> callbacks = addDeletes(batch, 3);
+    batch.submit();
+    assertTrue(callbacks.get(0).succeeded);
+    assertTrue(callbacks.get(1).succeeded);
+    assertNull(callbacks.get(1).error);
+    assertEquals(404, callbacks.get(2).error.getCode());
+    assertEquals(2, attempts.get("n1").get());
+    assertEquals(1, attempts.get("n2").get());
+    assertEquals(ImmutableList.of(3, 1), batchSizes);
+  }
+
+  @Test
+  public void testSubmitClearsRequests() {
+    RpcBatch batch = rpc.createBatch();
+    addDeletes(batch, 2);
+    batch.submit();
+    batch.submit();
+    assertEquals(ImmutableList.of(2), batchSizes);
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.storage.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RetryParams;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.ComposeRequest;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageBatchResult;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LocalStorageHelperTest {
+
+  private static final String BUCKET = "bucket";
+  private static final byte[] CONTENT = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+  private LocalStorageHelper helper;
+  private Storage storage;
+
+  @Before
+  public void setUp() {
+    helper = LocalStorageHelper.create();
+    storage = service(helper.options());
+    storage.create(BucketInfo.of(BUCKET));
+  }
+
+  private static Storage service(StorageOptions options) {
+    return options.toBuilder().retryParams(RetryParams.noRetries()).build().service();
+  }
+
+  private static byte[] randomContent(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+
+  private static byte[] read(ReadChannel reader, int bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes);
+    while (buffer.hasRemaining() && reader.read(buffer) >= 0) {
+      // keep reading
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  private static List<String> names(Iterator<Blob> blobs) {
+    List<String> names = new ArrayList<>();
+    while (blobs.hasNext()) {
+      names.add(blobs.next().name());
+    }
+    return names;
+  }
+
+  @Test
+  public void testCreateGetAndDelete() {
+    Blob blob = storage.create(BlobInfo.builder(BUCKET, "blob").contentType("text/plain").build(),
+        CONTENT);
+    assertEquals(CONTENT.length, blob.size().longValue());
+    assertNotNull(blob.generation());
+    assertNotNull(blob.crc32c());
+    assertEquals("text/plain", storage.get(BUCKET, "blob").contentType());
+    assertArrayEquals(CONTENT, storage.readAllBytes(BUCKET, "blob"));
+    assertTrue(storage.delete(BUCKET, "blob"));
+    assertNull(storage.get(BUCKET, "blob"));
+    assertFalse(storage.delete(BUCKET, "blob"));
+  }
+
+  @Test
+  public void testPreconditions() {
+    BlobInfo blobInfo = BlobInfo.builder(BUCKET, "blob").build();
+    storage.create(blobInfo, CONTENT, BlobTargetOption.doesNotExist());
+    try {
+      storage.create(blobInfo, CONTENT, BlobTargetOption.doesNotExist());
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertEquals(412, ex.code());
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    Blob blob = storage.create(BlobInfo.builder(BUCKET, "blob")
+        .metadata(ImmutableMap.of("k1", "v1", "k2", "v2"))
+        .build(), CONTENT);
+    Blob updated = storage.update(blob.toBuilder()
+        .contentType("text/plain")
+        .metadata(ImmutableMap.of("k1", "v3"))
+        .build());
+    assertEquals("text/plain", updated.contentType());
+    assertEquals(ImmutableMap.of("k1", "v3", "k2", "v2"), updated.metadata());
+    assertEquals(blob.generation(), updated.generation());
+    assertEquals(blob.metageneration() + 1, updated.metageneration().longValue());
+  }
+
+  @Test
+  public void testRangedReads() throws IOException {
+    byte[] content = randomContent(1000);
+    storage.create(BlobInfo.builder(BUCKET, "blob").build(), content);
+    try (ReadChannel reader = storage.reader(BUCKET, "blob")) {
+      reader.chunkSize(64);
+      reader.seek(100);
+      assertArrayEquals(Arrays.copyOfRange(content, 100, 1000), read(reader, 2000));
+    }
+  }
+
+  @Test
+  public void testResumableUpload() throws IOException {
+    byte[] content = randomContent(600 * 1024);
+    try (WriteChannel writer = storage.writer(BlobInfo.builder(BUCKET, "blob").build())) {
+      writer.chunkSize(256 * 1024);
+      writer.write(ByteBuffer.wrap(content));
+    }
+    assertArrayEquals(content, storage.readAllBytes(BUCKET, "blob"));
+  }
+
+  @Test
+  public void testCompose() {
+    storage.create(BlobInfo.builder(BUCKET, "a").build(), CONTENT);
+    storage.create(BlobInfo.builder(BUCKET, "b").build(), CONTENT);
+    Blob composed = storage.compose(
+        ComposeRequest.of(BUCKET, ImmutableList.of("a", "b"), "composed"));
+    assertEquals(2 * CONTENT.length, composed.size().longValue());
+    byte[] expected = Arrays.copyOf(CONTENT, 2 * CONTENT.length);
+    System.arraycopy(CONTENT, 0, expected, CONTENT.length, CONTENT.length);
+    assertArrayEquals(expected, storage.readAllBytes(BUCKET, "composed"));
+  }
+
+  @Test
+  public void testRewriteInChunks() {
+    byte[] content = randomContent(3 * 1024 * 1024 + 1);
+    storage.create(BlobInfo.builder(BUCKET, "source").contentType("text/plain").build(), content);
+    CopyWriter copyWriter = storage.copy(CopyRequest.builder()
+        .source(BUCKET, "source")
+        .target(BlobId.of(BUCKET, "target"))
+        .megabytesCopiedPerChunk(1L)
+        .build());
+    int chunks = 1;
+    while (!copyWriter.isDone()) {
+      copyWriter.copyChunk();
+      chunks++;
+    }
+    assertEquals(4, chunks);
+    assertEquals(content.length, copyWriter.totalBytesCopied());
+    assertEquals("text/plain", copyWriter.result().contentType());
+    assertArrayEquals(content, storage.readAllBytes(BUCKET, "target"));
+  }
+
+  @Test
+  public void testListWithDelimiterAndPaging() {
+    for (String name : ImmutableList.of("a/1", "a/2", "b", "c/1", "d")) {
+      storage.create(BlobInfo.builder(BUCKET, name).build(), CONTENT);
+    }
+    assertEquals(ImmutableList.of("a/", "b", "c/", "d"), names(storage.list(BUCKET,
+        BlobListOption.currentDirectory(), BlobListOption.pageSize(1)).iterateAll()));
+    assertEquals(ImmutableList.of("a/1", "a/2"), names(storage.list(BUCKET,
+        BlobListOption.prefix("a/"), BlobListOption.pageSize(1)).iterateAll()));
+  }
+
+  @Test
+  public void testBatch() {
+    storage.create(BlobInfo.builder(BUCKET, "a").build(), CONTENT);
+    storage.create(BlobInfo.builder(BUCKET, "b").build(), CONTENT);
+    StorageBatch batch = storage.batch();
+    StorageBatchResult<Boolean> deleteResult = batch.delete(BUCKET, "a");
+    StorageBatchResult<Blob> getResult = batch.get(BUCKET, "b");
+    StorageBatchResult<Blob> missingResult = batch.get(BUCKET, "c");
+    batch.submit();
+    assertTrue(deleteResult.get());
+    assertEquals("b", getResult.get().name());
+    assertNull(missingResult.get());
+    assertNull(storage.get(BUCKET, "a"));
+  }
+
+  @Test
+  public void testFailureInjection() {
+    LocalStorageHelper failingHelper = LocalStorageHelper.builder()
+        .failureRate(1)
+        .failureCode(503)
+        .build();
+    try {
+      service(failingHelper.options()).create(BucketInfo.of(BUCKET));
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertEquals(503, ex.code());
+      assertTrue(ex.retryable());
+    }
+  }
+
+  @Test
+  public void testLatencyAndBandwidth() {
+    LocalStorageHelper slowHelper = LocalStorageHelper.builder()
+        .latency(50, TimeUnit.MILLISECONDS)
+        .bandwidth(10 * 1000)
+        .build();
+    Storage slowStorage = service(slowHelper.options());
+    slowStorage.create(BucketInfo.of(BUCKET));
+    slowStorage.create(BlobInfo.builder(BUCKET, "blob").build(), new byte[1000]);
+    long start = System.nanoTime();
+    slowStorage.readAllBytes(BUCKET, "blob");
+    // 50ms of latency and 100ms to transfer 1000 bytes at 10000 bytes per second
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+  }
+
+  @Test
+  public void testServerRewriteWithLessThanOneMegabytePerCall() throws IOException {
+    storage.create(BlobInfo.builder(BUCKET, "source").build(), CONTENT);
+    helper.start();
+    try {
+      URL url = new URL(helper.serverOptions().host() + "/storage/v1/b/" + BUCKET
+          + "/o/source/rewriteTo/b/" + BUCKET + "/o/target?maxBytesRewrittenPerCall=4");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setRequestMethod("POST");
+      assertEquals(200, connection.getResponseCode());
+      try (InputStream input = connection.getInputStream()) {
+        String response = new String(ByteStreams.toByteArray(input), UTF_8);
+        assertTrue(response, response.contains("\"done\":true"));
+      }
+    } finally {
+      helper.stop();
+    }
+    assertArrayEquals(CONTENT, storage.readAllBytes(BUCKET, "target"));
+  }
+
+  @Test
+  public void testServer() throws IOException {
+    helper.start();
+    try {
+      Storage serverStorage = service(helper.serverOptions());
+      byte[] content = randomContent(300 * 1024);
+      serverStorage.create(BlobInfo.builder(BUCKET, "dir/a").build(), CONTENT);
+      assertArrayEquals(CONTENT, storage.readAllBytes(BUCKET, "dir/a"));
+      try (WriteChannel writer = serverStorage.writer(BlobInfo.builder(BUCKET, "dir/b").build())) {
+        writer.chunkSize(256 * 1024);
+        writer.write(ByteBuffer.wrap(content));
+      }
+      try (ReadChannel reader = serverStorage.reader(BUCKET, "dir/b")) {
+        reader.chunkSize(100 * 1024);
+        assertArrayEquals(content, read(reader, content.length + 1));
+      }
+      serverStorage.compose(ComposeRequest.of(BUCKET, ImmutableList.of("dir/a", "dir/a"), "c"));
+      assertEquals(2 * CONTENT.length, serverStorage.get(BUCKET, "c").size().longValue());
+      CopyWriter copyWriter = serverStorage.copy(CopyRequest.of(BUCKET, "dir/b", "d"));
+      assertArrayEquals(content, serverStorage.readAllBytes(copyWriter.result().blobId()));
+      assertEquals(ImmutableList.of("c", "d", "dir/"), names(serverStorage.list(BUCKET,
+          BlobListOption.currentDirectory(), BlobListOption.pageSize(2)).iterateAll()));
+      StorageBatch batch = serverStorage.batch();
+      StorageBatchResult<Boolean> deleteResult = batch.delete(BUCKET, "c");
+      StorageBatchResult<Blob> missingResult = batch.get(BUCKET, "missing");
+      batch.submit();
+      assertTrue(deleteResult.get());
+      assertNull(missingResult.get());
+      assertNull(serverStorage.get(BUCKET, "c"));
+    } finally {
+      helper.stop();
+    }
+  }
+}